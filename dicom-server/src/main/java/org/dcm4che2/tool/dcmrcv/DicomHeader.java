@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * Copyright 2008(c) The OBiBa Consortium. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.dcm4che2.tool.dcmrcv;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+
+import org.dcm4che2.data.DicomObject;
+
+/**
+ * The header of a DICOM file as read by a {@link DicomHeaderReader}: the elements preceding the stop tag, along with
+ * the position and length of the values that were skipped. A skipped value can be read afterwards, directly from the
+ * file, as long as the file has not been rewritten.
+ */
+public class DicomHeader {
+
+  private final File file;
+
+  private final DicomObject dicomObject;
+
+  /**
+   * Offset in file and length of the skipped values, by tag.
+   */
+  private final Map<Integer, long[]> skippedValues;
+
+  DicomHeader(File file, DicomObject dicomObject, Map<Integer, long[]> skippedValues) {
+    this.file = file;
+    this.dicomObject = dicomObject;
+    this.skippedValues = skippedValues.isEmpty() ? Collections.<Integer, long[]> emptyMap() : skippedValues;
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * @return the elements that were read, skipped values excluded
+   */
+  public DicomObject getDicomObject() {
+    return dicomObject;
+  }
+
+  public boolean contains(int tag) {
+    return skippedValues.containsKey(tag) || dicomObject.contains(tag);
+  }
+
+  /**
+   * @param tag
+   * @return true if the element has a non empty value, read or skipped
+   */
+  public boolean containsValue(int tag) {
+    long[] value = skippedValues.get(tag);
+    if(value != null) return value[1] > 0;
+    return dicomObject.containsValue(tag);
+  }
+
+  public boolean isSkipped(int tag) {
+    return skippedValues.containsKey(tag);
+  }
+
+  /**
+   * @param tag
+   * @return the length of a skipped value (padding included), -1 if the value was not skipped
+   */
+  public long getSkippedLength(int tag) {
+    long[] value = skippedValues.get(tag);
+    return value == null ? -1 : value[1];
+  }
+
+  /**
+   * @param tag
+   * @return the offset of a skipped value in the file, -1 if the value was not skipped
+   */
+  public long getSkippedOffset(int tag) {
+    long[] value = skippedValues.get(tag);
+    return value == null ? -1 : value[0];
+  }
+
+  /**
+   * Open a stream on the raw bytes of a skipped value.
+   *
+   * @param tag
+   * @param length number of bytes to read, at most the skipped length (eg., to exclude the padding)
+   * @return
+   * @throws IOException
+   */
+  public InputStream openSkippedValue(int tag, long length) throws IOException {
+    long[] value = getSkippedValue(tag, length);
+    FileInputStream in = new FileInputStream(file);
+    try {
+      in.getChannel().position(value[0]);
+    } catch(IOException e) {
+      in.close();
+      throw e;
+    }
+    return new RangeInputStream(in, length);
+  }
+
+  private long[] getSkippedValue(int tag, long length) {
+    long[] value = skippedValues.get(tag);
+    if(value == null) {
+      throw new IllegalArgumentException("Value of tag " + Integer.toHexString(tag) + " was not skipped");
+    }
+    if(length < 0 || length > value[1]) {
+      throw new IllegalArgumentException("Invalid length " + length + " for value of tag " + Integer.toHexString(tag)
+          + " of length " + value[1]);
+    }
+    return value;
+  }
+
+  /**
+   * Reads at most a number of bytes from the underlying stream.
+   */
+  private static class RangeInputStream extends FilterInputStream {
+
+    private long remaining;
+
+    private RangeInputStream(InputStream in, long length) {
+      super(in);
+      this.remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if(remaining <= 0) return -1;
+      int b = super.read();
+      if(b >= 0) remaining--;
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if(remaining <= 0) return -1;
+      int n = super.read(b, off, (int) Math.min(len, remaining));
+      if(n > 0) remaining -= n;
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = super.skip(Math.min(n, remaining));
+      remaining -= skipped;
+      return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+      return (int) Math.min(super.available(), remaining);
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+  }
+
+}
@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright 2008(c) The OBiBa Consortium. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.dcm4che2.tool.dcmrcv;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Cache of DICOM headers (all elements preceding the stop tag of the header reader, the pixel data by default) keyed
+ * by file path. An entry is only valid for the modification time of the file at the time it was parsed: a file that
+ * has been rewritten is parsed again on the next access.
+ */
+public class DicomHeaderCache {
+
+  private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+  private final DicomHeaderReader reader;
+
+  public DicomHeaderCache() {
+    this(new DicomHeaderReader());
+  }
+
+  public DicomHeaderCache(DicomHeaderReader reader) {
+    this.reader = reader;
+  }
+
+  /**
+   * Get the header of a dicom file, parsing it only if it is not cached or if the file has been modified since.
+   *
+   * @param file
+   * @return
+   * @throws IOException
+   */
+  public DicomHeader get(File file) throws IOException {
+    String key = file.getAbsolutePath();
+    long lastModified = file.lastModified();
+    Entry entry = entries.get(key);
+    if(null == entry || entry.lastModified != lastModified) {
+      entry = new Entry(lastModified, reader.read(file));
+      entries.put(key, entry);
+    }
+    return entry.header;
+  }
+
+  /**
+   * Parse and cache the header of a dicom file.
+   *
+   * @param file
+   * @return
+   * @throws IOException
+   */
+  public DicomHeader load(File file) throws IOException {
+    Entry entry = new Entry(file.lastModified(), reader.read(file));
+    entries.put(file.getAbsolutePath(), entry);
+    return entry.header;
+  }
+
+  public void remove(File file) {
+    entries.remove(file.getAbsolutePath());
+  }
+
+  public void clear() {
+    entries.clear();
+  }
+
+  private static final class Entry {
+
+    private final long lastModified;
+
+    private final DicomHeader header;
+
+    private Entry(long lastModified, DicomHeader header) {
+      this.lastModified = lastModified;
+      this.header = header;
+    }
+  }
+
+}
@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright 2008(c) The OBiBa Consortium. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.dcm4che2.tool.dcmrcv;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.dcm4che2.data.Tag;
+import org.dcm4che2.io.DicomInputHandler;
+import org.dcm4che2.io.DicomInputStream;
+
+/**
+ * Reads the header of DICOM files: all the elements preceding a stop tag (the pixel data by default). The values of
+ * the skip tags, typically large private blobs, are not read: only their position in the file and their length are
+ * recorded, unless their length is undefined, so that they can be read later on demand.
+ */
+public class DicomHeaderReader {
+
+  private final int stopTag;
+
+  private final int[] skipTags;
+
+  /**
+   * Reader stopping before the pixel data, without skipping any value.
+   */
+  public DicomHeaderReader() {
+    this(Tag.PixelData);
+  }
+
+  /**
+   * @param stopTag reading stops at the first top level element with a tag greater or equal to this one
+   * @param skipTags top level tags whose values are not read
+   */
+  public DicomHeaderReader(int stopTag, int... skipTags) {
+    this.stopTag = stopTag;
+    this.skipTags = skipTags.clone();
+    Arrays.sort(this.skipTags);
+  }
+
+  public int getStopTag() {
+    return stopTag;
+  }
+
+  public DicomHeader read(File file) throws IOException {
+    DicomInputStream dis = new DicomInputStream(file);
+    try {
+      HeaderInputHandler handler = new HeaderInputHandler();
+      dis.setHandler(handler);
+      return new DicomHeader(file, dis.readDicomObject(), handler.skipped);
+    } finally {
+      try {
+        dis.close();
+      } catch(Exception e) {
+        // ignore
+      }
+    }
+  }
+
+  private boolean isSkipped(int tag) {
+    return Arrays.binarySearch(skipTags, tag) >= 0;
+  }
+
+  private class HeaderInputHandler implements DicomInputHandler {
+
+    private final Map<Integer, long[]> skipped = new HashMap<Integer, long[]>();
+
+    @Override
+    public boolean readValue(DicomInputStream in) throws IOException {
+      if(in.level() == 0) {
+        int tag = in.tag();
+        // tags are compared as unsigned values
+        if((tag & 0xffffffffL) >= (stopTag & 0xffffffffL)) return false;
+        int length = in.valueLength();
+        if(length != -1 && isSkipped(tag)) {
+          // the value starts at the current position, right after the element header
+          skipped.put(tag, new long[] { in.getStreamPosition(), length });
+          skip(in, length);
+          return true;
+        }
+      }
+      return in.readValue(in);
+    }
+
+    private void skip(DicomInputStream in, long length) throws IOException {
+      long remaining = length;
+      while(remaining > 0) {
+        long n = in.skip(remaining);
+        if(n <= 0) throw new EOFException();
+        remaining -= n;
+      }
+    }
+  }
+
+}
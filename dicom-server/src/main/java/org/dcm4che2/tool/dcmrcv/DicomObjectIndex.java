@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * Copyright 2008(c) The OBiBa Consortium. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.dcm4che2.tool.dcmrcv;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.dcm4che2.tool.dcmrcv.DicomServer.StoredDicomFile;
+
+/**
+ * Index of the DICOM objects received by a {@link DicomServer}, keyed by SOP instance UID and looked up by study,
+ * series, patient or modality without touching the storage directory. All lookups return objects in their order of
+ * arrival; an object that is received again replaces the previous one and moves to the end.
+ */
+public class DicomObjectIndex {
+
+  private final Map<String, StoredDicomFile> bySopInstance = new LinkedHashMap<String, StoredDicomFile>();
+
+  private final Map<String, Set<String>> byStudy = new HashMap<String, Set<String>>();
+
+  private final Map<String, Set<String>> bySeries = new HashMap<String, Set<String>>();
+
+  private final Map<String, Set<String>> byPatient = new HashMap<String, Set<String>>();
+
+  private final Map<String, Set<String>> byModality = new HashMap<String, Set<String>>();
+
+  public synchronized void add(StoredDicomFile storedFile) {
+    String iuid = storedFile.getSopInstanceUID();
+    remove(iuid);
+    bySopInstance.put(iuid, storedFile);
+    put(byStudy, storedFile.getStudyInstanceUID(), iuid);
+    put(bySeries, storedFile.getSeriesInstanceUID(), iuid);
+    put(byPatient, storedFile.getPatientId(), iuid);
+    put(byModality, storedFile.getModality(), iuid);
+  }
+
+  public synchronized StoredDicomFile remove(String sopInstanceUID) {
+    StoredDicomFile storedFile = bySopInstance.remove(sopInstanceUID);
+    if(storedFile != null) {
+      delete(byStudy, storedFile.getStudyInstanceUID(), sopInstanceUID);
+      delete(bySeries, storedFile.getSeriesInstanceUID(), sopInstanceUID);
+      delete(byPatient, storedFile.getPatientId(), sopInstanceUID);
+      delete(byModality, storedFile.getModality(), sopInstanceUID);
+    }
+    return storedFile;
+  }
+
+  public synchronized StoredDicomFile get(String sopInstanceUID) {
+    return bySopInstance.get(sopInstanceUID);
+  }
+
+  public synchronized int size() {
+    return bySopInstance.size();
+  }
+
+  public synchronized void clear() {
+    bySopInstance.clear();
+    byStudy.clear();
+    bySeries.clear();
+    byPatient.clear();
+    byModality.clear();
+  }
+
+  /**
+   * @return all objects, oldest to latest
+   */
+  public synchronized List<StoredDicomFile> list() {
+    return new ArrayList<StoredDicomFile>(bySopInstance.values());
+  }
+
+  /**
+   * @return the study instance UIDs, in order of arrival of their first object
+   */
+  public synchronized List<String> listStudyInstanceUIDs() {
+    Set<String> suids = new LinkedHashSet<String>();
+    for(StoredDicomFile storedFile : bySopInstance.values()) {
+      if(storedFile.getStudyInstanceUID() != null) suids.add(storedFile.getStudyInstanceUID());
+    }
+    return new ArrayList<String>(suids);
+  }
+
+  public synchronized List<StoredDicomFile> findByStudy(String studyInstanceUID) {
+    return find(byStudy, studyInstanceUID);
+  }
+
+  public synchronized List<StoredDicomFile> findBySeries(String seriesInstanceUID) {
+    return find(bySeries, seriesInstanceUID);
+  }
+
+  public synchronized List<StoredDicomFile> findByPatient(String patientId) {
+    return find(byPatient, patientId);
+  }
+
+  public synchronized List<StoredDicomFile> findByModality(String modality) {
+    return find(byModality, modality);
+  }
+
+  private List<StoredDicomFile> find(Map<String, Set<String>> map, String key) {
+    Set<String> iuids = key == null ? null : map.get(key);
+    if(iuids == null) return Collections.emptyList();
+    List<StoredDicomFile> storedFiles = new ArrayList<StoredDicomFile>(iuids.size());
+    for(String iuid : iuids) {
+      storedFiles.add(bySopInstance.get(iuid));
+    }
+    return storedFiles;
+  }
+
+  private static void put(Map<String, Set<String>> map, String key, String iuid) {
+    if(key == null) return;
+    Set<String> iuids = map.get(key);
+    if(iuids == null) {
+      iuids = new LinkedHashSet<String>();
+      map.put(key, iuids);
+    }
+    iuids.add(iuid);
+  }
+
+  private static void delete(Map<String, Set<String>> map, String key, String iuid) {
+    if(key == null) return;
+    Set<String> iuids = map.get(key);
+    if(iuids != null) {
+      iuids.remove(iuid);
+      if(iuids.isEmpty()) map.remove(key);
+    }
+  }
+
+}
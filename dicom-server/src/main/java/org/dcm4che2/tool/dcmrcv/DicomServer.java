@@ -0,0 +1,381 @@
+/*******************************************************************************
+ * Copyright 2008(c) The OBiBa Consortium. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.dcm4che2.tool.dcmrcv;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.dcm4che2.data.DicomObject;
+import org.dcm4che2.data.Tag;
+import org.dcm4che2.net.Association;
+import org.dcm4che2.net.PDVInputStream;
+import org.obiba.onyx.jade.instrument.dicom.DicomSettings;
+import org.obiba.onyx.jade.instrument.dicom.DicomStoragePredicate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * DICOM storage SCP shared by the instrument runners that receive their measures as DICOM objects.
+ * <p>
+ * Each association is served by its own thread, so that objects sent concurrently (or by several modalities) are
+ * written to storage and parsed in parallel. The received objects are indexed in memory (see {@link DicomObjectIndex}):
+ * listing or looking them up does not touch the storage directory. Storage listeners are notified one object at a
+ * time, from the association threads, of the objects accepted by the storage predicate (all objects if there is none).
+ */
+public class DicomServer {
+
+  private static final Logger log = LoggerFactory.getLogger(DicomServer.class);
+
+  public enum State {
+    STARTED, STOPPED
+  }
+
+  public interface StorageListener {
+    public void onStored(File file, DicomObject dicomObject);
+  }
+
+  public interface StateListener {
+    public void onStateChange(State newState);
+  }
+
+  public class StoredDicomFile {
+
+    private final File file;
+
+    private final String sopInstanceUID;
+
+    private final String sopClassUID;
+
+    private final String studyInstanceUID;
+
+    private final String seriesInstanceUID;
+
+    private final String patientId;
+
+    private final String modality;
+
+    public StoredDicomFile(File file) {
+      this(file, file.getName(), null, null);
+    }
+
+    /**
+     * @param file
+     * @param sopInstanceUID
+     * @param sopClassUID from the C-STORE request, used if the header has no SOP class (see
+     * {@link DicomServer#getSopClassUID(DicomObject)})
+     * @param header parsed header, null if it could not be read
+     */
+    StoredDicomFile(File file, String sopInstanceUID, String sopClassUID, DicomObject header) {
+      this.file = file;
+      this.sopInstanceUID = sopInstanceUID;
+      if(header != null) {
+        String cuid = DicomServer.getSopClassUID(header);
+        this.sopClassUID = cuid != null ? cuid : sopClassUID;
+        this.studyInstanceUID = header.getString(Tag.StudyInstanceUID);
+        this.seriesInstanceUID = header.getString(Tag.SeriesInstanceUID);
+        String pid = header.getString(Tag.PatientID);
+        this.patientId = pid == null ? null : pid.trim();
+        this.modality = header.getString(Tag.Modality);
+      } else {
+        this.sopClassUID = sopClassUID;
+        this.studyInstanceUID = null;
+        this.seriesInstanceUID = null;
+        this.patientId = null;
+        this.modality = null;
+      }
+    }
+
+    public File getFile() {
+      return file;
+    }
+
+    public String getSopInstanceUID() {
+      return sopInstanceUID;
+    }
+
+    public String getSopClassUID() {
+      return sopClassUID;
+    }
+
+    public String getStudyInstanceUID() {
+      return studyInstanceUID;
+    }
+
+    public String getSeriesInstanceUID() {
+      return seriesInstanceUID;
+    }
+
+    public String getPatientId() {
+      return patientId;
+    }
+
+    public String getModality() {
+      return modality;
+    }
+
+    /**
+     * Get the dicom header (pixel data and skipped values excluded) from the server's cache.
+     *
+     * @return
+     * @throws IOException
+     */
+    public DicomObject getDicomObject() throws IOException {
+      return headerCache.get(file).getDicomObject();
+    }
+
+    /**
+     * Get the dicom header from the server's cache, along with the lengths of the values that were skipped.
+     *
+     * @return
+     * @throws IOException
+     */
+    public DicomHeader getHeader() throws IOException {
+      return headerCache.get(file);
+    }
+  }
+
+  private final File storage;
+
+  private final DicomSettings settings;
+
+  private final List<StorageListener> listeners = new CopyOnWriteArrayList<StorageListener>();
+
+  private final List<StateListener> stateListeners = new CopyOnWriteArrayList<StateListener>();
+
+  private final Set<File> dirtyFileCache = Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+
+  private final DicomHeaderCache headerCache;
+
+  private final DicomObjectIndex index = new DicomObjectIndex();
+
+  private final Object dispatchLock = new Object();
+
+  private volatile DicomStoragePredicate storagePredicate;
+
+  private volatile State state;
+
+  private DcmRcv dcmRcv;
+
+  public DicomServer(File storage, DicomSettings settings) {
+    this(storage, settings, new DicomHeaderReader());
+  }
+
+  /**
+   * @param storage
+   * @param settings
+   * @param headerReader how the headers of the received objects are read
+   */
+  public DicomServer(File storage, DicomSettings settings, DicomHeaderReader headerReader) {
+    this.storage = storage;
+    this.settings = settings;
+    this.headerCache = new DicomHeaderCache(headerReader);
+  }
+
+  public void addStorageListener(StorageListener listener) {
+    if(listener != null) listeners.add(listener);
+  }
+
+  public void removeStorageListener(StorageListener listener) {
+    listeners.remove(listener);
+  }
+
+  public void addStateListener(StateListener listener) {
+    if(listener != null) stateListeners.add(listener);
+  }
+
+  /**
+   * Set the predicate that received objects must satisfy to be reported to the storage listeners.
+   *
+   * @param storagePredicate null to report all objects
+   */
+  public void setStoragePredicate(DicomStoragePredicate storagePredicate) {
+    this.storagePredicate = storagePredicate;
+  }
+
+  /**
+   * Get the SOP class of a received object: the media storage SOP class of its file meta information, or the SOP class
+   * of its data set if it has none. Storage predicates and listeners should use it, so that they classify objects as
+   * listed by {@link #listDicomFiles()}.
+   *
+   * @param dcm
+   * @return null if the object has no SOP class
+   */
+  public static String getSopClassUID(DicomObject dcm) {
+    return dcm.getString(Tag.MediaStorageSOPClassUID, dcm.getString(Tag.SOPClassUID));
+  }
+
+  /**
+   * Start receiving. The index is first rebuilt from the storage directory: the files received before a stop are
+   * listed again, those deleted while stopped are not.
+   *
+   * @throws IOException
+   */
+  public synchronized void start() throws IOException {
+    indexStorage();
+    DcmRcv dcm = new DcmRcv() {
+      @Override
+      void onCStoreRQ(Association as, int pcid, DicomObject rq, PDVInputStream dataStream, String tsuid, DicomObject rsp) throws IOException {
+        super.onCStoreRQ(as, pcid, rq, dataStream, tsuid, rsp);
+        String iuid = rq.getString(Tag.AffectedSOPInstanceUID);
+        File file = new File(storage, iuid);
+        if(file.exists()) {
+          onStored(iuid, rq.getString(Tag.AffectedSOPClassUID), file);
+        }
+      }
+
+    };
+    dcm.setAEtitle(settings.getAeTitle());
+    dcm.setHostname(settings.getHostname());
+    dcm.setPort(settings.getPort());
+    dcm.setDestination(storage.getAbsolutePath());
+    if(settings.getStgCmtPort() > 0) {
+      dcm.setStgCmtPort(settings.getStgCmtPort());
+    }
+    dcm.setMaxOpsPerformed(settings.getMaxOpsPerformed());
+    dcm.initTransferCapability();
+    dcm.start();
+
+    this.dcmRcv = dcm;
+    changeState(State.STARTED);
+  }
+
+  /**
+   * Stop receiving. The received files are still listed once stopped.
+   */
+  public synchronized void stop() {
+    if(dcmRcv != null) {
+      try {
+        dcmRcv.stop();
+      } finally {
+        changeState(State.STOPPED);
+        dcmRcv = null;
+        headerCache.clear();
+      }
+    }
+  }
+
+  public boolean isRunning() {
+    return state == State.STARTED;
+  }
+
+  public State getState() {
+    return state;
+  }
+
+  public DicomSettings getSettings() {
+    return settings;
+  }
+
+  /**
+   * Get the index of the received objects, updated on each C-STORE.
+   *
+   * @return
+   */
+  public DicomObjectIndex getIndex() {
+    return index;
+  }
+
+  /**
+   * Return the received dicom files, oldest to latest. An object that was sent again is listed at the time of its last
+   * reception.
+   *
+   * @return
+   */
+  public List<StoredDicomFile> listDicomFiles() {
+    List<StoredDicomFile> storedFiles = index.list();
+    if(!dirtyFileCache.isEmpty()) {
+      for(Iterator<StoredDicomFile> it = storedFiles.iterator(); it.hasNext();) {
+        if(dirtyFileCache.contains(it.next().getFile())) it.remove();
+      }
+    }
+    return storedFiles;
+  }
+
+  /**
+   * Cache dicom files to be excluded from the list
+   * returned by listDicomFiles.
+   *
+   * @param file
+   */
+  public void cacheDirtyFile(StoredDicomFile file) {
+    dirtyFileCache.add(file.getFile());
+  }
+
+  /**
+   * Index the files of the storage directory, oldest to latest. Files still being received (".part") are skipped.
+   */
+  void indexStorage() {
+    index.clear();
+    File[] files = storage.listFiles();
+    if(files != null) {
+      Arrays.sort(files, new Comparator<File>() {
+        @Override
+        public int compare(File f1, File f2) {
+          return Long.compare(f1.lastModified(), f2.lastModified());
+        }
+      });
+      for(File file : files) {
+        if(file.isFile() == false || file.getName().endsWith(".part")) continue;
+        try {
+          index.add(new StoredDicomFile(file, file.getName(), null, headerCache.load(file).getDicomObject()));
+        } catch(IOException e) {
+          log.warn("Cannot read header of stored DICOM file {}", file.getName(), e);
+        }
+      }
+    }
+    for(Iterator<File> it = dirtyFileCache.iterator(); it.hasNext();) {
+      if(it.next().exists() == false) it.remove();
+    }
+  }
+
+  private void changeState(State newState) {
+    this.state = newState;
+    for(StateListener l : this.stateListeners) {
+      l.onStateChange(newState);
+    }
+  }
+
+  /**
+   * Index a received object and notify the storage listeners if it satisfies the storage predicate.
+   *
+   * @param iuid SOP instance UID of the C-STORE request
+   * @param cuid SOP class UID of the C-STORE request
+   * @param file where the object was stored
+   */
+  void onStored(String iuid, String cuid, File file) {
+    DicomObject dcm;
+    try {
+      dcm = headerCache.load(file).getDicomObject();
+    } catch(IOException e) {
+      log.warn("Cannot read header of received DICOM file {}", file.getName(), e);
+      index.add(new StoredDicomFile(file, iuid, cuid, null));
+      return;
+    }
+    index.add(new StoredDicomFile(file, iuid, cuid, dcm));
+
+    // listeners and predicates are not required to be thread safe
+    synchronized(dispatchLock) {
+      DicomStoragePredicate predicate = storagePredicate;
+      if(predicate != null && !predicate.apply(dcm.getString(Tag.StudyInstanceUID), file, dcm)) return;
+      for(StorageListener l : this.listeners) {
+        l.onStored(file, dcm);
+      }
+    }
+  }
+
+}
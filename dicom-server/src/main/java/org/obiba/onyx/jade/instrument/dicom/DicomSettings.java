@@ -1,4 +1,4 @@
-package org.obiba.onyx.jade.instrument.holologic;
+package org.obiba.onyx.jade.instrument.dicom;
 
 public class DicomSettings {
 
@@ -10,6 +10,8 @@ public class DicomSettings {
 
   private int stgCmtPort;
 
+  private int maxOpsPerformed = 1;
+
   public String getAeTitle() {
     return aeTitle;
   }
@@ -34,6 +36,11 @@ public class DicomSettings {
     this.port = port;
   }
 
+  /**
+   * Port of the storage commitment SCU, 0 if storage commitment is not supported.
+   *
+   * @return
+   */
   public int getStgCmtPort() {
     return stgCmtPort;
   }
@@ -42,4 +49,17 @@ public class DicomSettings {
     this.stgCmtPort = stgCmtPort;
   }
 
+  /**
+   * Maximum number of C-STORE operations performed asynchronously within a single association, 0 for unlimited.
+   *
+   * @return
+   */
+  public int getMaxOpsPerformed() {
+    return maxOpsPerformed;
+  }
+
+  public void setMaxOpsPerformed(int maxOpsPerformed) {
+    this.maxOpsPerformed = maxOpsPerformed;
+  }
+
 }
@@ -0,0 +1,21 @@
+package org.obiba.onyx.jade.instrument.dicom;
+
+import java.io.File;
+
+import org.dcm4che2.data.DicomObject;
+
+/**
+ * Decides whether a received DICOM object applies to the current measurement. Objects that do not apply are kept in
+ * storage but are not reported to the storage listeners.
+ */
+public interface DicomStoragePredicate {
+
+  /**
+   * @param siuid study instance UID of the received object
+   * @param file where the object was stored
+   * @param dicomObject header of the object (pixel data excluded)
+   * @return
+   */
+  boolean apply(String siuid, File file, DicomObject dicomObject);
+
+}
@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * Copyright 2008(c) The OBiBa Consortium. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.dcm4che2.tool.dcmrcv;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.dcm4che2.data.DicomObject;
+import org.dcm4che2.data.Tag;
+import org.dcm4che2.data.VR;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DicomHeaderCacheTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private CountingReader reader;
+
+  private DicomHeaderCache cache;
+
+  private File file;
+
+  @Before
+  public void setUp() throws Exception {
+    reader = new CountingReader();
+    cache = new DicomHeaderCache(reader);
+    file = DicomTestFiles.write(folder.getRoot(), DicomTestFiles.newObject("1.2.3.4.1"));
+  }
+
+  @Test
+  public void testHeaderIsParsedOnce() throws Exception {
+    DicomHeader header = cache.get(file);
+
+    Assert.assertSame(header, cache.get(file));
+    Assert.assertEquals(1, reader.reads);
+  }
+
+  @Test
+  public void testModifiedFileIsParsedAgain() throws Exception {
+    Assert.assertEquals("1234567", cache.get(file).getDicomObject().getString(Tag.PatientID));
+
+    DicomObject dcm = DicomTestFiles.newObject("1.2.3.4.1");
+    dcm.putString(Tag.PatientID, VR.LO, "7654321");
+    Assert.assertEquals(file, DicomTestFiles.write(folder.getRoot(), dcm));
+    // the modification time may not have changed within the file system resolution
+    Assert.assertTrue(file.setLastModified(file.lastModified() + 2000));
+
+    Assert.assertEquals("7654321", cache.get(file).getDicomObject().getString(Tag.PatientID));
+    Assert.assertEquals(2, reader.reads);
+  }
+
+  @Test
+  public void testLoadReplacesEntry() throws Exception {
+    DicomHeader header = cache.get(file);
+    DicomHeader loaded = cache.load(file);
+
+    Assert.assertNotSame(header, loaded);
+    Assert.assertSame(loaded, cache.get(file));
+    Assert.assertEquals(2, reader.reads);
+  }
+
+  @Test
+  public void testRemove() throws Exception {
+    cache.get(file);
+    cache.remove(file);
+    cache.get(file);
+
+    Assert.assertEquals(2, reader.reads);
+  }
+
+  private static class CountingReader extends DicomHeaderReader {
+
+    private int reads;
+
+    @Override
+    public DicomHeader read(File file) throws IOException {
+      reads++;
+      return super.read(file);
+    }
+  }
+
+}
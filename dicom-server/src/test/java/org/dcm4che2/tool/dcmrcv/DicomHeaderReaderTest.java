@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright 2008(c) The OBiBa Consortium. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.dcm4che2.tool.dcmrcv;
+
+import static org.dcm4che2.tool.dcmrcv.DicomTestFiles.OTHER_PRIVATE_BLOB;
+import static org.dcm4che2.tool.dcmrcv.DicomTestFiles.PRIVATE_BLOB;
+
+import java.io.File;
+
+import org.dcm4che2.data.DicomObject;
+import org.dcm4che2.data.Tag;
+import org.dcm4che2.data.VR;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DicomHeaderReaderTest {
+
+  /** A private element following the pixel data. */
+  private static final int AFTER_PIXEL_DATA = 0x7FE10010;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File file;
+
+  @Before
+  public void setUp() throws Exception {
+    DicomObject dcm = DicomTestFiles.newObject("1.2.3.4.2");
+    dcm.putBytes(PRIVATE_BLOB, VR.OB, DicomTestFiles.payload(500));
+    dcm.putBytes(OTHER_PRIVATE_BLOB, VR.OB, DicomTestFiles.payload(300));
+    dcm.putString(Tag.SeriesInstanceUID, VR.UI, "1.2.3.4.5");
+    dcm.putBytes(Tag.PixelData, VR.OB, DicomTestFiles.payload(64));
+    dcm.putString(AFTER_PIXEL_DATA, VR.LO, "AFTER");
+    file = DicomTestFiles.write(folder.getRoot(), dcm);
+  }
+
+  @Test
+  public void testDefaultStopsAtPixelData() throws Exception {
+    DicomHeader header = new DicomHeaderReader().read(file);
+    DicomObject dcm = header.getDicomObject();
+    Assert.assertEquals(DicomTestFiles.STUDY_INSTANCE_UID, dcm.getString(Tag.StudyInstanceUID));
+    Assert.assertTrue(dcm.contains(PRIVATE_BLOB));
+    Assert.assertTrue(dcm.contains(OTHER_PRIVATE_BLOB));
+    Assert.assertFalse(header.isSkipped(PRIVATE_BLOB));
+    Assert.assertFalse(dcm.contains(Tag.PixelData));
+    Assert.assertFalse(dcm.contains(AFTER_PIXEL_DATA));
+  }
+
+  @Test
+  public void testSkippedTagsAreNotRead() throws Exception {
+    // skip tags in any order
+    DicomHeader header = new DicomHeaderReader(Tag.PixelData, OTHER_PRIVATE_BLOB, PRIVATE_BLOB).read(file);
+    DicomObject dcm = header.getDicomObject();
+    Assert.assertFalse(dcm.contains(PRIVATE_BLOB));
+    Assert.assertFalse(dcm.contains(OTHER_PRIVATE_BLOB));
+    Assert.assertEquals(500, header.getSkippedLength(PRIVATE_BLOB));
+    Assert.assertEquals(300, header.getSkippedLength(OTHER_PRIVATE_BLOB));
+
+    // the elements following the skipped values are read as usual
+    Assert.assertEquals(DicomTestFiles.STUDY_INSTANCE_UID, dcm.getString(Tag.StudyInstanceUID));
+    Assert.assertEquals("1.2.3.4.5", dcm.getString(Tag.SeriesInstanceUID));
+    Assert.assertFalse(dcm.contains(Tag.PixelData));
+  }
+
+  @Test
+  public void testStopTag() throws Exception {
+    DicomHeader header = new DicomHeaderReader(Tag.StudyInstanceUID, PRIVATE_BLOB).read(file);
+    DicomObject dcm = header.getDicomObject();
+    Assert.assertEquals("1234567", dcm.getString(Tag.PatientID));
+    Assert.assertTrue(header.isSkipped(PRIVATE_BLOB));
+
+    // nothing is read from the stop tag on
+    Assert.assertFalse(dcm.contains(Tag.StudyInstanceUID));
+    Assert.assertFalse(dcm.contains(Tag.SeriesInstanceUID));
+    Assert.assertFalse(dcm.contains(Tag.PixelData));
+    Assert.assertFalse(dcm.contains(AFTER_PIXEL_DATA));
+  }
+
+  @Test
+  public void testSkipTagAfterStopTag() throws Exception {
+    DicomHeader header = new DicomHeaderReader(Tag.PixelData, AFTER_PIXEL_DATA).read(file);
+    Assert.assertFalse(header.isSkipped(AFTER_PIXEL_DATA));
+    Assert.assertFalse(header.contains(AFTER_PIXEL_DATA));
+  }
+
+}
@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * Copyright 2008(c) The OBiBa Consortium. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.dcm4che2.tool.dcmrcv;
+
+import static org.dcm4che2.tool.dcmrcv.DicomTestFiles.OTHER_PRIVATE_BLOB;
+import static org.dcm4che2.tool.dcmrcv.DicomTestFiles.PRIVATE_BLOB;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import org.dcm4che2.data.DicomObject;
+import org.dcm4che2.data.Tag;
+import org.dcm4che2.data.VR;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DicomHeaderTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private byte[] payload;
+
+  private DicomHeader header;
+
+  @Before
+  public void setUp() throws Exception {
+    payload = DicomTestFiles.payload(1000);
+    DicomObject dcm = DicomTestFiles.newObject("1.2.3.4.1");
+    dcm.putBytes(PRIVATE_BLOB, VR.OB, payload);
+    File file = DicomTestFiles.write(folder.getRoot(), dcm);
+    header = new DicomHeaderReader(Tag.PixelData, PRIVATE_BLOB).read(file);
+  }
+
+  @Test
+  public void testSkippedValue() {
+    Assert.assertTrue(header.isSkipped(PRIVATE_BLOB));
+    Assert.assertTrue(header.contains(PRIVATE_BLOB));
+    Assert.assertTrue(header.containsValue(PRIVATE_BLOB));
+    Assert.assertFalse(header.getDicomObject().contains(PRIVATE_BLOB));
+    Assert.assertEquals(payload.length, header.getSkippedLength(PRIVATE_BLOB));
+    Assert.assertTrue(header.getSkippedOffset(PRIVATE_BLOB) > 0);
+
+    Assert.assertFalse(header.isSkipped(Tag.PatientID));
+    Assert.assertEquals(-1, header.getSkippedLength(Tag.PatientID));
+    Assert.assertEquals(-1, header.getSkippedOffset(Tag.PatientID));
+  }
+
+  @Test
+  public void testOpenSkippedValue() throws Exception {
+    Assert.assertArrayEquals(payload, DicomTestFiles.readFully(header.openSkippedValue(PRIVATE_BLOB, payload.length)));
+  }
+
+  @Test
+  public void testOpenSkippedValuePrefix() throws Exception {
+    // eg. to exclude the padding
+    byte[] prefix = DicomTestFiles.readFully(header.openSkippedValue(PRIVATE_BLOB, payload.length - 1));
+    Assert.assertArrayEquals(Arrays.copyOf(payload, payload.length - 1), prefix);
+  }
+
+  @Test
+  public void testSkippedValueStreamStopsAtLength() throws Exception {
+    InputStream in = header.openSkippedValue(PRIVATE_BLOB, 10);
+    try {
+      Assert.assertEquals(10, in.available());
+      Assert.assertEquals(payload[0] & 0xff, in.read());
+      Assert.assertEquals(4, in.skip(4));
+      byte[] b = new byte[100];
+      Assert.assertEquals(5, in.read(b, 0, b.length));
+      Assert.assertArrayEquals(Arrays.copyOfRange(payload, 5, 10), Arrays.copyOf(b, 5));
+      // the following elements of the file are not read
+      Assert.assertEquals(0, in.available());
+      Assert.assertEquals(0, in.skip(1));
+      Assert.assertEquals(-1, in.read());
+      Assert.assertEquals(-1, in.read(b, 0, b.length));
+    } finally {
+      in.close();
+    }
+  }
+
+  @Test
+  public void testOpenEmptySkippedValue() throws Exception {
+    Assert.assertEquals(0, DicomTestFiles.readFully(header.openSkippedValue(PRIVATE_BLOB, 0)).length);
+  }
+
+  @Test
+  public void testSkippedValuesAreOpenedIndependently() throws Exception {
+    byte[] other = DicomTestFiles.payload(300);
+    DicomObject dcm = DicomTestFiles.newObject("1.2.3.4.2");
+    dcm.putBytes(PRIVATE_BLOB, VR.OB, payload);
+    dcm.putBytes(OTHER_PRIVATE_BLOB, VR.OB, other);
+    File file = DicomTestFiles.write(folder.getRoot(), dcm);
+    DicomHeader header = new DicomHeaderReader(Tag.PixelData, PRIVATE_BLOB, OTHER_PRIVATE_BLOB).read(file);
+
+    // in any order
+    Assert.assertArrayEquals(other, DicomTestFiles.readFully(header.openSkippedValue(OTHER_PRIVATE_BLOB, 300)));
+    Assert.assertArrayEquals(payload, DicomTestFiles.readFully(header.openSkippedValue(PRIVATE_BLOB, 1000)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testOpenSkippedValueNegativeLength() throws Exception {
+    header.openSkippedValue(PRIVATE_BLOB, -1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testOpenSkippedValueTooLong() throws Exception {
+    header.openSkippedValue(PRIVATE_BLOB, payload.length + 1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testOpenValueNotSkipped() throws Exception {
+    header.openSkippedValue(Tag.PatientID, 0);
+  }
+
+}
@@ -0,0 +1,177 @@
+/*******************************************************************************
+ * Copyright 2008(c) The OBiBa Consortium. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.dcm4che2.tool.dcmrcv;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.dcm4che2.data.BasicDicomObject;
+import org.dcm4che2.data.DicomObject;
+import org.dcm4che2.data.Tag;
+import org.dcm4che2.data.UID;
+import org.dcm4che2.data.VR;
+import org.dcm4che2.tool.dcmrcv.DicomServer.StorageListener;
+import org.dcm4che2.tool.dcmrcv.DicomServer.StoredDicomFile;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.obiba.onyx.jade.instrument.dicom.DicomSettings;
+import org.obiba.onyx.jade.instrument.dicom.DicomStoragePredicate;
+
+public class DicomServerTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testMediaStorageSopClassFirst() {
+    DicomObject dcm = DicomTestFiles.newObject("1.2.3.4.1");
+    dcm.putString(Tag.SOPClassUID, VR.UI, UID.UltrasoundImageStorage);
+    Assert.assertEquals(UID.SecondaryCaptureImageStorage, DicomServer.getSopClassUID(dcm));
+  }
+
+  @Test
+  public void testSopClassWithoutFileMetaInformation() {
+    DicomObject dcm = new BasicDicomObject();
+    dcm.putString(Tag.SOPClassUID, VR.UI, UID.UltrasoundMultiframeImageStorage);
+    Assert.assertEquals(UID.UltrasoundMultiframeImageStorage, DicomServer.getSopClassUID(dcm));
+  }
+
+  @Test
+  public void testNoSopClass() {
+    Assert.assertNull(DicomServer.getSopClassUID(new BasicDicomObject()));
+  }
+
+  @Test
+  public void testIndexStorage() throws IOException {
+    File storage = folder.newFolder("storage");
+    File second = DicomTestFiles.write(storage, DicomTestFiles.newObject("1.2.3.4.2"));
+    File first = DicomTestFiles.write(storage, DicomTestFiles.newObject("1.2.3.4.1"));
+    first.setLastModified(second.lastModified() - 10000);
+    // being received
+    write(new File(storage, "1.2.3.4.3.part"), DicomTestFiles.payload(16));
+    DicomServer server = new DicomServer(storage, new DicomSettings());
+
+    server.indexStorage();
+
+    List<StoredDicomFile> storedFiles = server.listDicomFiles();
+    Assert.assertEquals(2, storedFiles.size());
+    Assert.assertEquals(first, storedFiles.get(0).getFile());
+    Assert.assertEquals("1.2.3.4.1", storedFiles.get(0).getSopInstanceUID());
+    Assert.assertEquals(DicomTestFiles.STUDY_INSTANCE_UID, storedFiles.get(0).getStudyInstanceUID());
+    Assert.assertEquals(second, storedFiles.get(1).getFile());
+  }
+
+  @Test
+  public void testIndexStorageDropsDeletedFiles() throws IOException {
+    File storage = folder.newFolder("storage");
+    File first = DicomTestFiles.write(storage, DicomTestFiles.newObject("1.2.3.4.1"));
+    File second = DicomTestFiles.write(storage, DicomTestFiles.newObject("1.2.3.4.2"));
+    DicomServer server = new DicomServer(storage, new DicomSettings());
+    server.indexStorage();
+    server.cacheDirtyFile(server.getIndex().get("1.2.3.4.2"));
+
+    Assert.assertTrue(first.delete());
+    server.indexStorage();
+
+    // the file is still dirty
+    Assert.assertTrue(server.listDicomFiles().isEmpty());
+    Assert.assertEquals(1, server.getIndex().size());
+    Assert.assertEquals(second, server.getIndex().get("1.2.3.4.2").getFile());
+  }
+
+  @Test
+  public void testStoredObjectsAreIndexedAndDispatched() throws IOException {
+    File storage = folder.newFolder("storage");
+    File first = DicomTestFiles.write(storage, DicomTestFiles.newObject("1.2.3.4.1"));
+    File second = DicomTestFiles.write(storage, DicomTestFiles.newObject("1.2.3.4.2"));
+    DicomServer server = new DicomServer(storage, new DicomSettings());
+    final List<File> notified = new ArrayList<File>();
+    server.addStorageListener(new StorageListener() {
+      public void onStored(File file, DicomObject dicomObject) {
+        Assert.assertEquals(file.getName(), dicomObject.getString(Tag.MediaStorageSOPInstanceUID));
+        notified.add(file);
+      }
+    });
+    // only the first object is reported
+    server.setStoragePredicate(new DicomStoragePredicate() {
+      public boolean apply(String siuid, File file, DicomObject dicomObject) {
+        Assert.assertEquals(DicomTestFiles.STUDY_INSTANCE_UID, siuid);
+        return file.getName().equals("1.2.3.4.1");
+      }
+    });
+
+    server.onStored("1.2.3.4.1", UID.SecondaryCaptureImageStorage, first);
+    server.onStored("1.2.3.4.2", UID.SecondaryCaptureImageStorage, second);
+
+    Assert.assertEquals(1, notified.size());
+    Assert.assertEquals(first, notified.get(0));
+    // filtered objects are still received
+    List<StoredDicomFile> storedFiles = server.listDicomFiles();
+    Assert.assertEquals(2, storedFiles.size());
+    Assert.assertEquals(first, storedFiles.get(0).getFile());
+    Assert.assertEquals(second, storedFiles.get(1).getFile());
+    Assert.assertEquals(2, server.getIndex().findByStudy(DicomTestFiles.STUDY_INSTANCE_UID).size());
+  }
+
+  @Test
+  public void testObjectReceivedAgainIsListedLast() throws IOException {
+    File storage = folder.newFolder("storage");
+    File first = DicomTestFiles.write(storage, DicomTestFiles.newObject("1.2.3.4.1"));
+    File second = DicomTestFiles.write(storage, DicomTestFiles.newObject("1.2.3.4.2"));
+    DicomServer server = new DicomServer(storage, new DicomSettings());
+
+    server.onStored("1.2.3.4.1", UID.SecondaryCaptureImageStorage, first);
+    server.onStored("1.2.3.4.2", UID.SecondaryCaptureImageStorage, second);
+    server.onStored("1.2.3.4.1", UID.SecondaryCaptureImageStorage, first);
+
+    List<StoredDicomFile> storedFiles = server.listDicomFiles();
+    Assert.assertEquals(2, storedFiles.size());
+    Assert.assertEquals(second, storedFiles.get(0).getFile());
+    Assert.assertEquals(first, storedFiles.get(1).getFile());
+  }
+
+  @Test
+  public void testUnreadableObjectIsIndexedButNotDispatched() throws IOException {
+    File storage = folder.newFolder("storage");
+    File file = new File(storage, "1.2.3.4.1");
+    write(file, DicomTestFiles.payload(16));
+    DicomServer server = new DicomServer(storage, new DicomSettings());
+    final List<File> notified = new ArrayList<File>();
+    server.addStorageListener(new StorageListener() {
+      public void onStored(File file, DicomObject dicomObject) {
+        notified.add(file);
+      }
+    });
+
+    server.onStored("1.2.3.4.1", UID.UltrasoundImageStorage, file);
+
+    Assert.assertTrue(notified.isEmpty());
+    StoredDicomFile storedFile = server.getIndex().get("1.2.3.4.1");
+    Assert.assertEquals(file, storedFile.getFile());
+    // the SOP class of the request is used
+    Assert.assertEquals(UID.UltrasoundImageStorage, storedFile.getSopClassUID());
+    Assert.assertNull(storedFile.getStudyInstanceUID());
+  }
+
+  private static void write(File file, byte[] content) throws IOException {
+    FileOutputStream out = new FileOutputStream(file);
+    try {
+      out.write(content);
+    } finally {
+      out.close();
+    }
+  }
+
+}
@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Copyright 2008(c) The OBiBa Consortium. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.dcm4che2.tool.dcmrcv;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.dcm4che2.data.BasicDicomObject;
+import org.dcm4che2.data.DicomObject;
+import org.dcm4che2.data.Tag;
+import org.dcm4che2.data.UID;
+import org.dcm4che2.data.VR;
+import org.dcm4che2.io.DicomOutputStream;
+
+/**
+ * Small DICOM files written on the fly for the tests.
+ */
+class DicomTestFiles {
+
+  static final String STUDY_INSTANCE_UID = "1.2.3.4";
+
+  static final int PRIVATE_CREATOR = 0x00190010;
+
+  static final int PRIVATE_BLOB = 0x00191010;
+
+  static final int OTHER_PRIVATE_BLOB = 0x00191020;
+
+  private DicomTestFiles() {
+  }
+
+  /**
+   * @param sopInstanceUID
+   * @return a secondary capture object, in explicit VR little endian, with a patient and a study
+   */
+  static DicomObject newObject(String sopInstanceUID) {
+    DicomObject dcm = new BasicDicomObject();
+    dcm.initFileMetaInformation(UID.SecondaryCaptureImageStorage, sopInstanceUID, UID.ExplicitVRLittleEndian);
+    dcm.putString(Tag.SOPClassUID, VR.UI, UID.SecondaryCaptureImageStorage);
+    dcm.putString(Tag.PatientID, VR.LO, "1234567");
+    dcm.putString(Tag.StudyInstanceUID, VR.UI, STUDY_INSTANCE_UID);
+    dcm.putString(PRIVATE_CREATOR, VR.LO, "TEST");
+    return dcm;
+  }
+
+  /**
+   * @param length an even length, so that the value is not padded
+   * @return bytes that differ from one position to the next
+   */
+  static byte[] payload(int length) {
+    byte[] payload = new byte[length];
+    for(int i = 0; i < length; i++) {
+      payload[i] = (byte) (i * 31 + 7);
+    }
+    return payload;
+  }
+
+  static File write(File dir, DicomObject dcm) throws IOException {
+    File file = new File(dir, dcm.getString(Tag.MediaStorageSOPInstanceUID));
+    DicomOutputStream dos = new DicomOutputStream(file);
+    try {
+      dos.writeDicomFile(dcm);
+    } finally {
+      dos.close();
+    }
+    return file;
+  }
+
+  static byte[] readFully(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try {
+      byte[] buffer = new byte[256];
+      int n;
+      while((n = in.read(buffer)) != -1) {
+        out.write(buffer, 0, n);
+      }
+    } finally {
+      in.close();
+    }
+    return out.toByteArray();
+  }
+
+}
@@ -0,0 +1,327 @@
+/*******************************************************************************
+ * Copyright 2008(c) The OBiBa Consortium. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.obiba.onyx.jade.instrument.cardiosoft;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.obiba.onyx.jade.instrument.cardiosoft.CardiosoftEcgXmlParser.Field;
+
+/**
+ * Values extracted from a Cardiosoft ECG XML export by {@link CardiosoftEcgXmlParser}. Missing text values are empty
+ * strings and missing numeric values are null.
+ */
+public class CardiosoftEcgResult {
+
+  private final String time;
+
+  private final String date;
+
+  private final String diagnosis;
+
+  private final String filterSetting;
+
+  // Patient Information
+  private final String participantID;
+
+  private final String participantLastName;
+
+  private final String participantFirstName;
+
+  private final Long participantBirthDay;
+
+  private final Long participantBirthMonth;
+
+  private final Long participantBirthYear;
+
+  private final String participantGender;
+
+  private final String participantRace;
+
+  private final Long participantHeight;
+
+  private final Double participantWeight;
+
+  private final Long participantPacemaker;
+
+  // Resting ECG Measurements
+  private final String diagnosisVersion;
+
+  private final Long ventricularRate;
+
+  private final Long pQInterval;
+
+  private final Long pDuration;
+
+  private final Long qRsDuration;
+
+  private final Long qTInterval;
+
+  private final Long qTCInterval;
+
+  private final Long rRInterval;
+
+  private final Long pPInterval;
+
+  private final Long pAxis;
+
+  private final Long rAxis;
+
+  private final Long tAxis;
+
+  private final Long qRSNum;
+
+  private final Long pOnset;
+
+  private final Long pOffset;
+
+  private final Long qOnset;
+
+  private final Long qOffset;
+
+  private final Long tOffset;
+
+  // Rhythm strip
+  private final List<EcgWaveform> waveforms;
+
+  CardiosoftEcgResult(Map<Field, String> values, Map<Field, String> units, List<String> diagnosisTexts, Map<String, short[]> leads) {
+    time = text(values, Field.OBSERVATION_HOUR) + ":" + text(values, Field.OBSERVATION_MINUTE) + ":" + text(values, Field.OBSERVATION_SECOND);
+    date = text(values, Field.OBSERVATION_YEAR) + "-" + text(values, Field.OBSERVATION_MONTH) + "-" + text(values, Field.OBSERVATION_DAY);
+
+    StringBuilder diagnosisSb = new StringBuilder();
+    for(int i = 0; i < diagnosisTexts.size(); i++) {
+      diagnosisSb.append(diagnosisTexts.get(i));
+      if(i + 1 < diagnosisTexts.size()) {
+        diagnosisSb.append("\n");
+      }
+    }
+    diagnosis = diagnosisSb.toString();
+
+    filterSetting = "Cublic Spline: " + text(values, Field.CUBIC_SPLINE) +
+        "\nFilter50Hz: " + text(values, Field.FILTER_50HZ) +
+        "\nFilter60Hz: " + text(values, Field.FILTER_60HZ) +
+        "\nLowPass (" + text(units, Field.LOW_PASS) + "): " + text(values, Field.LOW_PASS) +
+        "\nHighPass (" + text(units, Field.HIGH_PASS) + "): " + text(values, Field.HIGH_PASS);
+
+    participantID = text(values, Field.PID);
+    participantLastName = text(values, Field.FAMILY_NAME);
+    participantFirstName = text(values, Field.GIVEN_NAME);
+    participantBirthDay = longValue(values, Field.BIRTH_DAY);
+    participantBirthMonth = longValue(values, Field.BIRTH_MONTH);
+    participantBirthYear = longValue(values, Field.BIRTH_YEAR);
+    participantGender = text(values, Field.GENDER);
+    participantRace = text(values, Field.RACE);
+    participantHeight = longValue(values, Field.HEIGHT);
+    participantWeight = doubleValue(values, Field.WEIGHT);
+    participantPacemaker = longValue(values, Field.PACEMAKER);
+
+    diagnosisVersion = text(values, Field.DIAGNOSIS_VERSION);
+    ventricularRate = measurement(values, Field.VENTRICULAR_RATE);
+    pQInterval = measurement(values, Field.PQ_INTERVAL);
+    pDuration = measurement(values, Field.P_DURATION);
+    qRsDuration = measurement(values, Field.QRS_DURATION);
+    qTInterval = measurement(values, Field.QT_INTERVAL);
+    qTCInterval = measurement(values, Field.QTC_INTERVAL);
+    rRInterval = measurement(values, Field.RR_INTERVAL);
+    pPInterval = measurement(values, Field.PP_INTERVAL);
+    pAxis = measurement(values, Field.P_AXIS);
+    rAxis = measurement(values, Field.R_AXIS);
+    tAxis = measurement(values, Field.T_AXIS);
+    qRSNum = measurement(values, Field.QRS_NUM);
+    pOnset = measurement(values, Field.P_ONSET);
+    pOffset = measurement(values, Field.P_OFFSET);
+    qOnset = measurement(values, Field.Q_ONSET);
+    qOffset = measurement(values, Field.Q_OFFSET);
+    tOffset = measurement(values, Field.T_OFFSET);
+
+    Long sampleRate = measurement(values, Field.STRIP_SAMPLE_RATE);
+    Double resolution = doubleValue(values, Field.STRIP_RESOLUTION);
+    List<EcgWaveform> strip = new ArrayList<EcgWaveform>(leads.size());
+    for(Map.Entry<String, short[]> lead : leads.entrySet()) {
+      strip.add(new EcgWaveform(lead.getKey(), lead.getValue(), sampleRate == null ? null : sampleRate.intValue(), resolution));
+    }
+    waveforms = Collections.unmodifiableList(strip);
+  }
+
+  private static String text(Map<Field, String> values, Field field) {
+    String value = values.get(field);
+    return value == null ? "" : value;
+  }
+
+  private static Long longValue(Map<Field, String> values, Field field) {
+    String value = text(values, field);
+    if(value.equalsIgnoreCase("yes")) {
+      return 1l;
+    } else if(value.equalsIgnoreCase("no")) {
+      return 0l;
+    } else if(!value.equals("")) {
+      return Long.valueOf(value);
+    }
+    return null;
+  }
+
+  private static Double doubleValue(Map<Field, String> values, Field field) {
+    String value = text(values, field);
+    if(!value.equals("")) {
+      return Double.valueOf(value);
+    }
+    return null;
+  }
+
+  private static Long measurement(Map<Field, String> values, Field field) {
+    String value = text(values, field);
+    if(value.equals("")) {
+      return null;
+    }
+    return Long.valueOf(value);
+  }
+
+  public String getTime() {
+    return time;
+  }
+
+  public String getDate() {
+    return date;
+  }
+
+  public String getDiagnosis() {
+    return diagnosis;
+  }
+
+  public String getFilterSetting() {
+    return filterSetting;
+  }
+
+  public String getParticipantID() {
+    return participantID;
+  }
+
+  public String getParticipantLastName() {
+    return participantLastName;
+  }
+
+  public String getParticipantFirstName() {
+    return participantFirstName;
+  }
+
+  public Long getParticipantBirthDay() {
+    return participantBirthDay;
+  }
+
+  public Long getParticipantBirthMonth() {
+    return participantBirthMonth;
+  }
+
+  public Long getParticipantBirthYear() {
+    return participantBirthYear;
+  }
+
+  public String getParticipantGender() {
+    return participantGender;
+  }
+
+  public String getParticipantRace() {
+    return participantRace;
+  }
+
+  public Long getParticipantHeight() {
+    return participantHeight;
+  }
+
+  public Double getParticipantWeight() {
+    return participantWeight;
+  }
+
+  public Long getParticipantPacemaker() {
+    return participantPacemaker;
+  }
+
+  public String getDiagnosisVersion() {
+    return diagnosisVersion;
+  }
+
+  public Long getVentricularRate() {
+    return ventricularRate;
+  }
+
+  public Long getPQInterval() {
+    return pQInterval;
+  }
+
+  public Long getPDuration() {
+    return pDuration;
+  }
+
+  public Long getQRsDuration() {
+    return qRsDuration;
+  }
+
+  public Long getQTInterval() {
+    return qTInterval;
+  }
+
+  public Long getQTCInterval() {
+    return qTCInterval;
+  }
+
+  public Long getRRInterval() {
+    return rRInterval;
+  }
+
+  public Long getPPInterval() {
+    return pPInterval;
+  }
+
+  public Long getPAxis() {
+    return pAxis;
+  }
+
+  public Long getRAxis() {
+    return rAxis;
+  }
+
+  public Long getTAxis() {
+    return tAxis;
+  }
+
+  public Long getQRSNum() {
+    return qRSNum;
+  }
+
+  public Long getPOnset() {
+    return pOnset;
+  }
+
+  public Long getPOffset() {
+    return pOffset;
+  }
+
+  public Long getQOnset() {
+    return qOnset;
+  }
+
+  public Long getQOffset() {
+    return qOffset;
+  }
+
+  public Long getTOffset() {
+    return tOffset;
+  }
+
+  /**
+   * @return the leads of the rhythm strip, in document order
+   */
+  public List<EcgWaveform> getWaveforms() {
+    return waveforms;
+  }
+
+}
@@ -0,0 +1,298 @@
+/*******************************************************************************
+ * Copyright 2008(c) The OBiBa Consortium. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.obiba.onyx.jade.instrument.cardiosoft;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Streaming parser of the Cardiosoft ECG XML export. All the fields are collected in a single traversal of the
+ * document: no copy of the document is kept and only the text of the elements of interest is buffered, so that the
+ * waveform data that makes most of a resting ECG export is read through without being retained.
+ * <p>
+ * The fields are matched the way the former XPath expressions did: by their parent elements (e.g.
+ * {@code //PatientInfo/Name/FamilyName}), the first element with text in document order giving the value. The
+ * samples of the rhythm strip leads are decoded as they are read, without buffering their text.
+ */
+public class CardiosoftEcgXmlParser {
+
+  /**
+   * Elements of interest, by path of their last element names.
+   */
+  enum Field {
+    OBSERVATION_HOUR("ObservationDateTime", "Hour"),
+    OBSERVATION_MINUTE("ObservationDateTime", "Minute"),
+    OBSERVATION_SECOND("ObservationDateTime", "Second"),
+    OBSERVATION_DAY("ObservationDateTime", "Day"),
+    OBSERVATION_MONTH("ObservationDateTime", "Month"),
+    OBSERVATION_YEAR("ObservationDateTime", "Year"),
+    PID("PatientInfo", "PID"),
+    FAMILY_NAME("PatientInfo", "Name", "FamilyName"),
+    GIVEN_NAME("PatientInfo", "Name", "GivenName"),
+    BIRTH_DAY("PatientInfo", "BirthDateTime", "Day"),
+    BIRTH_MONTH("PatientInfo", "BirthDateTime", "Month"),
+    BIRTH_YEAR("PatientInfo", "BirthDateTime", "Year"),
+    GENDER("PatientInfo", "Gender"),
+    RACE("PatientInfo", "Race"),
+    HEIGHT("PatientInfo", "Height"),
+    WEIGHT("PatientInfo", "Weight"),
+    PACEMAKER("PatientInfo", "PaceMaker"),
+    CUBIC_SPLINE("FilterSetting", "CubicSpline"),
+    FILTER_50HZ("FilterSetting", "Filter50Hz"),
+    FILTER_60HZ("FilterSetting", "Filter60Hz"),
+    LOW_PASS("FilterSetting", "LowPass"),
+    HIGH_PASS("FilterSetting", "HighPass"),
+    DIAGNOSIS_TEXT("Interpretation", "Diagnosis", "DiagnosisText"),
+    DIAGNOSIS_VERSION("RestingECGMeasurements", "DiagnosisVersion"),
+    VENTRICULAR_RATE("RestingECGMeasurements", "VentricularRate"),
+    PQ_INTERVAL("RestingECGMeasurements", "PQInterval"),
+    P_DURATION("RestingECGMeasurements", "PDuration"),
+    QRS_DURATION("RestingECGMeasurements", "QRSDuration"),
+    QT_INTERVAL("RestingECGMeasurements", "QTInterval"),
+    QTC_INTERVAL("RestingECGMeasurements", "QTCInterval"),
+    RR_INTERVAL("RestingECGMeasurements", "RRInterval"),
+    PP_INTERVAL("RestingECGMeasurements", "PPInterval"),
+    P_AXIS("RestingECGMeasurements", "PAxis"),
+    R_AXIS("RestingECGMeasurements", "RAxis"),
+    T_AXIS("RestingECGMeasurements", "TAxis"),
+    QRS_NUM("RestingECGMeasurements", "QRSNum"),
+    P_ONSET("RestingECGMeasurements", "POnset"),
+    P_OFFSET("RestingECGMeasurements", "POffset"),
+    Q_ONSET("RestingECGMeasurements", "QOnset"),
+    Q_OFFSET("RestingECGMeasurements", "QOffset"),
+    T_OFFSET("RestingECGMeasurements", "TOffset"),
+    STRIP_SAMPLE_RATE("StripData", "SampleRate"),
+    STRIP_RESOLUTION("StripData", "Resolution"),
+    STRIP_WAVEFORM("StripData", "WaveformData");
+
+    private final String[] path;
+
+    private Field(String... path) {
+      this.path = path;
+    }
+
+    String getName() {
+      return path[path.length - 1];
+    }
+
+    boolean matches(List<String> elements) {
+      int offset = elements.size() - path.length;
+      if(offset < 0) return false;
+      for(int i = 0; i < path.length; i++) {
+        if(!path[i].equals(elements.get(offset + i))) return false;
+      }
+      return true;
+    }
+  }
+
+  private static final Map<String, List<Field>> FIELDS_BY_NAME = new HashMap<String, List<Field>>();
+
+  static {
+    for(Field field : Field.values()) {
+      List<Field> fields = FIELDS_BY_NAME.get(field.getName());
+      if(fields == null) {
+        fields = new ArrayList<Field>();
+        FIELDS_BY_NAME.put(field.getName(), fields);
+      }
+      fields.add(field);
+    }
+  }
+
+  /**
+   * Cardiosoft declares its exports as "ISO8859-1", a name the XML parsers reject: the document is decoded before it
+   * is parsed, which makes the parser ignore the declaration.
+   */
+  private static final Charset ENCODING = Charset.forName("ISO-8859-1");
+
+  private final XMLInputFactory factory;
+
+  public CardiosoftEcgXmlParser() {
+    factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+  }
+
+  /**
+   * Parse a Cardiosoft XML export. The stream is read to its end but is not closed.
+   *
+   * @param xmlStream
+   * @return
+   * @throws XMLStreamException if the document is not well-formed
+   * @throws NumberFormatException if a numeric field has a non numeric value
+   */
+  public CardiosoftEcgResult parse(InputStream xmlStream) throws XMLStreamException {
+    Map<Field, String> values = new EnumMap<Field, String>(Field.class);
+    Map<Field, String> units = new EnumMap<Field, String>(Field.class);
+    List<String> diagnosisTexts = new ArrayList<String>();
+    Map<String, short[]> leads = new LinkedHashMap<String, short[]>();
+    SampleReader samples = null;
+
+    List<String> elements = new ArrayList<String>();
+    StringBuilder text = new StringBuilder();
+    Field field = null;
+    int fieldDepth = 0;
+    boolean hasText = false;
+
+    XMLStreamReader reader = factory.createXMLStreamReader(new InputStreamReader(xmlStream, ENCODING));
+    try {
+      while(reader.hasNext()) {
+        switch(reader.next()) {
+        case XMLStreamConstants.START_ELEMENT:
+          elements.add(reader.getLocalName());
+          if(field == null) {
+            field = match(elements);
+            if(field != null) {
+              fieldDepth = elements.size();
+              text.setLength(0);
+              hasText = false;
+              String unit = reader.getAttributeValue(null, "units");
+              if(unit != null && !units.containsKey(field)) {
+                units.put(field, unit);
+              }
+              if(field == Field.STRIP_WAVEFORM) {
+                samples = new SampleReader(reader.getAttributeValue(null, "lead"));
+              }
+            }
+          }
+          break;
+        case XMLStreamConstants.CHARACTERS:
+        case XMLStreamConstants.CDATA:
+        case XMLStreamConstants.SPACE:
+          // only the text directly under the element, as text() did
+          if(field != null && elements.size() == fieldDepth) {
+            if(field == Field.STRIP_WAVEFORM) {
+              samples.read(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+            } else {
+              text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+              hasText = true;
+            }
+          }
+          break;
+        case XMLStreamConstants.END_ELEMENT:
+          if(field != null && elements.size() == fieldDepth) {
+            if(field == Field.STRIP_WAVEFORM) {
+              if(samples.getLead() != null && !leads.containsKey(samples.getLead())) {
+                leads.put(samples.getLead(), samples.getSamples());
+              }
+              samples = null;
+            } else if(hasText) {
+              if(field == Field.DIAGNOSIS_TEXT) {
+                diagnosisTexts.add(text.toString());
+              } else if(!values.containsKey(field)) {
+                values.put(field, text.toString());
+              }
+            }
+            field = null;
+          }
+          elements.remove(elements.size() - 1);
+          break;
+        default:
+          break;
+        }
+      }
+    } finally {
+      reader.close();
+    }
+
+    return new CardiosoftEcgResult(values, units, diagnosisTexts, leads);
+  }
+
+  private static Field match(List<String> elements) {
+    List<Field> fields = FIELDS_BY_NAME.get(elements.get(elements.size() - 1));
+    if(fields != null) {
+      for(Field field : fields) {
+        if(field.matches(elements)) return field;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Decodes comma separated sample values, possibly split across several text events.
+   */
+  private static class SampleReader {
+
+    private final String lead;
+
+    private short[] samples = new short[5000];
+
+    private int count;
+
+    private int value;
+
+    private boolean negative;
+
+    private boolean digits;
+
+    SampleReader(String lead) {
+      this.lead = lead;
+    }
+
+    String getLead() {
+      return lead;
+    }
+
+    void read(char[] chars, int start, int length) {
+      for(int i = start; i < start + length; i++) {
+        char c = chars[i];
+        if(c >= '0' && c <= '9') {
+          value = value * 10 + (c - '0');
+          if(value > Short.MAX_VALUE + 1) {
+            throw new NumberFormatException("Sample out of range in lead " + lead);
+          }
+          digits = true;
+        } else if(c == '-' && !digits && !negative) {
+          negative = true;
+        } else if(c == ',' || Character.isWhitespace(c)) {
+          flush();
+        } else {
+          throw new NumberFormatException("Invalid character '" + c + "' in samples of lead " + lead);
+        }
+      }
+    }
+
+    short[] getSamples() {
+      flush();
+      return Arrays.copyOf(samples, count);
+    }
+
+    private void flush() {
+      if(digits) {
+        int sample = negative ? -value : value;
+        if(sample > Short.MAX_VALUE) {
+          throw new NumberFormatException("Sample out of range in lead " + lead);
+        }
+        if(count == samples.length) {
+          samples = Arrays.copyOf(samples, count * 2);
+        }
+        samples[count++] = (short) sample;
+      } else if(negative) {
+        throw new NumberFormatException("Invalid sample '-' in lead " + lead);
+      }
+      value = 0;
+      negative = false;
+      digits = false;
+    }
+  }
+
+}
@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright 2008(c) The OBiBa Consortium. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.obiba.onyx.jade.instrument.cardiosoft;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Samples of one lead of the ECG rhythm strip, as recorded by the device: values are in units of the amplitude
+ * resolution (e.g. 5 uV per unit) and are taken at the sample rate.
+ */
+public class EcgWaveform {
+
+  /**
+   * Binary encodings of the samples.
+   */
+  public enum Encoding {
+    /**
+     * Two bytes per sample, signed, little-endian.
+     */
+    INT16_LE,
+    /**
+     * Difference of each sample with the previous one (the first sample with 0), zigzag mapped to an unsigned value
+     * and written as a variable length integer of 7 bits per byte, least significant group first, the high bit set on
+     * all bytes but the last. Most differences take a single byte.
+     */
+    DELTA_VARINT
+  }
+
+  private final String lead;
+
+  private final short[] samples;
+
+  private final Integer sampleRate;
+
+  private final Double resolution;
+
+  EcgWaveform(String lead, short[] samples, Integer sampleRate, Double resolution) {
+    this.lead = lead;
+    this.samples = samples;
+    this.sampleRate = sampleRate;
+    this.resolution = resolution;
+  }
+
+  /**
+   * @return the lead name (I, II, III, aVR, aVL, aVF, V1 to V6)
+   */
+  public String getLead() {
+    return lead;
+  }
+
+  public int getSampleCount() {
+    return samples.length;
+  }
+
+  public short getSample(int index) {
+    return samples[index];
+  }
+
+  /**
+   * @return samples per second, null if not specified
+   */
+  public Integer getSampleRate() {
+    return sampleRate;
+  }
+
+  /**
+   * @return microvolts per unit of sample value, null if not specified
+   */
+  public Double getResolution() {
+    return resolution;
+  }
+
+  public byte[] encode(Encoding encoding) {
+    if(encoding == Encoding.DELTA_VARINT) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream(samples.length + 16);
+      int previous = 0;
+      for(short sample : samples) {
+        int delta = sample - previous;
+        int zigzag = (delta << 1) ^ (delta >> 31);
+        while((zigzag & ~0x7f) != 0) {
+          out.write((zigzag & 0x7f) | 0x80);
+          zigzag >>>= 7;
+        }
+        out.write(zigzag);
+        previous = sample;
+      }
+      return out.toByteArray();
+    }
+
+    byte[] bytes = new byte[samples.length * 2];
+    for(int i = 0; i < samples.length; i++) {
+      bytes[2 * i] = (byte) samples[i];
+      bytes[2 * i + 1] = (byte) (samples[i] >> 8);
+    }
+    return bytes;
+  }
+
+}
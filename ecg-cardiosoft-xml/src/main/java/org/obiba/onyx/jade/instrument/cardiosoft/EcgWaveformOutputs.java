@@ -0,0 +1,56 @@
+/*******************************************************************************
+ * Copyright 2008(c) The OBiBa Consortium. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.obiba.onyx.jade.instrument.cardiosoft;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.obiba.onyx.util.data.Data;
+import org.obiba.onyx.util.data.DataBuilder;
+import org.obiba.onyx.util.data.DataType;
+
+/**
+ * Output parameters of the rhythm strip leads, shared by the Cardiosoft ECG interfaces.
+ */
+public class EcgWaveformOutputs {
+
+  private EcgWaveformOutputs() {
+  }
+
+  /**
+   * Place the rhythm strip leads expected by the instrument type into the output map, as binary samples, along with
+   * the sample rate, resolution and encoding of the leads.
+   *
+   * @param outputToSend
+   * @param waveforms
+   * @param encoding
+   * @param expectedOutputs vendor names of the expected output parameters
+   */
+  public static void putWaveforms(Map<String, Data> outputToSend, List<EcgWaveform> waveforms, EcgWaveform.Encoding encoding, Set<String> expectedOutputs) {
+    if(waveforms.isEmpty()) return;
+    for(EcgWaveform waveform : waveforms) {
+      if(expectedOutputs.contains("waveform" + waveform.getLead())) {
+        outputToSend.put("waveform" + waveform.getLead(), DataBuilder.buildBinary(waveform.encode(encoding)));
+      }
+    }
+    EcgWaveform lead = waveforms.get(0);
+    if(expectedOutputs.contains("waveformSampleRate")) {
+      outputToSend.put("waveformSampleRate", lead.getSampleRate() == null ? new Data(DataType.INTEGER, null) : DataBuilder.buildInteger(lead.getSampleRate()));
+    }
+    if(expectedOutputs.contains("waveformResolution")) {
+      outputToSend.put("waveformResolution", lead.getResolution() == null ? new Data(DataType.DECIMAL, null) : DataBuilder.buildDecimal(lead.getResolution()));
+    }
+    if(expectedOutputs.contains("waveformEncoding")) {
+      outputToSend.put("waveformEncoding", DataBuilder.buildText(encoding.name()));
+    }
+  }
+
+}
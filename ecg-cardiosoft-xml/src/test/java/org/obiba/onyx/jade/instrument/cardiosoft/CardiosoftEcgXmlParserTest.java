@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * Copyright 2008(c) The OBiBa Consortium. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.obiba.onyx.jade.instrument.cardiosoft;
+
+import java.io.ByteArrayInputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CardiosoftEcgXmlParserTest {
+
+  private static final String HEADER = "<?xml version=\"1.0\" encoding=\"ISO8859-1\" ?>\n";
+
+  @Test
+  public void testFieldsAreMatchedByPath() throws Exception {
+    CardiosoftEcgResult result = parse("<CardiologyXML>" + //
+        "<ObservationDateTime><Hour>10</Hour><Minute>48</Minute><Second>34</Second><Day>23</Day><Month>9</Month><Year>2008</Year></ObservationDateTime>" + //
+        "<ClinicalInfo><Technician><FamilyName>Technician</FamilyName><GivenName>Tech</GivenName></Technician></ClinicalInfo>" + //
+        "<PatientInfo><PID>123456789</PID><Name><FamilyName>Tremblay</FamilyName><GivenName>Michel</GivenName></Name>" + //
+        "<BirthDateTime><Day>28</Day><Month>4</Month><Year>1968</Year></BirthDateTime>" + //
+        "<Gender>MALE</Gender><Race>CAUCASIAN</Race><Height units=\"cm\">180</Height><Weight units=\"kg\">78</Weight><PaceMaker>no</PaceMaker></PatientInfo>" + //
+        "<FilterSetting><CubicSpline>No</CubicSpline><Filter50Hz>No</Filter50Hz><Filter60Hz>Yes</Filter60Hz>" + //
+        "<LowPass units=\"Hz\">100</LowPass><HighPass units=\"Hz\">0.05</HighPass></FilterSetting>" + //
+        "<Interpretation><Diagnosis><DiagnosisText>Normal sinus rhythm</DiagnosisText><DiagnosisText>Normal ECG</DiagnosisText></Diagnosis></Interpretation>" + //
+        "<RestingECGMeasurements><VentricularRate units=\"BPM\">86</VentricularRate><PQInterval units=\"ms\">170</PQInterval>" + //
+        "<RAxis units=\"degrees\">-39</RAxis></RestingECGMeasurements>" + //
+        "</CardiologyXML>");
+
+    Assert.assertEquals("10:48:34", result.getTime());
+    Assert.assertEquals("2008-9-23", result.getDate());
+    Assert.assertEquals("123456789", result.getParticipantID());
+    // the technician names are not under PatientInfo/Name
+    Assert.assertEquals("Tremblay", result.getParticipantLastName());
+    Assert.assertEquals("Michel", result.getParticipantFirstName());
+    Assert.assertEquals(Long.valueOf(28), result.getParticipantBirthDay());
+    Assert.assertEquals(Long.valueOf(4), result.getParticipantBirthMonth());
+    Assert.assertEquals(Long.valueOf(1968), result.getParticipantBirthYear());
+    Assert.assertEquals("MALE", result.getParticipantGender());
+    Assert.assertEquals("CAUCASIAN", result.getParticipantRace());
+    Assert.assertEquals(Long.valueOf(180), result.getParticipantHeight());
+    Assert.assertEquals(Double.valueOf(78), result.getParticipantWeight());
+    Assert.assertEquals(Long.valueOf(0), result.getParticipantPacemaker());
+    Assert.assertEquals("Cublic Spline: No\nFilter50Hz: No\nFilter60Hz: Yes\nLowPass (Hz): 100\nHighPass (Hz): 0.05", result.getFilterSetting());
+    Assert.assertEquals("Normal sinus rhythm\nNormal ECG", result.getDiagnosis());
+    Assert.assertEquals(Long.valueOf(86), result.getVentricularRate());
+    Assert.assertEquals(Long.valueOf(170), result.getPQInterval());
+    Assert.assertEquals(Long.valueOf(-39), result.getRAxis());
+    Assert.assertNull(result.getQTInterval());
+    Assert.assertTrue(result.getWaveforms().isEmpty());
+  }
+
+  @Test
+  public void testMac800Export() throws Exception {
+    // MAC 800 exports have no height, repeat the onsets in a measurement table and have median samples
+    CardiosoftEcgResult result = parse("<CardiologyXML>" + //
+        "<PatientInfo><PID>TEST DEMO 000000</PID><Name><FamilyName>TEST-DEMO</FamilyName><GivenName>TEST-DEMO</GivenName></Name>" + //
+        "<Age units=\"YEARS\">65</Age><Gender>UNKNOWN</Gender><Weight units=\"POUNDS\">145.5</Weight><PaceMaker>no</PaceMaker></PatientInfo>" + //
+        "<Device-Type>-1</Device-Type>" + //
+        "<RestingECGMeasurements><QRSNum>14</QRSNum>" + //
+        "<MeasurementTable Creation=\"12SL\"><POnset units=\"ms\">, , , </POnset><QOnset units=\"ms\">12, , , </QOnset></MeasurementTable>" + //
+        "<POnset units=\"ms\">248</POnset><QOnset units=\"ms\">418</QOnset>" + //
+        "<MedianSamples><SampleRate units=\"Hz\">250</SampleRate><Resolution units=\"uVperLsb\">10</Resolution>" + //
+        "<WaveformData lead=\"I\">9,9,9</WaveformData></MedianSamples>" + //
+        "</RestingECGMeasurements>" + //
+        "<StripData><NumberOfLeads>2</NumberOfLeads><SampleRate units=\"Hz\">500</SampleRate><Resolution units=\"uVperLsb\">5</Resolution>" + //
+        "<WaveformData lead=\"I\">\t\t\t18,18,19,\n\t\t\t-17,-17</WaveformData>" + //
+        "<WaveformData lead=\"II\">11,10</WaveformData></StripData>" + //
+        "</CardiologyXML>");
+
+    Assert.assertEquals("TEST-DEMO", result.getParticipantLastName());
+    Assert.assertNull(result.getParticipantHeight());
+    Assert.assertEquals(Double.valueOf(145.5), result.getParticipantWeight());
+    Assert.assertEquals(Long.valueOf(14), result.getQRSNum());
+    Assert.assertEquals(Long.valueOf(248), result.getPOnset());
+    Assert.assertEquals(Long.valueOf(418), result.getQOnset());
+
+    List<EcgWaveform> waveforms = result.getWaveforms();
+    Assert.assertEquals(2, waveforms.size());
+    Assert.assertEquals("I", waveforms.get(0).getLead());
+    Assert.assertArrayEquals(new short[] { 18, 18, 19, -17, -17 }, samples(waveforms.get(0)));
+    Assert.assertEquals("II", waveforms.get(1).getLead());
+    Assert.assertArrayEquals(new short[] { 11, 10 }, samples(waveforms.get(1)));
+    Assert.assertEquals(Integer.valueOf(500), waveforms.get(0).getSampleRate());
+    Assert.assertEquals(Double.valueOf(5), waveforms.get(0).getResolution());
+  }
+
+  @Test
+  public void testMissingAndEmptyLeads() throws Exception {
+    CardiosoftEcgResult result = parse("<CardiologyXML><StripData>" + //
+        "<WaveformData lead=\"I\"></WaveformData>" + //
+        "<WaveformData>1,2,3</WaveformData>" + //
+        "<WaveformData lead=\"II\">4,5</WaveformData>" + //
+        "<WaveformData lead=\"II\">6,7</WaveformData>" + //
+        "</StripData></CardiologyXML>");
+
+    // a lead without samples is kept, data without a lead is ignored and only the first data of a lead is used
+    List<EcgWaveform> waveforms = result.getWaveforms();
+    Assert.assertEquals(2, waveforms.size());
+    Assert.assertEquals("I", waveforms.get(0).getLead());
+    Assert.assertEquals(0, waveforms.get(0).getSampleCount());
+    Assert.assertEquals("II", waveforms.get(1).getLead());
+    Assert.assertArrayEquals(new short[] { 4, 5 }, samples(waveforms.get(1)));
+    Assert.assertNull(waveforms.get(0).getSampleRate());
+    Assert.assertNull(waveforms.get(0).getResolution());
+  }
+
+  @Test
+  public void testSampleBounds() throws Exception {
+    CardiosoftEcgResult result = parse("<CardiologyXML><StripData><WaveformData lead=\"I\">32767,-32768,,0</WaveformData></StripData></CardiologyXML>");
+
+    Assert.assertArrayEquals(new short[] { Short.MAX_VALUE, Short.MIN_VALUE, 0 }, samples(result.getWaveforms().get(0)));
+  }
+
+  @Test(expected = NumberFormatException.class)
+  public void testMalformedSample() throws Exception {
+    parse("<CardiologyXML><StripData><WaveformData lead=\"I\">1,2x,3</WaveformData></StripData></CardiologyXML>");
+  }
+
+  @Test(expected = NumberFormatException.class)
+  public void testLoneMinusSign() throws Exception {
+    parse("<CardiologyXML><StripData><WaveformData lead=\"I\">1,-,3</WaveformData></StripData></CardiologyXML>");
+  }
+
+  @Test(expected = NumberFormatException.class)
+  public void testSampleOutOfRange() throws Exception {
+    parse("<CardiologyXML><StripData><WaveformData lead=\"I\">32768</WaveformData></StripData></CardiologyXML>");
+  }
+
+  @Test(expected = XMLStreamException.class)
+  public void testMalformedDocument() throws Exception {
+    parse("<CardiologyXML><PatientInfo></CardiologyXML>");
+  }
+
+  private static short[] samples(EcgWaveform waveform) {
+    short[] samples = new short[waveform.getSampleCount()];
+    for(int i = 0; i < samples.length; i++) {
+      samples[i] = waveform.getSample(i);
+    }
+    return samples;
+  }
+
+  private CardiosoftEcgResult parse(String xml) throws XMLStreamException, UnsupportedEncodingException {
+    return new CardiosoftEcgXmlParser().parse(new ByteArrayInputStream((HEADER + xml).getBytes("ISO-8859-1")));
+  }
+
+}
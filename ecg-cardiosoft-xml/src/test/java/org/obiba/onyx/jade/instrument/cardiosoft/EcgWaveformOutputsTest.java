@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * Copyright 2008(c) The OBiBa Consortium. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.obiba.onyx.jade.instrument.cardiosoft;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.obiba.onyx.util.data.Data;
+import org.obiba.onyx.util.data.DataType;
+
+public class EcgWaveformOutputsTest {
+
+  private final List<EcgWaveform> waveforms = Arrays.asList(new EcgWaveform("I", new short[] { 1, 2 }, 500, 5.0), new EcgWaveform("II", new short[] { 3, 4 }, 500, 5.0));
+
+  @Test
+  public void testExpectedOutputsOnly() {
+    Map<String, Data> output = new HashMap<String, Data>();
+    EcgWaveformOutputs.putWaveforms(output, waveforms, EcgWaveform.Encoding.DELTA_VARINT, expected("waveformII", "waveformSampleRate", "waveformEncoding"));
+
+    Assert.assertEquals(expected("waveformII", "waveformSampleRate", "waveformEncoding"), output.keySet());
+    Assert.assertArrayEquals(waveforms.get(1).encode(EcgWaveform.Encoding.DELTA_VARINT), (byte[]) output.get("waveformII").getValue());
+    Assert.assertEquals(Long.valueOf(500), output.get("waveformSampleRate").getValue());
+    Assert.assertEquals("DELTA_VARINT", output.get("waveformEncoding").getValue());
+  }
+
+  @Test
+  public void testAllOutputs() {
+    Map<String, Data> output = new HashMap<String, Data>();
+    EcgWaveformOutputs.putWaveforms(output, waveforms, EcgWaveform.Encoding.INT16_LE, expected("waveformI", "waveformII", "waveformSampleRate", "waveformResolution", "waveformEncoding"));
+
+    Assert.assertEquals(5, output.size());
+    Assert.assertArrayEquals(new byte[] { 1, 0, 2, 0 }, (byte[]) output.get("waveformI").getValue());
+    Assert.assertEquals(Double.valueOf(5.0), output.get("waveformResolution").getValue());
+    Assert.assertEquals("INT16_LE", output.get("waveformEncoding").getValue());
+  }
+
+  @Test
+  public void testUnknownSampleRateAndResolution() {
+    Map<String, Data> output = new HashMap<String, Data>();
+    List<EcgWaveform> leads = Collections.singletonList(new EcgWaveform("I", new short[] { 1 }, null, null));
+    EcgWaveformOutputs.putWaveforms(output, leads, EcgWaveform.Encoding.INT16_LE, expected("waveformSampleRate", "waveformResolution"));
+
+    Assert.assertEquals(DataType.INTEGER, output.get("waveformSampleRate").getType());
+    Assert.assertNull(output.get("waveformSampleRate").getValue());
+    Assert.assertEquals(DataType.DECIMAL, output.get("waveformResolution").getType());
+    Assert.assertNull(output.get("waveformResolution").getValue());
+  }
+
+  @Test
+  public void testNoWaveforms() {
+    Map<String, Data> output = new HashMap<String, Data>();
+    EcgWaveformOutputs.putWaveforms(output, new ArrayList<EcgWaveform>(), EcgWaveform.Encoding.INT16_LE, expected("waveformI", "waveformSampleRate", "waveformEncoding"));
+    Assert.assertTrue(output.isEmpty());
+  }
+
+  private static Set<String> expected(String... names) {
+    return new HashSet<String>(Arrays.asList(names));
+  }
+
+}
@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * Copyright 2008(c) The OBiBa Consortium. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.obiba.onyx.jade.instrument.cardiosoft;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class EcgWaveformTest {
+
+  @Test
+  public void testInt16LittleEndian() {
+    EcgWaveform waveform = waveform((short) 6, (short) -2, Short.MAX_VALUE, Short.MIN_VALUE);
+    byte[] bytes = waveform.encode(EcgWaveform.Encoding.INT16_LE);
+    Assert.assertArrayEquals(new byte[] { 6, 0, (byte) 0xFE, (byte) 0xFF, (byte) 0xFF, 0x7F, 0x00, (byte) 0x80 }, bytes);
+  }
+
+  @Test
+  public void testDeltaVarintRoundTrip() {
+    short[] samples = { 6, 7, 5, 5, -3, 60, -4, 200, -1000, 10000 };
+    Assert.assertArrayEquals(samples, decodeDeltaVarint(waveform(samples).encode(EcgWaveform.Encoding.DELTA_VARINT)));
+  }
+
+  @Test
+  public void testDeltaVarintSmallDeltasTakeOneByte() {
+    // deltas 0, 1, -1, 63 and -64 are zigzag mapped to 0, 2, 1, 126 and 127
+    byte[] bytes = waveform((short) 0, (short) 1, (short) 0, (short) 63, (short) -1).encode(EcgWaveform.Encoding.DELTA_VARINT);
+    Assert.assertArrayEquals(new byte[] { 0, 2, 1, 126, 127 }, bytes);
+
+    // delta 64 is mapped to 128, which needs a second byte
+    bytes = waveform((short) 64).encode(EcgWaveform.Encoding.DELTA_VARINT);
+    Assert.assertArrayEquals(new byte[] { (byte) 0x80, 0x01 }, bytes);
+  }
+
+  @Test
+  public void testDeltaVarintExtremeSteps() {
+    // steps of the whole sample range, in both directions
+    short[] samples = { Short.MAX_VALUE, Short.MIN_VALUE, Short.MAX_VALUE, 0, Short.MIN_VALUE, -1, Short.MIN_VALUE };
+    byte[] bytes = waveform(samples).encode(EcgWaveform.Encoding.DELTA_VARINT);
+    Assert.assertArrayEquals(samples, decodeDeltaVarint(bytes));
+
+    // a delta of -65535 is mapped to 131069, written on three bytes
+    bytes = waveform(Short.MAX_VALUE, Short.MIN_VALUE).encode(EcgWaveform.Encoding.DELTA_VARINT);
+    Assert.assertArrayEquals(new byte[] { (byte) 0xFE, (byte) 0xFF, 0x03 }, Arrays.copyOfRange(bytes, 0, 3));
+    Assert.assertArrayEquals(new byte[] { (byte) 0xFD, (byte) 0xFF, 0x07 }, Arrays.copyOfRange(bytes, 3, 6));
+  }
+
+  @Test
+  public void testNoSamples() {
+    EcgWaveform waveform = waveform();
+    Assert.assertEquals(0, waveform.encode(EcgWaveform.Encoding.INT16_LE).length);
+    Assert.assertEquals(0, waveform.encode(EcgWaveform.Encoding.DELTA_VARINT).length);
+  }
+
+  private static EcgWaveform waveform(short... samples) {
+    return new EcgWaveform("I", samples, 500, 5.0);
+  }
+
+  /**
+   * Reverse of {@link EcgWaveform.Encoding#DELTA_VARINT}, as a consumer of the output would implement it.
+   */
+  private static short[] decodeDeltaVarint(byte[] bytes) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    int previous = 0;
+    int i = 0;
+    while(i < bytes.length) {
+      int zigzag = 0;
+      int shift = 0;
+      int b;
+      do {
+        b = bytes[i++] & 0xff;
+        zigzag |= (b & 0x7f) << shift;
+        shift += 7;
+      } while((b & 0x80) != 0);
+      int sample = previous + ((zigzag >>> 1) ^ -(zigzag & 1));
+      out.write(sample);
+      out.write(sample >> 8);
+      previous = sample;
+    }
+    byte[] pairs = out.toByteArray();
+    short[] samples = new short[pairs.length / 2];
+    for(int j = 0; j < samples.length; j++) {
+      samples[j] = (short) (pairs[2 * j] & 0xff | pairs[2 * j + 1] << 8);
+    }
+    return samples;
+  }
+
+}
@@ -9,7 +9,6 @@
  ******************************************************************************/
 package org.obiba.onyx.jade.instrument.tremetrics.ra300;
 
-import gnu.io.CommPort;
 import gnu.io.CommPortIdentifier;
 import gnu.io.NoSuchPortException;
 import gnu.io.PortInUseException;
@@ -23,17 +22,16 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.nio.ByteBuffer;
-import java.util.Arrays;
-import java.util.Enumeration;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.List;
 import java.util.TooManyListenersException;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
+import org.obiba.onyx.jade.instrument.serial.DeviceSignature;
+import org.obiba.onyx.jade.instrument.serial.SerialPortDiscovery;
 import org.obiba.onyx.jade.instrument.tremetrics.ra300.Ra300Exception.Cause;
+import org.obiba.onyx.jade.instrument.tremetrics.ra300.Ra300FrameDecoder.FrameListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -47,37 +45,66 @@ public class Ra300 {
 
   private final static byte[] READ_CURRENT_TEST_COMMAND = new byte[] { 0x05, '4', 0x0d };
 
+  // time allowed for the whole reply to a command
+  private final static long RECEIVE_TIMEOUT_MILLIS = 5000;
+
+  private final static long DISCOVERY_TIMEOUT_MILLIS = 3000;
+
+  private final Ra300FrameDecoder decoder = new Ra300FrameDecoder();
+
+  private final BlockingQueue<Reply> replies = new LinkedBlockingQueue<Reply>();
+
   private Ra300Comm comm;
 
   private State state = State.DISCONNECTED;
 
   public Ra300() {
+    decoder.addFrameListener(new FrameListener() {
+
+      @Override
+      public void onTest(Ra300Test test) {
+        replies.add(new Reply(test, null));
+      }
+
+      @Override
+      public void onInvalidFrame(Ra300Exception e) {
+        replies.add(new Reply(null, e));
+      }
+    });
+  }
+
+  /**
+   * Listen to the tests received from the instrument, whether they were requested or not. Listeners are notified from
+   * the serial port thread.
+   * @param listener
+   */
+  public void addFrameListener(FrameListener listener) {
+    decoder.addFrameListener(listener);
+  }
 
+  public void removeFrameListener(FrameListener listener) {
+    decoder.removeFrameListener(listener);
   }
 
   public Ra300Test readCurrentTest() throws IOException {
+    replies.clear();
     comm.send(READ_CURRENT_TEST_COMMAND);
-    ByteBuffer bb = ByteBuffer.allocate(1024);
-    bb.put(comm.receive());
-    while(isMessageEnd(bb) == false) {
-      log.debug("Waiting for msg end");
-      bb.put(comm.receive());
+    Reply reply;
+    try {
+      reply = replies.poll(RECEIVE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    } catch(InterruptedException e) {
+      throw new RuntimeException(e);
     }
-    Ra300Test test = new Ra300Test(bb.array());
-    log.debug("current test: {}", test);
-    return test;
+    if(reply == null) throw new Ra300Exception(Cause.RECEIVE_TIMEOUT);
+    if(reply.error != null) throw reply.error;
+    log.debug("current test: {}", reply.test);
+    return reply.test;
   }
 
   public State getState() {
     return state;
   }
 
-  private boolean isMessageEnd(ByteBuffer bb) {
-    if(bb.position() < 6) return false;
-    int position = bb.position();
-    return bb.get(position - 1) == (byte) 0x0d && bb.get(position - 4) == (byte) 0x17 && bb.get(position - 5) == (byte) 'p' && bb.get(position - 6) == (byte) '~';
-  }
-
   public void connect(String comPort, int baudRate) {
 
     disconnect();
@@ -85,9 +112,11 @@ public class Ra300 {
     SerialPort ra300 = openSerialPort(comPort);
 
     try {
+      decoder.reset();
       this.comm = openRa300(baudRate, ra300);
       readCurrentTest();
       this.state = State.CONNECTED;
+      SerialPortDiscovery.getInstance().markSeen(comPort, signature(baudRate));
     } catch(RuntimeException e) {
       try {
         disconnect();
@@ -156,7 +185,7 @@ public class Ra300 {
 
     private final OutputStream os;
 
-    private final BlockingQueue<byte[]> readQueue = new LinkedBlockingQueue<byte[]>();
+    private final byte[] buffer = new byte[1024];
 
     Ra300Comm(SerialPort ra300, int baudRate) throws IOException, UnsupportedCommOperationException, TooManyListenersException {
       ra300.setSerialPortParams(baudRate, SerialPort.DATABITS_8, SerialPort.STOPBITS_1, SerialPort.PARITY_NONE);
@@ -181,17 +210,6 @@ public class Ra300 {
       }
     }
 
-    public byte[] receive() {
-      try {
-        byte[] data = readQueue.poll(5, TimeUnit.SECONDS);
-        if(data == null) throw new Ra300Exception(Cause.RECEIVE_TIMEOUT);
-        log.debug("Receiving {}", data);
-        return data;
-      } catch(InterruptedException e) {
-        throw new RuntimeException(e);
-      }
-    }
-
     @Override
     public void serialEvent(SerialPortEvent event) {
       switch(event.getEventType()) {
@@ -201,9 +219,7 @@ public class Ra300 {
         break;
       case SerialPortEvent.DATA_AVAILABLE:
         log.debug("DATA_AVAILABLE");
-        byte[] data = read();
-        log.debug("read {}", data);
-        readQueue.add(data);
+        read();
         break;
       // Data set ready
       case SerialPortEvent.DSR:
@@ -212,40 +228,62 @@ public class Ra300 {
       }
     }
 
-    private byte[] read() {
+    private void read() {
       try {
-        byte[] buffer = new byte[1024];
-        int bytes = is.read(buffer);
-        return Arrays.copyOf(buffer, bytes);
+        int bytes;
+        while(is.available() > 0 && (bytes = is.read(buffer)) > 0) {
+          log.debug("read {} bytes", bytes);
+          decoder.feed(buffer, 0, bytes);
+        }
       } catch(IOException e) {
         throw new RuntimeException(e);
       }
     }
   }
 
-  public Set<CommPortIdentifier> listAvailablePorts() {
-    HashSet<CommPortIdentifier> h = new HashSet<CommPortIdentifier>();
-
-    @SuppressWarnings("unchecked")
-    Enumeration<CommPortIdentifier> thePorts = CommPortIdentifier.getPortIdentifiers();
-
-    while(thePorts.hasMoreElements()) {
-      CommPortIdentifier com = (CommPortIdentifier) thePorts.nextElement();
-      switch(com.getPortType()) {
-      case CommPortIdentifier.PORT_SERIAL:
-        try {
-          CommPort port = com.open("CommUtil", 50);
-          port.close();
-          h.add(com);
-        } catch(PortInUseException e) {
-          // Ignore
-        } catch(Exception e) {
-          // Ignore
-        }
-      }
+  private static class Reply {
+
+    private final Ra300Test test;
+
+    private final Ra300Exception error;
+
+    Reply(Ra300Test test, Ra300Exception error) {
+      this.test = test;
+      this.error = error;
     }
-    return h;
+  }
+
+  /**
+   * @return the names of the serial ports, listed without being opened
+   */
+  public List<String> listAvailablePorts() {
+    return SerialPortDiscovery.getInstance().listPortNames();
+  }
+
+  /**
+   * Look for the RA300 on the given port and on the port it was last seen on.
+   * @param comPort
+   * @param baudRate
+   * @return the port the RA300 answered on, null if it did not answer on any
+   */
+  public String discoverPort(String comPort, int baudRate) {
+    return SerialPortDiscovery.getInstance().discover(signature(baudRate), comPort, DISCOVERY_TIMEOUT_MILLIS);
+  }
+
+  /**
+   * Look for the RA300 on all the serial ports, starting with the given one. The RA300 request is written to each port,
+   * this is done on request of the operator only.
+   * @param comPort
+   * @param baudRate
+   * @return the port the RA300 answered on, null if it did not answer on any
+   */
+  public String scanPorts(String comPort, int baudRate) {
+    SerialPortDiscovery.getInstance().refresh();
+    return SerialPortDiscovery.getInstance().scan(signature(baudRate), comPort, DISCOVERY_TIMEOUT_MILLIS);
+  }
 
+  static DeviceSignature signature(int baudRate) {
+    return new DeviceSignature("RA300", baudRate, READ_CURRENT_TEST_COMMAND, "~p\\x17..\\r");
   }
 
   public static void main(String[] args) throws IOException {
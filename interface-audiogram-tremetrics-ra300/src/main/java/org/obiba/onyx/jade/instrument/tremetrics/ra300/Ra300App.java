@@ -9,8 +9,6 @@
  ******************************************************************************/
 package org.obiba.onyx.jade.instrument.tremetrics.ra300;
 
-import gnu.io.CommPortIdentifier;
-
 import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.EventQueue;
@@ -69,6 +67,8 @@ public class Ra300App {
 
   private JButton connectionButton;
 
+  private JButton findButton;
+
   private JButton readTestButton;
 
   private JButton saveButton;
@@ -125,19 +125,32 @@ public class Ra300App {
 
   private void onDisconnected() {
     connectionButton.setText("Connect");
+    findButton.setEnabled(true);
     ports.setEnabled(true);
     baudRate.setEnabled(true);
     readTestButton.setEnabled(false);
     saveButton.setEnabled(false);
 
     ((DefaultComboBoxModel) ports.getModel()).removeAllElements();
-    for(CommPortIdentifier id : ra300.listAvailablePorts()) {
-      ((DefaultComboBoxModel) ports.getModel()).addElement(id.getName());
+    for(String name : ra300.listAvailablePorts()) {
+      ((DefaultComboBoxModel) ports.getModel()).addElement(name);
+    }
+  }
+
+  private void findPort() {
+    int rate = Integer.parseInt(baudRate.getModel().getValue().toString());
+    String port = ra300.scanPorts((String) ports.getModel().getSelectedItem(), rate);
+    updateState();
+    if(port != null) {
+      ports.getModel().setSelectedItem(port);
+    } else {
+      JOptionPane.showMessageDialog(frame, "The instrument did not answer on any COM port.\nCheck that it is switched on and connected, then try again.", "Instrument Not Found", JOptionPane.WARNING_MESSAGE);
     }
   }
 
   private void onConnected() {
     connectionButton.setText("Disconnect");
+    findButton.setEnabled(false);
     ports.setEnabled(false);
     baudRate.setEnabled(false);
     readTestButton.setEnabled(true);
@@ -150,6 +163,10 @@ public class Ra300App {
     } catch(IOException e) {
       log.warn("Error reading test", e);
       return;
+    } catch(Ra300Exception e) {
+      log.warn("Error reading test", e);
+      JOptionPane.showMessageDialog(frame, "Error reading the test from the instrument.\nPlease try again.\nError :" + e.getExceptionCause().toString(), "Cannot Read Test", JOptionPane.ERROR_MESSAGE);
+      return;
     }
     updateTestValues(leftResults, currentTest.getHTLLeft());
     updateTestValues(rightResults, currentTest.getHTLRight());
@@ -253,6 +270,15 @@ public class Ra300App {
     });
     panel.add(connectionButton);
 
+    findButton = new JButton("Find");
+    findButton.setToolTipText("Look for the instrument on all the COM ports");
+    findButton.addActionListener(new ActionListener() {
+      public void actionPerformed(ActionEvent event) {
+        findPort();
+      }
+    });
+    panel.add(findButton);
+
     JPanel panel_2 = new JPanel();
     frame.getContentPane().add(panel_2, BorderLayout.SOUTH);
 
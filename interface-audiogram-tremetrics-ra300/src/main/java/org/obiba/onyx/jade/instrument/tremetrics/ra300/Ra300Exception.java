@@ -14,7 +14,7 @@ public class Ra300Exception extends RuntimeException {
   private static final long serialVersionUID = 1552768930207317598L;
 
   public enum Cause {
-    RECEIVE_TIMEOUT, CONNECTION_ERROR, INVALID_PORT, COMMUNICATION_ERROR
+    RECEIVE_TIMEOUT, CONNECTION_ERROR, INVALID_PORT, COMMUNICATION_ERROR, INVALID_FRAME
   }
 
   private final Cause cause;
@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * Copyright (c) 2011 OBiBa. All rights reserved.
+ *  
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *  
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.obiba.onyx.jade.instrument.tremetrics.ra300;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.obiba.onyx.jade.instrument.tremetrics.ra300.Ra300Exception.Cause;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Splits the bytes received from the RA300, in whatever chunks the serial port delivers them, into test messages. The
+ * bytes are accumulated in a ring buffer and each one is checked, as it arrives, for the end of the message trailer
+ * (<code>~ p 0x17 checksum 0x0d</code>), so that nothing is scanned twice. A complete message is parsed, then delivered
+ * to the listeners from the thread that fed the decoder. Bytes preceding a message (line noise) are discarded, as are
+ * the oldest bytes when the buffer is full without a message end. The checksum is not validated, its format is not
+ * known.
+ * <p>
+ * Not thread safe: bytes are expected to be fed by a single thread (the serial port event thread).
+ */
+public class Ra300FrameDecoder {
+
+  private final static Logger log = LoggerFactory.getLogger(Ra300FrameDecoder.class);
+
+  /**
+   * Length of a test message, trailer included.
+   */
+  public static final int FRAME_LENGTH = 150;
+
+  private static final int CAPACITY = 1024;
+
+  private static final int MASK = CAPACITY - 1;
+
+  public interface FrameListener {
+
+    public void onTest(Ra300Test test);
+
+    /**
+     * @param e cause is {@link Cause#INVALID_FRAME}
+     */
+    public void onInvalidFrame(Ra300Exception e);
+  }
+
+  private final byte[] ring = new byte[CAPACITY];
+
+  // index of the oldest byte
+  private long head;
+
+  // index following the newest byte
+  private long tail;
+
+  private final List<FrameListener> listeners = new CopyOnWriteArrayList<FrameListener>();
+
+  public void addFrameListener(FrameListener listener) {
+    if(listener != null) listeners.add(listener);
+  }
+
+  public void removeFrameListener(FrameListener listener) {
+    listeners.remove(listener);
+  }
+
+  public void feed(byte[] data) {
+    feed(data, 0, data.length);
+  }
+
+  public void feed(byte[] data, int offset, int length) {
+    for(int i = offset; i < offset + length; i++) {
+      if(tail - head == CAPACITY) {
+        head++;
+      }
+      ring[index(tail++)] = data[i];
+      if(data[i] == 0x0d && isMessageEnd()) {
+        onMessageEnd();
+      }
+    }
+  }
+
+  /**
+   * Discard the bytes received so far.
+   */
+  public void reset() {
+    head = tail;
+  }
+
+  /**
+   * @return number of bytes waiting for a message end
+   */
+  public int size() {
+    return (int) (tail - head);
+  }
+
+  private boolean isMessageEnd() {
+    return tail - head >= 6 && at(tail - 4) == 0x17 && at(tail - 5) == (byte) 'p' && at(tail - 6) == (byte) '~';
+  }
+
+  private void onMessageEnd() {
+    long length = tail - head;
+    head = tail;
+    if(length < FRAME_LENGTH) {
+      notifyInvalidFrame(new Ra300Exception(Cause.INVALID_FRAME), "Truncated message of {} bytes", length);
+      return;
+    }
+    if(length > FRAME_LENGTH) {
+      log.debug("Discarding {} bytes preceding the message", length - FRAME_LENGTH);
+    }
+    byte[] msg = new byte[FRAME_LENGTH];
+    for(int i = 0; i < FRAME_LENGTH; i++) {
+      msg[i] = at(tail - FRAME_LENGTH + i);
+    }
+    Ra300Test test;
+    try {
+      test = new Ra300Test(msg);
+    } catch(RuntimeException e) {
+      notifyInvalidFrame(new Ra300Exception(Cause.INVALID_FRAME, e), "Invalid message: {}", msg);
+      return;
+    }
+    for(FrameListener listener : listeners) {
+      listener.onTest(test);
+    }
+  }
+
+  private void notifyInvalidFrame(Ra300Exception e, String msg, Object arg) {
+    log.warn(msg, arg);
+    for(FrameListener listener : listeners) {
+      listener.onInvalidFrame(e);
+    }
+  }
+
+  private byte at(long i) {
+    return ring[index(i)];
+  }
+
+  private static int index(long i) {
+    return (int) (i & MASK);
+  }
+
+}
@@ -74,7 +74,7 @@ public class Ra300InstrumentRunner implements InstrumentRunner {
           testToSave = test;
         }
       }).get();
-      app.setCommSettings(getComPort(), getBaudRate());
+      app.setCommSettings(findComPort(), getBaudRate());
     } catch(InterruptedException e) {
       throw new RuntimeException(e);
     } catch(ExecutionException e) {
@@ -82,6 +82,15 @@ public class Ra300InstrumentRunner implements InstrumentRunner {
     }
   }
 
+  /**
+   * @return the configured port if it exists, otherwise the port the RA300 was last seen on, if it answers there
+   */
+  private String findComPort() {
+    if(ra300.listAvailablePorts().contains(getComPort())) return getComPort();
+    String port = ra300.discoverPort(getComPort(), getBaudRate());
+    return port == null ? getComPort() : port;
+  }
+
   @Override
   public void run() {
     app.waitForExit();
@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright (c) 2011 OBiBa. All rights reserved.
+ *  
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *  
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.obiba.onyx.jade.instrument.tremetrics.ra300;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.obiba.onyx.jade.instrument.tremetrics.ra300.Ra300Exception.Cause;
+
+public class Ra300FrameDecoderTest {
+
+  private Ra300FrameDecoder decoder;
+
+  private List<Ra300Test> tests;
+
+  private List<Cause> errors;
+
+  @Before
+  public void setUp() {
+    decoder = new Ra300FrameDecoder();
+    tests = new ArrayList<Ra300Test>();
+    errors = new ArrayList<Cause>();
+    decoder.addFrameListener(new Ra300FrameDecoder.FrameListener() {
+      @Override
+      public void onTest(Ra300Test test) {
+        tests.add(test);
+      }
+
+      @Override
+      public void onInvalidFrame(Ra300Exception e) {
+        errors.add(e.getExceptionCause());
+      }
+    });
+  }
+
+  @Test
+  public void testNoiseBeforeFrame() {
+    byte[] noise = "noise\r~p\r".getBytes();
+    decoder.feed(noise);
+    decoder.feed(frame('A'));
+    Assert.assertEquals(1, tests.size());
+    Assert.assertEquals('A', tests.get(0).getFlag());
+    Assert.assertTrue(errors.isEmpty());
+    Assert.assertEquals(0, decoder.size());
+  }
+
+  @Test
+  public void testChunkedFeeds() {
+    byte[] data = concat(frame('A'), frame('B'));
+    // chunks that do not align with the frames
+    for(int i = 0; i < data.length; i += 7) {
+      decoder.feed(data, i, Math.min(7, data.length - i));
+      if(i + 7 < Ra300FrameDecoder.FRAME_LENGTH) Assert.assertTrue(tests.isEmpty());
+    }
+    Assert.assertEquals(2, tests.size());
+    Assert.assertEquals('A', tests.get(0).getFlag());
+    Assert.assertEquals('B', tests.get(1).getFlag());
+  }
+
+  @Test
+  public void testChecksumIsNotValidated() {
+    byte[] msg = frame('A');
+    msg[147] = 'x';
+    msg[148] = 'y';
+    decoder.feed(msg);
+    Assert.assertEquals(1, tests.size());
+    Assert.assertTrue(errors.isEmpty());
+  }
+
+  @Test
+  public void testTruncatedFrame() {
+    byte[] msg = frame('A');
+    decoder.feed(Arrays.copyOfRange(msg, 100, msg.length));
+    Assert.assertTrue(tests.isEmpty());
+    Assert.assertEquals(Arrays.asList(Cause.INVALID_FRAME), errors);
+
+    // the next frame is not affected
+    decoder.feed(msg);
+    Assert.assertEquals(1, tests.size());
+  }
+
+  @Test
+  public void testOverflowNoiseThenFrame() {
+    byte[] noise = new byte[3000];
+    Arrays.fill(noise, (byte) 'x');
+    decoder.feed(noise);
+    Assert.assertTrue(decoder.size() <= 1024);
+    decoder.feed(frame('A'));
+    Assert.assertEquals(1, tests.size());
+    Assert.assertTrue(errors.isEmpty());
+  }
+
+  /**
+   * @param flag
+   * @return a message with the given flag and blank fields
+   */
+  private static byte[] frame(char flag) {
+    byte[] msg = new byte[Ra300FrameDecoder.FRAME_LENGTH];
+    Arrays.fill(msg, (byte) ' ');
+    msg[1] = (byte) flag;
+    msg[144] = '~';
+    msg[145] = 'p';
+    msg[146] = 0x17;
+    msg[149] = 0x0d;
+    return msg;
+  }
+
+  private static byte[] concat(byte[] a, byte[] b) {
+    byte[] c = Arrays.copyOf(a, a.length + b.length);
+    System.arraycopy(b, 0, c, a.length, b.length);
+    return c;
+  }
+
+}
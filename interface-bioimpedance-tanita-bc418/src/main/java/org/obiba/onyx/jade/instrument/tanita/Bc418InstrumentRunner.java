@@ -1,10 +1,6 @@
 package org.obiba.onyx.jade.instrument.tanita;
 
-import gnu.io.SerialPortEvent;
-
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -13,6 +9,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TooManyListenersException;
+import java.util.concurrent.TimeUnit;
 
 import javax.swing.JOptionPane;
 
@@ -29,58 +26,76 @@ import org.slf4j.LoggerFactory;
  */
 public class Bc418InstrumentRunner extends TanitaInstrument {
 
-  private BufferedReader bufferedReader;
-
-  String outputData[];
-
-  public Bc418InstrumentRunner() throws Exception {
-    super();
-    log = LoggerFactory.getLogger(Bc418InstrumentRunner.class);
-  }
-
   /**
-   * Handles any serial port events from the Tanita.
-   * 
-   * @param pTanitaOutput The serial port event.
+   * How long the device has to complete its reply to a command.
    */
-  public void serialEvent(SerialPortEvent pEvent) {
+  private static final long REPLY_TIMEOUT_MILLIS = 10000;
 
-    switch(pEvent.getEventType()) {
+  private static final String[] SEGMENTS = { "RightLeg", "LeftLeg", "RightArm", "LeftArm", "Trunk" };
 
-    // Data is available at the serial port, so read it...
-    case SerialPortEvent.DATA_AVAILABLE:
+  private static final String[] SEGMENT_MEASURES = { "FatPercentage", "FatMass", "FatFreeMass", "PredictedMuscleMass" };
 
-      try {
-        if(bufferedReader.ready()) {
-          // Parse and sets the data in the GUI.
-          String wResponse = bufferedReader.readLine();
-          if(wResponse != null) {
-            wResponse = wResponse.trim();
-          }
-          setTanitaData(parseTanitaData(wResponse));
+  /**
+   * Numeric output parameters of the whole body.
+   */
+  private static final String[] MEASURE_CODES = { "Height", "Weight", "FatPercentage", "FatMass", "FatFreeMass", "TotalBodyWater", "Age", "BMI", "BMR", "Impedance" };
 
-          // Enable save button, so data can be saved.
-          saveDataBtn.setEnabled(true);
-        }
-      } catch(IOException wErrorReadingDataOnSerialPort) {
-        JOptionPane.showMessageDialog(appWindow, tanitaResourceBundle.getString("Err.Result_communication"), tanitaResourceBundle.getString("Title.Communication_error"), JOptionPane.ERROR_MESSAGE);
+  /**
+   * Segmental output parameters, in order of their fields in the measure record.
+   */
+  private static final List<String> SEGMENTAL_CODES = new ArrayList<String>();
+
+  static final TanitaRecordFormat BC418_FORMAT = new TanitaRecordFormat("BC-418")
+      .field("Date", 0, DataType.TEXT)
+      .field("Time", 1, DataType.TEXT)
+      .field("BodyType", 2, DataType.TEXT)
+      .field("Gender", 3, DataType.TEXT)
+      .field("Height", 4, DataType.INTEGER)
+      .field("Weight", 5, DataType.DECIMAL)
+      .field("FatPercentage", 6, DataType.DECIMAL)
+      .field("FatMass", 7, DataType.DECIMAL)
+      .field("FatFreeMass", 8, DataType.DECIMAL)
+      .field("TotalBodyWater", 9, DataType.DECIMAL)
+      .field("Age", 10, DataType.INTEGER)
+      .field("BMI", 11, DataType.DECIMAL)
+      .field("BMR", 12, DataType.INTEGER)
+      .field("Impedance", 13, DataType.INTEGER);
+
+  static {
+    int position = 14;
+    // no trunk impedance
+    for(int i = 0; i < SEGMENTS.length - 1; i++) {
+      SEGMENTAL_CODES.add(SEGMENTS[i] + "Impedance");
+      BC418_FORMAT.field(SEGMENTS[i] + "Impedance", position++, DataType.INTEGER);
+    }
+    for(String segment : SEGMENTS) {
+      for(String measure : SEGMENT_MEASURES) {
+        SEGMENTAL_CODES.add(segment + measure);
+        BC418_FORMAT.field(segment + measure, position++, DataType.DECIMAL);
       }
-      break;
     }
   }
 
+  public Bc418InstrumentRunner() throws Exception {
+    super();
+    log = LoggerFactory.getLogger(Bc418InstrumentRunner.class);
+    recordFormat = BC418_FORMAT;
+  }
+
   private String sendReceive(String pCommand) {
     return sendReceive(pCommand.getBytes());
   }
 
   /**
-   * Send receive.
+   * Send a command and wait for the device to complete its reply, which is received by the serial port events.
    */
   private String sendReceive(byte[] pCommand) {
 
-    String wResponse = null;
+    TanitaRecord wResponse = null;
 
     try {
+      // Only a reply completed after the command was sent is expected.
+      recordReader.clearRecords();
       if(pCommand != null) {
 
         outputStream = serialPort.getOutputStream();
@@ -100,31 +115,25 @@ public class Bc418InstrumentRunner extends TanitaInstrument {
       throw new RuntimeException("Error when sending data to device", e);
     }
 
-    // Read response
+    // Wait for the response
     try {
-      wResponse = bufferedReader.readLine();
-      if(wResponse != null) {
-        wResponse = wResponse.trim();
-      }
-      log.info("Receiving response:{}", wResponse);
-    } catch(IOException e) {
-
-      // In case of communication failure, wait for 5 secs and try again...
-      try {
-        Thread.sleep(5000);
-        wResponse = bufferedReader.readLine();
-        log.info("Receiving response:{}", wResponse);
-      } catch(Exception ex) {
-        JOptionPane.showMessageDialog(appWindow, tanitaResourceBundle.getString("Err.Communication_error_BC418"));
-        throw new RuntimeException("Communication error with the Tanita BC418, exiting runner...");
-      }
-
+      wResponse = recordReader.poll(REPLY_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if(wResponse == null) {
+      JOptionPane.showMessageDialog(appWindow, tanitaResourceBundle.getString("Err.Communication_error_BC418"));
+      throw new RuntimeException("Communication error with the Tanita BC418, exiting runner...");
     }
+    log.info("Receiving response:{}", wResponse);
 
-    return wResponse;
+    return wResponse.getLine();
   }
 
   protected boolean checkIfPortIsAvailable() throws TooManyListenersException {
+    // Replies and measures are both received from the serial port events.
+    serialPort.addEventListener(this);
+    serialPort.notifyOnDataAvailable(true);
     return true;
   }
 
@@ -261,37 +270,23 @@ public class Bc418InstrumentRunner extends TanitaInstrument {
   /**
    * Sets the Bioimpedance data in the GUI components.
    * 
-   * @param pOutputData The parsed output data from the Tanita.
-   * @throws ParseException
+   * @param record The measure record received from the Tanita.
    */
-  protected void setTanitaData(String[] outputData) {
-
-    this.outputData = outputData;
-
-    String wBodyTypeCode = outputData[2];
-    if(wBodyTypeCode.endsWith("0")) {
-      bodyTypeTxt.setText("STANDARD");
-    } else if(wBodyTypeCode.endsWith("2")) {
-      bodyTypeTxt.setText("ATHLETIC");
-    }
-
-    String wGender = outputData[3];
-    if(wGender.equals("1")) {
-      genderTxt.setText("MALE");
-    } else if(wGender.equals("2")) {
-      genderTxt.setText("FEMALE");
-    }
-
-    heightTxt.setText(outputData[4]);
-    weightTxt.setText(outputData[5]);
-    fatPctTxt.setText(outputData[6]);
-    fatMassTxt.setText(outputData[7]);
-    ffmTxt.setText(outputData[8]);
-    tbwTxt.setText(outputData[9]);
-    ageTxt.setText(outputData[10]);
-    bmiTxt.setText(outputData[11]);
-    bmrTxt.setText(outputData[12]);
-    impedanceTxt.setText(outputData[13]);
+  protected void setTanitaData(TanitaRecord record) {
+
+    bodyTypeTxt.setText(getBodyType(BC418_FORMAT.getField(record, "BodyType")));
+    genderTxt.setText(getGender(BC418_FORMAT.getField(record, "Gender")));
+
+    heightTxt.setText(BC418_FORMAT.getField(record, "Height"));
+    weightTxt.setText(BC418_FORMAT.getField(record, "Weight"));
+    fatPctTxt.setText(BC418_FORMAT.getField(record, "FatPercentage"));
+    fatMassTxt.setText(BC418_FORMAT.getField(record, "FatMass"));
+    ffmTxt.setText(BC418_FORMAT.getField(record, "FatFreeMass"));
+    tbwTxt.setText(BC418_FORMAT.getField(record, "TotalBodyWater"));
+    ageTxt.setText(BC418_FORMAT.getField(record, "Age"));
+    bmiTxt.setText(BC418_FORMAT.getField(record, "BMI"));
+    bmrTxt.setText(BC418_FORMAT.getField(record, "BMR"));
+    impedanceTxt.setText(BC418_FORMAT.getField(record, "Impedance"));
 
   }
 
@@ -300,57 +295,24 @@ public class Bc418InstrumentRunner extends TanitaInstrument {
 
     Map<String, Data> output = new HashMap<String, Data>();
 
-    output.put("BodyType", new Data(DataType.TEXT, bodyTypeTxt.getText()));
-    output.put("Weight", getDecimalValue(weightTxt.getText()));
-    output.put("Impedance", getIntegerValue(impedanceTxt.getText()));
-    output.put("BMI", getDecimalValue(bmiTxt.getText()));
-    output.put("BMR", getIntegerValue(bmrTxt.getText()));
-    output.put("FatFreeMass", getDecimalValue(ffmTxt.getText()));
-    output.put("FatMass", getDecimalValue(fatMassTxt.getText()));
-    output.put("TotalBodyWater", getDecimalValue(tbwTxt.getText()));
-    output.put("FatPercentage", getDecimalValue(fatPctTxt.getText()));
-    output.put("Gender", new Data(DataType.TEXT, genderTxt.getText()));
-    output.put("Height", getIntegerValue(heightTxt.getText()));
-    output.put("Age", getIntegerValue(ageTxt.getText()));
+    for(String code : MEASURE_CODES) {
+      output.put(code, BC418_FORMAT.getData(measureRecord, code));
+    }
+    output.put("BodyType", new Data(DataType.TEXT, getBodyType(BC418_FORMAT.getField(measureRecord, "BodyType"))));
+    output.put("Gender", new Data(DataType.TEXT, getGender(BC418_FORMAT.getField(measureRecord, "Gender"))));
 
     SimpleDateFormat format = new SimpleDateFormat("dd/MM/yy hh:mm");
     Date timestamp = null;
     try {
-      timestamp = format.parse(outputData[0].replace("\"", "") + " " + outputData[1].replace("\"", ""));
+      timestamp = format.parse(BC418_FORMAT.getField(measureRecord, "Date").replace("\"", "") + " " + BC418_FORMAT.getField(measureRecord, "Time").replace("\"", ""));
     } catch(ParseException e) {
       throw new RuntimeException("The timestamp extracted for BC418 output could not be parsed", e);
     }
     output.put("Timestamp", new Data(DataType.DATE, timestamp));
 
-    output.put("RightLegImpedance", getIntegerValue(outputData[14]));
-    output.put("LeftLegImpedance", getIntegerValue(outputData[15]));
-    output.put("RightArmImpedance", getIntegerValue(outputData[16]));
-    output.put("LeftArmImpedance", getIntegerValue(outputData[17]));
-
-    output.put("RightLegFatPercentage", getDecimalValue(outputData[18]));
-    output.put("RightLegFatMass", getDecimalValue(outputData[19]));
-    output.put("RightLegFatFreeMass", getDecimalValue(outputData[20]));
-    output.put("RightLegPredictedMuscleMass", getDecimalValue(outputData[21]));
-
-    output.put("LeftLegFatPercentage", getDecimalValue(outputData[22]));
-    output.put("LeftLegFatMass", getDecimalValue(outputData[23]));
-    output.put("LeftLegFatFreeMass", getDecimalValue(outputData[24]));
-    output.put("LeftLegPredictedMuscleMass", getDecimalValue(outputData[25]));
-
-    output.put("RightArmFatPercentage", getDecimalValue(outputData[26]));
-    output.put("RightArmFatMass", getDecimalValue(outputData[27]));
-    output.put("RightArmFatFreeMass", getDecimalValue(outputData[28]));
-    output.put("RightArmPredictedMuscleMass", getDecimalValue(outputData[29]));
-
-    output.put("LeftArmFatPercentage", getDecimalValue(outputData[30]));
-    output.put("LeftArmFatMass", getDecimalValue(outputData[31]));
-    output.put("LeftArmFatFreeMass", getDecimalValue(outputData[32]));
-    output.put("LeftArmPredictedMuscleMass", getDecimalValue(outputData[33]));
-
-    output.put("TrunkFatPercentage", getDecimalValue(outputData[34]));
-    output.put("TrunkFatMass", getDecimalValue(outputData[35]));
-    output.put("TrunkFatFreeMass", getDecimalValue(outputData[36]));
-    output.put("TrunkPredictedMuscleMass", getDecimalValue(outputData[37]));
+    for(String code : SEGMENTAL_CODES) {
+      output.put(code, BC418_FORMAT.getData(measureRecord, code));
+    }
 
     instrumentExecutionService.addOutputParameterValues(output);
     log.info("Sending output of Tanita BC-418 to server done...");
@@ -361,29 +323,9 @@ public class Bc418InstrumentRunner extends TanitaInstrument {
     super.initialize();
 
     if(!shutdown) {
-
-      try {
-        bufferedReader = new BufferedReader(new InputStreamReader(serialPort.getInputStream()));
-      } catch(IOException e) {
-        throw new RuntimeException("Cannot open serial port on BC-418", e);
-      }
-
       resetTanita();
       initParticipantData();
     }
   }
 
-  public void run() {
-    if(!shutdown) {
-      try {
-        serialPort.addEventListener(this);
-      } catch(TooManyListenersException e) {
-        throw new RuntimeException(e);
-      }
-      serialPort.notifyOnDataAvailable(true);
-    }
-
-    super.run();
-  }
-
 }
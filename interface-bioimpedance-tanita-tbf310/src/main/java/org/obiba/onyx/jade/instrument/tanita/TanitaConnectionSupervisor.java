@@ -0,0 +1,251 @@
+package org.obiba.onyx.jade.instrument.tanita;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches the serial link of a Tanita from a background thread and reopens it when it is lost, retrying with an
+ * exponential backoff, so that neither the operator nor the UI wait while the cable (or the USB-serial adapter) is put
+ * back in place. Checks and reconnections all run on the supervisor thread, one at a time.
+ */
+public class TanitaConnectionSupervisor {
+
+  private static final Logger log = LoggerFactory.getLogger(TanitaConnectionSupervisor.class);
+
+  public enum State {
+    /** The link is up. */
+    CONNECTED,
+    /** The link is being reopened. */
+    CONNECTING,
+    /** The link is down, waiting for the next attempt. */
+    DISCONNECTED
+  }
+
+  /**
+   * The supervised link.
+   */
+  public interface Connection {
+
+    /**
+     * @return true if the link is up
+     */
+    public boolean isConnected();
+
+    /**
+     * Close the link if open, and open it again.
+     * @return true if the link could be opened
+     */
+    public boolean connect();
+  }
+
+  public interface StateListener {
+
+    /**
+     * Called from the supervisor thread.
+     * @param state
+     * @param attempt number of the current reconnection attempt, 0 when connected
+     * @param retryDelayMillis when disconnected, delay before the next attempt
+     */
+    public void onStateChange(State state, int attempt, long retryDelayMillis);
+  }
+
+  private final Connection connection;
+
+  private final long checkIntervalMillis;
+
+  private final long initialRetryDelayMillis;
+
+  private final long maxRetryDelayMillis;
+
+  private final List<StateListener> listeners = new CopyOnWriteArrayList<StateListener>();
+
+  private ScheduledExecutorService executor;
+
+  private volatile State state = State.DISCONNECTED;
+
+  // Only accessed from the supervisor thread
+  private int attempt;
+
+  private long retryDelayMillis;
+
+  private ScheduledFuture<?> retry;
+
+  private final Runnable check = new Runnable() {
+    @Override
+    public void run() {
+      check();
+    }
+  };
+
+  private final Runnable reconnect = new Runnable() {
+    @Override
+    public void run() {
+      reconnect();
+    }
+  };
+
+  /**
+   * @param connection
+   * @param checkIntervalMillis how often the link is checked
+   * @param initialRetryDelayMillis delay before the second attempt, doubled after each failed attempt
+   * @param maxRetryDelayMillis maximum delay between two attempts
+   */
+  public TanitaConnectionSupervisor(Connection connection, long checkIntervalMillis, long initialRetryDelayMillis, long maxRetryDelayMillis) {
+    this.connection = connection;
+    this.checkIntervalMillis = checkIntervalMillis;
+    this.initialRetryDelayMillis = initialRetryDelayMillis;
+    this.maxRetryDelayMillis = maxRetryDelayMillis;
+  }
+
+  public void addStateListener(StateListener listener) {
+    if(listener != null) listeners.add(listener);
+  }
+
+  public void removeStateListener(StateListener listener) {
+    listeners.remove(listener);
+  }
+
+  public State getState() {
+    return state;
+  }
+
+  /**
+   * Start watching the link, reconnecting at once if it is down.
+   */
+  public synchronized void start() {
+    if(executor != null) return;
+    executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "tanita-connection-supervisor");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        resetBackoff();
+        if(isConnected()) {
+          changeState(State.CONNECTED);
+        } else {
+          reconnect();
+        }
+      }
+    });
+    executor.scheduleWithFixedDelay(check, checkIntervalMillis, checkIntervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  public synchronized void stop() {
+    if(executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+  }
+
+  /**
+   * Signal that the link may be lost (eg. on a read error or a line state change): it is checked without waiting for
+   * the next periodic check.
+   */
+  public void connectionLost() {
+    submit(check);
+  }
+
+  /**
+   * Reconnect now, whatever the state of the link (eg. after another port was selected), and start over the backoff.
+   */
+  public void retryNow() {
+    submit(new Runnable() {
+      @Override
+      public void run() {
+        resetBackoff();
+        reconnect();
+      }
+    });
+  }
+
+  private synchronized void submit(Runnable task) {
+    if(executor == null) return;
+    try {
+      executor.execute(task);
+    } catch(RejectedExecutionException e) {
+      // stopped
+    }
+  }
+
+  private void check() {
+    // when disconnected, the next attempt is already scheduled
+    if(state == State.CONNECTED && isConnected() == false) {
+      log.warn("Connection lost, reconnecting");
+      resetBackoff();
+      reconnect();
+    }
+  }
+
+  private void reconnect() {
+    if(retry != null) {
+      retry.cancel(false);
+      retry = null;
+    }
+    attempt++;
+    changeState(State.CONNECTING);
+    boolean connected;
+    try {
+      connected = connection.connect() && isConnected();
+    } catch(RuntimeException e) {
+      log.warn("Reconnection attempt {} failed", attempt, e);
+      connected = false;
+    }
+    if(Thread.currentThread().isInterrupted()) return;
+
+    if(connected) {
+      log.info("Connection established after {} attempt(s)", attempt);
+      resetBackoff();
+      changeState(State.CONNECTED);
+    } else {
+      long delay = retryDelayMillis;
+      retryDelayMillis = Math.min(retryDelayMillis * 2, maxRetryDelayMillis);
+      log.info("Connection attempt {} failed, next one in {} ms", attempt, delay);
+      state = State.DISCONNECTED;
+      for(StateListener listener : listeners) {
+        listener.onStateChange(State.DISCONNECTED, attempt, delay);
+      }
+      try {
+        retry = executor.schedule(reconnect, delay, TimeUnit.MILLISECONDS);
+      } catch(RuntimeException e) {
+        // stopped
+      }
+    }
+  }
+
+  private boolean isConnected() {
+    try {
+      return connection.isConnected();
+    } catch(RuntimeException e) {
+      log.debug("Connection check failed", e);
+      return false;
+    }
+  }
+
+  private void resetBackoff() {
+    attempt = 0;
+    retryDelayMillis = initialRetryDelayMillis;
+  }
+
+  private void changeState(State newState) {
+    state = newState;
+    for(StateListener listener : listeners) {
+      listener.onStateChange(newState, attempt, 0);
+    }
+  }
+
+}
@@ -14,12 +14,10 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.text.MessageFormat;
 import java.util.ArrayList;
-import java.util.Enumeration;
 import java.util.Locale;
 import java.util.Properties;
 import java.util.ResourceBundle;
@@ -35,12 +33,15 @@ import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JRootPane;
 import javax.swing.JTextField;
+import javax.swing.SwingUtilities;
 
 import org.obiba.onyx.jade.instrument.ExternalAppLauncherHelper;
 import org.obiba.onyx.jade.instrument.InstrumentRunner;
 import org.obiba.onyx.jade.instrument.LocalSettingsHelper;
 import org.obiba.onyx.jade.instrument.LocalSettingsHelper.CouldNotRetrieveSettingsException;
 import org.obiba.onyx.jade.instrument.LocalSettingsHelper.CouldNotSaveSettingsException;
+import org.obiba.onyx.jade.instrument.serial.DeviceSignature;
+import org.obiba.onyx.jade.instrument.serial.SerialPortDiscovery;
 import org.obiba.onyx.jade.instrument.service.InstrumentExecutionService;
 import org.obiba.onyx.util.data.Data;
 import org.obiba.onyx.util.data.DataType;
@@ -64,10 +65,23 @@ abstract public class TanitaInstrument implements InstrumentRunner, Initializing
   @SuppressWarnings("unused")
   private String tanitaCommPort;
 
-  protected BufferedReader bufferedReader;
-
   protected OutputStream outputStream;
 
+  /**
+   * Frames the bytes received on the serial port into records.
+   */
+  protected final TanitaRecordReader recordReader = new TanitaRecordReader();
+
+  /**
+   * Layout of the measure record of the model, set by the subclass.
+   */
+  protected TanitaRecordFormat recordFormat;
+
+  /**
+   * Last measure record received.
+   */
+  protected volatile TanitaRecord measureRecord;
+
   private Locale locale;
 
   // Injected by spring.
@@ -150,7 +164,7 @@ abstract public class TanitaInstrument implements InstrumentRunner, Initializing
   }
 
   // Serial port configuration
-  protected SerialPort serialPort = null;
+  protected volatile SerialPort serialPort = null;
 
   protected int baudeRate;
 
@@ -160,13 +174,24 @@ abstract public class TanitaInstrument implements InstrumentRunner, Initializing
 
   protected int stopBit;
 
-  protected boolean portIsAvailable = false;
+  protected volatile boolean portIsAvailable = false;
 
   protected String portOwnerName;
 
   private ArrayList<String> availablePortNames;
 
-  protected boolean shutdown = false;
+  protected volatile boolean shutdown = false;
+
+  // Connection supervision
+  private static final long CONNECTION_CHECK_INTERVAL_MILLIS = 1000;
+
+  private static final long RECONNECT_INITIAL_DELAY_MILLIS = 1000;
+
+  private static final long RECONNECT_MAX_DELAY_MILLIS = 30000;
+
+  protected final TanitaConnectionSupervisor connectionSupervisor;
+
+  protected JLabel connectionStatusLabel;
 
   protected Properties tanitaLocalSettings;
 
@@ -204,6 +229,47 @@ abstract public class TanitaInstrument implements InstrumentRunner, Initializing
 
     tanitaLocalSettings = new Properties();
 
+    // Reopen the serial port in the background when the link is lost.
+    connectionSupervisor = new TanitaConnectionSupervisor(new TanitaConnectionSupervisor.Connection() {
+      @Override
+      public boolean isConnected() {
+        return isConnectionHealthy();
+      }
+
+      @Override
+      public boolean connect() {
+        // The adapter may be back under another name.
+        SerialPortDiscovery.getInstance().refresh();
+        refreshSerialPortList();
+        setupSerialPort();
+        return portIsAvailable;
+      }
+    }, CONNECTION_CHECK_INTERVAL_MILLIS, RECONNECT_INITIAL_DELAY_MILLIS, RECONNECT_MAX_DELAY_MILLIS);
+    connectionSupervisor.addStateListener(new TanitaConnectionSupervisor.StateListener() {
+      @Override
+      public void onStateChange(final TanitaConnectionSupervisor.State state, final int attempt, final long retryDelayMillis) {
+        SwingUtilities.invokeLater(new Runnable() {
+          @Override
+          public void run() {
+            showConnectionStatus(state, attempt, retryDelayMillis);
+          }
+        });
+      }
+    });
+    connectionStatusLabel = new JLabel();
+
+    // Display the measure records, command replies are left to whoever waits for them.
+    recordReader.addRecordListener(new TanitaRecordReader.RecordListener() {
+      @Override
+      public void onRecord(TanitaRecord record) {
+        if(recordFormat.isMeasure(record)) {
+          onMeasure(record);
+        } else {
+          log.debug("Received {}", record);
+        }
+      }
+    });
+
     // Test string
     // setTanitaData(parseTanitaData("0,2,185,110.6,431,28.4,31.4,79.2,58.0,27,32.3,9771"));
     // saveDataBtn.setEnabled(true);
@@ -397,42 +463,84 @@ abstract public class TanitaInstrument implements InstrumentRunner, Initializing
     return new Data(DataType.DECIMAL, new Double(f.trim()));
   }
 
-  @SuppressWarnings("unchecked")
   protected void refreshSerialPortList() {
-
     log.info("Refreshing serial port list...");
-    Enumeration<CommPortIdentifier> portEnum = CommPortIdentifier.getPortIdentifiers();
-    availablePortNames = new ArrayList<String>();
-
-    // Build a list of all serial ports found.
-    while(portEnum != null && portEnum.hasMoreElements()) {
+    availablePortNames = new ArrayList<String>(SerialPortDiscovery.getInstance().listPortNames());
+  }
 
-      CommPortIdentifier port = portEnum.nextElement();
-      if(port.getPortType() == CommPortIdentifier.PORT_SERIAL) {
-        log.info("Port name={}, Port type={}", port.getName(), port.getPortType());
-        availablePortNames.add(port.getName());
-      }
-    }
+  /**
+   * The Tanita only talks when a measure is taken: it cannot be probed, only looked up on the port it was last seen on.
+   * @return
+   */
+  protected DeviceSignature getDeviceSignature() {
+    return new DeviceSignature(portOwnerName);
   }
 
   /**
    * Parses the Bioimpedance device output string (Tanita).
    * 
    * @param pTanitaOutput Output string.
-   * @return Parsed output string.
+   * @return Parsed output record.
+   */
+  protected TanitaRecord parseTanitaData(String pTanitaOutput) {
+    return TanitaRecord.parse(pTanitaOutput);
+  }
+
+  /**
+   * @param code body type field of a measure record
+   * @return the body type name, empty if the code is unknown
+   */
+  protected String getBodyType(String code) {
+    if(code.endsWith("0")) {
+      return "STANDARD";
+    } else if(code.endsWith("2")) {
+      return "ATHLETIC";
+    }
+    return "";
+  }
+
+  /**
+   * @param code gender field of a measure record
+   * @return the gender name, empty if the code is unknown
+   */
+  protected String getGender(String code) {
+    if(code.equals("1")) {
+      return "MALE";
+    } else if(code.equals("2")) {
+      return "FEMALE";
+    }
+    return "";
+  }
+
+  /**
+   * Called from the serial port thread when a complete measure record is received: displays it from the event
+   * dispatch thread.
+   * @param record
    */
-  protected String[] parseTanitaData(String pTanitaOutput) {
-    return pTanitaOutput.split(",");
+  protected void onMeasure(final TanitaRecord record) {
+    SerialPortDiscovery.getInstance().markSeen(getTanitaCommPort(), getDeviceSignature());
+    SwingUtilities.invokeLater(new Runnable() {
+      @Override
+      public void run() {
+        measureRecord = record;
+        setTanitaData(record);
+
+        // Enable save button, so data can be saved.
+        saveDataBtn.setEnabled(true);
+      }
+    });
   }
 
   /**
-   * Sets the Bioimpedance data in the GUI components.
+   * Sets the Bioimpedance data in the GUI components. The output is sent from the {@link #measureRecord}, not from
+   * the components.
    * 
-   * @param pOutputData The parsed output data from the Tanita.
+   * @param record The measure record received from the Tanita.
    */
-  abstract protected void setTanitaData(String[] pOutputData);
+  abstract protected void setTanitaData(TanitaRecord record);
 
   protected void clearTanitaData() {
+    measureRecord = null;
     bodyTypeTxt.setText("");
     genderTxt.setText("");
 
@@ -488,6 +596,7 @@ abstract public class TanitaInstrument implements InstrumentRunner, Initializing
    * Signals that the UI has finished its job.
    */
   protected void exitUI() {
+    connectionSupervisor.stop();
     appWindow.setVisible(false);
     synchronized(uiLock) {
       uiLock.notify();
@@ -507,6 +616,20 @@ abstract public class TanitaInstrument implements InstrumentRunner, Initializing
     wMeasureCountPanel.setBackground(new Color(206, 231, 255));
 
     wMeasureCountPanel.add(measureCountLabel = new MeasureCountLabel());
+    wMeasureCountPanel.add(Box.createHorizontalGlue());
+    wMeasureCountPanel.add(connectionStatusLabel);
+    wMeasureCountPanel.add(Box.createRigidArea(new Dimension(5, 0)));
+
+    // Select another port without interrupting the measure.
+    JButton wSettingsBtn = new JButton(tanitaResourceBundle.getString("Settings"));
+    wSettingsBtn.addActionListener(new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        if(chooseSerialPort()) {
+          connectionSupervisor.retryNow();
+        }
+      }
+    });
+    wMeasureCountPanel.add(wSettingsBtn);
 
     return (wMeasureCountPanel);
   }
@@ -651,7 +774,9 @@ abstract public class TanitaInstrument implements InstrumentRunner, Initializing
   }
 
   /**
-   * Reestablish a lost connection.
+   * Establish the connection before the UI is shown, asking the operator to check the cables until the device answers.
+   * Once the UI is shown, the connection is watched and reestablished in the background by the
+   * {@link TanitaConnectionSupervisor}.
    */
   protected void reestablishConnection() {
 
@@ -659,7 +784,7 @@ abstract public class TanitaInstrument implements InstrumentRunner, Initializing
 
     // Loop until connection is reestablished.
     int selectedOption;
-    while(serialPort == null || !serialPort.isCTS()) {
+    while(!isConnectionHealthy()) {
 
       selectedOption = JOptionPane.showOptionDialog(appWindow, tanitaResourceBundle.getString("Err.No_communication"), tanitaResourceBundle.getString("Title.Communication_problem"), JOptionPane.OK_CANCEL_OPTION, JOptionPane.ERROR_MESSAGE, null, options, tanitaResourceBundle.getString("OK"));
 
@@ -678,20 +803,7 @@ abstract public class TanitaInstrument implements InstrumentRunner, Initializing
         // Configuration option selected.
       } else if(selectedOption == 2) {
 
-        // List all serial port in a drop down list, so a new one can be
-        // selected.
-        refreshSerialPortList();
-        String selectedPort = (String) JOptionPane.showInputDialog(appWindow, tanitaResourceBundle.getString("Instruction.Choose_port"), tanitaResourceBundle.getString("Title.Settings"), JOptionPane.QUESTION_MESSAGE, null, availablePortNames.toArray(), getTanitaCommPort());
-
-        if(selectedPort != null) {
-          setTanitaCommPort(selectedPort);
-
-          try {
-            settingsHelper.saveSettings(tanitaLocalSettings);
-          } catch(CouldNotSaveSettingsException e) {
-            log.error("Local settings could not be persisted.", e);
-          }
-
+        if(chooseSerialPort()) {
           setupSerialPort();
         } else {
           exitUI();
@@ -700,10 +812,62 @@ abstract public class TanitaInstrument implements InstrumentRunner, Initializing
     }
   }
 
+  /**
+   * List all serial ports in a drop down list, so a new one can be selected. The selected port is persisted in the
+   * local settings.
+   * 
+   * @return false if no port was selected
+   */
+  protected boolean chooseSerialPort() {
+    SerialPortDiscovery.getInstance().refresh();
+    refreshSerialPortList();
+    String selectedPort = (String) JOptionPane.showInputDialog(appWindow, tanitaResourceBundle.getString("Instruction.Choose_port"), tanitaResourceBundle.getString("Title.Settings"), JOptionPane.QUESTION_MESSAGE, null, availablePortNames.toArray(), getTanitaCommPort());
+
+    if(selectedPort == null) return false;
+
+    setTanitaCommPort(selectedPort);
+    try {
+      settingsHelper.saveSettings(tanitaLocalSettings);
+    } catch(CouldNotSaveSettingsException e) {
+      log.error("Local settings could not be persisted.", e);
+    }
+    return true;
+  }
+
+  /**
+   * Check the link with the device, called periodically from the connection supervisor thread.
+   * 
+   * @return true if the serial port is open and usable
+   */
+  protected boolean isConnectionHealthy() {
+    return serialPort != null && portIsAvailable;
+  }
+
+  /**
+   * Display the state of the link with the device, without interrupting the operator.
+   */
+  protected void showConnectionStatus(TanitaConnectionSupervisor.State state, int attempt, long retryDelayMillis) {
+    switch(state) {
+    case CONNECTED:
+      connectionStatusLabel.setText(tanitaResourceBundle.getString("Status.Connected"));
+      connectionStatusLabel.setForeground(new Color(0, 128, 0));
+      break;
+    case CONNECTING:
+      connectionStatusLabel.setText(tanitaResourceBundle.getString("Status.Connecting"));
+      connectionStatusLabel.setForeground(new Color(204, 102, 0));
+      break;
+    case DISCONNECTED:
+      long seconds = (retryDelayMillis + 999) / 1000;
+      connectionStatusLabel.setText(MessageFormat.format(tanitaResourceBundle.getString("Status.Disconnected"), seconds, attempt));
+      connectionStatusLabel.setForeground(Color.RED);
+      break;
+    }
+  }
+
   /**
    * Establish the connection with the device connected to the serial port.
    */
-  public void setupSerialPort() {
+  public synchronized void setupSerialPort() {
 
     try {
 
@@ -713,6 +877,15 @@ abstract public class TanitaInstrument implements InstrumentRunner, Initializing
         serialPort = null;
       }
 
+      // Fall back to the port the device was last seen on if the configured one is gone.
+      if(availablePortNames != null && availablePortNames.contains(getTanitaCommPort()) == false) {
+        String lastSeenPort = SerialPortDiscovery.getInstance().discover(getDeviceSignature(), getTanitaCommPort(), 0);
+        if(lastSeenPort != null) {
+          log.info("Port {} not found, using {} where the device was last seen", getTanitaCommPort(), lastSeenPort);
+          setTanitaCommPort(lastSeenPort);
+        }
+      }
+
       // Initialize serial port attributes.
       log.info("Fetching communication port {}", getTanitaCommPort());
       CommPortIdentifier wPortId = CommPortIdentifier.getPortIdentifier(getTanitaCommPort());
@@ -722,7 +895,7 @@ abstract public class TanitaInstrument implements InstrumentRunner, Initializing
 
       // Make sure the port is "Clear To Send"
       serialPort.setSerialPortParams(baudeRate, dataLength, stopBit, parity);
-      bufferedReader = new BufferedReader(new InputStreamReader(serialPort.getInputStream()));
+      recordReader.reset();
 
       portIsAvailable = checkIfPortIsAvailable();
 
@@ -747,11 +920,9 @@ abstract public class TanitaInstrument implements InstrumentRunner, Initializing
     case SerialPortEvent.CTS:
 
       // If serial is not CTS, it means that the cable was disconnected.
-      // Attempt to reestablish the connection.
+      // Let the supervisor reestablish the connection, from its own thread.
       if(shutdown == false) {
-        // Only try to reestablish if we're not shutting down the
-        // application.
-        reestablishConnection();
+        connectionSupervisor.connectionLost();
       }
 
       break;
@@ -760,17 +931,17 @@ abstract public class TanitaInstrument implements InstrumentRunner, Initializing
     case SerialPortEvent.DATA_AVAILABLE:
 
       try {
-        if(bufferedReader.ready()) {
-
-          // Parse and sets the data in the GUI.
-          String wResponse = bufferedReader.readLine().trim();
-          setTanitaData(parseTanitaData(wResponse));
-
-          // Enable save button, so data can be saved.
-          saveDataBtn.setEnabled(true);
-        }
+        // Only what was received is read, records are reported once complete.
+        recordReader.read(serialPort.getInputStream());
       } catch(IOException wErrorReadingDataOnSerialPort) {
-        JOptionPane.showMessageDialog(appWindow, tanitaResourceBundle.getString("Err.Result_communication"), tanitaResourceBundle.getString("Title.Communication_error"), JOptionPane.ERROR_MESSAGE);
+        portIsAvailable = false;
+        connectionSupervisor.connectionLost();
+        SwingUtilities.invokeLater(new Runnable() {
+          @Override
+          public void run() {
+            JOptionPane.showMessageDialog(appWindow, tanitaResourceBundle.getString("Err.Result_communication"), tanitaResourceBundle.getString("Title.Communication_error"), JOptionPane.ERROR_MESSAGE);
+          }
+        });
       }
       break;
     }
@@ -799,6 +970,7 @@ abstract public class TanitaInstrument implements InstrumentRunner, Initializing
 
       log.info("Starting Tanita GUI");
       buildGUI();
+      connectionSupervisor.start();
 
       // Obtain the lock outside the UI thread. This will block until the UI releases the lock, at which point it
       // should
@@ -818,6 +990,7 @@ abstract public class TanitaInstrument implements InstrumentRunner, Initializing
 
   public void shutdown() {
     shutdown = true;
+    connectionSupervisor.stop();
     if(serialPort != null) {
       try {
         log.info("Closing serial port");
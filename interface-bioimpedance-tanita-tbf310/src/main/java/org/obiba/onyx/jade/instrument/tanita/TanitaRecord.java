@@ -0,0 +1,87 @@
+package org.obiba.onyx.jade.instrument.tanita;
+
+/**
+ * A complete line received from a Tanita: either the reply to a command (eg. "D0") or the comma separated fields of a
+ * measure. The field boundaries are located once, when the record is built; fields are only extracted when read.
+ */
+public class TanitaRecord {
+
+  private final String line;
+
+  // start and end (exclusive) offsets of the fields in the line
+  private final int[] starts;
+
+  private final int[] ends;
+
+  private final int fieldCount;
+
+  private TanitaRecord(String line) {
+    this.line = line;
+    int count = 1;
+    for(int i = 0; i < line.length(); i++) {
+      if(line.charAt(i) == ',') count++;
+    }
+    starts = new int[count];
+    ends = new int[count];
+    int field = 0;
+    starts[0] = 0;
+    for(int i = 0; i < line.length(); i++) {
+      if(line.charAt(i) == ',') {
+        ends[field++] = i;
+        starts[field] = i + 1;
+      }
+    }
+    ends[field] = line.length();
+    fieldCount = count;
+  }
+
+  /**
+   * @param line a line received from the device, without its line terminator
+   * @return
+   */
+  public static TanitaRecord parse(String line) {
+    return new TanitaRecord(line.trim());
+  }
+
+  public int getFieldCount() {
+    return fieldCount;
+  }
+
+  /**
+   * @param position
+   * @return the trimmed field at the given position, null if the record has no such field
+   */
+  public String getField(int position) {
+    if(position < 0 || position >= fieldCount) return null;
+    int start = starts[position];
+    int end = ends[position];
+    while(start < end && line.charAt(start) <= ' ') {
+      start++;
+    }
+    while(end > start && line.charAt(end - 1) <= ' ') {
+      end--;
+    }
+    return line.substring(start, end);
+  }
+
+  /**
+   * @return all the fields, in order
+   */
+  public String[] getFields() {
+    String[] fields = new String[fieldCount];
+    for(int i = 0; i < fieldCount; i++) {
+      fields[i] = getField(i);
+    }
+    return fields;
+  }
+
+  public String getLine() {
+    return line;
+  }
+
+  @Override
+  public String toString() {
+    return line;
+  }
+
+}
@@ -0,0 +1,111 @@
+package org.obiba.onyx.jade.instrument.tanita;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.obiba.onyx.util.data.Data;
+import org.obiba.onyx.util.data.DataType;
+
+/**
+ * Layout of the measure record of a Tanita model: the position and type of each field, by field code (the name of the
+ * output parameter it is reported in). Positions are declared once per model, records are then read without searching
+ * for their fields.
+ */
+public class TanitaRecordFormat {
+
+  private final String name;
+
+  private final Map<String, Integer> positions = new LinkedHashMap<String, Integer>();
+
+  private final Map<String, DataType> types = new LinkedHashMap<String, DataType>();
+
+  private int fieldCount;
+
+  /**
+   * @param name model name, for logging
+   */
+  public TanitaRecordFormat(String name) {
+    this.name = name;
+  }
+
+  /**
+   * Declare a field of the record.
+   * @param code
+   * @param position index of the field in the record, from 0
+   * @param type type of its value
+   * @return this for chaining
+   */
+  public TanitaRecordFormat field(String code, int position, DataType type) {
+    positions.put(code, position);
+    types.put(code, type);
+    fieldCount = Math.max(fieldCount, position + 1);
+    return this;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return number of fields of a complete measure record
+   */
+  public int getFieldCount() {
+    return fieldCount;
+  }
+
+  /**
+   * @param code
+   * @return the position of the field
+   * @throws IllegalArgumentException if the field is not part of the record
+   */
+  public int getPosition(String code) {
+    Integer position = positions.get(code);
+    if(position == null) throw new IllegalArgumentException("No field " + code + " in " + name + " record");
+    return position;
+  }
+
+  /**
+   * @return the field codes, in order of declaration
+   */
+  public Iterable<String> getCodes() {
+    return Collections.unmodifiableSet(positions.keySet());
+  }
+
+  /**
+   * @param record
+   * @return true if the record has all the fields of a measure, false for a command reply or a truncated measure
+   */
+  public boolean isMeasure(TanitaRecord record) {
+    return record.getFieldCount() >= fieldCount;
+  }
+
+  /**
+   * @param record
+   * @param code
+   * @return the trimmed text of the field
+   */
+  public String getField(TanitaRecord record, String code) {
+    return record.getField(getPosition(code));
+  }
+
+  /**
+   * @param record
+   * @param code
+   * @return the value of the field, typed as declared
+   * @throws NumberFormatException if a numeric field cannot be parsed
+   */
+  public Data getData(TanitaRecord record, String code) {
+    String value = getField(record, code);
+    DataType type = types.get(code);
+    switch(type) {
+    case INTEGER:
+      return new Data(type, Long.valueOf(value));
+    case DECIMAL:
+      return new Data(type, Double.valueOf(value));
+    default:
+      return new Data(type, value);
+    }
+  }
+
+}
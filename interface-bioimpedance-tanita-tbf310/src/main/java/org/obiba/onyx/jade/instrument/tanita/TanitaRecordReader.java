@@ -0,0 +1,181 @@
+package org.obiba.onyx.jade.instrument.tanita;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Splits the bytes received from a Tanita into records, one per line, as they arrive. Bytes are accumulated in a
+ * buffer that is reused from one line to the next, so that a line split over several serial port events is only
+ * complete when its terminator (CR or LF) is received, and reading never blocks waiting for the rest of a line.
+ * <p>
+ * Completed records are reported to the listeners, from the thread that feeds the reader, and queued for the threads
+ * waiting for a record (eg. the reply to a command). The reader is meant to be fed by a single thread.
+ */
+public class TanitaRecordReader {
+
+  private static final Logger log = LoggerFactory.getLogger(TanitaRecordReader.class);
+
+  private static final Charset CHARSET = Charset.forName("US-ASCII");
+
+  private static final int INITIAL_CAPACITY = 512;
+
+  /** A longer line is garbage: it is dropped. */
+  private static final int MAX_RECORD_LENGTH = 4096;
+
+  private static final int QUEUE_CAPACITY = 16;
+
+  public interface RecordListener {
+    public void onRecord(TanitaRecord record);
+  }
+
+  private byte[] buffer = new byte[INITIAL_CAPACITY];
+
+  // number of bytes of the incomplete line in the buffer
+  private int length;
+
+  private final BlockingQueue<TanitaRecord> records = new ArrayBlockingQueue<TanitaRecord>(QUEUE_CAPACITY);
+
+  private final List<RecordListener> listeners = new CopyOnWriteArrayList<RecordListener>();
+
+  public void addRecordListener(RecordListener listener) {
+    if(listener != null) listeners.add(listener);
+  }
+
+  public void removeRecordListener(RecordListener listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * Read the bytes available on the stream, without waiting for more.
+   * @param in
+   * @return number of bytes read
+   * @throws IOException
+   */
+  public int read(InputStream in) throws IOException {
+    int total = 0;
+    int available;
+    while((available = in.available()) > 0) {
+      int from;
+      synchronized(this) {
+        ensureCapacity(available);
+        int count = in.read(buffer, length, Math.min(available, buffer.length - length));
+        if(count <= 0) break;
+        from = length;
+        length += count;
+        total += count;
+      }
+      dispatch(from);
+    }
+    return total;
+  }
+
+  /**
+   * Add received bytes.
+   * @param data
+   * @param offset
+   * @param count
+   */
+  public void feed(byte[] data, int offset, int count) {
+    while(count > 0) {
+      int from;
+      synchronized(this) {
+        ensureCapacity(count);
+        int n = Math.min(count, buffer.length - length);
+        System.arraycopy(data, offset, buffer, length, n);
+        from = length;
+        length += n;
+        offset += n;
+        count -= n;
+      }
+      dispatch(from);
+    }
+  }
+
+  /**
+   * Wait for the next record.
+   * @param timeout
+   * @param unit
+   * @return the oldest record not yet taken, null if none was completed in time
+   * @throws InterruptedException
+   */
+  public TanitaRecord poll(long timeout, TimeUnit unit) throws InterruptedException {
+    return records.poll(timeout, unit);
+  }
+
+  /**
+   * Drop the records not yet taken, eg. before sending a command whose reply is expected.
+   */
+  public void clearRecords() {
+    records.clear();
+  }
+
+  /**
+   * Drop the incomplete line and the records not yet taken, eg. when the connection is reset.
+   */
+  public synchronized void reset() {
+    length = 0;
+    records.clear();
+  }
+
+  private void ensureCapacity(int count) {
+    if(length + count > buffer.length && buffer.length < MAX_RECORD_LENGTH) {
+      int capacity = buffer.length;
+      while(capacity < length + count && capacity < MAX_RECORD_LENGTH) {
+        capacity *= 2;
+      }
+      byte[] grown = new byte[capacity];
+      System.arraycopy(buffer, 0, grown, 0, length);
+      buffer = grown;
+    }
+    if(length == buffer.length) {
+      // no terminator in a full buffer
+      log.warn("Dropping {} bytes received without line terminator", length);
+      length = 0;
+    }
+  }
+
+  /**
+   * Extract the lines completed by the bytes added from the given offset, and report them.
+   * @param from
+   */
+  private void dispatch(int from) {
+    TanitaRecord record;
+    while((record = nextRecord(from)) != null) {
+      from = 0;
+      while(records.offer(record) == false) {
+        // nobody is waiting for the oldest records
+        records.poll();
+      }
+      for(RecordListener listener : listeners) {
+        listener.onRecord(record);
+      }
+    }
+  }
+
+  private synchronized TanitaRecord nextRecord(int from) {
+    for(int i = Math.max(0, from); i < length; i++) {
+      byte b = buffer[i];
+      if(b == '\r' || b == '\n') {
+        String line = i > 0 ? new String(buffer, 0, i, CHARSET).trim() : "";
+        // keep the bytes following the terminator for the next line
+        length -= i + 1;
+        System.arraycopy(buffer, i + 1, buffer, 0, length);
+        if(line.length() > 0) {
+          return TanitaRecord.parse(line);
+        }
+        i = -1;
+      }
+    }
+    return null;
+  }
+
+}
@@ -1,5 +1,7 @@
 package org.obiba.onyx.jade.instrument.tanita;
 
+import gnu.io.SerialPort;
+
 import java.util.HashMap;
 import java.util.Map;
 import java.util.TooManyListenersException;
@@ -10,9 +12,24 @@ import org.slf4j.LoggerFactory;
 
 public class Tbf310InstrumentRunner extends TanitaInstrument {
 
+  static final TanitaRecordFormat TBF310_FORMAT = new TanitaRecordFormat("TBF-310")
+      .field("BodyType", 0, DataType.TEXT)
+      .field("Gender", 1, DataType.TEXT)
+      .field("Height", 2, DataType.INTEGER)
+      .field("Weight", 3, DataType.DECIMAL)
+      .field("Impedance", 4, DataType.INTEGER)
+      .field("FatPercentage", 5, DataType.DECIMAL)
+      .field("FatMass", 6, DataType.DECIMAL)
+      .field("FatFreeMass", 7, DataType.DECIMAL)
+      .field("TotalBodyWater", 8, DataType.DECIMAL)
+      .field("Age", 9, DataType.INTEGER)
+      .field("BMI", 10, DataType.DECIMAL)
+      .field("BMR", 11, DataType.INTEGER);
+
   public Tbf310InstrumentRunner() throws Exception {
     super();
     log = LoggerFactory.getLogger(Tbf310InstrumentRunner.class);
+    recordFormat = TBF310_FORMAT;
   }
 
   protected boolean checkIfPortIsAvailable() throws TooManyListenersException {
@@ -35,37 +52,35 @@ public class Tbf310InstrumentRunner extends TanitaInstrument {
 
   }
 
+  /**
+   * The TBF-310 drops CTS when the cable is disconnected.
+   */
+  @Override
+  protected boolean isConnectionHealthy() {
+    SerialPort port = serialPort;
+    return port != null && portIsAvailable && port.isCTS();
+  }
+
   /**
    * Sets the Bioimpedance data in the GUI components.
    * 
-   * @param pOutputData The parsed output data from the Tanita.
+   * @param record The measure record received from the Tanita.
    */
-  public void setTanitaData(String[] pOutputData) {
-
-    String wBodyTypeCode = pOutputData[0];
-    if(wBodyTypeCode.endsWith("0")) {
-      bodyTypeTxt.setText("STANDARD");
-    } else if(wBodyTypeCode.endsWith("2")) {
-      bodyTypeTxt.setText("ATHLETIC");
-    }
-
-    String wGender = pOutputData[1];
-    if(wGender.equals("1")) {
-      genderTxt.setText("MALE");
-    } else if(wGender.equals("2")) {
-      genderTxt.setText("FEMALE");
-    }
-
-    heightTxt.setText(pOutputData[2]);
-    weightTxt.setText(pOutputData[3]);
-    impedanceTxt.setText(pOutputData[4]);
-    fatPctTxt.setText(pOutputData[5]);
-    fatMassTxt.setText(pOutputData[6]);
-    ffmTxt.setText(pOutputData[7]);
-    tbwTxt.setText(pOutputData[8]);
-    ageTxt.setText(pOutputData[9]);
-    bmiTxt.setText(pOutputData[10]);
-    bmrTxt.setText(pOutputData[11]);
+  public void setTanitaData(TanitaRecord record) {
+
+    bodyTypeTxt.setText(getBodyType(TBF310_FORMAT.getField(record, "BodyType")));
+    genderTxt.setText(getGender(TBF310_FORMAT.getField(record, "Gender")));
+
+    heightTxt.setText(TBF310_FORMAT.getField(record, "Height"));
+    weightTxt.setText(TBF310_FORMAT.getField(record, "Weight"));
+    impedanceTxt.setText(TBF310_FORMAT.getField(record, "Impedance"));
+    fatPctTxt.setText(TBF310_FORMAT.getField(record, "FatPercentage"));
+    fatMassTxt.setText(TBF310_FORMAT.getField(record, "FatMass"));
+    ffmTxt.setText(TBF310_FORMAT.getField(record, "FatFreeMass"));
+    tbwTxt.setText(TBF310_FORMAT.getField(record, "TotalBodyWater"));
+    ageTxt.setText(TBF310_FORMAT.getField(record, "Age"));
+    bmiTxt.setText(TBF310_FORMAT.getField(record, "BMI"));
+    bmrTxt.setText(TBF310_FORMAT.getField(record, "BMR"));
 
   }
 
@@ -74,18 +89,11 @@ public class Tbf310InstrumentRunner extends TanitaInstrument {
 
     Map<String, Data> output = new HashMap<String, Data>();
 
-    output.put("BodyType", new Data(DataType.TEXT, bodyTypeTxt.getText()));
-    output.put("Weight", getDecimalValue(weightTxt.getText()));
-    output.put("Impedance", getIntegerValue(impedanceTxt.getText()));
-    output.put("BMI", getDecimalValue(bmiTxt.getText()));
-    output.put("BMR", getIntegerValue(bmrTxt.getText()));
-    output.put("FatFreeMass", getDecimalValue(ffmTxt.getText()));
-    output.put("FatMass", getDecimalValue(fatMassTxt.getText()));
-    output.put("TotalBodyWater", getDecimalValue(tbwTxt.getText()));
-    output.put("FatPercentage", getDecimalValue(fatPctTxt.getText()));
-    output.put("Gender", new Data(DataType.TEXT, genderTxt.getText()));
-    output.put("Height", getIntegerValue(heightTxt.getText()));
-    output.put("Age", getIntegerValue(ageTxt.getText()));
+    for(String code : TBF310_FORMAT.getCodes()) {
+      output.put(code, TBF310_FORMAT.getData(measureRecord, code));
+    }
+    output.put("BodyType", new Data(DataType.TEXT, getBodyType(TBF310_FORMAT.getField(measureRecord, "BodyType"))));
+    output.put("Gender", new Data(DataType.TEXT, getGender(TBF310_FORMAT.getField(measureRecord, "Gender"))));
 
     instrumentExecutionService.addOutputParameterValues(output);
     clearTanitaData();
@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright 2008(c) The OBiBa Consortium. All rights reserved.
+ * 
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.obiba.onyx.jade.instrument.tanita;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.obiba.onyx.jade.instrument.tanita.TanitaConnectionSupervisor.State;
+
+public class TanitaConnectionSupervisorTest {
+
+  private TanitaConnectionSupervisor supervisor;
+
+  @After
+  public void tearDown() {
+    if(supervisor != null) supervisor.stop();
+  }
+
+  @Test
+  public void testReconnectWithBackoff() throws Exception {
+    final AtomicBoolean connected = new AtomicBoolean(true);
+    final AtomicInteger failures = new AtomicInteger(3);
+    supervisor = new TanitaConnectionSupervisor(new TanitaConnectionSupervisor.Connection() {
+      @Override
+      public boolean isConnected() {
+        return connected.get();
+      }
+
+      @Override
+      public boolean connect() {
+        connected.set(failures.getAndDecrement() <= 0);
+        return connected.get();
+      }
+    }, 1000, 10, 25);
+
+    final List<Long> delays = new CopyOnWriteArrayList<Long>();
+    final CountDownLatch startedLatch = new CountDownLatch(1);
+    final CountDownLatch connectedLatch = new CountDownLatch(2);
+    supervisor.addStateListener(new TanitaConnectionSupervisor.StateListener() {
+      @Override
+      public void onStateChange(State state, int attempt, long retryDelayMillis) {
+        if(state == State.DISCONNECTED) delays.add(retryDelayMillis);
+        if(state == State.CONNECTED) {
+          startedLatch.countDown();
+          connectedLatch.countDown();
+        }
+      }
+    });
+    supervisor.start();
+    Assert.assertTrue(startedLatch.await(5, TimeUnit.SECONDS));
+
+    // lost and signaled: reconnects without waiting for the periodic check
+    connected.set(false);
+    supervisor.connectionLost();
+
+    Assert.assertTrue(connectedLatch.await(5, TimeUnit.SECONDS));
+    Assert.assertEquals(State.CONNECTED, supervisor.getState());
+    Assert.assertEquals(3, delays.size());
+    Assert.assertEquals(Long.valueOf(10), delays.get(0));
+    Assert.assertEquals(Long.valueOf(20), delays.get(1));
+    Assert.assertEquals(Long.valueOf(25), delays.get(2));
+  }
+
+}
@@ -0,0 +1,80 @@
+/*******************************************************************************
+ * Copyright 2008(c) The OBiBa Consortium. All rights reserved.
+ * 
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.obiba.onyx.jade.instrument.tanita;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.obiba.onyx.util.data.DataType;
+
+public class TanitaRecordReaderTest {
+
+  private static final String MEASURE = "0,2,170,110.6,431,28.4,31.4,79.2,58.0,27,32.3,9771";
+
+  private TanitaRecordReader reader;
+
+  private List<TanitaRecord> received;
+
+  @Before
+  public void setUp() {
+    reader = new TanitaRecordReader();
+    received = new ArrayList<TanitaRecord>();
+    reader.addRecordListener(new TanitaRecordReader.RecordListener() {
+      @Override
+      public void onRecord(TanitaRecord record) {
+        received.add(record);
+      }
+    });
+  }
+
+  @Test
+  public void testFragmentedRecord() {
+    byte[] bytes = (MEASURE + "\r\n").getBytes();
+    // one byte per serial port event
+    for(int i = 0; i < bytes.length; i++) {
+      reader.feed(bytes, i, 1);
+      Assert.assertEquals(i < MEASURE.length() ? 0 : 1, received.size());
+    }
+    Assert.assertEquals(MEASURE, received.get(0).getLine());
+    Assert.assertEquals(12, received.get(0).getFieldCount());
+  }
+
+  @Test
+  public void testSeveralRecordsInOneRead() throws Exception {
+    reader.read(new ByteArrayInputStream(("D0\r\n\r\nD1\r\n" + MEASURE.substring(0, 10)).getBytes()));
+    Assert.assertEquals(2, received.size());
+    Assert.assertEquals("D0", reader.poll(0, TimeUnit.MILLISECONDS).getLine());
+    Assert.assertEquals("D1", reader.poll(0, TimeUnit.MILLISECONDS).getLine());
+    Assert.assertNull(reader.poll(0, TimeUnit.MILLISECONDS));
+
+    reader.read(new ByteArrayInputStream((MEASURE.substring(10) + "\r\n").getBytes()));
+    Assert.assertEquals(MEASURE, reader.poll(0, TimeUnit.MILLISECONDS).getLine());
+  }
+
+  @Test
+  public void testRecordFormat() {
+    TanitaRecordFormat format = Tbf310InstrumentRunner.TBF310_FORMAT;
+    Assert.assertFalse(format.isMeasure(TanitaRecord.parse("D0")));
+
+    TanitaRecord record = TanitaRecord.parse(" 0, 2,170,110.6 ,431,28.4,31.4,79.2,58.0,27,32.3,9771");
+    Assert.assertTrue(format.isMeasure(record));
+    Assert.assertEquals("110.6", format.getField(record, "Weight"));
+    Assert.assertEquals(DataType.DECIMAL, format.getData(record, "Weight").getType());
+    Assert.assertEquals(Double.valueOf(110.6), format.getData(record, "Weight").getValue());
+    Assert.assertEquals(Long.valueOf(9771), format.getData(record, "BMR").getValue());
+    Assert.assertNull(record.getField(12));
+  }
+
+}
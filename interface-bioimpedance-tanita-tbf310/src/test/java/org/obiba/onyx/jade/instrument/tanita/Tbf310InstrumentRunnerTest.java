@@ -10,16 +10,23 @@
 package org.obiba.onyx.jade.instrument.tanita;
 
 import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.capture;
 import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.newCapture;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
 
 import java.util.Map;
 
+import org.easymock.Capture;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.obiba.onyx.jade.instrument.ExternalAppLauncherHelper;
 import org.obiba.onyx.jade.instrument.service.InstrumentExecutionService;
 import org.obiba.onyx.util.data.Data;
+import org.obiba.onyx.util.data.DataType;
 
 public class Tbf310InstrumentRunnerTest {
 
@@ -76,6 +83,52 @@ public class Tbf310InstrumentRunnerTest {
     instrumentExecutionServiceMock.addOutputParameterValues((Map<String, Data>) anyObject());
     }
 
+  /**
+   * The output is read from the measure record, typed as declared by the TBF-310 record format.
+   */
+  @Test
+  public void testSendOutputToServer() {
+    // the GUI is not built
+    tbf310InstrumentRunner.measureCountLabel = tbf310InstrumentRunner.new MeasureCountLabel() {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      public String getText() {
+        return "";
+      }
+    };
+    Capture<Map<String, Data>> output = newCapture();
+    instrumentExecutionServiceMock.addOutputParameterValues(capture(output));
+    expect(instrumentExecutionServiceMock.getExpectedMeasureCount()).andReturn(2);
+    expect(instrumentExecutionServiceMock.getCurrentMeasureCount()).andReturn(1);
+    replay(instrumentExecutionServiceMock);
+
+    TanitaRecord record = tbf310InstrumentRunner.parseTanitaData("2,1,185,110.6,431,28.4,31.4,79.2,58.0,27,32.3,9771");
+    tbf310InstrumentRunner.measureRecord = record;
+    tbf310InstrumentRunner.setTanitaData(record);
+    tbf310InstrumentRunner.sendOutputToServer();
+
+    verify(instrumentExecutionServiceMock);
+    Map<String, Data> values = output.getValue();
+    Assert.assertEquals(12, values.size());
+    assertData(DataType.TEXT, "ATHLETIC", values.get("BodyType"));
+    assertData(DataType.TEXT, "MALE", values.get("Gender"));
+    assertData(DataType.INTEGER, 185l, values.get("Height"));
+    assertData(DataType.DECIMAL, 110.6, values.get("Weight"));
+    assertData(DataType.INTEGER, 431l, values.get("Impedance"));
+    assertData(DataType.DECIMAL, 58.0, values.get("TotalBodyWater"));
+    assertData(DataType.INTEGER, 27l, values.get("Age"));
+    assertData(DataType.INTEGER, 9771l, values.get("BMR"));
+    // the measure is not sent twice
+    Assert.assertNull(tbf310InstrumentRunner.measureRecord);
+    Assert.assertEquals("", tbf310InstrumentRunner.getWeightTxt().getText());
+  }
+
+  private void assertData(DataType type, Object value, Data data) {
+    Assert.assertEquals(type, data.getType());
+    Assert.assertEquals(value, data.getValue());
+  }
+
   @Test 
   public void testShutdown(){
     tbf310InstrumentRunner.shutdown();
@@ -16,7 +16,7 @@ public class BpmMessageLoop implements Runnable {
 
   private final BpmInstrument instrument;
 
-  private boolean stop = false;
+  private volatile boolean stop = false;
 
   public BpmMessageLoop(BpmInstrument instrument) {
     this.instrument = instrument;
@@ -18,32 +18,29 @@ import java.util.concurrent.BlockingDeque;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.TimeUnit;
 
-import libhidapi.HidapiLibrary;
-import libhidapi.HidapiLibrary.hid_device;
-
-import org.bridj.Pointer;
 import org.obiba.vsm.bptru.bpm.BpmCommands;
 import org.obiba.vsm.bptru.bpm.BpmInstrument;
 import org.obiba.vsm.bptru.bpm.BpmMessage;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.obiba.vsm.bptru.bpm.hid.HidTransport;
 
 public class Bpm200 implements BpmInstrument {
 
-  private static final Logger log = LoggerFactory.getLogger("vsm.bptru.bpm");
-
-  private final Thread commThread;
+  private static final short VENDOR_ID = 0x10b7;
 
-  private final BlockingDeque<BpmMessage> messageQueue = new LinkedBlockingDeque<BpmMessage>();
+  private static final short PRODUCT_ID = 0x1234;
 
-  private final BlockingDeque<BpmMessage> writeQueue = new LinkedBlockingDeque<BpmMessage>();
+  private static final int MAX_REPORT_SIZE = 1024;
 
-  private boolean connected = false;
+  private final HidTransport transport;
 
-  private boolean loop = true;
+  private final BlockingDeque<BpmMessage> messageQueue = new LinkedBlockingDeque<BpmMessage>();
 
   public Bpm200() {
-    commThread = new Thread(new BpmCommLoop());
+    transport = new HidTransport(VENDOR_ID, PRODUCT_ID, MAX_REPORT_SIZE, new HidTransport.ReportListener() {
+      public void onReport(byte[] report, int length) {
+        messageQueue.addAll(parse(length, report));
+      }
+    });
   }
 
   @Override
@@ -66,7 +63,7 @@ public class Bpm200 implements BpmInstrument {
   }
 
   public void send(BpmMessage msg) {
-    writeQueue.add(msg);
+    transport.send(encode(msg));
   }
 
   public BpmMessage read() {
@@ -88,96 +85,34 @@ public class Bpm200 implements BpmInstrument {
   }
 
   public void connect() {
-    commThread.start();
+    transport.start();
   }
 
   public void disconnect() {
     if(isConnected()) {
-      connected = false;
+      transport.reconnect();
     }
   }
 
   public boolean isConnected() {
-    return connected;
+    return transport.isConnected();
   }
 
   public void close() {
-    this.loop = false;
-  }
-
-  private final class BpmCommLoop implements Runnable {
-
-    private ByteBuffer writeBuffer = ByteBuffer.allocate(9);
-
-    public void run() {
-      while(loop) {
-        Pointer<hid_device> device = connect();
-        if(device != null) {
-          connected = true;
-          try {
-            comm(device);
-          } catch(RuntimeException e) {
-            log.error("Error communicating with device", e);
-          } finally {
-            HidapiLibrary.hid_close(device);
-          }
-        }
-      }
-    }
-
-    private void comm(Pointer<hid_device> device) {
-      log.debug("starting comm loop");
-      Pointer<Byte> data = Pointer.allocateBytes(1024);
-      HidapiLibrary.hid_set_nonblocking(device, 1);
-      while(loop && connected) {
-        int result = HidapiLibrary.hid_read(device, data, 1024);
-        if(result > 0) {
-          byte bytes[] = data.getBytes(result);
-          messageQueue.addAll(parse(result, bytes));
-        }
-
-        BpmMessage msg = writeQueue.poll();
-        if(msg != null) {
-          encode(msg, writeBuffer);
-          try {
-            HidapiLibrary.hid_write(device, Pointer.pointerToBytes(writeBuffer), 9);
-          } finally {
-            writeBuffer.rewind();
-          }
-        }
-      }
-    }
-
-    private Pointer<hid_device> connect() {
-      log.debug("connecting");
-      Pointer<hid_device> device = null;
-      while(device == null && loop == true) {
-        device = HidapiLibrary.hid_open((short) 0x10b7, (short) 0x1234, null);
-        if(device == null) {
-          log.debug("no device found");
-          try {
-            Thread.sleep(1000);
-          } catch(InterruptedException e) {
-            throw new RuntimeException(e);
-          }
-        } else {
-          log.debug("device found");
-        }
-      }
-      return device;
-    }
-
+    transport.stop();
   }
 
   private static final byte STX = 0x02;
 
   private static final byte ETX = 0x03;
 
-  private void encode(BpmMessage msg, ByteBuffer bb) {
+  private byte[] encode(BpmMessage msg) {
+    ByteBuffer bb = ByteBuffer.allocate(9);
     bb.put((byte) 0); // required by HID lib
     bb.put(STX);
     bb.put(msg.bytes());
     bb.put(ETX);
+    return bb.array();
   }
 
   private List<BpmMessage> parse(int count, byte[] bytes) {
@@ -0,0 +1,245 @@
+/*******************************************************************************
+ * Copyright (c) 2011 OBiBa. All rights reserved.
+ *  
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *  
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.obiba.vsm.bptru.bpm.hid;
+
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import libhidapi.HidapiLibrary;
+import libhidapi.HidapiLibrary.hid_device;
+
+import org.bridj.Pointer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Transport to a HID device. A reader thread opens the device, retrying with an increasing delay until it is found,
+ * then blocks on reads (with a timeout, so that it notices disconnections and shutdown). While connected, a writer
+ * thread blocks on the write queue and sends each report as soon as it is queued. Neither thread spins.
+ */
+public class HidTransport {
+
+  private static final Logger log = LoggerFactory.getLogger("vsm.bptru.bpm");
+
+  private static final int READ_TIMEOUT = 250;
+
+  private static final long MIN_RETRY_DELAY = 500;
+
+  private static final long MAX_RETRY_DELAY = 8000;
+
+  /**
+   * How long a restart waits for the previous reader to stop: a read, then the writer and the device to be closed.
+   */
+  private static final long STOP_TIMEOUT = 2000;
+
+  /**
+   * Receives the reports read from the device, on the reader thread.
+   */
+  public interface ReportListener {
+    public void onReport(byte[] report, int length);
+  }
+
+  private final short vendorId;
+
+  private final short productId;
+
+  private final int maxReportSize;
+
+  private final ReportListener listener;
+
+  private final BlockingDeque<byte[]> writeQueue = new LinkedBlockingDeque<byte[]>();
+
+  private final AtomicBoolean running = new AtomicBoolean(false);
+
+  private final AtomicBoolean connected = new AtomicBoolean(false);
+
+  private volatile Thread readerThread;
+
+  public HidTransport(short vendorId, short productId, int maxReportSize, ReportListener listener) {
+    this.vendorId = vendorId;
+    this.productId = productId;
+    this.maxReportSize = maxReportSize;
+    this.listener = listener;
+  }
+
+  /**
+   * Start connecting to the device. Does nothing if already started. After a stop, waits for the previous reader to
+   * close the device, so that a single reader has it open.
+   * 
+   * @throws IllegalStateException if the previous reader has not stopped within {@link #STOP_TIMEOUT}
+   */
+  public synchronized void start() {
+    if(running.get() == false) {
+      Thread previous = readerThread;
+      if(previous != null && join(previous, STOP_TIMEOUT) == false) {
+        throw new IllegalStateException("HID reader has not stopped after " + STOP_TIMEOUT + "ms");
+      }
+      running.set(true);
+      Thread thread = new Thread(new Runnable() {
+        public void run() {
+          superviseConnection();
+        }
+      }, "hid-reader");
+      thread.setDaemon(true);
+      readerThread = thread;
+      thread.start();
+    }
+  }
+
+  /**
+   * Close the connection to the device, if any, and stop connecting.
+   */
+  public synchronized void stop() {
+    if(running.compareAndSet(true, false)) {
+      connected.set(false);
+      Thread thread = readerThread;
+      if(thread != null) {
+        // wakes the reader up if it is waiting before a connection retry
+        thread.interrupt();
+      }
+    }
+  }
+
+  /**
+   * Close the current connection, a new one will be opened.
+   */
+  public void reconnect() {
+    connected.set(false);
+  }
+
+  public boolean isConnected() {
+    return connected.get();
+  }
+
+  /**
+   * Queue a report to be written to the device. Reports queued while disconnected are written once connected.
+   * 
+   * @param report
+   */
+  public void send(byte[] report) {
+    writeQueue.add(report);
+  }
+
+  void superviseConnection() {
+    long retryDelay = MIN_RETRY_DELAY;
+    try {
+      while(running.get()) {
+        Pointer<hid_device> device = HidapiLibrary.hid_open(vendorId, productId, null);
+        if(device == null) {
+          log.debug("no device found, retrying in {}ms", retryDelay);
+          Thread.sleep(retryDelay);
+          retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY);
+        } else {
+          log.debug("device found");
+          retryDelay = MIN_RETRY_DELAY;
+          communicate(device);
+        }
+      }
+    } catch(InterruptedException e) {
+      // stopped
+    } finally {
+      connected.set(false);
+      log.debug("comm loop stopped");
+    }
+  }
+
+  private void communicate(Pointer<hid_device> device) {
+    log.debug("starting comm loop");
+    connected.set(true);
+    Thread writer = new Thread(new Writer(device), "hid-writer");
+    writer.setDaemon(true);
+    writer.start();
+
+    Pointer<Byte> data = Pointer.allocateBytes(maxReportSize);
+    try {
+      while(running.get() && connected.get()) {
+        int count = HidapiLibrary.hid_read_timeout(device, data, maxReportSize, READ_TIMEOUT);
+        if(count < 0) {
+          log.warn("error reading from device, reconnecting");
+          break;
+        }
+        if(count > 0) {
+          listener.onReport(data.getBytes(count), count);
+        }
+      }
+    } catch(RuntimeException e) {
+      log.error("Error communicating with device", e);
+    } finally {
+      connected.set(false);
+      // the device must not be closed while being written to
+      writer.interrupt();
+      joinUninterruptibly(writer);
+      HidapiLibrary.hid_close(device);
+      data.release();
+    }
+  }
+
+  /**
+   * @return true if the thread has stopped within the timeout
+   */
+  private boolean join(Thread thread, long timeout) {
+    try {
+      thread.join(timeout);
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return thread.isAlive() == false;
+  }
+
+  private void joinUninterruptibly(Thread thread) {
+    boolean interrupted = false;
+    while(thread.isAlive()) {
+      try {
+        thread.join();
+      } catch(InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if(interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private final class Writer implements Runnable {
+
+    private final Pointer<hid_device> device;
+
+    private Writer(Pointer<hid_device> device) {
+      this.device = device;
+    }
+
+    public void run() {
+      try {
+        while(connected.get()) {
+          byte[] report = writeQueue.take();
+          if(connected.get() == false) {
+            // keep it for the next connection
+            writeQueue.addFirst(report);
+            break;
+          }
+          Pointer<Byte> data = Pointer.pointerToBytes(report);
+          try {
+            if(HidapiLibrary.hid_write(device, data, report.length) < 0) {
+              log.warn("error writing to device, reconnecting");
+              writeQueue.addFirst(report);
+              connected.set(false);
+            }
+          } finally {
+            data.release();
+          }
+        }
+      } catch(InterruptedException e) {
+        // connection closed
+      }
+    }
+  }
+
+}
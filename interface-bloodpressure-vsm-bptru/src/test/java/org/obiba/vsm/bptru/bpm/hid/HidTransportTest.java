@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright (c) 2011 OBiBa. All rights reserved.
+ *  
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *  
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.obiba.vsm.bptru.bpm.hid;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HidTransportTest {
+
+  private final AtomicInteger readers = new AtomicInteger();
+
+  private final AtomicInteger maxReaders = new AtomicInteger();
+
+  @Test
+  public void testRestartWaitsForPreviousReader() throws Exception {
+    final CountDownLatch started = new CountDownLatch(2);
+    // the reader takes a while to close the device once stopped
+    HidTransport transport = new TestTransport(started, 300);
+
+    transport.start();
+    Thread.sleep(50);
+    transport.stop();
+    transport.start();
+
+    Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+    transport.stop();
+    Assert.assertEquals(1, maxReaders.get());
+  }
+
+  @Test
+  public void testRestartFailsWhileReaderDoesNotStop() throws Exception {
+    final CountDownLatch blocked = new CountDownLatch(1);
+    HidTransport transport = new HidTransport((short) 0, (short) 0, 64, null) {
+      @Override
+      void superviseConnection() {
+        while(blocked.getCount() > 0) {
+          try {
+            blocked.await();
+          } catch(InterruptedException e) {
+            // a reader stuck in a native call
+          }
+        }
+      }
+    };
+
+    transport.start();
+    transport.stop();
+    try {
+      transport.start();
+      Assert.fail("Expected IllegalStateException");
+    } catch(IllegalStateException e) {
+      // expected
+    } finally {
+      blocked.countDown();
+    }
+    // starts once the reader has stopped
+    transport.start();
+    transport.stop();
+  }
+
+  private final class TestTransport extends HidTransport {
+
+    private final CountDownLatch started;
+
+    private final long closeDelay;
+
+    private TestTransport(CountDownLatch started, long closeDelay) {
+      super((short) 0, (short) 0, 64, null);
+      this.started = started;
+      this.closeDelay = closeDelay;
+    }
+
+    @Override
+    void superviseConnection() {
+      int count = readers.incrementAndGet();
+      if(count > maxReaders.get()) maxReaders.set(count);
+      started.countDown();
+      try {
+        Thread.sleep(Long.MAX_VALUE);
+      } catch(InterruptedException e) {
+        // stopped
+      }
+      long end = System.currentTimeMillis() + closeDelay;
+      while(System.currentTimeMillis() < end) {
+        try {
+          Thread.sleep(Math.max(1, end - System.currentTimeMillis()));
+        } catch(InterruptedException e) {
+          // closing
+        }
+      }
+      readers.decrementAndGet();
+    }
+  }
+
+}
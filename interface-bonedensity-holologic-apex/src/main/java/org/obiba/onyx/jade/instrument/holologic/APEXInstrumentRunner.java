@@ -20,9 +20,18 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
 
+import javax.sql.DataSource;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+
+import org.dcm4che2.data.Tag;
+import org.dcm4che2.tool.dcmrcv.ApexTag;
+import org.dcm4che2.tool.dcmrcv.DicomHeaderReader;
 import org.dcm4che2.tool.dcmrcv.DicomServer;
 import org.obiba.onyx.jade.instrument.InstrumentRunner;
+import org.obiba.onyx.jade.instrument.dicom.DicomSettings;
 import org.obiba.onyx.jade.instrument.holologic.IVAImagingScanDataExtractor.Energy;
 import org.obiba.onyx.jade.instrument.service.InstrumentExecutionService;
 import org.obiba.onyx.util.data.Data;
@@ -30,6 +39,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.AbstractDriverBasedDataSource;
 import org.springframework.util.FileSystemUtils;
 
 public class APEXInstrumentRunner implements InstrumentRunner {
@@ -40,7 +50,7 @@ public class APEXInstrumentRunner implements InstrumentRunner {
 
   private JdbcTemplate patScanDb;
 
-  private JdbcTemplate refCurveDb;
+  private ReferenceCurveCache referenceCurves;
 
   private DicomSettings dicomSettings;
 
@@ -62,6 +72,10 @@ public class APEXInstrumentRunner implements InstrumentRunner {
 
   private boolean isRepeatable;
 
+  private int extractionThreadCount = 1;
+
+  private ScanDataExtractionExecutor extractionExecutor;
+
   private static final String DICOM = "DICOM";
 
   public enum Side {
@@ -88,7 +102,28 @@ public class APEXInstrumentRunner implements InstrumentRunner {
     } catch(IOException e) {
       throw new RuntimeException(e);
     }
-    server = new DicomServer(dcmDir, dicomSettings);
+    // the embedded P and R files are not read with the headers
+    server = new DicomServer(dcmDir, dicomSettings,
+        new DicomHeaderReader(Tag.PixelData, ApexTag.PFILEDATA.getValue(), ApexTag.RFILEDATA.getValue()));
+    extractionExecutor = new ScanDataExtractionExecutor(patScanDb.getDataSource(), getExtractionThreadCount());
+  }
+
+  /**
+   * The JDBC-ODBC bridge to the Access PatScan db is not safe for concurrent use: extractions run on a single thread
+   * with it, whatever the configured count.
+   *
+   * @return
+   */
+  private int getExtractionThreadCount() {
+    DataSource dataSource = patScanDb.getDataSource();
+    if(1 < extractionThreadCount && dataSource instanceof AbstractDriverBasedDataSource) {
+      String url = ((AbstractDriverBasedDataSource) dataSource).getUrl();
+      if(null != url && url.startsWith("jdbc:odbc:")) {
+        log.info("PatScan db accessed through JDBC-ODBC, scan extractions run on a single thread");
+        return 1;
+      }
+    }
+    return extractionThreadCount;
   }
 
   /**
@@ -109,6 +144,8 @@ public class APEXInstrumentRunner implements InstrumentRunner {
    * transferred by DICOM transfer from Apex sender to dcm4che receiver.
    */
   public void shutdown() {
+    // the extractions read the received files and the PatScan db: end them first
+    extractionExecutor.shutdown();
     log.info("Shutdown Dicom server");
     server.stop();
     deleteTemporaryDicomFiles();
@@ -121,57 +158,87 @@ public class APEXInstrumentRunner implements InstrumentRunner {
     apexReceiver.setParticipantID(participantID);
     apexReceiver.setCaptureActionListener(new ActionListener() {
       public void actionPerformed(ActionEvent event) {
-        retrieveMeasurements();
-
-        List<String> missing = getMissingVariables();
-        boolean completeVariable = true;
-        boolean completeDicom = true;
-        if(false == missing.isEmpty()) {
-          int dicomCount = 0;
-          for(String out : missing) {
-            if(-1 != out.indexOf(DICOM)) {
-              dicomCount++;
-            }
+        apexReceiver.setCaptureStarted();
+        // extraction queries the Apex databases: keep it off the event dispatch thread
+        new SwingWorker<Void, Void>() {
+          @Override
+          protected Void doInBackground() throws Exception {
+            retrieveMeasurements();
+            return null;
           }
-          completeVariable = dicomCount == missing.size();
-          completeDicom = 0 == dicomCount;
-        }
 
-        if(completeVariable) {  // all variables have been captured
-          if(isRepeatable && 1 < instrumentExecutionService.getExpectedMeasureCount()) {
-            apexReceiver.setVariableStatusOKPending();
-          } else {
-            apexReceiver.setVariableStatusOK();
-          }
-        } else {
-          apexReceiver.setVariableStatusNotOK();
-        }
-        if(completeDicom) {  // all dicom files have been correctly captured
-          apexReceiver.setDicomStatusOK();
-        } else {
-          if(!apexReceiver.isValidPandRDicomFile() ||
-             !apexReceiver.isValidParticipantDicomFile()) {
-            apexReceiver.setDicomStatusNotOK();
-          } else { // no dicom files sent for verification
-            apexReceiver.setDicomStatusNotReady();
+          @Override
+          protected void done() {
+            try {
+              get();
+              updateCaptureStatus();
+            } catch(InterruptedException e) {
+              log.error("Interrupted while capturing measurements", e);
+            } catch(ExecutionException e) {
+              log.error("Error while capturing measurements", e.getCause());
+              apexReceiver.setVariableStatusNotOK();
+            } finally {
+              apexReceiver.setCaptureFinished();
+              apexReceiver.repaint();
+            }
           }
-        }
+        }.execute();
+      }
+    });
+    apexReceiver.setVisible(true);
+  }
 
-        if(completeVariable && completeDicom) {
-          apexReceiver.setSaveEnable();
+  /**
+   * Called once measurements are retrieved. Update the capture status in the GUI according to the missing variables.
+   */
+  private void updateCaptureStatus() {
+    List<String> missing = getMissingVariables();
+    boolean completeVariable = true;
+    boolean completeDicom = true;
+    if(false == missing.isEmpty()) {
+      int dicomCount = 0;
+      for(String out : missing) {
+        if(-1 != out.indexOf(DICOM)) {
+          dicomCount++;
         }
+      }
+      completeVariable = dicomCount == missing.size();
+      completeDicom = 0 == dicomCount;
+    }
 
-        apexReceiver.repaint();
+    if(completeVariable) {  // all variables have been captured
+      if(isRepeatable && 1 < instrumentExecutionService.getExpectedMeasureCount()) {
+        apexReceiver.setVariableStatusOKPending();
+      } else {
+        apexReceiver.setVariableStatusOK();
       }
-    });
-    apexReceiver.setVisible(true);
+    } else {
+      apexReceiver.setVariableStatusNotOK();
+    }
+    if(completeDicom) {  // all dicom files have been correctly captured
+      apexReceiver.setDicomStatusOK();
+    } else {
+      if(!apexReceiver.isValidPandRDicomFile() ||
+         !apexReceiver.isValidParticipantDicomFile()) {
+        apexReceiver.setDicomStatusNotOK();
+      } else { // no dicom files sent for verification
+        apexReceiver.setDicomStatusNotReady();
+      }
+    }
+
+    if(completeVariable && completeDicom) {
+      apexReceiver.setSaveEnable();
+    }
   }
 
   /**
-   * Called by initApexReceiverStatus(). Retrieve the device data, add to list of variables to send, send to
-   * instrumentExecutionService.
+   * Called by initApexReceiverStatus(), off the event dispatch thread. Retrieve the device data, add to list of
+   * variables to send, send to instrumentExecutionService.
+   *
+   * @throws ExecutionException
+   * @throws InterruptedException
    */
-  private void retrieveMeasurements() {
+  private void retrieveMeasurements() throws InterruptedException, ExecutionException {
     log.info("Retrieving measurements");
     List<Map<String, Data>> dataList = retrieveDeviceData();
     log.info("Sending data to server");
@@ -219,13 +286,15 @@ public class APEXInstrumentRunner implements InstrumentRunner {
 
   /**
    * Called by retrieveMeasurements(). Queries Apex PatScanDb for patient key, DOB, gender based on participant visit
-   * ID. Extracts Hip, Forearm, Whole Body and Spine scans and analysis data.
+   * ID. Extracts Hip, Forearm, Whole Body and Spine scans and analysis data, each scan type in parallel.
    *
    * @return
+   * @throws ExecutionException
+   * @throws InterruptedException
    */
-  private List<Map<String, Data>> retrieveDeviceData() {
+  private List<Map<String, Data>> retrieveDeviceData() throws InterruptedException, ExecutionException {
 
-    List<Map<String, Data>> dataList = new ArrayList<Map<String, Data>>();
+    List<APEXScanDataExtractor> extractors = new ArrayList<APEXScanDataExtractor>();
 
     log.info("participantID: " + participantID);
 
@@ -257,25 +326,25 @@ public class APEXInstrumentRunner implements InstrumentRunner {
       log.info("expected: " + instrumentExecutionService.getExpectedMeasureCount());
       if(null != hipSide) {
         if(hipSide.toUpperCase().startsWith("L")) {
-          extractLeftHip(dataList);
+          extractLeftHip(extractors);
         } else if(hipSide.toUpperCase().startsWith("R")) {
-          extractRightHip(dataList);
+          extractRightHip(extractors);
         } else if(hipSide.toUpperCase().startsWith("B")) {
           if(instrumentExecutionService.getExpectedMeasureCount() > 1) {
-            extractLeftHip(dataList);
-            extractRightHip(dataList);
+            extractLeftHip(extractors);
+            extractRightHip(extractors);
           } else {
-            extractScanData(dataList, new HipScanDataExtractor(patScanDb, refCurveDb, participantData, Side.LEFT, server, apexReceiver));
-            extractScanData(dataList, new HipScanDataExtractor(patScanDb, refCurveDb, participantData, Side.RIGHT, server, apexReceiver));
+            extractors.add(new HipScanDataExtractor(patScanDb, referenceCurves, participantData, Side.LEFT, server, apexReceiver));
+            extractors.add(new HipScanDataExtractor(patScanDb, referenceCurves, participantData, Side.RIGHT, server, apexReceiver));
           }
         }
       }
     } else if(instrumentExecutionService.getExpectedMeasureCount() > 1) {
-      extractLeftHip(dataList);
-      extractRightHip(dataList);
+      extractLeftHip(extractors);
+      extractRightHip(extractors);
     } else {
-      extractScanData(dataList, new HipScanDataExtractor(patScanDb, refCurveDb, participantData, Side.LEFT, server, apexReceiver));
-      extractScanData(dataList, new HipScanDataExtractor(patScanDb, refCurveDb, participantData, Side.RIGHT, server, apexReceiver));
+      extractors.add(new HipScanDataExtractor(patScanDb, referenceCurves, participantData, Side.LEFT, server, apexReceiver));
+      extractors.add(new HipScanDataExtractor(patScanDb, referenceCurves, participantData, Side.RIGHT, server, apexReceiver));
     }
     log.info("hip block in runner end");
 
@@ -284,14 +353,14 @@ public class APEXInstrumentRunner implements InstrumentRunner {
       String forearmSide = instrumentExecutionService.getInputParameterValue("ForearmSide").getValue();
       if(null != forearmSide) {
         if(forearmSide.toUpperCase().startsWith("L")) {
-          extractScanData(dataList, new ForearmScanDataExtractor(patScanDb, refCurveDb, participantData, Side.LEFT, server, apexReceiver) {
+          extractors.add(new ForearmScanDataExtractor(patScanDb, referenceCurves, participantData, Side.LEFT, server, apexReceiver) {
             @Override
             public String getName() {
               return "FA";
             }
           });
         } else if(forearmSide.toUpperCase().startsWith("R")) {
-          extractScanData(dataList, new ForearmScanDataExtractor(patScanDb, refCurveDb, participantData, Side.RIGHT, server, apexReceiver) {
+          extractors.add(new ForearmScanDataExtractor(patScanDb, referenceCurves, participantData, Side.RIGHT, server, apexReceiver) {
             @Override
             public String getName() {
               return "FA";
@@ -300,23 +369,37 @@ public class APEXInstrumentRunner implements InstrumentRunner {
         }
       }
     } else {
-      extractScanData(dataList, new ForearmScanDataExtractor(patScanDb, refCurveDb, participantData, Side.LEFT, server, apexReceiver));
-      extractScanData(dataList, new ForearmScanDataExtractor(patScanDb, refCurveDb, participantData, Side.RIGHT, server, apexReceiver));
+      extractors.add(new ForearmScanDataExtractor(patScanDb, referenceCurves, participantData, Side.LEFT, server, apexReceiver));
+      extractors.add(new ForearmScanDataExtractor(patScanDb, referenceCurves, participantData, Side.RIGHT, server, apexReceiver));
     }
     log.info("forearm block in runner end");
 
     log.info("wbody block in runner start");
-    extractScanData(dataList, new WholeBodyScanDataExtractor(patScanDb, refCurveDb, participantData, server, apexReceiver));
+    extractors.add(new WholeBodyScanDataExtractor(patScanDb, referenceCurves, participantData, server, apexReceiver));
     log.info("wbody block in runner end");
 
     log.info("iva spine block in runner start");
-    extractScanData(dataList, new IVAImagingScanDataExtractor(patScanDb, refCurveDb, participantData, Energy.CLSA_DXA, server, apexReceiver));
+    extractors.add(new IVAImagingScanDataExtractor(patScanDb, referenceCurves, participantData, Energy.CLSA_DXA, server, apexReceiver));
     log.info("iva spine block in runner end");
 
     log.info("ap spine block in runner start");
-    extractScanData(dataList, new APSpineScanDataExtractor(patScanDb, refCurveDb, participantData, server, apexReceiver));
+    extractors.add(new APSpineScanDataExtractor(patScanDb, referenceCurves, participantData, server, apexReceiver));
     log.info("ap spine block in runner end");
 
+    List<Map<String, Data>> dataList = new ArrayList<Map<String, Data>>();
+    for(Map<String, Data> extractedData : extractionExecutor.extract(extractors, new ScanDataExtractionExecutor.ProgressListener() {
+      @Override
+      public void onProgress(final int completed, final int total) {
+        SwingUtilities.invokeLater(new Runnable() {
+          @Override
+          public void run() {
+            apexReceiver.setCaptureProgress(completed, total);
+          }
+        });
+      }
+    })) {
+      dataList.add(getOutputData(extractedData));
+    }
     return dataList;
   }
 
@@ -330,16 +413,15 @@ public class APEXInstrumentRunner implements InstrumentRunner {
   }
 
   /**
-   * Called by retrieveDeviceData(). Generic calling interface to extract Apex data. Passes abstract data extractor:
-   * child classes unique to scan type (ie., forearm, spine etc.).
+   * Called by retrieveDeviceData(). Filter the data extracted by one of the abstract data extractor child classes
+   * unique to scan type (ie., forearm, spine etc.), retaining the expected output values.
    *
-   * @param dataList
-   * @param extractor
+   * @param extractedData
+   * @return
    */
-  private void extractScanData(List<Map<String, Data>> dataList, APEXScanDataExtractor extractor) {
-    log.info("extractScanData");
+  private Map<String, Data> getOutputData(Map<String, Data> extractedData) {
+    log.info("getOutputData");
     // filter the values to output
-    Map<String, Data> extractedData = extractor.extractData();
     Map<String, Data> outputData = new HashMap<String, Data>();
 
     for(Entry<String, Data> entry : extractedData.entrySet()) {
@@ -349,16 +431,16 @@ public class APEXInstrumentRunner implements InstrumentRunner {
     }
     log.info(extractedData + "");
     log.info(outputData + "");
-    dataList.add(outputData);
+    return outputData;
   }
 
   /**
    * Called by retrieveDeviceData(). Calling interface to extract Apex right hip data.
    *
-   * @param dataList
+   * @param extractors
    */
-  private void extractRightHip(List<Map<String, Data>> dataList) {
-    extractScanData(dataList, new HipScanDataExtractor(patScanDb, refCurveDb, participantData, Side.RIGHT, server, apexReceiver) {
+  private void extractRightHip(List<APEXScanDataExtractor> extractors) {
+    extractors.add(new HipScanDataExtractor(patScanDb, referenceCurves, participantData, Side.RIGHT, server, apexReceiver) {
       @Override
       public String getName() {
         return "HIP";
@@ -369,10 +451,10 @@ public class APEXInstrumentRunner implements InstrumentRunner {
   /**
    * Called by retrieveDeviceData(). Calling interface to extract Apex left hip data.
    *
-   * @param dataList
+   * @param extractors
    */
-  private void extractLeftHip(List<Map<String, Data>> dataList) {
-    extractScanData(dataList, new HipScanDataExtractor(patScanDb, refCurveDb, participantData, Side.LEFT, server, apexReceiver) {
+  private void extractLeftHip(List<APEXScanDataExtractor> extractors) {
+    extractors.add(new HipScanDataExtractor(patScanDb, referenceCurves, participantData, Side.LEFT, server, apexReceiver) {
       @Override
       public String getName() {
         return "HIP";
@@ -401,7 +483,11 @@ public class APEXInstrumentRunner implements InstrumentRunner {
   }
 
   public void setRefCurveDb(JdbcTemplate refCurveDb) {
-    this.refCurveDb = refCurveDb;
+    this.referenceCurves = new ReferenceCurveCache(refCurveDb);
+  }
+
+  public void setExtractionThreadCount(int extractionThreadCount) {
+    this.extractionThreadCount = extractionThreadCount;
   }
 
   public void setDicomSettings(DicomSettings dicomSettings) {
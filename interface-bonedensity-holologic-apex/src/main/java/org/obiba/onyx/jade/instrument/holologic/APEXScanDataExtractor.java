@@ -10,6 +10,9 @@
 package org.obiba.onyx.jade.instrument.holologic;
 
 import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -27,10 +30,12 @@ import org.dcm4che2.data.DicomElement;
 import org.dcm4che2.data.DicomObject;
 import org.dcm4che2.data.Tag;
 import org.dcm4che2.tool.dcmrcv.ApexTag;
+import org.dcm4che2.tool.dcmrcv.DicomHeader;
 import org.dcm4che2.tool.dcmrcv.DicomServer;
 import org.dcm4che2.tool.dcmrcv.DicomServer.StoredDicomFile;
 import org.dcm4che2.util.StringUtils;
 import org.obiba.onyx.jade.instrument.holologic.APEXInstrumentRunner.Side;
+import org.obiba.onyx.jade.instrument.holologic.ReferenceCurveCache.ReferenceCurve;
 import org.obiba.onyx.util.data.Data;
 import org.obiba.onyx.util.data.DataBuilder;
 import org.slf4j.Logger;
@@ -99,7 +104,7 @@ public abstract class APEXScanDataExtractor {
 
   private JdbcTemplate patScanDb;
 
-  private JdbcTemplate refCurveDb;
+  private ReferenceCurveCache referenceCurves;
 
   private String scanID;
 
@@ -113,6 +118,8 @@ public abstract class APEXScanDataExtractor {
 
   private ApexReceiver apexReceiver;
 
+  private ScanResultFetcher scanResultFetcher;
+
   //
   // Abstract methods.
   //
@@ -134,16 +141,16 @@ public abstract class APEXScanDataExtractor {
   /**
    * Constructor.
    * @param patScanDb
-   * @param refCurveDb
+   * @param referenceCurves
    * @param participantData
    * @param server
    * @param apexReceiver
    */
-  protected APEXScanDataExtractor(JdbcTemplate patScanDb, JdbcTemplate refCurveDb,
+  protected APEXScanDataExtractor(JdbcTemplate patScanDb, ReferenceCurveCache referenceCurves,
       Map<String, String> participantData, DicomServer server, ApexReceiver apexReceiver) {
     super();
     this.patScanDb = patScanDb;
-    this.refCurveDb = refCurveDb;
+    this.referenceCurves = referenceCurves;
     this.participantData = participantData;
     this.server = server;
     this.apexReceiver = apexReceiver;
@@ -346,7 +353,6 @@ public abstract class APEXScanDataExtractor {
     log.info(prefix + " bmddata contains: " + Integer.toString(bmdData.size()) + " entries to get tz");
 
     DecimalFormat format = new DecimalFormat("#.0");
-    ageBracket bracket = new ageBracket();
 
     // Determine the participant's age (at the time of the scan).
     //
@@ -373,57 +379,17 @@ public abstract class APEXScanDataExtractor {
       // and gender is always female in accordance with WHO and
       // Osteoporosis Canada guidelines.
       //
-      String method = " AND METHOD IS NULL";
+      String method = null;
       if(type.equals("S") &&
          (bmdBoneRangeKey.contains("L1_") || bmdBoneRangeKey.contains("L4_"))) {
-        method = " AND METHOD = 'APEX'";
-      }
-
-      String sql = "SELECT UNIQUE_ID, AGE_YOUNG FROM ReferenceCurve";
-      sql += " WHERE REFTYPE = '" + type + "'";
-      sql += " AND IF_CURRENT = 1 AND SEX = 'F' AND ETHNIC IS NULL";
-      sql += method;
-      sql += " AND SOURCE LIKE '%" + source + "%'";
-      sql += " AND Y_LABEL = 'IDS_REF_LBL_BMD'";
-      sql += " AND BONERANGE ";
-      sql += (ranges.get(bmdBoneRangeKey).equals("NULL") ? ("IS NULL") : ("= '" + ranges.get(bmdBoneRangeKey) + "'"));
-
-      log.info("first query (T score): " + sql);
-      Map<String, Object> mapResult;
-      try {
-        mapResult = refCurveDb.queryForMap(sql);
-      } catch(DataAccessException e) {
-        throw e;
-      }
-      String curveId = mapResult.get("UNIQUE_ID").toString();
-      Double ageYoung = new Double(mapResult.get("AGE_YOUNG").toString());
-
-      // Determine the bmd, skewness factor and standard deviation
-      // at the peak bmd age value.
-      //
-      sql = "SELECT Y_VALUE, L_VALUE, STD FROM Points WHERE UNIQUE_ID = " + curveId;
-      sql += " AND X_VALUE = " + ageYoung;
-
-      log.info("second query (T score): " + sql);
-
-      mapResult.clear();
-      try {
-        mapResult = refCurveDb.queryForMap(sql);
-      } catch(DataAccessException e) {
-        throw e;
+        method = "APEX";
       }
+      String boneRange = ranges.get(bmdBoneRangeKey).equals("NULL") ? null : ranges.get(bmdBoneRangeKey);
 
-      List<Double> bmdValues = new ArrayList<Double>();
-      bmdValues.add(new Double(mapResult.get("Y_VALUE").toString()));
-      bmdValues.add(new Double(mapResult.get("L_VALUE").toString()));
-      bmdValues.add(new Double(mapResult.get("STD").toString()));
+      ReferenceCurve curve = referenceCurves.getCurve(type, boneRange, "F", null, method, source);
+      log.info("T score reference curve: " + curve.getId());
 
-      Double X_value = bmdValue;
-      Double M_value = bmdValues.get(0);
-      Double L_value = bmdValues.get(1);
-      Double sigma = bmdValues.get(2);
-
-      Double T_score = M_value * (Math.pow(X_value / M_value, L_value) - 1.) / (L_value * sigma);
+      Double T_score = curve.computeTScore(bmdValue);
       T_score = Double.valueOf(format.format(T_score));
       if(0. == Math.abs(T_score)) T_score = 0.;
 
@@ -453,110 +419,38 @@ public abstract class APEXScanDataExtractor {
       // APEX reference curve db has no ultra distal ulna data for males
       //
       String gender = getParticipantGender().toUpperCase();
-      if(0 == gender.length() || gender.startsWith("F")) gender = " AND SEX = 'F'";
+      if(0 == gender.length() || gender.startsWith("F")) gender = "F";
       else if(gender.startsWith( "M")) {
         if(bmdBoneRangeKey.equals("U_UD_BMD")) {
           data.put(varName, DataBuilder.buildDecimal((Double)null));
           continue;
         }
-        gender = " AND SEX = 'M'";
+        gender = "M";
       }
 
       // APEX reference curve db has no forearm data for black or hispanic ethnicity
       //
       String ethnicity = getParticipantEthnicity();
       if(null == ethnicity) ethnicity = "";
-      ethnicity.toUpperCase();
       if(0 == ethnicity.length() ||
            ethnicity.equals("W") ||
            ethnicity.equals("O") ||
            ethnicity.equals("P") ||
            ethnicity.equals("I") ||
            (type.equals("R") && (ethnicity.equals("H") || ethnicity.equals("B")))) {
-        ethnicity = " AND ETHNIC IS NULL";
-      } else {
-        ethnicity = " AND ETHNIC = '" + ethnicity + "'";
-      }
-
-      sql = "SELECT UNIQUE_ID, AGE_YOUNG FROM ReferenceCurve";
-      sql += " WHERE REFTYPE = '" + getRefType() + "'";
-      sql += " AND IF_CURRENT = 1";
-      sql += gender;
-      sql += ethnicity;
-      sql += method;
-      sql += " AND SOURCE LIKE '%" + getRefSource() + "%'";
-      sql += " AND Y_LABEL = 'IDS_REF_LBL_BMD'";
-      sql += " AND BONERANGE ";
-      sql += (ranges.get(bmdBoneRangeKey).equals("NULL") ? ("IS NULL") : ("= '" + ranges.get(bmdBoneRangeKey) + "'"));
-
-      log.info("first query (Z score): " + sql);
-
-      try {
-        mapResult = refCurveDb.queryForMap(sql);
-      } catch(DataAccessException e) {
-        throw e;
-      }
-      curveId = mapResult.get("UNIQUE_ID").toString();
-
-      // Determine the age values (X axis variable) of the curve
-      //
-      sql = "SELECT X_VALUE FROM Points WHERE UNIQUE_ID = " + curveId;
-
-      log.info("second query (Z score): " + sql);
-
-      List<Map<String, Object>> listResult;
-      try {
-        listResult = refCurveDb.queryForList(sql);
-      } catch(DataAccessException e) {
-        throw e;
-      }
-      List<Double> ageTable = new ArrayList<Double>();
-      for(Map<String, Object> row : listResult) {
-        ageTable.add(new Double(row.get("X_VALUE").toString()));
+        ethnicity = null;
       }
 
-      bracket.compute(age, ageTable);
-      if(0. != bracket.ageSpan) {
-
-        // Determine the bmd, skewness factor and standard deviation
-        // at the bracketing and peak bmd age values.
-        //
-        sql = "SELECT Y_VALUE, L_VALUE, STD FROM Points WHERE UNIQUE_ID = " + curveId;
-        sql += " AND X_VALUE = ";
-
-        Double[] x_value_array = {bracket.ageMin, bracket.ageMax};
-        bmdValues.clear();
-        for(int i = 0; i < x_value_array.length; i++) {
-          log.info("third query (Z score) iter " + ((Integer) i).toString() + " : " + sql + x_value_array[i].toString());
-
-          mapResult.clear();
-          try {
-            mapResult = refCurveDb.queryForMap(sql + x_value_array[i].toString());
-          } catch(DataAccessException e) {
-            throw e;
-          }
-
-          bmdValues.add(new Double(mapResult.get("Y_VALUE").toString()));
-          bmdValues.add(new Double(mapResult.get("L_VALUE").toString()));
-          bmdValues.add(new Double(mapResult.get("STD").toString()));
-        }
-
-        Double u = (age - bracket.ageMin) / bracket.ageSpan;
-        List<Double> interpValues = new ArrayList<Double>();
-        for(int i = 0; i < bmdValues.size() / 2; i++)
-          interpValues.add((1. - u) * bmdValues.get(i) + u * bmdValues.get(i + 3));
+      curve = referenceCurves.getCurve(getRefType(), boneRange, gender, ethnicity, method, getRefSource());
+      log.info("Z score reference curve: " + curve.getId());
 
-        M_value = interpValues.get(0);
-        L_value = interpValues.get(1);
-        sigma = interpValues.get(2);
-
-        Z_score = M_value * (Math.pow(X_value / M_value, L_value) - 1.) / (L_value * sigma);
+      Z_score = curve.computeZScore(bmdValue, age);
+      if(null != Z_score) {
         Z_score = Double.valueOf(format.format(Z_score));
         if(0. == Math.abs(Z_score)) Z_score = 0.;
       }
 
       data.put(varName, DataBuilder.buildDecimal(Z_score));
-
       if(null != Z_score) {
         log.info( varName + " = " + Z_score.toString() );
       }
@@ -589,75 +483,80 @@ public abstract class APEXScanDataExtractor {
       }
 
       if(null != scanID && null != scanMode) {
+        // extractors running concurrently select from and flag the same received files: one at a time
+        synchronized(server) {
+          selectDicomFiles(data);
+        }
+      }
 
-        List<StoredDicomFile> listSelected = new ArrayList<StoredDicomFile>();
-        List<StoredDicomFile> listDicomFiles = server.listSortedDicomFiles();
-
-        // there must be at least one dicom file with a body part examined key
-        // body part name depends on the data extractor class
-        // LSPINE = lateral iva spine, expects 3 files
-        // SPINE = AP lumbar spine, expects 1 file
-        // null = whole body, expects 2 files
-        // HIP = hip, expects 1 to 2 files
-        // ARM = forearm, expects 1 to 2 files
-        // the study instance UID is used to further group files together
-        //
-        String bodyPartName = getBodyPartName();
-        log.info("body part name: " + bodyPartName);
-
-        boolean first = true;
-        int fileCount = 0;
-        String dcmStudyInstanceUID = "";
-        for(StoredDicomFile sdf : listDicomFiles) {
-          try {
-            DicomObject dicomObject = sdf.getDicomObject();
-            // only retain images from the same study
-            if( first ) {
-              dcmStudyInstanceUID = dicomObject.getString(Tag.StudyInstanceUID);
-              first = false;
-            }
-            if( !dcmStudyInstanceUID.equals(dicomObject.getString(Tag.StudyInstanceUID))) {
-              continue;
-            }
-            // only retain images with the correct set of dicom tags for the current body part exam
-            for(ApexDicomData dicomData : apexDicomList) {
-              if(dicomData.validate(sdf)) {
-                dicomData.file = sdf;
-                fileCount++;
-              }
+      log.info("finished processing files");
+      return data;
+    }
+
+    private void selectDicomFiles(Map<String, Data> data) {
+      List<StoredDicomFile> listDicomFiles = server.listDicomFiles();
+
+      // there must be at least one dicom file with a body part examined key
+      // body part name depends on the data extractor class
+      // LSPINE = lateral iva spine, expects 3 files
+      // SPINE = AP lumbar spine, expects 1 file
+      // null = whole body, expects 2 files
+      // HIP = hip, expects 1 to 2 files
+      // ARM = forearm, expects 1 to 2 files
+      // the study instance UID is used to further group files together
+      //
+      String bodyPartName = getBodyPartName();
+      log.info("body part name: " + bodyPartName);
+
+      boolean first = true;
+      int fileCount = 0;
+      String dcmStudyInstanceUID = "";
+      for(StoredDicomFile sdf : listDicomFiles) {
+        try {
+          DicomObject dicomObject = sdf.getDicomObject();
+          // only retain images from the same study
+          if( first ) {
+            dcmStudyInstanceUID = dicomObject.getString(Tag.StudyInstanceUID);
+            first = false;
+          }
+          if( !dcmStudyInstanceUID.equals(dicomObject.getString(Tag.StudyInstanceUID))) {
+            continue;
+          }
+          // only retain images with the correct set of dicom tags for the current body part exam
+          for(ApexDicomData dicomData : apexDicomList) {
+            if(dicomData.validate(dicomObject)) {
+              dicomData.file = sdf;
+              fileCount++;
             }
-          } catch(IOException e) {
-            throw new RuntimeException(e);
           }
+        } catch(IOException e) {
+          throw new RuntimeException(e);
         }
+      }
 
-        if(fileCount >= apexDicomList.size()) {
-          switch(bodyPartName) {
-            case "WBODY":
-              log.info("processing whole body dicom");
-              break;
-            case "ARM":
-              log.info("processing forearm dicom side: " + getSide().toString());
-              break;
-            case "LSPINE":
-              log.info("processing lateral iva spine dicom");
-              break;
-            case "SPINE":
-              log.info("processing ap lumbar spine dicom");
-              break;
-            case "HIP":
-              log.info("processing hip dicom side: " + getSide().toString());
-              break;
-          }
-          data.put(getResultPrefix() + "_SCANID", DataBuilder.buildText(scanID));
-          data.put(getResultPrefix() + "_SCAN_MODE", DataBuilder.buildText(scanMode));
-          processFilesExtraction(data);
+      if(fileCount >= apexDicomList.size()) {
+        switch(bodyPartName) {
+          case "WBODY":
+            log.info("processing whole body dicom");
+            break;
+          case "ARM":
+            log.info("processing forearm dicom side: " + getSide().toString());
+            break;
+          case "LSPINE":
+            log.info("processing lateral iva spine dicom");
+            break;
+          case "SPINE":
+            log.info("processing ap lumbar spine dicom");
+            break;
+          case "HIP":
+            log.info("processing hip dicom side: " + getSide().toString());
+            break;
         }
-        log.info("stored dicom files: {}, selected for processing {} ", listDicomFiles.size(), fileCount);
+        data.put(getResultPrefix() + "_SCANID", DataBuilder.buildText(scanID));
+        data.put(getResultPrefix() + "_SCAN_MODE", DataBuilder.buildText(scanMode));
+        processFilesExtraction(data);
       }
-
-      log.info("finished processing files");
-      return data;
+      log.info("stored dicom files: {}, selected for processing {} ", listDicomFiles.size(), fileCount);
     }
   }
 
@@ -671,16 +570,20 @@ public abstract class APEXScanDataExtractor {
       StoredDicomFile sdf = dicomData.file;
       // if the file failed validation, it is not the correct body part being requested
       if(null == sdf) continue;
-      boolean completeDicom = isCompleteDicom(sdf);
+      DicomHeader header;
+      try {
+        header = sdf.getHeader();
+      } catch(IOException e) {
+        throw new RuntimeException(e);
+      }
+      DicomObject dicomObject = header.getDicomObject();
+      boolean completeDicom = isCompleteDicom(header);
       apexReceiver.updatePandRDicomFileState(completeDicom);
-      boolean correctDicom = isCorrectDicom(sdf);
+      boolean correctDicom = isCorrectDicom(dicomObject);
       apexReceiver.updateParticipantDicomFileState(correctDicom);
       if(completeDicom && correctDicom) {
-        try{
-          log.info("putting dicom file with patient ID: {}",sdf.getDicomObject().getString(Tag.PatientID));
-          putDicom(data, dicomData.name, sdf);
-        } catch(IOException e) {
-        }
+        log.info("putting dicom file with patient ID: {}", dicomObject.getString(Tag.PatientID));
+        putDicom(data, dicomData.name, sdf);
       } else {
         // flag this file as being of no use
         server.cacheDirtyFile(sdf);
@@ -703,62 +606,74 @@ public abstract class APEXScanDataExtractor {
   }
 
   /**
-   * Called by putDicom(). Return true if dicom contains raw P & R data, false otherwise.
+   * Called by processFilesExtraction(). Return true if dicom header contains raw P & R data, false otherwise. The
+   * length of the embedded P & R files is checked against the declared one without reading them.
    *
    * @return
    */
-  private boolean isCompleteDicom(StoredDicomFile storedDicomFile) {
+  private boolean isCompleteDicom(DicomHeader header) {
     for(ApexTag tag : ApexTag.PandRTagSet) {
-      try {
-        DicomObject dicomObject = storedDicomFile.getDicomObject();
-        if(dicomObject.contains(tag.getValue())) {
-          if(false == dicomObject.containsValue(tag.getValue())) {
-            log.info("Missing P and/or R data in DICOM file: " + tag.name());
-            return false;
-          }
+      if(header.contains(tag.getValue())) {
+        if(false == header.containsValue(tag.getValue())) {
+          log.info("Missing P and/or R data in DICOM file: " + tag.name());
+          return false;
         }
+      }
+    }
+    for(ApexFilePayload.Kind kind : ApexFilePayload.Kind.values()) {
+      try {
+        ApexFilePayload.get(header, kind);
       } catch(IOException e) {
+        log.info("Invalid {} data in DICOM file: {}", kind, e.getMessage());
+        return false;
       }
     }
     return true;
   }
 
   /**
-   * Called by putDicom(). Return true if dicom contains correct participant identifier, false otherwise.
+   * Called by processFilesExtraction(). Return true if dicom header contains correct participant identifier, false
+   * otherwise.
    *
    * @return
    */
-  private boolean isCorrectDicom(StoredDicomFile storedDicomFile) {
+  private boolean isCorrectDicom(DicomObject dicomObject) {
     String participantID = getParticipantID();
-    try {
-      DicomObject dicomObject = storedDicomFile.getDicomObject();
-      String patientID = dicomObject.getString(Tag.PatientID);
-      if(!participantID.equals(patientID)) {
-        log.info("Expecting file for participant with ID {} but received one with ID {}",
-          participantID, patientID);
-        return false;
-      }
-    } catch(IOException e) {
+    String patientID = dicomObject.getString(Tag.PatientID);
+    if(!participantID.equals(patientID)) {
+      log.info("Expecting file for participant with ID {} but received one with ID {}",
+        participantID, patientID);
+      return false;
     }
     return true;
   }
 
   /**
    * Called by extractDataImpl(). Implementation is specific to child classes which define Apex PatScan db table names
-   * corresponding to the type of scan. Adds all analysis variables to data collection.
+   * corresponding to the type of scan. Adds all analysis variables to data collection. Only the columns read by the
+   * result set extractor are selected.
    *
    * @param table
    * @param data
    * @param rsExtractor
    * @return
    */
-  protected Map<String, Data> extractScanData(String table, Map<String, Data> data, ResultSetExtractor<Map<String, Data>> rsExtractor) {
-    return getPatScanDb().query("SELECT * FROM " + table + " WHERE PATIENT_KEY = ? AND SCANID = ?", new PreparedStatementSetter() {
-      public void setValues(PreparedStatement ps) throws SQLException {
-        ps.setString(1, getParticipantKey());
-        ps.setString(2, getScanID());
-      }
-    }, rsExtractor);
+  protected Map<String, Data> extractScanData(String table, Map<String, Data> data, ResultSetDataExtractor rsExtractor) {
+    List<String> columns = rsExtractor.getColumns();
+    if(null == scanResultFetcher) {
+      return getPatScanDb().query(ScanResultFetcher.buildQuery(table, columns), new PreparedStatementSetter() {
+        public void setValues(PreparedStatement ps) throws SQLException {
+          ps.setString(1, getParticipantKey());
+          ps.setString(2, getScanID());
+        }
+      }, rsExtractor);
+    }
+    try {
+      return scanResultFetcher.fetch(table, columns, getParticipantKey(), getScanID(), rsExtractor);
+    } catch(SQLException e) {
+      throw getPatScanDb().getExceptionTranslator().translate("extractScanData",
+          ScanResultFetcher.buildQuery(table, columns), e);
+    }
   }
 
   /**
@@ -771,11 +686,65 @@ public abstract class APEXScanDataExtractor {
 
     protected ResultSet rs;
 
+    private List<String> columns;
+
     public ResultSetDataExtractor(Map<String, Data> data) {
       super();
       this.data = data;
     }
 
+    /**
+     * Get the names of the columns read by putData(), collected by running it without a result set. putData() must
+     * read the columns through the put methods taking a column name only: reading the result set or putting a computed
+     * value fails, since the column would not be selected.
+     *
+     * @return
+     * @throws IllegalStateException if putData() reads the result set directly, puts a computed value or declares no
+     * column
+     */
+    public List<String> getColumns() {
+      ResultSet resultSet = rs;
+      columns = new ArrayList<String>();
+      rs = declaringResultSet();
+      try {
+        putData();
+        if(columns.isEmpty()) {
+          throw new IllegalStateException(getClass().getName() + " does not declare any column");
+        }
+        return columns;
+      } catch(SQLException e) {
+        throw new IllegalStateException("Unexpected result set access while declaring columns", e);
+      } finally {
+        columns = null;
+        rs = resultSet;
+      }
+    }
+
+    /**
+     * A result set that rejects any access, so that putData() cannot read a column that is not declared.
+     *
+     * @return
+     */
+    private ResultSet declaringResultSet() {
+      return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[] { ResultSet.class }, new InvocationHandler() {
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+          throw new IllegalStateException(ResultSetDataExtractor.this.getClass().getName() + " reads the result set directly (" + method.getName() + "): its columns must be read by the put methods taking a column name");
+        }
+      });
+    }
+
+    /**
+     * While columns are being declared, record the column instead of reading it.
+     *
+     * @param name
+     * @return true if the column was declared
+     */
+    private boolean declare(String name) {
+      if(null == columns) return false;
+      columns.add(name);
+      return true;
+    }
+
     @Override
     public Map<String, Data> extractData(ResultSet rs) throws SQLException, DataAccessException {
       this.rs = rs;
@@ -786,30 +755,39 @@ public abstract class APEXScanDataExtractor {
     }
 
     protected void putBoolean(String name) throws SQLException {
+      if(declare(name)) return;
       put(name, DataBuilder.buildBoolean(rs.getBoolean(name)));
     }
 
     protected void putString(String name) throws SQLException {
+      if(declare(name)) return;
       put(name, DataBuilder.buildText(rs.getString(name)));
     }
 
     protected void putNString(String name) throws SQLException {
+      if(declare(name)) return;
       put(name, DataBuilder.buildText(rs.getNString(name)));
     }
 
     protected void putInt(String name) throws SQLException {
+      if(declare(name)) return;
       put(name, DataBuilder.buildInteger(rs.getInt(name)));
     }
 
     protected void putLong(String name) throws SQLException {
+      if(declare(name)) return;
       put(name, DataBuilder.buildInteger(rs.getLong(name)));
     }
 
     protected void putDouble(String name) throws SQLException {
+      if(declare(name)) return;
       put(name, DataBuilder.buildDecimal(rs.getDouble(name)));
     }
 
     protected void put(String name, Data value) {
+      if(null != columns) {
+        throw new IllegalStateException(getClass().getName() + " puts a value for " + name + " while declaring its columns: the value must be read by the put methods taking a column name");
+      }
       String varName = getVariableName(name);
       if(data.keySet().contains(varName)) {
         throw new IllegalArgumentException("Instrument variable name already defined: " + varName);
@@ -875,59 +853,57 @@ public abstract class APEXScanDataExtractor {
       this.file = null;
     }
 
-    boolean validate(StoredDicomFile sdf) {
-      try {
-        DicomObject dicomObject = sdf.getDicomObject();
-        int failCount = 0;
-        for(Map.Entry<Integer,TagEntry> entry : validator.entrySet()) {
-          Integer tag = entry.getKey();
-          TagEntry te = entry.getValue();
-
-          boolean hasTag = dicomObject.contains(tag);
-          boolean hasValue = dicomObject.containsValue(tag);
-          String dicomValue = hasValue ? dicomObject.getString(tag).trim() : null;
-          String tagName = dicomObject.nameOf(tag);
-
-          if((te.expected && !hasTag) || (!te.expected && hasTag)) {
-            // fail condition expected or unexpected tag
-            failCount++;
-            continue;
-          }
-          if(!te.expected && !hasTag) {
-            // pass condition tag is not expected and tag is not present
-            continue;
-          }
-          if(te.matching) {
-            if(null == te.value) {
-              if(hasValue) {
-                // fail condition expected matching null tag value
-                failCount++;
-                continue;
-              }
-            } else {
-              if(!te.value.equals(dicomValue)) {
-                // fail condition expected matching tag value
-                failCount++;
-                continue;
-              }
+    /**
+     * Validate the cached header of a stored dicom file against the expected tag entries.
+     *
+     * @param dicomObject
+     * @return
+     */
+    boolean validate(DicomObject dicomObject) {
+      int failCount = 0;
+      for(Map.Entry<Integer,TagEntry> entry : validator.entrySet()) {
+        Integer tag = entry.getKey();
+        TagEntry te = entry.getValue();
+
+        boolean hasTag = dicomObject.contains(tag);
+        boolean hasValue = dicomObject.containsValue(tag);
+        String dicomValue = hasValue ? dicomObject.getString(tag).trim() : null;
+        String tagName = dicomObject.nameOf(tag);
+
+        if((te.expected && !hasTag) || (!te.expected && hasTag)) {
+          // fail condition expected or unexpected tag
+          failCount++;
+          continue;
+        }
+        if(!te.expected && !hasTag) {
+          // pass condition tag is not expected and tag is not present
+          continue;
+        }
+        if(te.matching) {
+          if(null == te.value) {
+            if(hasValue) {
+              // fail condition expected matching null tag value
+              failCount++;
+              continue;
             }
           } else {
-            if(!hasValue) {
-              // fail condition expected non-matching non-empty tag value
+            if(!te.value.equals(dicomValue)) {
+              // fail condition expected matching tag value
               failCount++;
               continue;
             }
           }
-        } // end for loop
-
-        if(0 == failCount) {
-          // found a conditionally valid file
-          return true;
+        } else {
+          if(!hasValue) {
+            // fail condition expected non-matching non-empty tag value
+            failCount++;
+            continue;
+          }
         }
-      } catch(IOException e) {
-      }
+      } // end for loop
 
-      return false;
+      // a conditionally valid file has no failures
+      return 0 == failCount;
     }
 
   }
@@ -955,46 +931,26 @@ public abstract class APEXScanDataExtractor {
     }
   }
 
+  protected JdbcTemplate getPatScanDb() {
+    return patScanDb;
+  }
+
   /**
-   * Helper class for computeTZScore().
+   * Replace the PatScan db accessor, for instance with one bound to the connection of an extraction thread.
+   *
+   * @param patScanDb
    */
-  protected final class ageBracket {
-    public Double ageMin;
-
-    public Double ageMax;
-
-    public Double ageSpan;
-
-    public ageBracket() {
-      ageMin = Double.MIN_VALUE;
-      ageMax = Double.MAX_VALUE;
-      ageSpan = 0.;
-    }
-
-    public void compute(Double age, List<Double> ageTable) {
-      ageMin = Double.MIN_VALUE;
-      ageMax = Double.MAX_VALUE;
-      for(int i = 0; i < ageTable.size() - 1; i++) {
-        double min = ageTable.get(i);
-        double max = ageTable.get(i + 1);
-        if(age >= min && age <= max) {
-          ageMin = min;
-          ageMax = age == min ? min : max;
-        }
-        else if(age > max)
-        {
-          ageMin = max;
-          ageMax = max;
-        }
-      }
-      if(Double.MIN_VALUE == ageMin) ageMin = age;
-      if(Double.MAX_VALUE == ageMax) ageMax = age;
-      ageSpan = ageMax - ageMin;
-    }
+  void setPatScanDb(JdbcTemplate patScanDb) {
+    this.patScanDb = patScanDb;
   }
 
-  protected JdbcTemplate getPatScanDb() {
-    return patScanDb;
+  /**
+   * Use the prepared statements of an extraction thread to fetch the scan analysis results.
+   *
+   * @param scanResultFetcher
+   */
+  void setScanResultFetcher(ScanResultFetcher scanResultFetcher) {
+    this.scanResultFetcher = scanResultFetcher;
   }
 
   protected String getParticipantKey() {
@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright (c) 2011 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.obiba.onyx.jade.instrument.holologic;
+
+import java.io.IOException;
+
+import org.dcm4che2.tool.dcmrcv.ApexTag;
+import org.dcm4che2.tool.dcmrcv.DicomHeader;
+
+/**
+ * A Hologic P or R scan file embedded in an APEX DICOM file. The header records where the payload (PFILEDATA or
+ * RFILEDATA) is in the file when the object is received, so that it can be validated without reading its bytes. The
+ * payload length must match the one declared by PFILELENGTH or RFILELENGTH, if any.
+ */
+public class ApexFilePayload {
+
+  public enum Kind {
+    P(ApexTag.PFILEDATA, ApexTag.PFILELENGTH), R(ApexTag.RFILEDATA, ApexTag.RFILELENGTH);
+
+    private final ApexTag dataTag;
+
+    private final ApexTag lengthTag;
+
+    private Kind(ApexTag dataTag, ApexTag lengthTag) {
+      this.dataTag = dataTag;
+      this.lengthTag = lengthTag;
+    }
+  }
+
+  private final Kind kind;
+
+  private final long length;
+
+  private ApexFilePayload(Kind kind, long length) {
+    this.kind = kind;
+    this.length = length;
+  }
+
+  /**
+   * Get the payload of the given kind, checking its recorded length against the declared one.
+   *
+   * @param header header read with the payload tags skipped
+   * @param kind
+   * @return null if the header has no such payload
+   * @throws IOException if the declared length is invalid or does not match the payload
+   */
+  public static ApexFilePayload get(DicomHeader header, Kind kind) throws IOException {
+    int tag = kind.dataTag.getValue();
+    if(!header.isSkipped(tag) || !header.containsValue(tag)) return null;
+
+    // values are padded to an even length
+    long recorded = header.getSkippedLength(tag);
+    String declared = header.getDicomObject().getString(kind.lengthTag.getValue());
+    if(declared == null) return new ApexFilePayload(kind, recorded);
+    long length;
+    try {
+      length = Long.parseLong(declared.trim());
+    } catch(RuntimeException e) {
+      throw new IOException("Invalid " + kind.lengthTag + " in " + header.getFile().getName() + ": " + declared);
+    }
+    if(length < 0 || length > recorded || recorded - length > 1) {
+      throw new IOException(kind.dataTag + " of " + header.getFile().getName() + " has " + recorded
+          + " bytes but " + kind.lengthTag + " is " + length);
+    }
+    return new ApexFilePayload(kind, length);
+  }
+
+  public Kind getKind() {
+    return kind;
+  }
+
+  /**
+   * @return length of the embedded file, padding excluded
+   */
+  public long getLength() {
+    return length;
+  }
+
+}
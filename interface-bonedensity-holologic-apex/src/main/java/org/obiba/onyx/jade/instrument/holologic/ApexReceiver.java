@@ -25,6 +25,7 @@ import javax.swing.JButton;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
 
 public class ApexReceiver extends JFrame {
 
@@ -48,6 +49,8 @@ public class ApexReceiver extends JFrame {
 
   private static final String MISSING_DICOM = "Missing DICOM files...";
 
+  private static final String CAPTURE_IN_PROGRESS = "Capturing...";
+
   private static final long serialVersionUID = 1L;
 
   private final CountDownLatch exitLatch = new CountDownLatch(1);
@@ -66,6 +69,8 @@ public class ApexReceiver extends JFrame {
 
   private JButton saveButton;
 
+  private JProgressBar captureProgressBar;
+
   private boolean validParticipantDicom = true;
 
   private boolean validPandRDicom = true;
@@ -141,10 +146,16 @@ public class ApexReceiver extends JFrame {
     waitingCaptureDicomLabel = new JLabel(CAPTURE_WAIT);
     dicomStatusPanel.add(waitingCaptureDicomLabel);
 
-    // child panel for save button
+    // child panel for capture progress and save button
     JPanel savePanel = new JPanel();
     getContentPane().add(savePanel, BorderLayout.SOUTH);
 
+    // capture progress, only visible while scans are being extracted
+    captureProgressBar = new JProgressBar();
+    captureProgressBar.setStringPainted(true);
+    captureProgressBar.setVisible(false);
+    savePanel.add(captureProgressBar);
+
     // save button
     saveButton = new JButton(OK);
     savePanel.add(saveButton);
@@ -175,6 +186,26 @@ public class ApexReceiver extends JFrame {
     captureButton.addActionListener(actionListener);
   }
 
+  public void setCaptureStarted() {
+    captureButton.setEnabled(false);
+    captureProgressBar.setIndeterminate(true);
+    captureProgressBar.setString(CAPTURE_IN_PROGRESS);
+    captureProgressBar.setVisible(true);
+    setSaveDisable();
+  }
+
+  public void setCaptureProgress(int completed, int total) {
+    captureProgressBar.setIndeterminate(false);
+    captureProgressBar.setMaximum(total);
+    captureProgressBar.setValue(completed);
+    captureProgressBar.setString(completed + " / " + total + " scans");
+  }
+
+  public void setCaptureFinished() {
+    captureProgressBar.setVisible(false);
+    captureButton.setEnabled(true);
+  }
+
   public void setVariableStatusOK() {
     waitingCaptureVariableLabel.setText(OK);
     variableStatusPanel.setBackground(Color.GREEN);
@@ -239,23 +270,25 @@ public class ApexReceiver extends JFrame {
     }
   }
 
-  public void updatePandRDicomFileState(boolean state) {
+  // dicom file states are updated by the scan extraction threads
+
+  public synchronized void updatePandRDicomFileState(boolean state) {
     validPandRDicom &= state;
   }
 
-  public boolean isValidPandRDicomFile() {
+  public synchronized boolean isValidPandRDicomFile() {
     return validPandRDicom;
   }
 
-  public void updateParticipantDicomFileState(boolean state) {
+  public synchronized void updateParticipantDicomFileState(boolean state) {
     validParticipantDicom &= state;
   }
 
-  public boolean isValidParticipantDicomFile() {
+  public synchronized boolean isValidParticipantDicomFile() {
     return validParticipantDicom;
   }
 
-  public void initializeDicomFileState() {
+  public synchronized void initializeDicomFileState() {
     validPandRDicom = true;
     validParticipantDicom = true;
   }
@@ -32,14 +32,14 @@ public class ForearmScanDataExtractor extends APEXScanDataExtractor {
 
   /**
    * @param patScanDb
-   * @param refCurveDb
+   * @param referenceCurves
    * @param participantData
    * @param side
    * @param server
    * @param apexReceiver
    */
-  protected ForearmScanDataExtractor(JdbcTemplate patScanDb, JdbcTemplate refCurveDb, Map<String, String> participantData, Side side, DicomServer server, ApexReceiver apexReceiver) {
-    super(patScanDb, refCurveDb, participantData, server, apexReceiver);
+  protected ForearmScanDataExtractor(JdbcTemplate patScanDb, ReferenceCurveCache referenceCurves, Map<String, String> participantData, Side side, DicomServer server, ApexReceiver apexReceiver) {
+    super(patScanDb, referenceCurves, participantData, server, apexReceiver);
     this.side = side;
     ApexDicomData dicom1 = new ApexDicomData();
     dicom1.validator.put(Tag.Modality, new TagEntry(true,true,"OT"));
@@ -33,14 +33,14 @@ public class IVAImagingScanDataExtractor extends APEXScanDataExtractor {
 
   /**
    * @param patScanDb
-   * @param refCurveDb
+   * @param referenceCurves
    * @param participantData
    * @param energy
    * @param server
    * @param apexReceiver
    */
-  protected IVAImagingScanDataExtractor(JdbcTemplate patScanDb, JdbcTemplate refCurveDb, Map<String, String> participantData, Energy energy, DicomServer server, ApexReceiver apexReceiver) {
-    super(patScanDb, refCurveDb, participantData, server, apexReceiver);
+  protected IVAImagingScanDataExtractor(JdbcTemplate patScanDb, ReferenceCurveCache referenceCurves, Map<String, String> participantData, Energy energy, DicomServer server, ApexReceiver apexReceiver) {
+    super(patScanDb, referenceCurves, participantData, server, apexReceiver);
     this.energy = energy;
 
     ApexDicomData dicom1 = new ApexDicomData();
@@ -0,0 +1,251 @@
+/*******************************************************************************
+ * Copyright (c) 2011 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.obiba.onyx.jade.instrument.holologic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * In-memory copy of the Apex RefCurveDb ReferenceCurve and Points tables. A curve and all of its points (age, bmd,
+ * skewness and standard deviation) are loaded once per distinct set of selection criteria and then used to compute T-
+ * and Z-scores without further queries. Reference data do not change while the instrument is running.
+ */
+public class ReferenceCurveCache {
+
+  private static final Logger log = LoggerFactory.getLogger(ReferenceCurveCache.class);
+
+  private static final String CURVE_SQL = "SELECT UNIQUE_ID, AGE_YOUNG FROM ReferenceCurve WHERE REFTYPE = ? AND IF_CURRENT = 1 AND SEX = ? AND Y_LABEL = 'IDS_REF_LBL_BMD' AND SOURCE LIKE ?";
+
+  private static final String POINTS_SQL = "SELECT X_VALUE, Y_VALUE, L_VALUE, STD FROM Points WHERE UNIQUE_ID = ? ORDER BY X_VALUE";
+
+  private final JdbcTemplate refCurveDb;
+
+  private final ConcurrentMap<CurveKey, ReferenceCurve> curves = new ConcurrentHashMap<CurveKey, ReferenceCurve>();
+
+  public ReferenceCurveCache(JdbcTemplate refCurveDb) {
+    this.refCurveDb = refCurveDb;
+  }
+
+  /**
+   * Get the current bmd reference curve matching the given criteria, querying RefCurveDb on first access only.
+   *
+   * @param refType scan reference type (eg., H for hip)
+   * @param boneRange coded anatomic region, null if not applicable (whole body)
+   * @param sex F or M
+   * @param ethnicity ethnic code, null for the default (caucasian) curve
+   * @param method curve method, null if not applicable
+   * @param source reference source (eg., NHANES)
+   * @return
+   * @throws DataAccessException if there is not exactly one matching curve or if its points cannot be read
+   */
+  public ReferenceCurve getCurve(String refType, String boneRange, String sex, String ethnicity, String method,
+      String source) throws DataAccessException {
+    CurveKey key = new CurveKey(refType, boneRange, sex, ethnicity, method, source);
+    ReferenceCurve curve = curves.get(key);
+    if(null == curve) {
+      curve = loadCurve(key);
+      ReferenceCurve previous = curves.putIfAbsent(key, curve);
+      if(null != previous) curve = previous;
+    }
+    return curve;
+  }
+
+  public void clear() {
+    curves.clear();
+  }
+
+  private ReferenceCurve loadCurve(CurveKey key) throws DataAccessException {
+    StringBuilder sql = new StringBuilder(CURVE_SQL);
+    List<Object> args = new ArrayList<Object>();
+    args.add(key.refType);
+    args.add(key.sex);
+    args.add("%" + key.source + "%");
+    appendCriterion(sql, args, "ETHNIC", key.ethnicity);
+    appendCriterion(sql, args, "METHOD", key.method);
+    appendCriterion(sql, args, "BONERANGE", key.boneRange);
+
+    log.info("loading reference curve: {} {}", sql, args);
+    Map<String, Object> curveRow = refCurveDb.queryForMap(sql.toString(), args.toArray());
+    Object curveId = curveRow.get("UNIQUE_ID");
+    double ageYoung = Double.parseDouble(curveRow.get("AGE_YOUNG").toString());
+
+    List<Map<String, Object>> rows = refCurveDb.queryForList(POINTS_SQL, curveId);
+    int size = rows.size();
+    double[] age = new double[size];
+    double[] bmd = new double[size];
+    double[] skewness = new double[size];
+    double[] std = new double[size];
+    for(int i = 0; i < size; i++) {
+      Map<String, Object> row = rows.get(i);
+      age[i] = Double.parseDouble(row.get("X_VALUE").toString());
+      bmd[i] = Double.parseDouble(row.get("Y_VALUE").toString());
+      skewness[i] = Double.parseDouble(row.get("L_VALUE").toString());
+      std[i] = Double.parseDouble(row.get("STD").toString());
+    }
+    log.info("loaded reference curve {} with {} points", curveId, size);
+    return new ReferenceCurve(curveId.toString(), ageYoung, age, bmd, skewness, std);
+  }
+
+  private static void appendCriterion(StringBuilder sql, List<Object> args, String column, String value) {
+    sql.append(" AND ").append(column);
+    if(null == value) {
+      sql.append(" IS NULL");
+    } else {
+      sql.append(" = ?");
+      args.add(value);
+    }
+  }
+
+  /**
+   * A reference curve: bmd (M), skewness (L) and standard deviation (sigma) tabulated by age, in ascending age order.
+   */
+  public static final class ReferenceCurve {
+
+    private final String id;
+
+    private final double ageYoung;
+
+    private final double[] age;
+
+    private final double[] bmd;
+
+    private final double[] skewness;
+
+    private final double[] std;
+
+    ReferenceCurve(String id, double ageYoung, double[] age, double[] bmd, double[] skewness, double[] std) {
+      this.id = id;
+      this.ageYoung = ageYoung;
+      this.age = age;
+      this.bmd = bmd;
+      this.skewness = skewness;
+      this.std = std;
+    }
+
+    public String getId() {
+      return id;
+    }
+
+    public double getAgeYoung() {
+      return ageYoung;
+    }
+
+    /**
+     * Compute the T-score of a bmd value using the curve point at the age of peak bmd.
+     *
+     * @param value
+     * @return
+     * @throws EmptyResultDataAccessException if the curve has no point at its peak bmd age
+     */
+    public double computeTScore(double value) {
+      int i = indexOf(ageYoung);
+      return score(value, bmd[i], skewness[i], std[i]);
+    }
+
+    /**
+     * Compute the Z-score of a bmd value by linear interpolation of the curve points bracketing the given age.
+     *
+     * @param value
+     * @param atAge
+     * @return null if the age is not strictly bracketed by the curve points
+     */
+    public Double computeZScore(double value, double atAge) {
+      double ageMin = Double.MIN_VALUE;
+      double ageMax = Double.MAX_VALUE;
+      for(int i = 0; i < age.length - 1; i++) {
+        double min = age[i];
+        double max = age[i + 1];
+        if(atAge >= min && atAge <= max) {
+          ageMin = min;
+          ageMax = atAge == min ? min : max;
+        } else if(atAge > max) {
+          ageMin = max;
+          ageMax = max;
+        }
+      }
+      if(Double.MIN_VALUE == ageMin) ageMin = atAge;
+      if(Double.MAX_VALUE == ageMax) ageMax = atAge;
+      double ageSpan = ageMax - ageMin;
+      if(0. == ageSpan) return null;
+
+      int lo = indexOf(ageMin);
+      int hi = indexOf(ageMax);
+      double u = (atAge - ageMin) / ageSpan;
+      double m = (1. - u) * bmd[lo] + u * bmd[hi];
+      double l = (1. - u) * skewness[lo] + u * skewness[hi];
+      double sigma = (1. - u) * std[lo] + u * std[hi];
+      return score(value, m, l, sigma);
+    }
+
+    private int indexOf(double x) {
+      int i = Arrays.binarySearch(age, x);
+      if(i < 0) {
+        throw new EmptyResultDataAccessException("No point at age " + x + " in reference curve " + id, 1);
+      }
+      return i;
+    }
+
+    private static double score(double x, double m, double l, double sigma) {
+      return m * (Math.pow(x / m, l) - 1.) / (l * sigma);
+    }
+  }
+
+  private static final class CurveKey {
+
+    private final String refType;
+
+    private final String boneRange;
+
+    private final String sex;
+
+    private final String ethnicity;
+
+    private final String method;
+
+    private final String source;
+
+    private CurveKey(String refType, String boneRange, String sex, String ethnicity, String method, String source) {
+      this.refType = refType;
+      this.boneRange = boneRange;
+      this.sex = sex;
+      this.ethnicity = ethnicity;
+      this.method = method;
+      this.source = source;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if(this == obj) return true;
+      if(!(obj instanceof CurveKey)) return false;
+      CurveKey other = (CurveKey) obj;
+      return Arrays.equals(values(), other.values());
+    }
+
+    @Override
+    public int hashCode() {
+      return Arrays.hashCode(values());
+    }
+
+    private Object[] values() {
+      return new Object[] { refType, boneRange, sex, ethnicity, method, source };
+    }
+  }
+
+}
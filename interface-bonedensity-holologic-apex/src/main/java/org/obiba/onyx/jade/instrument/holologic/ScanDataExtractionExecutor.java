@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * Copyright (c) 2011 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.obiba.onyx.jade.instrument.holologic;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.obiba.onyx.util.data.Data;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+/**
+ * Runs independent scan data extractors on a bounded pool of threads. Each thread holds its own PatScan db connection,
+ * along with the statements prepared on it, which are reused by all the extractors the thread runs until the
+ * executor is shut down. Results are returned in the order the extractors were submitted, whatever the order in which
+ * they complete.
+ * <p>
+ * More than one thread requires a driver that supports concurrent connections to the PatScan db, which the JDBC-ODBC
+ * bridge to the Access db does not: use a single thread with it.
+ */
+public class ScanDataExtractionExecutor {
+
+  private static final Logger log = LoggerFactory.getLogger(ScanDataExtractionExecutor.class);
+
+  private static final long SHUTDOWN_TIMEOUT_SECONDS = 10;
+
+  public interface ProgressListener {
+    public void onProgress(int completed, int total);
+  }
+
+  private final DataSource patScanDataSource;
+
+  private final ExecutorService executor;
+
+  private final ThreadLocal<ScanResultFetcher> threadFetcher = new ThreadLocal<ScanResultFetcher>();
+
+  private final List<ScanResultFetcher> fetchers = Collections.synchronizedList(new ArrayList<ScanResultFetcher>());
+
+  public ScanDataExtractionExecutor(DataSource patScanDataSource, int threadCount) {
+    this.patScanDataSource = patScanDataSource;
+    this.executor = Executors.newFixedThreadPool(Math.max(1, threadCount), new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "apex-extractor-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  /**
+   * Extract the data of each scan, waiting for all extractions to complete.
+   *
+   * @param extractors
+   * @param listener notified from the extraction threads, may be null
+   * @return extracted data, in the order of the extractors
+   * @throws InterruptedException
+   * @throws ExecutionException if any of the extractions failed
+   */
+  public List<Map<String, Data>> extract(List<APEXScanDataExtractor> extractors, final ProgressListener listener)
+      throws InterruptedException, ExecutionException {
+    final int total = extractors.size();
+    final AtomicInteger completed = new AtomicInteger();
+    if(null != listener) listener.onProgress(0, total);
+
+    List<Future<Map<String, Data>>> futures = new ArrayList<Future<Map<String, Data>>>(total);
+    for(final APEXScanDataExtractor extractor : extractors) {
+      futures.add(executor.submit(new Callable<Map<String, Data>>() {
+        @Override
+        public Map<String, Data> call() throws Exception {
+          ScanResultFetcher fetcher = getThreadFetcher();
+          try {
+            extractor.setPatScanDb(new JdbcTemplate(new SingleConnectionDataSource(fetcher.getConnection(), true)));
+            extractor.setScanResultFetcher(fetcher);
+            return extractor.extractData();
+          } catch(Exception e) {
+            // the connection may be unusable, the next extraction on this thread will open a new one
+            discardThreadFetcher();
+            throw e;
+          } finally {
+            int count = completed.incrementAndGet();
+            log.info("{} scan extraction done ({}/{})", extractor.getName(), count, total);
+            if(null != listener) listener.onProgress(count, total);
+          }
+        }
+      }));
+    }
+
+    List<Map<String, Data>> dataList = new ArrayList<Map<String, Data>>(total);
+    try {
+      for(Future<Map<String, Data>> future : futures) {
+        dataList.add(future.get());
+      }
+    } finally {
+      for(Future<Map<String, Data>> future : futures) {
+        future.cancel(true);
+      }
+    }
+    return dataList;
+  }
+
+  /**
+   * Interrupt the running extractions and wait for them to end before closing the PatScan db connections, so that a
+   * connection is not closed while a statement is being executed on it.
+   */
+  public void shutdown() {
+    executor.shutdownNow();
+    try {
+      if(false == executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        log.warn("Scan extractions still running after {}s, closing their PatScan db connections", SHUTDOWN_TIMEOUT_SECONDS);
+      }
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    synchronized(fetchers) {
+      for(ScanResultFetcher fetcher : fetchers) {
+        fetcher.close();
+      }
+      fetchers.clear();
+    }
+  }
+
+  private ScanResultFetcher getThreadFetcher() throws SQLException {
+    ScanResultFetcher fetcher = threadFetcher.get();
+    if(null == fetcher) {
+      fetcher = new ScanResultFetcher(patScanDataSource.getConnection());
+      threadFetcher.set(fetcher);
+      fetchers.add(fetcher);
+    }
+    return fetcher;
+  }
+
+  private void discardThreadFetcher() {
+    ScanResultFetcher fetcher = threadFetcher.get();
+    if(null != fetcher) {
+      threadFetcher.remove();
+      fetchers.remove(fetcher);
+      fetcher.close();
+    }
+  }
+
+}
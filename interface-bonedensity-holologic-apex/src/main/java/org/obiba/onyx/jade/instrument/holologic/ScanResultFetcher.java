@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright (c) 2011 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.obiba.onyx.jade.instrument.holologic;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.ResultSetExtractor;
+
+/**
+ * Fetches the analysis results of a scan from the PatScan db tables keyed by PATIENT_KEY and SCANID. Only the columns
+ * declared by the caller are selected, and the statement for a given table and set of columns is prepared once per
+ * connection and reused by every scan extractor running on that connection.
+ * <p>
+ * Not thread safe: an instance is meant to be used by a single extraction thread at a time.
+ */
+public class ScanResultFetcher {
+
+  private static final Logger log = LoggerFactory.getLogger(ScanResultFetcher.class);
+
+  private final Connection connection;
+
+  private final Map<String, PreparedStatement> statements = new HashMap<String, PreparedStatement>();
+
+  public ScanResultFetcher(Connection connection) {
+    this.connection = connection;
+  }
+
+  public Connection getConnection() {
+    return connection;
+  }
+
+  /**
+   * Select the given columns of the table row for a scan.
+   *
+   * @param table
+   * @param columns
+   * @param patientKey
+   * @param scanId
+   * @param rsExtractor
+   * @return
+   * @throws SQLException
+   */
+  public <T> T fetch(String table, List<String> columns, String patientKey, String scanId,
+      ResultSetExtractor<T> rsExtractor) throws SQLException {
+    String sql = buildQuery(table, columns);
+    PreparedStatement ps = statements.get(sql);
+    if(null == ps) {
+      log.debug("Preparing {}", sql);
+      ps = connection.prepareStatement(sql);
+      statements.put(sql, ps);
+    }
+    ps.setString(1, patientKey);
+    ps.setString(2, scanId);
+    ResultSet rs = ps.executeQuery();
+    try {
+      return rsExtractor.extractData(rs);
+    } finally {
+      rs.close();
+    }
+  }
+
+  /**
+   * Close the prepared statements and the underlying connection.
+   */
+  public void close() {
+    for(PreparedStatement ps : statements.values()) {
+      try {
+        ps.close();
+      } catch(SQLException e) {
+        // ignore
+      }
+    }
+    statements.clear();
+    try {
+      connection.close();
+    } catch(SQLException e) {
+      log.warn("Error while closing PatScan db connection", e);
+    }
+  }
+
+  public static String buildQuery(String table, List<String> columns) {
+    StringBuilder sql = new StringBuilder("SELECT ");
+    for(int i = 0; i < columns.size(); i++) {
+      if(0 < i) sql.append(", ");
+      sql.append(columns.get(i));
+    }
+    sql.append(" FROM ").append(table).append(" WHERE PATIENT_KEY = ? AND SCANID = ?");
+    return sql.toString();
+  }
+
+}
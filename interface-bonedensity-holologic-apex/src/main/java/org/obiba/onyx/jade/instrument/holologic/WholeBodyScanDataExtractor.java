@@ -30,13 +30,13 @@ public class WholeBodyScanDataExtractor extends APEXScanDataExtractor {
 
   /**
    * @param patScanDb
-   * @param refCurveDb
+   * @param referenceCurves
    * @param participantData
    * @param server
    * @param apexReceiver
    */
-  protected WholeBodyScanDataExtractor(JdbcTemplate patScanDb, JdbcTemplate refCurveDb, Map<String, String> participantData, DicomServer server, ApexReceiver apexReceiver) {
-    super(patScanDb, refCurveDb, participantData, server, apexReceiver);
+  protected WholeBodyScanDataExtractor(JdbcTemplate patScanDb, ReferenceCurveCache referenceCurves, Map<String, String> participantData, DicomServer server, ApexReceiver apexReceiver) {
+    super(patScanDb, referenceCurves, participantData, server, apexReceiver);
     ApexDicomData dicom1 = new ApexDicomData();
     dicom1.validator.put(Tag.Modality, new TagEntry(true,true,"OT"));
     dicom1.validator.put(Tag.BodyPartExamined, new TagEntry(true,true,null));
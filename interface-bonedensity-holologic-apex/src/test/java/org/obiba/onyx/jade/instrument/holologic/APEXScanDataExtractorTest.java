@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * Copyright (c) 2011 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.obiba.onyx.jade.instrument.holologic;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.obiba.onyx.jade.instrument.holologic.APEXInstrumentRunner.Side;
+import org.obiba.onyx.util.data.Data;
+import org.obiba.onyx.util.data.DataBuilder;
+import org.springframework.dao.DataAccessException;
+
+public class APEXScanDataExtractorTest {
+
+  private final TestScanDataExtractor extractor = new TestScanDataExtractor();
+
+  private final Map<String, Data> data = new HashMap<String, Data>();
+
+  @Test
+  public void testColumnsAreDeclaredByPutData() {
+    APEXScanDataExtractor.ResultSetDataExtractor rsExtractor = extractor.new ResultSetDataExtractor(data) {
+      @Override
+      protected void putData() throws SQLException, DataAccessException {
+        putDouble("AREA");
+        putLong("ROI_TYPE");
+        for(int i = 1; i <= 2; i++) {
+          putString("REG" + i + "_NAME");
+        }
+      }
+    };
+
+    Assert.assertEquals(Arrays.asList("AREA", "ROI_TYPE", "REG1_NAME", "REG2_NAME"), rsExtractor.getColumns());
+    Assert.assertTrue(data.isEmpty());
+  }
+
+  @Test
+  public void testDeclaredColumnsAreRead() throws SQLException {
+    APEXScanDataExtractor.ResultSetDataExtractor rsExtractor = extractor.new ResultSetDataExtractor(data) {
+      @Override
+      protected void putData() throws SQLException, DataAccessException {
+        putDouble("AREA");
+        putLong("ROI_TYPE");
+      }
+    };
+    ResultSet rs = createMock(ResultSet.class);
+    expect(rs.next()).andReturn(true);
+    expect(rs.getDouble("AREA")).andReturn(12.5);
+    expect(rs.getLong("ROI_TYPE")).andReturn(3l);
+    replay(rs);
+
+    rsExtractor.getColumns();
+    rsExtractor.extractData(rs);
+
+    verify(rs);
+    Assert.assertEquals(2, data.size());
+    Assert.assertEquals(12.5, (Double) data.get("TEST_AREA").getValue(), 0);
+    Assert.assertEquals(Long.valueOf(3), data.get("TEST_ROI_TYPE").getValue());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testDirectResultSetReadFails() {
+    extractor.new ResultSetDataExtractor(data) {
+      @Override
+      protected void putData() throws SQLException, DataAccessException {
+        putDouble("AREA");
+        put("BMD", DataBuilder.buildDecimal(rs.getDouble("BMC") / rs.getDouble("AREA")));
+      }
+    }.getColumns();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testComputedValueFails() {
+    extractor.new ResultSetDataExtractor(data) {
+      @Override
+      protected void putData() throws SQLException, DataAccessException {
+        putDouble("AREA");
+        put("CONSTANT", DataBuilder.buildDecimal(1.0));
+      }
+    }.getColumns();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testNoColumnFails() {
+    extractor.new ResultSetDataExtractor(data) {
+      @Override
+      protected void putData() throws SQLException, DataAccessException {
+      }
+    }.getColumns();
+  }
+
+  private static class TestScanDataExtractor extends APEXScanDataExtractor {
+
+    TestScanDataExtractor() {
+      super(null, null, null, null, null);
+    }
+
+    @Override
+    public String getName() {
+      return "TEST";
+    }
+
+    @Override
+    public String getBodyPartName() {
+      return "TEST";
+    }
+
+    @Override
+    public Side getSide() {
+      return null;
+    }
+
+    @Override
+    protected long getScanType() {
+      return 0;
+    }
+
+    @Override
+    public String getRefType() {
+      return null;
+    }
+
+    @Override
+    public String getRefSource() {
+      return null;
+    }
+
+    @Override
+    protected void extractDataImpl(Map<String, Data> data) {
+    }
+
+  }
+
+}
@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * Copyright (c) 2011 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.obiba.onyx.jade.instrument.holologic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.obiba.onyx.jade.instrument.holologic.ReferenceCurveCache.ReferenceCurve;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+public class ReferenceCurveCacheTest {
+
+  private static final double DELTA = 1e-9;
+
+  private CountingTemplate refCurveDb;
+
+  private ReferenceCurveCache cache;
+
+  @Before
+  public void setUp() {
+    refCurveDb = new CountingTemplate();
+    cache = new ReferenceCurveCache(refCurveDb);
+  }
+
+  @Test
+  public void testCurveIsLoadedOnce() {
+    ReferenceCurve curve = cache.getCurve("H", "1", "F", null, null, "NHANES");
+
+    Assert.assertSame(curve, cache.getCurve("H", "1", "F", null, null, "NHANES"));
+    Assert.assertEquals(1, refCurveDb.curveQueries);
+    Assert.assertEquals(1, refCurveDb.pointsQueries);
+    Assert.assertEquals("42", curve.getId());
+    Assert.assertEquals(30., curve.getAgeYoung(), DELTA);
+  }
+
+  @Test
+  public void testCurvesAreCachedByCriteria() {
+    cache.getCurve("H", "1", "F", null, null, "NHANES");
+    cache.getCurve("H", "1", "M", null, null, "NHANES");
+    cache.getCurve("H", "1", "F", "B", null, "NHANES");
+    cache.getCurve("H", "1", "F", null, null, "NHANES");
+
+    Assert.assertEquals(3, refCurveDb.curveQueries);
+  }
+
+  @Test
+  public void testCurveQuery() {
+    cache.getCurve("H", "1", "F", null, "CORE", "NHANES");
+
+    // null criteria are matched with IS NULL and are not bound
+    Assert.assertTrue(refCurveDb.curveSql.endsWith(" AND ETHNIC IS NULL AND METHOD = ? AND BONERANGE = ?"));
+    Assert.assertEquals(Arrays.<Object> asList("H", "F", "%NHANES%", "CORE", "1"), refCurveDb.curveArgs);
+  }
+
+  @Test
+  public void testClear() {
+    cache.getCurve("H", "1", "F", null, null, "NHANES");
+    cache.clear();
+    cache.getCurve("H", "1", "F", null, null, "NHANES");
+
+    Assert.assertEquals(2, refCurveDb.curveQueries);
+  }
+
+  @Test
+  public void testTScore() {
+    ReferenceCurve curve = cache.getCurve("H", "1", "F", null, null, "NHANES");
+
+    // with no skewness, the score is the distance to the peak bmd in standard deviations
+    Assert.assertEquals(2., curve.computeTScore(1.4), DELTA);
+    Assert.assertEquals(-1., curve.computeTScore(1.1), DELTA);
+  }
+
+  @Test(expected = EmptyResultDataAccessException.class)
+  public void testTScoreWithoutPeakPoint() {
+    refCurveDb.ageYoung = "35";
+    cache.getCurve("H", "1", "F", null, null, "NHANES").computeTScore(1.);
+  }
+
+  @Test
+  public void testZScoreIsInterpolated() {
+    ReferenceCurve curve = cache.getCurve("H", "1", "F", null, null, "NHANES");
+
+    // halfway between the 30 (1.2, 0.1) and 40 (1.0, 0.1) points
+    Assert.assertEquals(1., curve.computeZScore(1.2, 35.).doubleValue(), DELTA);
+    // a quarter of the way between the 20 (1.0, 0.2) and 30 (1.2, 0.1) points
+    Assert.assertEquals(0., curve.computeZScore(1.05, 22.5).doubleValue(), DELTA);
+  }
+
+  @Test
+  public void testZScoreOutsideOfCurve() {
+    ReferenceCurve curve = cache.getCurve("H", "1", "F", null, null, "NHANES");
+
+    Assert.assertNull(curve.computeZScore(1., 10.));
+    Assert.assertNull(curve.computeZScore(1., 50.));
+  }
+
+  /**
+   * RefCurveDb with a single curve of three points (age 20, 30 and 40) without skewness.
+   */
+  private static class CountingTemplate extends JdbcTemplate {
+
+    private int curveQueries;
+
+    private int pointsQueries;
+
+    private String curveSql;
+
+    private List<Object> curveArgs;
+
+    private String ageYoung = "30";
+
+    @Override
+    public Map<String, Object> queryForMap(String sql, Object... args) throws DataAccessException {
+      curveQueries++;
+      curveSql = sql;
+      curveArgs = Arrays.asList(args);
+      Map<String, Object> row = new HashMap<String, Object>();
+      row.put("UNIQUE_ID", 42);
+      row.put("AGE_YOUNG", ageYoung);
+      return row;
+    }
+
+    @Override
+    public List<Map<String, Object>> queryForList(String sql, Object... args) throws DataAccessException {
+      pointsQueries++;
+      Assert.assertEquals(Arrays.<Object> asList(42), Arrays.asList(args));
+      List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+      rows.add(point(20, 1.0, 0.2));
+      rows.add(point(30, 1.2, 0.1));
+      rows.add(point(40, 1.0, 0.1));
+      return rows;
+    }
+
+    private static Map<String, Object> point(double age, double bmd, double std) {
+      Map<String, Object> row = new HashMap<String, Object>();
+      row.put("X_VALUE", age);
+      row.put("Y_VALUE", bmd);
+      row.put("L_VALUE", 1.);
+      row.put("STD", std);
+      return row;
+    }
+  }
+
+}
@@ -0,0 +1,216 @@
+/*******************************************************************************
+ * Copyright (c) 2011 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.obiba.onyx.jade.instrument.holologic;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.obiba.onyx.jade.instrument.holologic.APEXInstrumentRunner.Side;
+import org.obiba.onyx.util.data.Data;
+import org.obiba.onyx.util.data.DataBuilder;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+
+public class ScanDataExtractionExecutorTest {
+
+  private final AtomicInteger openConnections = new AtomicInteger();
+
+  private final AtomicBoolean closed = new AtomicBoolean();
+
+  @Test
+  public void testResultsInSubmissionOrder() throws Exception {
+    final CountDownLatch firstMayEnd = new CountDownLatch(1);
+    ScanDataExtractionExecutor executor = new ScanDataExtractionExecutor(dataSource(), 2);
+    try {
+      List<Map<String, Data>> dataList = executor.extract(Arrays.<APEXScanDataExtractor> asList(new TestExtractor("SLOW") {
+        @Override
+        protected void extract() throws InterruptedException {
+          firstMayEnd.await();
+        }
+      }, new TestExtractor("FAST") {
+        @Override
+        protected void extract() {
+          firstMayEnd.countDown();
+        }
+      }), null);
+
+      Assert.assertEquals(2, dataList.size());
+      Assert.assertTrue(dataList.get(0).containsKey("SLOW"));
+      Assert.assertTrue(dataList.get(1).containsKey("FAST"));
+    } finally {
+      executor.shutdown();
+    }
+    Assert.assertEquals(0, openConnections.get());
+  }
+
+  @Test
+  public void testFailureIsReported() throws Exception {
+    ScanDataExtractionExecutor executor = new ScanDataExtractionExecutor(dataSource(), 1);
+    try {
+      executor.extract(Collections.<APEXScanDataExtractor> singletonList(new TestExtractor("FAIL") {
+        @Override
+        protected void extract() {
+          throw new IllegalStateException("no scan");
+        }
+      }), null);
+      Assert.fail("Expected ExecutionException");
+    } catch(ExecutionException e) {
+      Assert.assertEquals("no scan", e.getCause().getMessage());
+    } finally {
+      executor.shutdown();
+    }
+    // the connection of a failed extraction is not reused
+    Assert.assertEquals(0, openConnections.get());
+  }
+
+  @Test
+  public void testShutdownWaitsForRunningExtraction() throws Exception {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch ended = new CountDownLatch(1);
+    final AtomicBoolean closedWhileRunning = new AtomicBoolean();
+    final ScanDataExtractionExecutor executor = new ScanDataExtractionExecutor(dataSource(), 1);
+    Thread caller = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          executor.extract(Collections.<APEXScanDataExtractor> singletonList(new TestExtractor("RUNNING") {
+            @Override
+            protected void extract() {
+              started.countDown();
+              try {
+                new CountDownLatch(1).await();
+              } catch(InterruptedException e) {
+                // the connection is still in use while the extraction ends
+                try {
+                  Thread.sleep(100);
+                } catch(InterruptedException e1) {
+                  // ignore
+                }
+                closedWhileRunning.set(closed.get());
+                ended.countDown();
+              }
+            }
+          }), null);
+        } catch(Exception e) {
+          // ignore
+        }
+      }
+    });
+    caller.start();
+    Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+    executor.shutdown();
+
+    Assert.assertTrue(ended.await(5, TimeUnit.SECONDS));
+    Assert.assertFalse(closedWhileRunning.get());
+    Assert.assertTrue(closed.get());
+    Assert.assertEquals(0, openConnections.get());
+    caller.join(5000);
+  }
+
+  private DataSource dataSource() {
+    return new AbstractDataSource() {
+      @Override
+      public Connection getConnection() {
+        openConnections.incrementAndGet();
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class }, new InvocationHandler() {
+          public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if("close".equals(method.getName())) {
+              openConnections.decrementAndGet();
+              closed.set(true);
+            }
+            return null;
+          }
+        });
+      }
+
+      @Override
+      public Connection getConnection(String username, String password) {
+        return getConnection();
+      }
+    };
+  }
+
+  private static class TestExtractor extends APEXScanDataExtractor {
+
+    private final String name;
+
+    TestExtractor(String name) {
+      super(null, null, null, null, null);
+      this.name = name;
+    }
+
+    protected void extract() throws InterruptedException {
+    }
+
+    @Override
+    public Map<String, Data> extractData() {
+      try {
+        extract();
+      } catch(InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      Map<String, Data> data = new HashMap<String, Data>();
+      data.put(name, DataBuilder.buildText(name));
+      return data;
+    }
+
+    @Override
+    public String getName() {
+      return name;
+    }
+
+    @Override
+    public String getBodyPartName() {
+      return name;
+    }
+
+    @Override
+    public Side getSide() {
+      return null;
+    }
+
+    @Override
+    protected long getScanType() {
+      return 0;
+    }
+
+    @Override
+    public String getRefType() {
+      return null;
+    }
+
+    @Override
+    public String getRefSource() {
+      return null;
+    }
+
+    @Override
+    protected void extractDataImpl(Map<String, Data> data) {
+    }
+
+  }
+
+}
@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * Copyright (c) 2011 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.obiba.onyx.jade.instrument.holologic;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ResultSetExtractor;
+
+public class ScanResultFetcherTest {
+
+  private static final List<String> COLUMNS = Arrays.asList("NECK_AREA", "NECK_BMD");
+
+  private static final String SQL = "SELECT NECK_AREA, NECK_BMD FROM Hip WHERE PATIENT_KEY = ? AND SCANID = ?";
+
+  @Test
+  public void testBuildQuery() {
+    Assert.assertEquals(SQL, ScanResultFetcher.buildQuery("Hip", COLUMNS));
+  }
+
+  @Test
+  public void testStatementIsPreparedOnce() throws SQLException {
+    Connection connection = createMock(Connection.class);
+    PreparedStatement ps = createMock(PreparedStatement.class);
+    ResultSet rs = createMock(ResultSet.class);
+    expect(connection.prepareStatement(SQL)).andReturn(ps).once();
+    ps.setString(1, "key");
+    ps.setString(2, "scan1");
+    expect(ps.executeQuery()).andReturn(rs);
+    ps.setString(1, "key");
+    ps.setString(2, "scan2");
+    expect(ps.executeQuery()).andReturn(rs);
+    rs.close();
+    rs.close();
+    ps.close();
+    connection.close();
+    replay(connection, ps, rs);
+
+    ScanResultFetcher fetcher = new ScanResultFetcher(connection);
+    ResultSetExtractor<String> extractor = new ResultSetExtractor<String>() {
+      public String extractData(ResultSet rs) throws SQLException, DataAccessException {
+        return "extracted";
+      }
+    };
+    Assert.assertEquals("extracted", fetcher.fetch("Hip", COLUMNS, "key", "scan1", extractor));
+    Assert.assertEquals("extracted", fetcher.fetch("Hip", COLUMNS, "key", "scan2", extractor));
+    fetcher.close();
+
+    verify(connection, ps, rs);
+  }
+
+  @Test
+  public void testResultSetIsClosedOnError() throws SQLException {
+    Connection connection = createMock(Connection.class);
+    PreparedStatement ps = createMock(PreparedStatement.class);
+    ResultSet rs = createMock(ResultSet.class);
+    expect(connection.prepareStatement(SQL)).andReturn(ps);
+    ps.setString(1, "key");
+    ps.setString(2, "scan1");
+    expect(ps.executeQuery()).andReturn(rs);
+    rs.close();
+    replay(connection, ps, rs);
+
+    try {
+      new ScanResultFetcher(connection).fetch("Hip", COLUMNS, "key", "scan1", new ResultSetExtractor<String>() {
+        public String extractData(ResultSet rs) throws SQLException, DataAccessException {
+          throw new SQLException("column not found");
+        }
+      });
+      Assert.fail("Expected SQLException");
+    } catch(SQLException e) {
+      Assert.assertEquals("column not found", e.getMessage());
+    }
+
+    verify(connection, ps, rs);
+  }
+
+}
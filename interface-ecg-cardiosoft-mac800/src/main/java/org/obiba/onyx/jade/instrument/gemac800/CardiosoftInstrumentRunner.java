@@ -27,6 +27,8 @@ import java.util.ResourceBundle;
 import org.obiba.onyx.jade.client.JnlpClient;
 import org.obiba.onyx.jade.instrument.ExternalAppLauncherHelper;
 import org.obiba.onyx.jade.instrument.InstrumentRunner;
+import org.obiba.onyx.jade.instrument.cardiosoft.EcgWaveform;
+import org.obiba.onyx.jade.instrument.cardiosoft.EcgWaveformOutputs;
 import org.obiba.onyx.jade.instrument.service.InstrumentExecutionService;
 import org.obiba.onyx.util.FileUtil;
 import org.obiba.onyx.util.data.Data;
@@ -67,6 +69,9 @@ public class CardiosoftInstrumentRunner implements InstrumentRunner, Initializin
 
   private String xmlFileName;
 
+  // Rhythm strip leads sent as delta encoded samples instead of plain 16 bits samples.
+  private boolean waveformDeltaEncoding;
+
   private ResourceBundle ecgResourceBundle;
 
   private Locale locale;
@@ -283,6 +288,9 @@ public class CardiosoftInstrumentRunner implements InstrumentRunner, Initializin
       File xmlFile = new File(getExportPath(), getXmlFileName());
       outputToSend.put("xmlFile", DataBuilder.buildBinary(xmlFile));
 
+      EcgWaveform.Encoding encoding = waveformDeltaEncoding ? EcgWaveform.Encoding.DELTA_VARINT : EcgWaveform.Encoding.INT16_LE;
+      EcgWaveformOutputs.putWaveforms(outputToSend, resultParser.listWaveforms(), encoding, instrumentExecutionService.getExpectedOutputParameterVendorNames());
+
       instrumentExecutionService.addOutputParameterValues(outputToSend);
 
     } catch(Exception e) {
@@ -398,6 +406,14 @@ public class CardiosoftInstrumentRunner implements InstrumentRunner, Initializin
     deleteDeviceData();
   }
 
+  public boolean isWaveformDeltaEncoding() {
+    return waveformDeltaEncoding;
+  }
+
+  public void setWaveformDeltaEncoding(boolean waveformDeltaEncoding) {
+    this.waveformDeltaEncoding = waveformDeltaEncoding;
+  }
+
   public Locale getLocale() {
     return locale;
   }
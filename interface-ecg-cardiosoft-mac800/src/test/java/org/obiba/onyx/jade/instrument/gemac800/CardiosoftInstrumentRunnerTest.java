@@ -23,7 +23,9 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
@@ -165,6 +167,7 @@ public class CardiosoftInstrumentRunnerTest {
 
     }
 
+    expect(instrumentExecutionServiceMock.getExpectedOutputParameterVendorNames()).andReturn(new HashSet<String>(Arrays.asList("waveformI", "waveformSampleRate")));
     instrumentExecutionServiceMock.addOutputParameterValues((Map<String, Data>) anyObject());
     replay(instrumentExecutionServiceMock);
 
@@ -9,22 +9,14 @@
  ******************************************************************************/
 package org.obiba.onyx.jade.instrument.gehealthcare;
 
-import java.io.BufferedReader;
-import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.util.List;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
+import javax.xml.stream.XMLStreamException;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
+import org.obiba.onyx.jade.instrument.cardiosoft.CardiosoftEcgResult;
+import org.obiba.onyx.jade.instrument.cardiosoft.CardiosoftEcgXmlParser;
+import org.obiba.onyx.jade.instrument.cardiosoft.EcgWaveform;
 
 /**
  * Inspired from class Interface_CaG.EcgCollector by dbujold Parse ecg xml result file and return a object containing
@@ -34,387 +26,158 @@ import org.xml.sax.SAXException;
 
 public class CardiosoftInstrumentResultParser {
 
-  // The whole XML document
-  private String xmlDocument;
-
-  private String time;
-
-  private String date;
-
-  private String diagnosis;
-
-  private String filterSetting;
-
-  // Patient Information
-  private String participantID;
-
-  private String participantLastName;
-
-  private String participantFirstName;
-
-  private Long participantBirthDay;
-
-  private Long participantBirthMonth;
-
-  private Long participantBirthYear;
-
-  private String participantGender;
-
-  private String participantRace;
-
-  private Long participantHeight;
-
-  private Double participantWeight;
-
-  private Long participantPacemaker;
-
-  // Resting ECG Measurements
-  private String diagnosisVersion;
-
-  private Long ventricularRate;
-
-  private Long pQInterval;
-
-  private Long pDuration;
-
-  private Long qRsDuration;
-
-  private Long qTInterval;
-
-  private Long qTCInterval;
-
-  private Long rRInterval;
-
-  private Long pPInterval;
-
-  private Long pAxis;
-
-  private Long rAxis;
-
-  private Long tAxis;
-
-  private Long qRSNum;
-
-  private Long pOnset;
-
-  private Long pOffset;
-
-  private Long qOnset;
-
-  private Long qOffset;
-
-  private Long tOffset;
-
-  private XPath xpath;
-
-  private Document doc;
+  private final CardiosoftEcgResult result;
 
   /**
    * Constructor parsing the xml file
    * @param pFileStream
-   * @throws IOException
    */
-  @SuppressWarnings("deprecation")
   public CardiosoftInstrumentResultParser(InputStream pFileStream) {
     try {
-      // First read the whole file to keep a copy in the EcgCollector object.
-      BufferedReader fileReader = new BufferedReader(new InputStreamReader(pFileStream));
-      StringBuilder xmlFileContent = new StringBuilder();
-      String wOneLine;
-      int i = 0;
-      while((wOneLine = fileReader.readLine()) != null) {
-        xmlFileContent.append(wOneLine + "\n");
-        i++;
-      }
-      xmlDocument = xmlFileContent.toString();
-
-      // Now create a stream using the copy of the XML file for the XPath analysis
-      InputStream xmlStream = new java.io.StringBufferInputStream(xmlDocument);
-      DocumentBuilderFactory domFactory = DocumentBuilderFactory.newInstance();
-      domFactory.setNamespaceAware(true);
-      DocumentBuilder builder = domFactory.newDocumentBuilder();
-      doc = builder.parse(xmlStream);
-
-      XPathFactory factory = XPathFactory.newInstance();
-      xpath = factory.newXPath();
-
-      extractParticipantInfo();
-      extractDateTime();
-      extractInterpretation();
-      extractFilterSetting();
-      extractRestingEcgMeasurements();
-    } catch(XPathExpressionException e) {
-      throw new RuntimeException("Invalid XPath expression. Stopping XML data extraction.", e);
-    } catch(ParserConfigurationException e) {
-      throw new RuntimeException("An error has occured while trying to initialize the XPath parser.", e);
-    } catch(SAXException e) {
-      throw new RuntimeException("An error has occured while trying to initialize the XPath parser.", e);
-    } catch(IOException ioEx) {
-      throw new RuntimeException("Error: CardiosoftInstrumentResultParser IOException ", ioEx);
+      result = new CardiosoftEcgXmlParser().parse(pFileStream);
+    } catch(XMLStreamException e) {
+      throw new RuntimeException("An error has occured while parsing the ECG XML file.", e);
     }
   }
 
-  public String getXmlDocument() {
-    return xmlDocument;
-  }
-
   public String getTime() {
-    return time;
+    return result.getTime();
   }
 
   public String getDate() {
-    return date;
+    return result.getDate();
   }
 
   public String getDiagnosis() {
-    return diagnosis;
+    return result.getDiagnosis();
   }
 
   public String getFilterSetting() {
-    return filterSetting;
+    return result.getFilterSetting();
   }
 
   public String getDiagnosisVersion() {
-    return diagnosisVersion;
+    return result.getDiagnosisVersion();
   }
 
   public Long getVentricularRate() {
-    return ventricularRate;
+    return result.getVentricularRate();
   }
 
   public Long getPQInterval() {
-    return pQInterval;
+    return result.getPQInterval();
   }
 
   public Long getPDuration() {
-    return pDuration;
+    return result.getPDuration();
   }
 
   public Long getQRsDuration() {
-    return qRsDuration;
+    return result.getQRsDuration();
   }
 
   public Long getQTInterval() {
-    return qTInterval;
+    return result.getQTInterval();
   }
 
   public Long getQTCInterval() {
-    return qTCInterval;
+    return result.getQTCInterval();
   }
 
   public Long getRRInterval() {
-    return rRInterval;
+    return result.getRRInterval();
   }
 
   public Long getPPInterval() {
-    return pPInterval;
+    return result.getPPInterval();
   }
 
   public Long getPAxis() {
-    return pAxis;
+    return result.getPAxis();
   }
 
   public Long getRAxis() {
-    return rAxis;
+    return result.getRAxis();
   }
 
   public Long getTAxis() {
-    return tAxis;
+    return result.getTAxis();
   }
 
   public Long getQRSNum() {
-    return qRSNum;
+    return result.getQRSNum();
   }
 
   public Long getPOnset() {
-    return pOnset;
+    return result.getPOnset();
   }
 
   public Long getPOffset() {
-    return pOffset;
+    return result.getPOffset();
   }
 
   public Long getQOnset() {
-    return qOnset;
+    return result.getQOnset();
   }
 
   public Long getQOffset() {
-    return qOffset;
+    return result.getQOffset();
   }
 
   public Long getTOffset() {
-    return tOffset;
-  }
-
-  /**
-   * Extracts date and time of measurement.
-   * @throws XPathExpressionException
-   */
-  private void extractDateTime() throws XPathExpressionException {
-
-    time = xpath.evaluate("concat(//ObservationDateTime/Hour/text(), ':', //ObservationDateTime/Minute/text(), ':', //ObservationDateTime/Second/text())", doc, XPathConstants.STRING).toString();
-
-    date = xpath.evaluate("concat(//ObservationDateTime/Year/text(), '-', //ObservationDateTime/Month/text(), '-', //ObservationDateTime/Day/text())", doc, XPathConstants.STRING).toString();
-  }
-
-  /**
-   * Extracts software's data interpretation.
-   * @throws XPathExpressionException
-   */
-  private void extractInterpretation() throws XPathExpressionException {
-
-    // Extracting Diagnosis
-    Object diagnosisNode = xpath.evaluate("//Interpretation/Diagnosis/DiagnosisText/text()", doc, XPathConstants.NODESET);
-    StringBuilder diagnosisSb = new StringBuilder();
-    NodeList nodes = (NodeList) diagnosisNode;
-    for(int i = 0; i < nodes.getLength(); i++) {
-      diagnosisSb.append(nodes.item(i).getNodeValue());
-      if(i + 1 < nodes.getLength()) {
-        diagnosisSb.append("\n");
-      }
-    }
-    diagnosis = diagnosisSb.toString();
-
-    // Extracting Conclusion
-    Object conclusionNode = xpath.evaluate("//Interpretation/Conclusion/ConclusionText/text()", doc, XPathConstants.NODESET);
-    StringBuilder conclusionSb = new StringBuilder();
-    nodes = (NodeList) conclusionNode;
-    for(int i = 0; i < nodes.getLength(); i++) {
-      conclusionSb.append(nodes.item(i).getNodeValue());
-      if(i + 1 < nodes.getLength()) {
-        conclusionSb.append("\n");
-      }
-    }
-
-  }
-
-  /**
-   * Extracts filter data.
-   */
-  private void extractFilterSetting() throws XPathExpressionException {
-    filterSetting = xpath.evaluate("concat('Cublic Spline: ', //FilterSetting/CubicSpline/text(), " + "     '\nFilter50Hz: ',    //FilterSetting/Filter50Hz/text(),  " + "     '\nFilter60Hz: ',      //FilterSetting/Filter60Hz/text(),  " + "     '\nLowPass (', //FilterSetting/LowPass/attribute::units, '): ',    //FilterSetting/LowPass/text(),     " + "     '\nHighPass (', //FilterSetting/HighPass/attribute::units, '): ',    //FilterSetting/HighPass/text())", doc, XPathConstants.STRING).toString();
+    return result.getTOffset();
   }
 
   /**
-   * Extracts participant information data
+   * Leads of the rhythm strip. Not a bean property: the waveforms are sent as binary outputs, not with the measures.
+   * @return
    */
-  private void extractParticipantInfo() throws XPathExpressionException {
-    participantID = xpath.evaluate("//PatientInfo/PID/text()", doc, XPathConstants.STRING).toString();
-    participantLastName = xpath.evaluate("//PatientInfo/Name/FamilyName/text()", doc, XPathConstants.STRING).toString();
-    participantFirstName = xpath.evaluate("//PatientInfo/Name/GivenName/text()", doc, XPathConstants.STRING).toString();
-    participantBirthDay = extractLongValue("//PatientInfo/BirthDateTime/Day/text()");
-    participantBirthMonth = extractLongValue("//PatientInfo/BirthDateTime/Month/text()");
-    participantBirthYear = extractLongValue("//PatientInfo/BirthDateTime/Year/text()");
-    participantGender = xpath.evaluate("//PatientInfo/Gender/text()", doc, XPathConstants.STRING).toString();
-    participantRace = xpath.evaluate("//PatientInfo/Race/text()", doc, XPathConstants.STRING).toString();
-    participantHeight = extractLongValue("//PatientInfo/Height/text()");
-    participantWeight = extractDoubleValue("//PatientInfo/Weight/text()");
-    participantPacemaker = extractLongValue("//PatientInfo/PaceMaker/text()");
-  }
-
-  private Long extractLongValue(String tag) throws XPathExpressionException {
-    String value = xpath.evaluate(tag, doc, XPathConstants.STRING).toString();
-    if(value.equalsIgnoreCase("yes")) {
-      return 1l;
-    } else if(value.equalsIgnoreCase("no")) {
-      return 0l;
-    } else if(!value.equals("")) {
-      return Long.valueOf(value);
-    }
-    return null;
-  }
-
-  private Double extractDoubleValue(String tag) throws XPathExpressionException {
-    String value = xpath.evaluate(tag, doc, XPathConstants.STRING).toString();
-    if(!value.equals("")) {
-      return Double.valueOf(value);
-    }
-    return null;
-  }
-
-  /**
-   * Extract all data located under the RestingEcgMeasurements tag.
-   * @throws XPathExpressionException
-   */
-  private void extractRestingEcgMeasurements() throws XPathExpressionException {
-    diagnosisVersion = xpath.evaluate("//RestingECGMeasurements/DiagnosisVersion/text()", doc, XPathConstants.STRING).toString();
-    ventricularRate = extractMeasurement("VentricularRate");
-    pQInterval = extractMeasurement("PQInterval");
-    pDuration = extractMeasurement("PDuration");
-    qRsDuration = extractMeasurement("QRSDuration");
-    qTInterval = extractMeasurement("QTInterval");
-    qTCInterval = extractMeasurement("QTCInterval");
-    rRInterval = extractMeasurement("RRInterval");
-    pPInterval = extractMeasurement("PPInterval");
-    pAxis = extractMeasurement("PAxis");
-    rAxis = extractMeasurement("RAxis");
-    tAxis = extractMeasurement("TAxis");
-    qRSNum = extractMeasurement("QRSNum");
-    pOnset = extractMeasurement("POnset");
-    pOffset = extractMeasurement("POffset");
-    qOnset = extractMeasurement("QOnset");
-    qOffset = extractMeasurement("QOffset");
-    tOffset = extractMeasurement("TOffset");
-  }
-
-  /**
-   * Extracts data corresponding to the parameter
-   * @param tagName
-   * @return the result as a Long
-   * @throws XPathExpressionException
-   */
-  private Long extractMeasurement(String tagName) throws XPathExpressionException {
-    String measurement = xpath.evaluate("//RestingECGMeasurements/" + tagName + "/text()", doc, XPathConstants.STRING).toString();
-
-    if(measurement.equals("")) {
-      return null;
-    } else {
-      return Long.valueOf(measurement);
-    }
+  public List<EcgWaveform> listWaveforms() {
+    return result.getWaveforms();
   }
 
   public String getParticipantID() {
-    return participantID;
+    return result.getParticipantID();
   }
 
   public String getParticipantLastName() {
-    return participantLastName;
+    return result.getParticipantLastName();
   }
 
   public String getParticipantFirstName() {
-    return participantFirstName;
+    return result.getParticipantFirstName();
   }
 
   public Long getParticipantBirthDay() {
-    return participantBirthDay;
+    return result.getParticipantBirthDay();
   }
 
   public Long getParticipantBirthMonth() {
-    return participantBirthMonth;
+    return result.getParticipantBirthMonth();
   }
 
   public Long getParticipantBirthYear() {
-    return participantBirthYear;
+    return result.getParticipantBirthYear();
   }
 
   public String getParticipantGender() {
-    return participantGender;
+    return result.getParticipantGender();
   }
 
   public String getParticipantRace() {
-    return participantRace;
+    return result.getParticipantRace();
   }
 
   public Long getParticipantHeight() {
-    return participantHeight;
+    return result.getParticipantHeight();
   }
 
   public Double getParticipantWeight() {
-    return participantWeight;
+    return result.getParticipantWeight();
   }
 
   public Long getParticipantPacemaker() {
-    return participantPacemaker;
+    return result.getParticipantPacemaker();
   }
 
 }
@@ -37,6 +37,8 @@ import javax.swing.JPanel;
 import org.obiba.onyx.jade.client.JnlpClient;
 import org.obiba.onyx.jade.instrument.ExternalAppLauncherHelper;
 import org.obiba.onyx.jade.instrument.InstrumentRunner;
+import org.obiba.onyx.jade.instrument.cardiosoft.EcgWaveform;
+import org.obiba.onyx.jade.instrument.cardiosoft.EcgWaveformOutputs;
 import org.obiba.onyx.jade.instrument.service.InstrumentExecutionService;
 import org.obiba.onyx.util.FileUtil;
 import org.obiba.onyx.util.data.Data;
@@ -84,6 +86,9 @@ public class CardiosoftInstrumentRunner implements InstrumentRunner, Initializin
 
   private String pdfFileNameFullEcg;
 
+  // Rhythm strip leads sent as delta encoded samples instead of plain 16 bits samples.
+  private boolean waveformDeltaEncoding;
+
   private ResourceBundle ecgResourceBundle;
 
   private Locale locale;
@@ -331,6 +336,9 @@ public class CardiosoftInstrumentRunner implements InstrumentRunner, Initializin
       File pdfFullEcgFile = new File(getExportPath(), getPdfFileNameFullEcg());
       outputToSend.put("pdfFileFull", DataBuilder.buildBinary(pdfFullEcgFile));
 
+      EcgWaveform.Encoding encoding = waveformDeltaEncoding ? EcgWaveform.Encoding.DELTA_VARINT : EcgWaveform.Encoding.INT16_LE;
+      EcgWaveformOutputs.putWaveforms(outputToSend, resultParser.listWaveforms(), encoding, instrumentExecutionService.getExpectedOutputParameterVendorNames());
+
       instrumentExecutionService.addOutputParameterValues(outputToSend);
 
     } catch(Exception e) {
@@ -458,6 +466,14 @@ public class CardiosoftInstrumentRunner implements InstrumentRunner, Initializin
 
   }
 
+  public boolean isWaveformDeltaEncoding() {
+    return waveformDeltaEncoding;
+  }
+
+  public void setWaveformDeltaEncoding(boolean waveformDeltaEncoding) {
+    this.waveformDeltaEncoding = waveformDeltaEncoding;
+  }
+
   public Locale getLocale() {
     return locale;
   }
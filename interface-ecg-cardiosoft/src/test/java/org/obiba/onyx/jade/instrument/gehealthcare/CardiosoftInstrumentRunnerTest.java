@@ -23,7 +23,9 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
@@ -34,6 +36,7 @@ import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 import org.obiba.onyx.jade.instrument.ExternalAppLauncherHelper;
+import org.obiba.onyx.jade.instrument.cardiosoft.EcgWaveform;
 import org.obiba.onyx.jade.instrument.service.InstrumentExecutionService;
 import org.obiba.onyx.util.FileUtil;
 import org.obiba.onyx.util.data.Data;
@@ -170,6 +173,18 @@ public class CardiosoftInstrumentRunnerTest {
 
     }
 
+    // The 12 leads of the 10 seconds rhythm strip.
+    Assert.assertEquals(12, resultParser.listWaveforms().size());
+    for(EcgWaveform waveform : resultParser.listWaveforms()) {
+      Assert.assertEquals(5000, waveform.getSampleCount());
+      Assert.assertEquals(Integer.valueOf(500), waveform.getSampleRate());
+      Assert.assertEquals(Double.valueOf(5), waveform.getResolution());
+      Assert.assertEquals(10000, waveform.encode(EcgWaveform.Encoding.INT16_LE).length);
+    }
+    Assert.assertEquals("I", resultParser.listWaveforms().get(0).getLead());
+    Assert.assertEquals(6, resultParser.listWaveforms().get(0).getSample(0));
+
+    expect(instrumentExecutionServiceMock.getExpectedOutputParameterVendorNames()).andReturn(new HashSet<String>(Arrays.asList("waveformI", "waveformII", "waveformSampleRate")));
     instrumentExecutionServiceMock.addOutputParameterValues((Map<String, Data>) anyObject());
     replay(instrumentExecutionServiceMock);
 
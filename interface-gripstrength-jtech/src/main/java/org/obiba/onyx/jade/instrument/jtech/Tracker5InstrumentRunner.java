@@ -11,7 +11,6 @@ package org.obiba.onyx.jade.instrument.jtech;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.Serializable;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
@@ -23,8 +22,10 @@ import org.obiba.onyx.util.FileUtil;
 import org.obiba.onyx.util.data.Data;
 import org.obiba.onyx.util.data.DataBuilder;
 import org.obiba.onyx.util.data.DataType;
+import org.obiba.paradox.ParadoxBlob;
 import org.obiba.paradox.ParadoxDb;
 import org.obiba.paradox.ParadoxRecord;
+import org.obiba.paradox.ParadoxResultSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
@@ -33,6 +34,8 @@ public class Tracker5InstrumentRunner implements InstrumentRunner, InitializingB
 
   private static final Logger log = LoggerFactory.getLogger(Tracker5InstrumentRunner.class);
 
+  private static final String[] TRIAL_FIELDS = { "Side", "Position", "Rep1", "Rep2", "Rep3", "Rep4", "Rep1Exclude", "Rep2Exclude", "Rep3Exclude", "Rep4Exclude", "Average", "Maximum", "CV" };
+
   protected InstrumentExecutionService instrumentExecutionService;
 
   protected ExternalAppLauncherHelper externalAppHelper;
@@ -97,57 +100,73 @@ public class Tracker5InstrumentRunner implements InstrumentRunner, InitializingB
 
   private void extractTrials() {
     log.info("Extracting data");
-    Map<String, Data> exam = extractExam();
+    ParadoxDb gripTestDb = getGripTestDB();
+    ParadoxRecord test;
+    Map<String, Data> exam;
+    try {
+      test = getGripTest(gripTestDb);
+      exam = extractExam(test);
+    } finally {
+      closeQuietly(gripTestDb);
+    }
 
     ParadoxDb dataDb = getGripTestDataDB();
-
-    for(ParadoxRecord record : dataDb) {
-
-      Long examMax = record.getValue("Maximum");
-      Long avg = record.getValue("Average");
-      Long cv = record.getValue("CV");
-
-      for(int i = 1; i <= 4; i++) {
-        String side = record.getValue("Side");
-        String rungPosition = record.getValue("Position");
-        Long rep = record.getValue("Rep" + i);
-        Integer exclude = record.getValue("Rep" + i + "Exclude");
-        if(rep != null && (exclude == null || exclude == 0)) {
-          LinkedHashMap<String, Data> map = new LinkedHashMap<String, Data>(exam);
-          map.put("Side", DataBuilder.buildText(side));
-          // Convert it to an int
-          map.put("Position", DataBuilder.build(DataType.INTEGER, rungPosition));
-          map.put("Rep", DataBuilder.buildDecimal(Tracker5Util.asKg(rep.intValue())));
-
-          // These don't change for each rep... but onyx doesn't support repeated and non-repeated values
-          map.put("Max", DataBuilder.buildDecimal(Tracker5Util.asKg(examMax.intValue())));
-          map.put("Avg", DataBuilder.buildDecimal(Tracker5Util.asKg(avg.intValue())));
-          map.put("CV", DataBuilder.buildInteger(cv));
-          sendToOnyx(map);
+    try {
+      // only read the trials of this test, through the ZGripTestData primary index
+      ParadoxResultSet trials = dataDb.query().select(TRIAL_FIELDS).whereEquals("ExamID", test.getValue("ExamID")).whereEquals("TestID", test.getValue("TestID")).execute();
+      while(trials.next()) {
+
+        int examMax = trials.getInt("Maximum");
+        int avg = trials.getInt("Average");
+        long cv = trials.getLong("CV");
+
+        for(int i = 1; i <= 4; i++) {
+          String side = trials.getString("Side");
+          String rungPosition = trials.getString("Position");
+          boolean rep = trials.isNull("Rep" + i) == false;
+          boolean exclude = trials.getBoolean("Rep" + i + "Exclude");
+          if(rep && exclude == false) {
+            LinkedHashMap<String, Data> map = new LinkedHashMap<String, Data>(exam);
+            map.put("Side", DataBuilder.buildText(side));
+            // Convert it to an int
+            map.put("Position", DataBuilder.build(DataType.INTEGER, rungPosition));
+            map.put("Rep", DataBuilder.buildDecimal(Tracker5Util.asKg(trials.getInt("Rep" + i))));
+
+            // These don't change for each rep... but onyx doesn't support repeated and non-repeated values
+            map.put("Max", DataBuilder.buildDecimal(Tracker5Util.asKg(examMax)));
+            map.put("Avg", DataBuilder.buildDecimal(Tracker5Util.asKg(avg)));
+            map.put("CV", DataBuilder.buildInteger(cv));
+            sendToOnyx(map);
+          }
         }
       }
+    } catch(IOException e) {
+      throw new RuntimeException("Error reading DB ZGripTestData.DB", e);
+    } finally {
+      closeQuietly(dataDb);
     }
   }
 
-  private Map<String, Data> extractExam() {
-
-    ParadoxDb gripTestDb = getGripTestDB();
-
+  private ParadoxRecord getGripTest(ParadoxDb gripTestDb) {
     if(gripTestDb.getHeader().getNumRecords() != 1) {
       throw new RuntimeException("there should be only one test");
     }
+    return gripTestDb.iterator().next();
+  }
 
-    ParadoxRecord record = gripTestDb.iterator().next();
+  private Map<String, Data> extractExam(ParadoxRecord record) {
     LinkedHashMap<String, Data> map = new LinkedHashMap<String, Data>();
-    String[] fields = { "Rung", "MaxReps", "Sequence", "RestTime", "Rate", "Threshold", "NormType", "Comparison" };
-    DataType[] types = { DataType.INTEGER, DataType.INTEGER, DataType.TEXT, DataType.INTEGER, DataType.INTEGER, DataType.DECIMAL, DataType.INTEGER, DataType.INTEGER };
+    String[] fields = { "Rung", "MaxReps", "Sequence", "RestTime", "Rate", "Threshold", "NormType", "Comparison", "Notes" };
+    DataType[] types = { DataType.INTEGER, DataType.INTEGER, DataType.TEXT, DataType.INTEGER, DataType.INTEGER, DataType.DECIMAL, DataType.INTEGER, DataType.INTEGER, DataType.TEXT };
     Set<String> expectedValues = this.instrumentExecutionService.getExpectedOutputParameterVendorNames();
     for(int i = 0; i < fields.length; i++) {
       String field = fields[i];
       DataType type = types[i];
       if(expectedValues.contains(field)) {
-        Serializable value = record.getValue(field);
-        if(field.equals("Threshold")) {
+        Object value = record.getValue(field);
+        if(value instanceof ParadoxBlob) {
+          value = readMemo((ParadoxBlob) value);
+        } else if(field.equals("Threshold")) {
           value = Tracker5Util.asKg(((Number) value).intValue());
         }
         Data data = value != null ? DataBuilder.build(type, value.toString()) : null;
@@ -158,6 +177,14 @@ public class Tracker5InstrumentRunner implements InstrumentRunner, InitializingB
     return map;
   }
 
+  private String readMemo(ParadoxBlob memo) {
+    try {
+      return memo.getText();
+    } catch(IOException e) {
+      throw new RuntimeException("Error reading memo from ZGripTest.MB", e);
+    }
+  }
+
   private void sendToOnyx(Map<String, Data> values) {
     log.info("Sending data to Onyx");
     this.instrumentExecutionService.addOutputParameterValues(values);
@@ -186,6 +213,14 @@ public class Tracker5InstrumentRunner implements InstrumentRunner, InitializingB
     }
   }
 
+  private void closeQuietly(ParadoxDb db) {
+    try {
+      db.close();
+    } catch(IOException e) {
+      // ignore
+    }
+  }
+
   private void restoreTackerDatabase() throws IOException {
     // Copy backed-up database files back into the tracker database folder
     FileUtil.delete(getTrackerDatabaseFolder());
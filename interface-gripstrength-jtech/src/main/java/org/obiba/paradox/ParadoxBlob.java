@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Copyright (c) 2011 OBiBa. All rights reserved.
+ *  
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *  
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.obiba.paradox;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Value of a memo or BLOB field. The record only holds the first bytes of the value (its leader) and a pointer into the
+ * table's .MB file: the data itself is read from the .MB file when requested, as a stream or, for memos, as text.
+ */
+public class ParadoxBlob {
+
+  private static final int POINTER_SIZE = 10;
+
+  private static final Charset CHARSET = Charset.forName("ISO-8859-1");
+
+  private final ParadoxDb db;
+
+  private final ParadoxFieldType type;
+
+  private final byte[] leader;
+
+  private final int blockOffset;
+
+  private final int index;
+
+  private final int length;
+
+  private final int modificationNumber;
+
+  private ParadoxBlob(ParadoxDb db, ParadoxFieldType type, byte[] leader, int blockOffset, int index, int length,
+      int modificationNumber) {
+    this.db = db;
+    this.type = type;
+    this.leader = leader;
+    this.blockOffset = blockOffset;
+    this.index = index;
+    this.length = length;
+    this.modificationNumber = modificationNumber;
+  }
+
+  /**
+   * Read a blob field: the leader bytes are followed by the blob offset (the low byte being the index in a
+   * suballocated block), its length and modification number, all little-endian.
+   * 
+   * @return null if the field is blank
+   */
+  static ParadoxBlob parse(ParadoxDb db, ParadoxFieldType type, ByteBuffer buffer, int offset, int size) {
+    int leaderSize = size - POINTER_SIZE;
+    ByteBuffer pointer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    int blobOffset = pointer.getInt(offset + leaderSize);
+    int length = pointer.getInt(offset + leaderSize + 4);
+    int modificationNumber = pointer.getShort(offset + leaderSize + 8) & 0xFFFF;
+    if(length <= 0) return null;
+
+    byte[] leader = new byte[Math.min(leaderSize, length)];
+    for(int i = 0; i < leader.length; i++) {
+      leader[i] = buffer.get(offset + i);
+    }
+    return new ParadoxBlob(db, type, leader, blobOffset & 0xFFFFFF00, blobOffset & 0xFF, length, modificationNumber);
+  }
+
+  public ParadoxFieldType getType() {
+    return type;
+  }
+
+  public int getLength() {
+    return length;
+  }
+
+  public int getModificationNumber() {
+    return modificationNumber;
+  }
+
+  /**
+   * @return true if the whole value is held by the record itself
+   */
+  public boolean isInline() {
+    return blockOffset == 0;
+  }
+
+  /**
+   * Open a stream on the blob data. The stream reads the .MB file as it is consumed, so that large blobs are never
+   * loaded in memory at once.
+   * 
+   * @return
+   * @throws IOException if the .MB file cannot be read
+   */
+  public InputStream openStream() throws IOException {
+    if(isInline()) {
+      return new ByteArrayInputStream(leader);
+    }
+    return db.getBlobFile().openStream(blockOffset, index, length);
+  }
+
+  /**
+   * @return a copy of the blob data
+   * @throws IOException
+   */
+  public byte[] getBytes() throws IOException {
+    if(isInline()) {
+      return Arrays.copyOf(leader, leader.length);
+    }
+    return db.getBlobFile().read(blockOffset, index, length);
+  }
+
+  /**
+   * @return the blob data as text (memo fields)
+   * @throws IOException
+   */
+  public String getText() throws IOException {
+    if(isInline()) {
+      return new String(leader, CHARSET);
+    }
+    return db.getBlobFile().getMemo(blockOffset, index, length);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if(this == obj) return true;
+    if(!(obj instanceof ParadoxBlob)) return false;
+    ParadoxBlob other = (ParadoxBlob) obj;
+    return db == other.db && blockOffset == other.blockOffset && index == other.index && length == other.length && modificationNumber == other.modificationNumber && Arrays.equals(leader, other.leader);
+  }
+
+  @Override
+  public int hashCode() {
+    return ((blockOffset | index) * 31 + length) * 31 + modificationNumber;
+  }
+
+  @Override
+  public String toString() {
+    return type + "[" + length + " bytes]";
+  }
+
+}
@@ -0,0 +1,171 @@
+/*******************************************************************************
+ * Copyright (c) 2011 OBiBa. All rights reserved.
+ *  
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *  
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.obiba.paradox;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reader for the memo and BLOB file (.MB) of a Paradox table. The file is made of 4k blocks: a blob is either stored
+ * alone in a run of blocks (single blob block) or packed with up to 63 other small blobs in a suballocated block, in
+ * which case the blob pointer of the record also holds the index of the blob in the block's allocation table. Blocks
+ * are read when a blob is requested and the most recently read ones are cached.
+ */
+public class ParadoxBlobFile implements Closeable {
+
+  static final int SINGLE_BLOB_INDEX = 0xFF;
+
+  private static final int BLOCK_TYPE_SINGLE_BLOB = 0x02;
+
+  private static final int BLOCK_TYPE_SUBALLOCATED = 0x03;
+
+  private static final int SINGLE_BLOB_HEADER_SIZE = 9;
+
+  private static final int SUBALLOCATED_BLOCK_HEADER_SIZE = 12;
+
+  private static final int SUBALLOCATED_ENTRY_SIZE = 5;
+
+  private static final int SUBALLOCATED_BLOCK_ENTRIES = 64;
+
+  private static final int BLOCK_SIZE = 0x1000;
+
+  private static final int MAX_CACHED_BLOCKS = 64;
+
+  private static final Charset CHARSET = Charset.forName("ISO-8859-1");
+
+  private final File file;
+
+  private final ParadoxBlockReader reader;
+
+  // decoded memos of the most recently read suballocated blocks, by block offset
+  private final Map<Integer, String[]> memoCache = new LinkedHashMap<Integer, String[]>(16, 0.75f, true) {
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Integer, String[]> eldest) {
+      return size() > MAX_CACHED_BLOCKS;
+    }
+  };
+
+  public ParadoxBlobFile(File file) throws IOException {
+    this.file = file;
+    this.reader = new ParadoxBlockReader(file, new RandomAccessFile(file, "r"), MAX_CACHED_BLOCKS);
+  }
+
+  public void close() throws IOException {
+    reader.close();
+    synchronized(memoCache) {
+      memoCache.clear();
+    }
+  }
+
+  /**
+   * Read the blob data.
+   * 
+   * @param blockOffset offset of the block holding the blob
+   * @param index index of the blob in a suballocated block, or 0xFF for a single blob block
+   * @param length length of the blob, as stored in the record
+   * @return
+   * @throws IOException if the blob pointer does not match the content of the file
+   */
+  byte[] read(int blockOffset, int index, int length) throws IOException {
+    return reader.read(dataOffset(blockOffset, index, length), length).array();
+  }
+
+  /**
+   * Open a stream on the blob data, which is read as the stream is consumed.
+   * 
+   * @param blockOffset
+   * @param index
+   * @param length
+   * @return
+   * @throws IOException if the blob pointer does not match the content of the file
+   */
+  InputStream openStream(int blockOffset, int index, int length) throws IOException {
+    return reader.openStream(dataOffset(blockOffset, index, length), length);
+  }
+
+  /**
+   * Returns the text of a memo. Memos of suballocated blocks are decoded once per block and kept in a small cache, since
+   * records stored together usually refer to memos stored together.
+   * 
+   * @param blockOffset
+   * @param index
+   * @param length
+   * @return
+   * @throws IOException
+   */
+  String getMemo(int blockOffset, int index, int length) throws IOException {
+    if(index == SINGLE_BLOB_INDEX) {
+      return decode(blockOffset, index, length);
+    }
+    synchronized(memoCache) {
+      String[] memos = memoCache.get(blockOffset);
+      if(memos == null) {
+        memos = new String[SUBALLOCATED_BLOCK_ENTRIES];
+        memoCache.put(blockOffset, memos);
+      }
+      if(memos[index] == null || memos[index].length() != length) {
+        memos[index] = decode(blockOffset, index, length);
+      }
+      return memos[index];
+    }
+  }
+
+  private String decode(int blockOffset, int index, int length) throws IOException {
+    return new String(read(blockOffset, index, length), CHARSET);
+  }
+
+  private int dataOffset(int blockOffset, int index, int length) throws IOException {
+    checkBounds(blockOffset, SUBALLOCATED_BLOCK_HEADER_SIZE);
+    // the last block may not be complete
+    int blockLength = (int) Math.min(BLOCK_SIZE, reader.length() - blockOffset);
+    ByteBuffer buffer = reader.readBlock(blockOffset, blockLength).order(ByteOrder.LITTLE_ENDIAN);
+    int blockType = buffer.get(0) & 0xFF;
+    int dataOffset;
+    int dataLength;
+    if(index == SINGLE_BLOB_INDEX) {
+      if(blockType != BLOCK_TYPE_SINGLE_BLOB) throw corrupted(blockOffset, "single blob block expected");
+      dataOffset = blockOffset + SINGLE_BLOB_HEADER_SIZE;
+      dataLength = buffer.getInt(3);
+    } else {
+      if(blockType != BLOCK_TYPE_SUBALLOCATED) throw corrupted(blockOffset, "suballocated block expected");
+      if(index >= SUBALLOCATED_BLOCK_ENTRIES) throw corrupted(blockOffset, "no blob entry " + index);
+      int entryOffset = SUBALLOCATED_BLOCK_HEADER_SIZE + index * SUBALLOCATED_ENTRY_SIZE;
+      if(entryOffset + SUBALLOCATED_ENTRY_SIZE > blockLength) throw corrupted(blockOffset, "truncated block");
+      // data offset and length are counted in 16 bytes paragraphs, the last one being partially used
+      dataOffset = blockOffset + (buffer.get(entryOffset) & 0xFF) * 16;
+      dataLength = ((buffer.get(entryOffset + 1) & 0xFF) - 1) * 16 + (buffer.get(entryOffset + 4) & 0xFF);
+    }
+    if(dataLength != length) throw corrupted(blockOffset, "blob length " + dataLength + ", expected " + length);
+    checkBounds(dataOffset, length);
+    return dataOffset;
+  }
+
+  private void checkBounds(int offset, int length) throws IOException {
+    if(offset < 0 || (long) offset + length > reader.length()) {
+      throw new IOException("blob at " + offset + " is beyond the end of " + file.getName());
+    }
+  }
+
+  private IOException corrupted(int blockOffset, String message) {
+    return new IOException("invalid blob block at " + blockOffset + " in " + file.getName() + ": " + message);
+  }
+
+}
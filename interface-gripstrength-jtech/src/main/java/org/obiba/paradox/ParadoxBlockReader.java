@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * Copyright (c) 2011 OBiBa. All rights reserved.
+ *  
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *  
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.obiba.paradox;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads parts of a Paradox file into heap buffers, at absolute positions. The file is not memory mapped: once closed,
+ * nothing holds it open and it can be deleted or replaced (which Windows refuses for a file that is still mapped). The
+ * most recently read blocks are kept in a bounded cache.
+ */
+class ParadoxBlockReader implements Closeable {
+
+  private final File file;
+
+  private final RandomAccessFile raf;
+
+  private final FileChannel channel;
+
+  // read blocks, by file offset, least recently used first
+  private final Map<Long, ByteBuffer> blocks;
+
+  /**
+   * @param file
+   * @param raf the opened file, closed with this reader
+   * @param maxCachedBlocks number of blocks kept in memory
+   */
+  ParadoxBlockReader(File file, RandomAccessFile raf, final int maxCachedBlocks) {
+    this.file = file;
+    this.raf = raf;
+    this.channel = raf.getChannel();
+    this.blocks = new LinkedHashMap<Long, ByteBuffer>(16, 0.75f, true) {
+
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Long, ByteBuffer> eldest) {
+        return size() > maxCachedBlocks;
+      }
+    };
+  }
+
+  public synchronized void close() throws IOException {
+    blocks.clear();
+    raf.close();
+  }
+
+  long length() throws IOException {
+    return channel.size();
+  }
+
+  /**
+   * Read bytes of the file, without caching them.
+   *
+   * @param offset
+   * @param length
+   * @return a buffer of the given length, positioned at 0
+   * @throws IOException if the file is closed or is shorter than expected
+   */
+  ByteBuffer read(long offset, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    // positional reads do not move the file pointer, they can be done while the file is read elsewhere
+    while(buffer.hasRemaining()) {
+      if(channel.read(buffer, offset + buffer.position()) < 0) {
+        throw new EOFException(length + " bytes expected at " + offset + " in " + file.getName());
+      }
+    }
+    buffer.clear();
+    return buffer;
+  }
+
+  /**
+   * Open a stream on bytes of the file. The bytes are read in chunks as the stream is consumed, they are not cached.
+   *
+   * @param offset
+   * @param length
+   * @return
+   */
+  InputStream openStream(final long offset, final long length) {
+    return new InputStream() {
+
+      private long position;
+
+      @Override
+      public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        if(len == 0) return 0;
+        if(position >= length) return -1;
+        int n = (int) Math.min(len, length - position);
+        ByteBuffer chunk = ByteBuffer.wrap(b, off, n);
+        while(chunk.hasRemaining()) {
+          if(channel.read(chunk, offset + position + chunk.position() - off) < 0) {
+            throw new EOFException(length + " bytes expected at " + offset + " in " + file.getName());
+          }
+        }
+        position += n;
+        return n;
+      }
+
+      @Override
+      public long skip(long n) {
+        long skipped = Math.max(0, Math.min(n, length - position));
+        position += skipped;
+        return skipped;
+      }
+
+      @Override
+      public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, length - position);
+      }
+    };
+  }
+
+  /**
+   * Read a block of the file, or get it from the cache.
+   *
+   * @param offset
+   * @param length
+   * @return a buffer of the block, positioned at 0, that callers must not modify
+   * @throws IOException
+   */
+  synchronized ByteBuffer readBlock(long offset, int length) throws IOException {
+    ByteBuffer block = blocks.get(offset);
+    if(block == null || block.capacity() != length) {
+      block = read(offset, length);
+      blocks.put(offset, block);
+    }
+    return block.duplicate();
+  }
+
+}
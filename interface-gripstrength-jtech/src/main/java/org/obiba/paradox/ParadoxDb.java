@@ -15,9 +15,12 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 import org.obiba.paradox.format.Int;
@@ -30,20 +33,45 @@ import org.obiba.paradox.format.UShort;
 
 public class ParadoxDb implements Closeable, Iterable<ParadoxRecord> {
 
+  private static final int MAX_CACHED_BLOCKS = 16;
+
+  private final File file;
+
   private final RandomAccessFile dbFile;
 
   private final ParadoxDbHeader header;
 
   private final List<ParadoxDbBlock> blocks;
 
+  private final ParadoxBlockReader blockReader;
+
+  private ParadoxPrimaryIndex primaryIndex;
+
+  private boolean primaryIndexLoaded;
+
+  private ParadoxBlobFile blobFile;
+
   public ParadoxDb(File dbFile) throws IOException {
+    this.file = dbFile;
     this.dbFile = new RandomAccessFile(dbFile, "r");
+    this.blockReader = new ParadoxBlockReader(dbFile, this.dbFile, MAX_CACHED_BLOCKS);
     this.header = readHeader();
     this.blocks = readBlocks();
   }
 
-  public void close() throws IOException {
-    this.dbFile.close();
+  /**
+   * Close the table and its index and memo files. No file is held open once closed: they can be deleted or replaced.
+   */
+  public synchronized void close() throws IOException {
+    blockReader.close();
+    if(primaryIndex != null) {
+      primaryIndex.close();
+      primaryIndex = null;
+    }
+    if(blobFile != null) {
+      blobFile.close();
+      blobFile = null;
+    }
   }
 
   public ParadoxDbHeader getHeader() {
@@ -54,6 +82,138 @@ public class ParadoxDb implements Closeable, Iterable<ParadoxRecord> {
     return blocks;
   }
 
+  /**
+   * Returns a cursor over the records of this table. Unlike {@link #iterator()}, the cursor reads the records one data
+   * block at a time and only decodes the fields that are accessed. The most recently read blocks are cached and shared
+   * by all the cursors of this table.
+   *
+   * @return
+   */
+  public ParadoxDbCursor cursor() {
+    return new ParadoxDbCursor(this);
+  }
+
+  /**
+   * Returns a cursor over the records whose leading key fields are equal to the given values. Only the data blocks
+   * referenced by the primary index for this key are read; when the table has no .PX file, all blocks are scanned.
+   * 
+   * @param key values of the first key fields, in key order
+   * @return
+   * @throws IOException
+   */
+  public ParadoxDbCursor lookup(Object... key) throws IOException {
+    return lookup(key, key);
+  }
+
+  /**
+   * Returns a cursor over the records whose leading key fields are within the given inclusive bounds, in key order
+   * when the table has a primary index.
+   * 
+   * @param from lowest values of the first key fields
+   * @param to highest values of the first key fields
+   * @return
+   * @throws IOException
+   */
+  public ParadoxDbCursor lookup(Object[] from, Object[] to) throws IOException {
+    return new ParadoxDbCursor(this, getKeyBlocks(from, to), new ParadoxKeyRange(from, to));
+  }
+
+  /**
+   * Returns a new query on this table.
+   * 
+   * @return
+   */
+  public ParadoxQuery query() {
+    return new ParadoxQuery(this);
+  }
+
+  /**
+   * Get the data blocks that may hold the given range of leading key values: the blocks referenced by the primary
+   * index, or all the blocks if there is no index.
+   */
+  List<ParadoxDbBlock> getKeyBlocks(Object[] from, Object[] to) throws IOException {
+    if(from.length > header.primaryKeyFields) {
+      throw new IllegalArgumentException("table has " + header.primaryKeyFields + " key fields, got " + from.length);
+    }
+    ParadoxPrimaryIndex index = getPrimaryIndex();
+    if(index == null) {
+      return blocks;
+    }
+    List<ParadoxDbBlock> keyBlocks = new ArrayList<ParadoxDbBlock>();
+    for(int blockNumber : index.findDataBlocks(from, to)) {
+      if(blockNumber < 1 || blockNumber > blocks.size()) {
+        throw new IllegalStateException("primary index refers to unknown block " + blockNumber);
+      }
+      keyBlocks.add(blocks.get(blockNumber - 1));
+    }
+    return keyBlocks;
+  }
+
+  /**
+   * Returns the primary index stored next to this table (same name, .PX extension).
+   * 
+   * @return null if the table has no primary index file
+   * @throws IOException
+   */
+  public synchronized ParadoxPrimaryIndex getPrimaryIndex() throws IOException {
+    if(primaryIndexLoaded == false) {
+      File pxFile = getCompanionFile("PX");
+      if(pxFile.exists()) {
+        primaryIndex = new ParadoxPrimaryIndex(pxFile);
+      }
+      primaryIndexLoaded = true;
+    }
+    return primaryIndex;
+  }
+
+  /**
+   * Returns the memo and BLOB file stored next to this table (same name, .MB extension).
+   * 
+   * @return
+   * @throws IOException if the table has no .MB file
+   */
+  public synchronized ParadoxBlobFile getBlobFile() throws IOException {
+    if(blobFile == null) {
+      File mbFile = getCompanionFile("MB");
+      if(mbFile.exists() == false) {
+        throw new IOException("memo file cannot be found: " + mbFile.getAbsolutePath());
+      }
+      blobFile = new ParadoxBlobFile(mbFile);
+    }
+    return blobFile;
+  }
+
+  /**
+   * Decode a field value, memo and BLOB fields being returned as {@link ParadoxBlob}s.
+   */
+  Object parseField(int i, ByteBuffer buffer, int offset) {
+    ParadoxFieldInfo field = header.fieldInfo.get(i);
+    ParadoxFieldType type = field.getType();
+    if(type.isBlob()) {
+      return ParadoxBlob.parse(this, type, buffer, offset, field.size);
+    }
+    return type.parse(buffer, offset, field.size);
+  }
+
+  private File getCompanionFile(String extension) {
+    String name = file.getName();
+    int dot = name.lastIndexOf('.');
+    String baseName = dot < 0 ? name : name.substring(0, dot);
+    boolean lowerCase = dot >= 0 && name.substring(dot + 1).equals(name.substring(dot + 1).toLowerCase());
+    return new File(file.getParentFile(), baseName + "." + (lowerCase ? extension.toLowerCase() : extension));
+  }
+
+  /**
+   * Read the records of a data block.
+   *
+   * @param block
+   * @return a buffer of the records of the block, the first one at position 0
+   * @throws IOException
+   */
+  ByteBuffer readRecords(ParadoxDbBlock block) throws IOException {
+    return blockReader.readBlock(block.fileOffset, block.numRecords() * header.recordSize);
+  }
+
   @Override
   public Iterator<ParadoxRecord> iterator() {
     return new Iterator<ParadoxRecord>() {
@@ -144,20 +304,20 @@ public class ParadoxDb implements Closeable, Iterable<ParadoxRecord> {
           Object value = null;
           switch(byteCount) {
           case 1:
-            value = bytes[0];
+            value = pxField.unsigned() ? (short) (bytes[0] & 0xFF) : bytes[0];
             break;
           case 2:
             if(pxField.unsigned()) {
-              value = (int) (((int) bytes[1]) << 8 | bytes[0]);
+              value = (bytes[1] & 0xFF) << 8 | bytes[0] & 0xFF;
             } else {
-              value = (short) (((short) bytes[1]) << 8 | bytes[0]);
+              value = (short) ((bytes[1] & 0xFF) << 8 | bytes[0] & 0xFF);
             }
             break;
           case 4:
             if(pxField.unsigned()) {
               throw new UnsupportedOperationException("no such Paradox type");
             } else {
-              value = (int) (((int) bytes[3]) << 24 | ((int) bytes[2]) << 16 | ((int) bytes[1]) << 8 | bytes[0]);
+              value = (bytes[3] & 0xFF) << 24 | (bytes[2] & 0xFF) << 16 | (bytes[1] & 0xFF) << 8 | bytes[0] & 0xFF;
             }
           }
           try {
@@ -201,12 +361,22 @@ public class ParadoxDb implements Closeable, Iterable<ParadoxRecord> {
       if(c < 0) throw new IllegalStateException();
       header.fieldNames.add(name.toString());
     }
+
+    header.fieldOffsets = new int[header.numFields];
+    header.fieldIndex = new HashMap<String, Integer>();
+    int offset = 0;
+    for(int i = 0; i < header.numFields; i++) {
+      header.fieldOffsets[i] = offset;
+      offset += header.fieldInfo.get(i).size;
+      header.fieldIndex.put(header.fieldNames.get(i), i);
+    }
   }
 
   private List<ParadoxDbBlock> readBlocks() throws IOException {
-    dbFile.seek(header.headerSize);
     List<ParadoxDbBlock> blocks = new ArrayList<ParadoxDbBlock>(header.fileBlocks);
     for(int i = 0; i < header.fileBlocks; i++) {
+      // each block starts with its own header, blocks are maxTableSize KB long
+      dbFile.seek(header.headerSize + (long) i * header.getBlockSize());
       int nextBlock = readUnsignedShort();
       int prevBlock = readUnsignedShort();
       int offsetToLastRecord = readShort();
@@ -219,10 +389,9 @@ public class ParadoxDb implements Closeable, Iterable<ParadoxRecord> {
     ParadoxRecord r = new ParadoxRecord(header);
     for(int i = 0; i < header.numFields; i++) {
       ParadoxFieldInfo field = header.fieldInfo.get(i);
-      ParadoxFieldType type = field.getType();
       byte[] bytes = new byte[field.size];
       dbFile.readFully(bytes);
-      Object value = type.parse(bytes);
+      Object value = parseField(i, ByteBuffer.wrap(bytes), 0);
       r.setFieldValue(i, value);
     }
     return r;
@@ -366,6 +535,10 @@ public class ParadoxDb implements Closeable, Iterable<ParadoxRecord> {
 
     private List<String> fieldNames;
 
+    private int[] fieldOffsets;
+
+    private Map<String, Integer> fieldIndex;
+
     public short getRecordSize() {
       return recordSize;
     }
@@ -382,6 +555,13 @@ public class ParadoxDb implements Closeable, Iterable<ParadoxRecord> {
       return maxTableSize;
     }
 
+    /**
+     * @return the size in bytes of a data block, including its header
+     */
+    public int getBlockSize() {
+      return maxTableSize * 0x0400;
+    }
+
     public int getNumRecords() {
       return numRecords;
     }
@@ -494,6 +674,27 @@ public class ParadoxDb implements Closeable, Iterable<ParadoxRecord> {
       return fieldNames;
     }
 
+    /**
+     * @param fieldName
+     * @return the index of the field in a record
+     * @throws IllegalArgumentException if there is no such field
+     */
+    public int getFieldIndex(String fieldName) {
+      Integer index = fieldIndex.get(fieldName);
+      if(index == null) {
+        throw new IllegalArgumentException("no such field " + fieldName);
+      }
+      return index;
+    }
+
+    /**
+     * @param i field index
+     * @return the offset of the field from the start of a record
+     */
+    int getFieldOffset(int i) {
+      return fieldOffsets[i];
+    }
+
   }
 
   public static class ParadoxFieldInfo {
@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * Copyright (c) 2011 OBiBa. All rights reserved.
+ *  
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *  
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.obiba.paradox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.obiba.paradox.ParadoxDb.ParadoxDbBlock;
+
+/**
+ * Forward-only cursor over the records of a {@link ParadoxDb}, reading the table file one data block at a time. The
+ * cursor allocates nothing per record: {@link #getRecord()} always returns the same view, which is moved to the current
+ * record by each call to {@link #next()}.
+ * 
+ * <pre>
+ * ParadoxDbCursor cursor = db.cursor();
+ * while(cursor.next()) {
+ *   ParadoxRecordView record = cursor.getRecord();
+ *   ...
+ * }
+ * </pre>
+ */
+public class ParadoxDbCursor {
+
+  private final ParadoxDb db;
+
+  private final List<ParadoxDbBlock> blocks;
+
+  private final ParadoxKeyRange range;
+
+  private final ParadoxRecordView record;
+
+  private final int recordSize;
+
+  private final int numRecords;
+
+  private int recordCount;
+
+  private int blockIndex = -1;
+
+  private int blockRecords;
+
+  private int recordIndex;
+
+  // records of the current block
+  private ByteBuffer blockBuffer;
+
+  ParadoxDbCursor(ParadoxDb db) {
+    this(db, db.getBlocks(), null);
+  }
+
+  /**
+   * Cursor over the records of the given blocks whose key is within a range.
+   */
+  ParadoxDbCursor(ParadoxDb db, List<ParadoxDbBlock> blocks, ParadoxKeyRange range) {
+    this.db = db;
+    this.blocks = blocks;
+    this.range = range;
+    this.record = new ParadoxRecordView(db);
+    this.recordSize = db.getHeader().getRecordSize();
+    this.numRecords = db.getHeader().getNumRecords();
+  }
+
+  public ParadoxDb getDb() {
+    return db;
+  }
+
+  /**
+   * Move to the next record.
+   * 
+   * @return false if there are no more records
+   * @throws IOException if the next data block cannot be read
+   */
+  public boolean next() throws IOException {
+    while(advance()) {
+      if(range == null || range.contains(record)) return true;
+    }
+    return false;
+  }
+
+  private boolean advance() throws IOException {
+    if(recordCount >= numRecords) {
+      record.clear();
+      return false;
+    }
+    recordIndex++;
+    while(recordIndex >= blockRecords) {
+      if(++blockIndex >= blocks.size()) {
+        record.clear();
+        return false;
+      }
+      ParadoxDbBlock block = blocks.get(blockIndex);
+      blockRecords = block.numRecords();
+      recordIndex = 0;
+      if(blockRecords > 0) {
+        blockBuffer = db.readRecords(block);
+      }
+    }
+    record.moveTo(blockBuffer, recordIndex * recordSize);
+    recordCount++;
+    return true;
+  }
+
+  /**
+   * Returns the view on the current record. The view is reused: it is only valid until the next call to
+   * {@link #next()}. Use {@link ParadoxRecordView#toRecord()} to keep a copy of the values.
+   * 
+   * @return
+   * @throws NoSuchElementException if the cursor is not positioned on a record
+   */
+  public ParadoxRecordView getRecord() {
+    if(record.isPositioned() == false) throw new NoSuchElementException();
+    return record;
+  }
+
+  /**
+   * Move the cursor back before the first record.
+   */
+  public void reset() {
+    blockIndex = -1;
+    blockRecords = 0;
+    recordIndex = 0;
+    recordCount = 0;
+    blockBuffer = null;
+    record.clear();
+  }
+
+}
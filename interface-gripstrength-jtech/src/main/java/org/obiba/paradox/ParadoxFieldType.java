@@ -9,7 +9,8 @@
  ******************************************************************************/
 package org.obiba.paradox;
 
-import java.util.Arrays;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.Calendar;
 
 public enum ParadoxFieldType {
@@ -17,9 +18,10 @@ public enum ParadoxFieldType {
   Alpha(0x01) {
 
     @Override
-    public Object parse(byte[] bytes) {
-      StringBuilder sb = new StringBuilder();
-      for(byte b : bytes) {
+    public Object parse(ByteBuffer buffer, int offset, int length) {
+      StringBuilder sb = new StringBuilder(length);
+      for(int i = offset; i < offset + length; i++) {
+        byte b = buffer.get(i);
         if(b == 0) break;
         sb.append((char) b);
       }
@@ -29,13 +31,10 @@ public enum ParadoxFieldType {
   },
   Date(0x02) {
     @Override
-    public Object parse(byte[] bytes) {
-      Long daysSinceEpoch = asNumber(bytes);
+    public Object parse(ByteBuffer buffer, int offset, int length) {
+      Long daysSinceEpoch = asNumber(buffer, offset, length);
       if(daysSinceEpoch == null) return null;
-      Calendar c = Calendar.getInstance();
-      c.clear();
-      // When using Jan-1-0001, dates are always off by one. I don't know why.
-      c.set(1, 0, 2);
+      Calendar c = epoch();
       if(daysSinceEpoch > Integer.MAX_VALUE) {
         c.add(Calendar.DATE, Integer.MAX_VALUE);
         daysSinceEpoch -= Integer.MAX_VALUE;
@@ -47,53 +46,144 @@ public enum ParadoxFieldType {
   },
   ShortInteger(0x03) {
     @Override
-    public Object parse(byte[] bytes) {
-      return asNumber(bytes);
+    public Object parse(ByteBuffer buffer, int offset, int length) {
+      return asNumber(buffer, offset, length);
     }
   },
   LongInteger(0x04) {
     @Override
-    public Object parse(byte[] bytes) {
-      return asNumber(bytes);
+    public Object parse(ByteBuffer buffer, int offset, int length) {
+      return asNumber(buffer, offset, length);
     }
   },
   Currency(0x05), Number(0x06), Logical(0x09) {
     @Override
-    public Object parse(byte[] bytes) {
-      Long number = asNumber(bytes);
+    public Object parse(ByteBuffer buffer, int offset, int length) {
+      Long number = asNumber(buffer, offset, length);
       return number != null ? number.intValue() : null;
     }
   },
   MemoBlob(0x0C), BLOB(0x0D), FormatedMemoBlob(0x0E), OLE(0x0F), GraphicBlob(0x10), Time(0x14), Timestamp(0x15), AutoInc(0x16), BCD(0x17), Bytes(0x18);
 
+  private static final Charset ALPHA_CHARSET = Charset.forName("ISO-8859-1");
+
+  private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+
   private int value;
 
   private ParadoxFieldType(int value) {
     this.value = value;
   }
 
+  /**
+   * @return true for the types whose values are stored in the .MB file of the table
+   */
+  public boolean isBlob() {
+    switch(this) {
+    case MemoBlob:
+    case BLOB:
+    case FormatedMemoBlob:
+    case OLE:
+    case GraphicBlob:
+      return true;
+    default:
+      return false;
+    }
+  }
+
   public Object parse(byte[] bytes) {
+    return parse(ByteBuffer.wrap(bytes), 0, bytes.length);
+  }
+
+  /**
+   * Parse the value stored in a region of a buffer, using absolute reads only: the buffer's position is left
+   * untouched, so a single buffer may be shared by several readers.
+   *
+   * @param buffer
+   * @param offset of the first byte of the value
+   * @param length of the value in bytes
+   * @return
+   */
+  public Object parse(ByteBuffer buffer, int offset, int length) {
     return null;
   }
 
-  private static byte[] fixSign(byte[] bytes) {
-    byte[] fixed = Arrays.copyOf(bytes, bytes.length);
-    if((fixed[0] & 0x80) == 0x80) {
-      fixed[0] &= 0x7F;
+  /**
+   * Encode a value the way it is stored in a field of this type, so that it can be compared to stored values byte per
+   * byte (unsigned). Alpha values are not padded to the field size.
+   * 
+   * @param value
+   * @param size field size
+   * @return
+   * @throws IllegalArgumentException if values of this type cannot be compared in their stored form
+   */
+  byte[] encode(Object value, int size) {
+    if(value == null) return new byte[size];
+    switch(this) {
+    case Alpha:
+      return value.toString().getBytes(ALPHA_CHARSET);
+    case Date:
+      if(value instanceof java.util.Date == false) throw new IllegalArgumentException("date expected: " + value);
+      // whole days since the epoch, rounded to absorb daylight saving time shifts
+      double days = (((java.util.Date) value).getTime() - epoch().getTimeInMillis()) / (double) MILLIS_PER_DAY;
+      return encodeNumber(Math.round(days), size);
+    case ShortInteger:
+    case LongInteger:
+    case Logical:
+      if(value instanceof Boolean) return encodeNumber((Boolean) value ? 1 : 0, size);
+      if(value instanceof java.lang.Number == false) throw new IllegalArgumentException("number expected: " + value);
+      return encodeNumber(((java.lang.Number) value).longValue(), size);
+    default:
+      throw new IllegalArgumentException("values of " + this + " fields cannot be compared");
+    }
+  }
+
+  /**
+   * @return true if the field is blank (all bytes are 0)
+   */
+  static boolean isNull(ByteBuffer buffer, int offset, int length) {
+    for(int i = offset; i < offset + length; i++) {
+      if(buffer.get(i) != 0) return false;
     }
-    return fixed;
+    return true;
   }
 
-  private static Long asNumber(byte[] bytes) {
-    byte[] fixed = fixSign(bytes);
-    long value = 0;
-    int leftShift = (bytes.length - 1) * 8;
-    int mask = 0x000000FF;
-    for(int i = 0; i < bytes.length; i++) {
-      value |= fixed[i] << leftShift & (mask << leftShift);
-      leftShift -= 8;
+  /**
+   * Read an integer stored big-endian, in two's complement with its sign bit inverted so that stored values sort as
+   * unsigned bytes.
+   */
+  static long readLong(ByteBuffer buffer, int offset, int length) {
+    long value = (byte) (buffer.get(offset) ^ 0x80);
+    for(int i = offset + 1; i < offset + length; i++) {
+      value = value << 8 | buffer.get(i) & 0xFF;
     }
-    return (bytes[0] & 0x80) == 0x80 ? new Long(value) : (value == 0 ? null : new Long(-value));
+    return value;
+  }
+
+  private static Long asNumber(ByteBuffer buffer, int offset, int length) {
+    return isNull(buffer, offset, length) ? null : Long.valueOf(readLong(buffer, offset, length));
+  }
+
+  private static byte[] encodeNumber(long value, int size) {
+    int bits = size * 8;
+    if(bits < 64 && (value < -(1L << (bits - 1)) || value >= 1L << (bits - 1))) {
+      throw new IllegalArgumentException(value + " does not fit in " + size + " bytes");
+    }
+    byte[] bytes = new byte[size];
+    for(int i = size - 1; i >= 0; i--) {
+      bytes[i] = (byte) value;
+      value >>= 8;
+    }
+    bytes[0] ^= 0x80;
+    return bytes;
+  }
+
+  private static Calendar epoch() {
+    Calendar c = Calendar.getInstance();
+    c.clear();
+    // When using Jan-1-0001, dates are always off by one. I don't know why.
+    c.set(1, 0, 2);
+    return c;
   }
 
   static ParadoxFieldType forType(int value) {
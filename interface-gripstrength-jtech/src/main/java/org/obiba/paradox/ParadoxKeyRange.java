@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * Copyright (c) 2011 OBiBa. All rights reserved.
+ *  
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *  
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.obiba.paradox;
+
+import java.util.Arrays;
+
+/**
+ * An inclusive range of primary key values. Bounds may hold fewer values than the table has key fields, in which case
+ * only the leading key fields are compared. Blank (null) values sort first.
+ */
+final class ParadoxKeyRange {
+
+  private final Object[] from;
+
+  private final Object[] to;
+
+  ParadoxKeyRange(Object[] from, Object[] to) {
+    if(from.length != to.length) {
+      throw new IllegalArgumentException("key range bounds must have the same number of fields");
+    }
+    this.from = from;
+    this.to = to;
+  }
+
+  int length() {
+    return from.length;
+  }
+
+  /**
+   * @param record
+   * @return true if the leading key fields of the record are within the range
+   */
+  boolean contains(ParadoxRecordView record) {
+    for(int i = 0; i < from.length; i++) {
+      Object value = record.getValue(i);
+      int c = compare(value, from[i]);
+      if(c < 0) return false;
+      if(c > 0) break;
+    }
+    for(int i = 0; i < to.length; i++) {
+      Object value = record.getValue(i);
+      int c = compare(value, to[i]);
+      if(c > 0) return false;
+      if(c < 0) break;
+    }
+    return true;
+  }
+
+  /**
+   * Check whether keys starting at {@code first} and ending before {@code next} may overlap the range.
+   * 
+   * @param first lowest key, null if unbounded
+   * @param next key following the highest key, null if unbounded
+   * @return
+   */
+  boolean overlaps(Object[] first, Object[] next) {
+    return (first == null || comparePrefix(first, to) <= 0) && (next == null || comparePrefix(next, from) >= 0);
+  }
+
+  /**
+   * Compare the first {@code bound.length} values of a key to a bound.
+   */
+  static int comparePrefix(Object[] key, Object[] bound) {
+    for(int i = 0; i < bound.length; i++) {
+      int c = compare(key[i], bound[i]);
+      if(c != 0) return c;
+    }
+    return 0;
+  }
+
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  static int compare(Object a, Object b) {
+    if(a == null) return b == null ? 0 : -1;
+    if(b == null) return 1;
+    if(a instanceof Number && b instanceof Number) {
+      if(a instanceof Double || a instanceof Float || b instanceof Double || b instanceof Float) {
+        return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+      }
+      long x = ((Number) a).longValue();
+      long y = ((Number) b).longValue();
+      return x < y ? -1 : (x == y ? 0 : 1);
+    }
+    return ((Comparable) a).compareTo(b);
+  }
+
+  @Override
+  public String toString() {
+    return Arrays.toString(from) + ".." + Arrays.toString(to);
+  }
+}
@@ -0,0 +1,58 @@
+/*******************************************************************************
+ * Copyright (c) 2011 OBiBa. All rights reserved.
+ *  
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *  
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.obiba.paradox;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Inclusive range condition on a field, evaluated on the stored bytes of a record without decoding the field value.
+ * Bounds are encoded once, the way values are stored, so that comparing stored bytes as unsigned values gives the order
+ * of the values (blank values first).
+ */
+final class ParadoxPredicate {
+
+  private final int fieldOffset;
+
+  private final int fieldSize;
+
+  private final byte[] from;
+
+  private final byte[] to;
+
+  /**
+   * @param from lowest value, null if unbounded
+   * @param to highest value, null if unbounded
+   */
+  ParadoxPredicate(int fieldOffset, int fieldSize, byte[] from, byte[] to) {
+    this.fieldOffset = fieldOffset;
+    this.fieldSize = fieldSize;
+    this.from = from;
+    this.to = to;
+  }
+
+  boolean matches(ByteBuffer buffer, int recordOffset) {
+    int offset = recordOffset + fieldOffset;
+    return (from == null || compare(buffer, offset, from) >= 0) && (to == null || compare(buffer, offset, to) <= 0);
+  }
+
+  /**
+   * Compare the field bytes to a value, the shorter one being padded with zeros.
+   */
+  private int compare(ByteBuffer buffer, int offset, byte[] value) {
+    int length = Math.max(fieldSize, value.length);
+    for(int i = 0; i < length; i++) {
+      int a = i < fieldSize ? buffer.get(offset + i) & 0xFF : 0;
+      int b = i < value.length ? value[i] & 0xFF : 0;
+      if(a != b) return a - b;
+    }
+    return 0;
+  }
+
+}
@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * Copyright (c) 2011 OBiBa. All rights reserved.
+ *  
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *  
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.obiba.paradox;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reader for the primary index (.PX) of a keyed Paradox table. The index is a tree of blocks: each entry holds the key
+ * of the first record of a child block, followed by the child block number, the number of records it holds and an
+ * unused value (all three stored as short integers). Entries of the last level refer to data blocks of the table. The
+ * index blocks are read when walked and the most recently read ones are cached.
+ */
+public class ParadoxPrimaryIndex implements Closeable {
+
+  private static final int FILE_TYPE_PRIMARY_INDEX = 0x01;
+
+  private static final int FIELD_INFO_OFFSET = 0x0058;
+
+  private static final int BLOCK_HEADER_SIZE = 6;
+
+  private static final int MAX_CACHED_BLOCKS = 16;
+
+  private final ParadoxBlockReader reader;
+
+  private final int recordSize;
+
+  private final int headerSize;
+
+  private final int blockSize;
+
+  private final int numEntries;
+
+  private final int rootBlock;
+
+  private final int numLevels;
+
+  private final ParadoxFieldType[] keyTypes;
+
+  private final int[] keySizes;
+
+  public ParadoxPrimaryIndex(File file) throws IOException {
+    this.reader = new ParadoxBlockReader(file, new RandomAccessFile(file, "r"), MAX_CACHED_BLOCKS);
+    ByteBuffer buffer;
+    try {
+      buffer = reader.read(0, FIELD_INFO_OFFSET).order(ByteOrder.LITTLE_ENDIAN);
+    } catch(IOException e) {
+      close();
+      throw e;
+    }
+    if(buffer.get(0x0004) != FILE_TYPE_PRIMARY_INDEX) {
+      close();
+      throw new IOException("not a Paradox primary index file: " + file.getAbsolutePath());
+    }
+    this.recordSize = buffer.getShort(0x0000) & 0xFFFF;
+    this.headerSize = buffer.getShort(0x0002) & 0xFFFF;
+    this.blockSize = (buffer.get(0x0005) & 0xFF) * 0x0400;
+    this.numEntries = buffer.getInt(0x0006);
+    this.rootBlock = buffer.getShort(0x001E) & 0xFFFF;
+    this.numLevels = buffer.get(0x0020) & 0xFF;
+    int numKeyFields = buffer.getShort(0x0021);
+    try {
+      buffer = reader.read(FIELD_INFO_OFFSET, 2 * numKeyFields);
+    } catch(IOException e) {
+      close();
+      throw e;
+    }
+    this.keyTypes = new ParadoxFieldType[numKeyFields];
+    this.keySizes = new int[numKeyFields];
+    for(int i = 0; i < numKeyFields; i++) {
+      keyTypes[i] = ParadoxFieldType.forType(buffer.get(2 * i) & 0xFF);
+      keySizes[i] = buffer.get(2 * i + 1) & 0xFF;
+    }
+  }
+
+  public void close() throws IOException {
+    reader.close();
+  }
+
+  public int getNumKeyFields() {
+    return keyTypes.length;
+  }
+
+  public int getNumLevels() {
+    return numLevels;
+  }
+
+  public int getNumEntries() {
+    return numEntries;
+  }
+
+  /**
+   * Find the data blocks that may hold records whose leading key fields are within the given inclusive bounds, by
+   * walking down the index from its root.
+   * 
+   * @param from lowest key values
+   * @param to highest key values
+   * @return data block numbers (1 based), in key order
+   * @throws IOException if the index blocks cannot be read
+   */
+  public List<Integer> findDataBlocks(Object[] from, Object[] to) throws IOException {
+    ParadoxKeyRange range = new ParadoxKeyRange(from, to);
+    if(range.length() > keyTypes.length) {
+      throw new IllegalArgumentException("index has " + keyTypes.length + " key fields, got " + range.length());
+    }
+    List<Integer> dataBlocks = new ArrayList<Integer>();
+    if(numEntries > 0) {
+      findDataBlocks(rootBlock, 1, range, dataBlocks);
+    }
+    return dataBlocks;
+  }
+
+  private void findDataBlocks(int blockNumber, int level, ParadoxKeyRange range, List<Integer> dataBlocks)
+      throws IOException {
+    long blockOffset = headerSize + (long) (blockNumber - 1) * blockSize;
+    // the last block may not be complete
+    int length = (int) Math.min(blockSize, reader.length() - blockOffset);
+    if(length < BLOCK_HEADER_SIZE) {
+      throw new IOException("index block " + blockNumber + " is beyond the end of the file");
+    }
+    ByteBuffer buffer = reader.readBlock(blockOffset, length).order(ByteOrder.LITTLE_ENDIAN);
+    int numRecords = buffer.getShort(4) / recordSize + 1;
+    int recordOffset = BLOCK_HEADER_SIZE;
+
+    Object[] next = numRecords > 0 ? readKey(buffer, recordOffset) : null;
+    for(int i = 0; i < numRecords; i++) {
+      int entryOffset = recordOffset + i * recordSize;
+      // the first entry also covers keys lower than its own
+      Object[] first = i == 0 ? null : next;
+      next = i + 1 < numRecords ? readKey(buffer, entryOffset + recordSize) : null;
+      if(range.overlaps(first, next)) {
+        int childBlock = readShort(buffer, entryOffset + recordSize - 3 * 2);
+        if(level < numLevels) {
+          findDataBlocks(childBlock, level + 1, range, dataBlocks);
+        } else {
+          dataBlocks.add(childBlock);
+        }
+      }
+    }
+  }
+
+  private Object[] readKey(ByteBuffer buffer, int offset) {
+    Object[] key = new Object[keyTypes.length];
+    for(int i = 0; i < keyTypes.length; i++) {
+      key[i] = keyTypes[i].parse(buffer, offset, keySizes[i]);
+      offset += keySizes[i];
+    }
+    return key;
+  }
+
+  private int readShort(ByteBuffer buffer, int offset) {
+    Long value = (Long) ParadoxFieldType.ShortInteger.parse(buffer, offset, 2);
+    return value == null ? 0 : value.intValue();
+  }
+
+}
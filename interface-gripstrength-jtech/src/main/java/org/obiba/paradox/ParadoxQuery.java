@@ -0,0 +1,136 @@
+/*******************************************************************************
+ * Copyright (c) 2011 OBiBa. All rights reserved.
+ *  
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *  
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.obiba.paradox;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.obiba.paradox.ParadoxDb.ParadoxDbBlock;
+import org.obiba.paradox.ParadoxDb.ParadoxDbHeader;
+import org.obiba.paradox.ParadoxDb.ParadoxFieldInfo;
+
+/**
+ * Query on a Paradox table, selecting some of the fields of the records matching equality or range conditions.
+ * Conditions are evaluated on the stored bytes and only the selected fields of the matching records are decoded. When
+ * the conditions set the values of the leading primary key fields, only the blocks referenced by the primary index are
+ * read.
+ * 
+ * <pre>
+ * ParadoxResultSet rs = db.query().select(&quot;Side&quot;, &quot;Maximum&quot;).whereEquals(&quot;ExamID&quot;, 1).execute();
+ * while(rs.next()) {
+ *   long max = rs.getLong(1);
+ *   ...
+ * }
+ * </pre>
+ */
+public class ParadoxQuery {
+
+  private final ParadoxDb db;
+
+  private final ParadoxDbHeader header;
+
+  private final List<Integer> columns = new ArrayList<Integer>();
+
+  private final List<ParadoxPredicate> predicates = new ArrayList<ParadoxPredicate>();
+
+  private final Map<Integer, Object> equalities = new HashMap<Integer, Object>();
+
+  ParadoxQuery(ParadoxDb db) {
+    this.db = db;
+    this.header = db.getHeader();
+  }
+
+  /**
+   * Add fields to the projection. All fields are selected when none is.
+   * 
+   * @param fieldNames
+   * @return this query
+   */
+  public ParadoxQuery select(String... fieldNames) {
+    for(String fieldName : fieldNames) {
+      columns.add(header.getFieldIndex(fieldName));
+    }
+    return this;
+  }
+
+  /**
+   * Only match records whose field is equal to a value. A null value matches blank fields.
+   * 
+   * @param fieldName
+   * @param value
+   * @return this query
+   */
+  public ParadoxQuery whereEquals(String fieldName, Object value) {
+    int i = header.getFieldIndex(fieldName);
+    byte[] encoded = encode(i, value);
+    predicates.add(new ParadoxPredicate(header.getFieldOffset(i), header.getFieldInfo().get(i).size, encoded, encoded));
+    equalities.put(i, value);
+    return this;
+  }
+
+  /**
+   * Only match records whose field is within inclusive bounds.
+   * 
+   * @param fieldName
+   * @param from lowest value, null for no lower bound
+   * @param to highest value, null for no upper bound
+   * @return this query
+   */
+  public ParadoxQuery whereBetween(String fieldName, Object from, Object to) {
+    int i = header.getFieldIndex(fieldName);
+    byte[] encodedFrom = from != null ? encode(i, from) : null;
+    byte[] encodedTo = to != null ? encode(i, to) : null;
+    predicates.add(new ParadoxPredicate(header.getFieldOffset(i), header.getFieldInfo().get(i).size, encodedFrom, encodedTo));
+    return this;
+  }
+
+  /**
+   * @return the matching records
+   * @throws IOException
+   */
+  public ParadoxResultSet execute() throws IOException {
+    int[] selected;
+    if(columns.isEmpty()) {
+      selected = new int[header.getNumFields()];
+      for(int i = 0; i < selected.length; i++) {
+        selected[i] = i;
+      }
+    } else {
+      selected = new int[columns.size()];
+      for(int i = 0; i < selected.length; i++) {
+        selected[i] = columns.get(i);
+      }
+    }
+    ParadoxDbCursor cursor = new ParadoxDbCursor(db, getBlocks(), null);
+    return new ParadoxResultSet(db, cursor, selected, predicates.toArray(new ParadoxPredicate[predicates.size()]));
+  }
+
+  private List<ParadoxDbBlock> getBlocks() throws IOException {
+    // key fields are the first fields of a record
+    List<Object> key = new ArrayList<Object>();
+    while(key.size() < header.getPrimaryKeyFields() && equalities.containsKey(key.size())) {
+      key.add(equalities.get(key.size()));
+    }
+    if(key.isEmpty()) {
+      return db.getBlocks();
+    }
+    Object[] keyValues = key.toArray();
+    return db.getKeyBlocks(keyValues, keyValues);
+  }
+
+  private byte[] encode(int i, Object value) {
+    ParadoxFieldInfo field = header.getFieldInfo().get(i);
+    return field.getType().encode(value, field.size);
+  }
+
+}
@@ -40,18 +40,14 @@ public class ParadoxRecord {
   }
 
   private int getFieldIndex(String fieldName) {
-    int index = header.getFieldNames().indexOf(fieldName);
-    if(index < 0) {
-      throw new IllegalArgumentException("no such field " + fieldName);
-    }
-    return index;
+    return header.getFieldIndex(fieldName);
   }
 
   @Override
   public String toString() {
     StringBuilder sb = new StringBuilder();
     for(String fieldName : header.getFieldNames()) {
-      sb.append(fieldName).append(":").append(getValue(fieldName));
+      sb.append(fieldName).append(":").append(this.<Object> getValue(fieldName));
     }
     return sb.toString();
   }
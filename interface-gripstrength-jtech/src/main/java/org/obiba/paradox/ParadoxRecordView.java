@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * Copyright (c) 2011 OBiBa. All rights reserved.
+ *  
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *  
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.obiba.paradox;
+
+import java.nio.ByteBuffer;
+
+import org.obiba.paradox.ParadoxDb.ParadoxDbHeader;
+
+/**
+ * A view on a record stored in a buffer. Field values are decoded from the buffer each time they are requested,
+ * nothing is copied beforehand.
+ * 
+ * @see ParadoxDbCursor
+ */
+public class ParadoxRecordView {
+
+  private final ParadoxDb db;
+
+  private final ParadoxDbHeader header;
+
+  private ByteBuffer buffer;
+
+  private int offset = -1;
+
+  ParadoxRecordView(ParadoxDb db) {
+    this.db = db;
+    this.header = db.getHeader();
+  }
+
+  @SuppressWarnings("unchecked")
+  public <T> T getValue(int i) {
+    return (T) db.parseField(i, buffer, offset + header.getFieldOffset(i));
+  }
+
+  public <T> T getValue(String fieldName) {
+    return this.<T> getValue(header.getFieldIndex(fieldName));
+  }
+
+  public Object[] getValues() {
+    Object[] values = new Object[header.getNumFields()];
+    for(int i = 0; i < values.length; i++) {
+      values[i] = getValue(i);
+    }
+    return values;
+  }
+
+  /**
+   * Decode all the fields of the current record into a standalone {@link ParadoxRecord}.
+   * 
+   * @return
+   */
+  public ParadoxRecord toRecord() {
+    ParadoxRecord r = new ParadoxRecord(header);
+    for(int i = 0; i < header.getNumFields(); i++) {
+      r.setFieldValue(i, getValue(i));
+    }
+    return r;
+  }
+
+  ByteBuffer getBuffer() {
+    return buffer;
+  }
+
+  int getOffset() {
+    return offset;
+  }
+
+  void moveTo(ByteBuffer buffer, int offset) {
+    this.buffer = buffer;
+    this.offset = offset;
+  }
+
+  void clear() {
+    this.buffer = null;
+    this.offset = -1;
+  }
+
+  boolean isPositioned() {
+    return offset >= 0;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    for(String fieldName : header.getFieldNames()) {
+      sb.append(fieldName).append(":").append(this.<Object> getValue(fieldName));
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,208 @@
+/*******************************************************************************
+ * Copyright (c) 2011 OBiBa. All rights reserved.
+ *  
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *  
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.obiba.paradox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Date;
+
+import org.obiba.paradox.ParadoxDb.ParadoxDbHeader;
+import org.obiba.paradox.ParadoxDb.ParadoxFieldInfo;
+
+/**
+ * Records matching a {@link ParadoxQuery}. Columns are numbered from 0, in the order of the query projection, and are
+ * decoded from the stored bytes when accessed; integer columns are decoded without allocating.
+ */
+public class ParadoxResultSet {
+
+  private final ParadoxDb db;
+
+  private final ParadoxDbCursor cursor;
+
+  private final ParadoxPredicate[] predicates;
+
+  private final int[] fields;
+
+  private final int[] offsets;
+
+  private final int[] sizes;
+
+  private final ParadoxFieldType[] types;
+
+  private final String[] names;
+
+  private ParadoxRecordView record;
+
+  ParadoxResultSet(ParadoxDb db, ParadoxDbCursor cursor, int[] fields, ParadoxPredicate[] predicates) {
+    this.db = db;
+    this.cursor = cursor;
+    this.predicates = predicates;
+    this.fields = fields;
+    ParadoxDbHeader header = db.getHeader();
+    this.offsets = new int[fields.length];
+    this.sizes = new int[fields.length];
+    this.types = new ParadoxFieldType[fields.length];
+    this.names = new String[fields.length];
+    for(int i = 0; i < fields.length; i++) {
+      ParadoxFieldInfo field = header.getFieldInfo().get(fields[i]);
+      offsets[i] = header.getFieldOffset(fields[i]);
+      sizes[i] = field.size;
+      types[i] = field.getType();
+      names[i] = header.getFieldNames().get(fields[i]);
+    }
+  }
+
+  /**
+   * Move to the next matching record.
+   * 
+   * @return false if there are no more records
+   * @throws IOException if the records cannot be read
+   */
+  public boolean next() throws IOException {
+    while(cursor.next()) {
+      ParadoxRecordView view = cursor.getRecord();
+      if(matches(view.getBuffer(), view.getOffset())) {
+        record = view;
+        return true;
+      }
+    }
+    record = null;
+    return false;
+  }
+
+  public int getColumnCount() {
+    return fields.length;
+  }
+
+  public String getColumnName(int column) {
+    return names[column];
+  }
+
+  /**
+   * @param name
+   * @return the column of the field
+   * @throws IllegalArgumentException if the field is not selected
+   */
+  public int findColumn(String name) {
+    for(int i = 0; i < names.length; i++) {
+      if(names[i].equals(name)) return i;
+    }
+    throw new IllegalArgumentException("field not selected " + name);
+  }
+
+  public boolean isNull(int column) {
+    return ParadoxFieldType.isNull(buffer(), position(column), sizes[column]);
+  }
+
+  public boolean isNull(String name) {
+    return isNull(findColumn(name));
+  }
+
+  /**
+   * @param column a short integer, long integer or logical column
+   * @return the value, 0 if blank
+   */
+  public long getLong(int column) {
+    switch(types[column]) {
+    case ShortInteger:
+    case LongInteger:
+    case Logical:
+      break;
+    default:
+      throw new IllegalArgumentException("not an integer field " + names[column]);
+    }
+    if(isNull(column)) return 0;
+    return ParadoxFieldType.readLong(buffer(), position(column), sizes[column]);
+  }
+
+  public long getLong(String name) {
+    return getLong(findColumn(name));
+  }
+
+  public int getInt(int column) {
+    return (int) getLong(column);
+  }
+
+  public int getInt(String name) {
+    return getInt(findColumn(name));
+  }
+
+  /**
+   * @param column a logical column
+   * @return the value, false if blank
+   */
+  public boolean getBoolean(int column) {
+    return getLong(column) != 0;
+  }
+
+  public boolean getBoolean(String name) {
+    return getBoolean(findColumn(name));
+  }
+
+  /**
+   * @param column an alpha column
+   * @return the value, empty if blank
+   */
+  public String getString(int column) {
+    if(types[column] != ParadoxFieldType.Alpha) {
+      throw new IllegalArgumentException("not an alpha field " + names[column]);
+    }
+    return (String) ParadoxFieldType.Alpha.parse(buffer(), position(column), sizes[column]);
+  }
+
+  public String getString(String name) {
+    return getString(findColumn(name));
+  }
+
+  /**
+   * @param column a date column
+   * @return the value, null if blank
+   */
+  public Date getDate(int column) {
+    if(types[column] != ParadoxFieldType.Date) {
+      throw new IllegalArgumentException("not a date field " + names[column]);
+    }
+    return (Date) ParadoxFieldType.Date.parse(buffer(), position(column), sizes[column]);
+  }
+
+  public Date getDate(String name) {
+    return getDate(findColumn(name));
+  }
+
+  /**
+   * @param column
+   * @return the value, as returned by {@link ParadoxRecord#getValue(int)}
+   */
+  @SuppressWarnings("unchecked")
+  public <T> T getObject(int column) {
+    return (T) db.parseField(fields[column], buffer(), position(column));
+  }
+
+  public <T> T getObject(String name) {
+    return this.<T> getObject(findColumn(name));
+  }
+
+  private boolean matches(ByteBuffer buffer, int offset) {
+    for(ParadoxPredicate predicate : predicates) {
+      if(predicate.matches(buffer, offset) == false) return false;
+    }
+    return true;
+  }
+
+  private ByteBuffer buffer() {
+    if(record == null) throw new IllegalStateException("result set is not positioned on a record");
+    return record.getBuffer();
+  }
+
+  private int position(int column) {
+    return record.getOffset() + offsets[column];
+  }
+
+}
@@ -11,15 +11,26 @@ package org.obiba.paradox;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
 
 import org.junit.Assert;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.obiba.paradox.ParadoxDb.ParadoxDbBlock;
 
 public class ParadoxDbTest {
 
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
   @Test
   public void test_canReadHeader() throws IOException {
     for(File file : new File("src/test/resources/db").listFiles()) {
@@ -44,4 +55,234 @@ public class ParadoxDbTest {
       Assert.assertEquals(0, block.numRecords());
     }
   }
+
+  @Test
+  public void test_cursorReadsSameValuesAsIterator() throws IOException {
+    for(File file : new File("src/test/resources/db").listFiles()) {
+      if(file.getName().endsWith("DB")) {
+        ParadoxDb db = new ParadoxDb(file);
+        try {
+          Iterator<ParadoxRecord> records = db.iterator();
+          ParadoxDbCursor cursor = db.cursor();
+          int count = 0;
+          while(cursor.next()) {
+            Assert.assertTrue(records.hasNext());
+            Assert.assertArrayEquals(file.getName(), records.next().getValues(), cursor.getRecord().getValues());
+            count++;
+          }
+          Assert.assertFalse(records.hasNext());
+          Assert.assertEquals(db.getHeader().getNumRecords(), count);
+        } finally {
+          db.close();
+        }
+      }
+    }
+  }
+
+  @Test
+  public void test_cursorReusesRecordView() throws IOException {
+    ParadoxDb db = new ParadoxDb(new File("src/test/resources/db/ZGripTestData.DB"));
+    ParadoxDbCursor cursor = db.cursor();
+    Assert.assertTrue(cursor.next());
+    ParadoxRecordView first = cursor.getRecord();
+    Object side = first.getValue("Side");
+    Assert.assertEquals(side, first.toRecord().getValue("Side"));
+    while(cursor.next()) {
+      Assert.assertSame(first, cursor.getRecord());
+    }
+    cursor.reset();
+    Assert.assertTrue(cursor.next());
+    Assert.assertEquals(side, cursor.getRecord().getValue("Side"));
+    db.close();
+  }
+
+  @Test
+  public void test_primaryIndexLookup() throws IOException {
+    ParadoxDb db = new ParadoxDb(new File("src/test/resources/db/ZListItem.DB"));
+    try {
+      ParadoxPrimaryIndex index = db.getPrimaryIndex();
+      Assert.assertNotNull(index);
+      Assert.assertEquals(db.getHeader().getPrimaryKeyFields(), index.getNumKeyFields());
+      List<Integer> keyBlocks = index.findDataBlocks(new Object[] { 3021 }, new Object[] { 3021 });
+      Assert.assertFalse(keyBlocks.isEmpty());
+      Assert.assertTrue(keyBlocks.size() < db.getHeader().getFileBlocks());
+
+      List<Object> expected = new ArrayList<Object>();
+      for(ParadoxRecord record : db) {
+        if(((Long) record.getValue("ListID")) == 3021) {
+          expected.add(record.getValue("Item"));
+        }
+      }
+      Assert.assertEquals(8, expected.size());
+
+      List<Object> actual = new ArrayList<Object>();
+      ParadoxDbCursor cursor = db.lookup(3021);
+      while(cursor.next()) {
+        actual.add(cursor.getRecord().getValue("Item"));
+      }
+      Assert.assertEquals(expected, actual);
+
+      cursor = db.lookup(3021, 2);
+      Assert.assertTrue(cursor.next());
+      Assert.assertEquals("Thick", cursor.getRecord().getValue("Item"));
+      Assert.assertFalse(cursor.next());
+
+      Assert.assertFalse(db.lookup(-1).next());
+    } finally {
+      db.close();
+    }
+  }
+
+  @Test
+  public void test_primaryIndexRangeLookup() throws IOException {
+    ParadoxDb db = new ParadoxDb(new File("src/test/resources/db/ZListItem.DB"));
+    try {
+      int expected = 0;
+      for(ParadoxRecord record : db) {
+        long listId = record.<Long> getValue("ListID");
+        if(listId >= 1000 && listId <= 3021) expected++;
+      }
+      int count = 0;
+      long previous = 0;
+      ParadoxDbCursor cursor = db.lookup(new Object[] { 1000 }, new Object[] { 3021 });
+      while(cursor.next()) {
+        long listId = cursor.getRecord().<Long> getValue("ListID");
+        Assert.assertTrue(listId >= previous);
+        previous = listId;
+        count++;
+      }
+      Assert.assertEquals(expected, count);
+    } finally {
+      db.close();
+    }
+  }
+
+  @Test
+  public void test_canReadMemo() throws IOException {
+    ParadoxDb db = new ParadoxDb(new File("src/test/resources/db/ZNarrativeCustom.DB"));
+    try {
+      ParadoxRecord record = db.iterator().next();
+      ParadoxBlob memo = record.getValue("Text");
+      Assert.assertNotNull(memo);
+      Assert.assertEquals(ParadoxFieldType.MemoBlob, memo.getType());
+      Assert.assertFalse(memo.isInline());
+      Assert.assertEquals(2, memo.getLength());
+      Assert.assertEquals("kh", memo.getText());
+      Assert.assertArrayEquals("kh".getBytes("ISO-8859-1"), memo.getBytes());
+
+      InputStream stream = memo.openStream();
+      Assert.assertEquals('k', stream.read());
+      Assert.assertEquals('h', stream.read());
+      Assert.assertEquals(-1, stream.read());
+
+      // same memo read through the cursor, decoded text comes from the block cache
+      ParadoxDbCursor cursor = db.cursor();
+      Assert.assertTrue(cursor.next());
+      ParadoxBlob cursorMemo = cursor.getRecord().getValue("Text");
+      Assert.assertEquals(memo, cursorMemo);
+      Assert.assertSame(memo.getText(), cursorMemo.getText());
+    } finally {
+      db.close();
+    }
+  }
+
+  @Test
+  public void test_closeReleasesFiles() throws IOException {
+    List<File> files = new ArrayList<File>();
+    for(String extension : new String[] { "DB", "PX", "MB" }) {
+      File file = new File(folder.getRoot(), "ZNarrativeCustom." + extension);
+      Files.copy(new File("src/test/resources/db/ZNarrativeCustom." + extension).toPath(), file.toPath());
+      files.add(file);
+    }
+    ParadoxDb db = new ParadoxDb(files.get(0));
+    ParadoxDbCursor cursor = db.cursor();
+    Assert.assertTrue(cursor.next());
+    Assert.assertEquals("kh", cursor.getRecord().<ParadoxBlob> getValue("Text").getText());
+    Assert.assertNotNull(db.getPrimaryIndex());
+    db.close();
+
+    // nothing is read from a closed table, not even the blocks read before closing
+    try {
+      db.cursor().next();
+      Assert.fail("closed table was read");
+    } catch(IOException e) {
+      // expected
+    }
+    for(File file : files) {
+      Assert.assertTrue(file.getName(), file.delete());
+    }
+  }
+
+  @Test
+  public void test_blankMemoIsNull() throws IOException {
+    ParadoxDb db = new ParadoxDb(new File("src/test/resources/db/ZGripTest.DB"));
+    try {
+      Assert.assertNull(db.iterator().next().getValue("Notes"));
+    } finally {
+      db.close();
+    }
+  }
+
+  @Test
+  public void test_queryProjectionAndPredicates() throws IOException {
+    ParadoxDb db = new ParadoxDb(new File("src/test/resources/db/ZListItem.DB"));
+    try {
+      List<String> expected = new ArrayList<String>();
+      for(ParadoxRecord record : db) {
+        long listId = record.<Long> getValue("ListID");
+        long order = record.<Long> getValue("Order");
+        if(listId == 3021 && order >= 2 && order <= 5) {
+          expected.add(record.<String> getValue("Item"));
+        }
+      }
+      Assert.assertEquals(4, expected.size());
+
+      List<String> actual = new ArrayList<String>();
+      ParadoxResultSet rs = db.query().select("Item", "Order").whereEquals("ListID", 3021).whereBetween("Order", 2, 5).execute();
+      Assert.assertEquals(2, rs.getColumnCount());
+      long previous = 0;
+      while(rs.next()) {
+        actual.add(rs.getString(0));
+        Assert.assertTrue(rs.getLong("Order") > previous);
+        previous = rs.getLong("Order");
+      }
+      Assert.assertEquals(expected, actual);
+
+      rs = db.query().select("Item").whereEquals("Item", "Thick").execute();
+      Assert.assertTrue(rs.next());
+      Assert.assertEquals("Thick", rs.getString("Item"));
+    } finally {
+      db.close();
+    }
+  }
+
+  @Test
+  public void test_queryDatePredicate() throws IOException {
+    ParadoxDb db = new ParadoxDb(new File("src/test/resources/db/ZExam.DB"));
+    try {
+      Date examDate = db.iterator().next().getValue("ExamDate");
+      ParadoxResultSet rs = db.query().select("Name", "ExamDate").whereEquals("ExamDate", examDate).execute();
+      Assert.assertTrue(rs.next());
+      Assert.assertEquals("CLSA", rs.getString("Name"));
+      Assert.assertEquals(examDate, rs.getDate("ExamDate"));
+      Assert.assertFalse(rs.next());
+
+      Assert.assertFalse(db.query().whereBetween("ExamDate", null, new Date(examDate.getTime() - 24 * 3600 * 1000L)).execute().next());
+    } finally {
+      db.close();
+    }
+  }
+
+  @Test
+  public void test_negativeIntegers() throws IOException {
+    ParadoxDb db = new ParadoxDb(new File("src/test/resources/db/ZNarrativeCustom.DB"));
+    try {
+      Assert.assertEquals(Long.valueOf(-1), db.iterator().next().getValue("ItemID"));
+      ParadoxResultSet rs = db.query().select("ItemID").whereBetween("ItemID", -5, 0).execute();
+      Assert.assertTrue(rs.next());
+      Assert.assertEquals(-1, rs.getLong(0));
+    } finally {
+      db.close();
+    }
+  }
 }
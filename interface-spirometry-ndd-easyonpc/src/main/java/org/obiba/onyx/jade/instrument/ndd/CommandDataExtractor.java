@@ -12,8 +12,6 @@ package org.obiba.onyx.jade.instrument.ndd;
 import java.util.HashMap;
 import java.util.Map;
 
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpressionException;
 
 import org.w3c.dom.Document;
@@ -25,7 +23,7 @@ import org.w3c.dom.NodeList;
  */
 public class CommandDataExtractor extends XMLDataExtractor<CommandData> {
 
-  public CommandDataExtractor(XPath xpath, Document doc) {
+  public CommandDataExtractor(XPathExpressionCache xpath, Document doc) {
     super();
     init(xpath, doc);
   }
@@ -37,7 +35,7 @@ public class CommandDataExtractor extends XMLDataExtractor<CommandData> {
     CommandData data = new CommandData();
     data.setType(extractAttributeValue("//Command", "Type"));
     Map<String, String> parameters = new HashMap<>();
-    NodeList nodes = (NodeList)xpath.evaluate("//Command/Parameter", doc, XPathConstants.NODESET);
+    NodeList nodes = xpath.evaluateNodes("//Command/Parameter", doc);
 
     for (int i =0; i < nodes.getLength(); i++) {
       Node node = nodes.item(i);
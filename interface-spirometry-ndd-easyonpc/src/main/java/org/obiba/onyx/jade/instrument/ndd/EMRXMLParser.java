@@ -22,9 +22,7 @@ import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
-import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -39,8 +37,6 @@ public class EMRXMLParser<T extends TestData<?>> {
   @SuppressWarnings("unused")
   private static final Logger log = LoggerFactory.getLogger(EMRXMLParser.class);
 
-  private XPath xpath;
-
   private Document doc;
 
   private ParticipantData participantData;
@@ -61,8 +57,8 @@ public class EMRXMLParser<T extends TestData<?>> {
     DocumentBuilder builder = domFactory.newDocumentBuilder();
     doc = builder.parse(in);
 
-    XPathFactory factory = XPathFactory.newInstance();
-    xpath = factory.newXPath();
+    // expressions compiled for a previous participant are reused
+    XPathExpressionCache xpath = XPathExpressionCache.getInstance();
 
     try {
       commandData = new CommandDataExtractor(xpath, doc).extractData();
@@ -59,6 +59,9 @@ public class EasyWareProInstrumentRunner implements InstrumentRunner {
 
   private boolean acceptAllTrials;
 
+  // Curves sent as packed 32 bits floats instead of the text of the samples.
+  private boolean packedCurves = true;
+
   public EasyWareProInstrumentRunner() {
     super();
   }
@@ -193,7 +196,7 @@ public class EasyWareProInstrumentRunner implements InstrumentRunner {
 
     try {
       EMRXMLParser<FVCData> parser = new EMRXMLParser<FVCData>();
-      parser.parse(new FileInputStream(outFile), new FVCDataExtractor(isAcceptAllTrials()));
+      parser.parse(new FileInputStream(outFile), new FVCDataExtractor(isAcceptAllTrials(), isPackedCurves() == false));
       Map<String, Data> data = new HashMap<String, Data>();
 
       ParticipantData pData = parser.getParticipantData();
@@ -228,9 +231,15 @@ public class EasyWareProInstrumentRunner implements InstrumentRunner {
 
         // curves
         addOutput(data, "FLOW_INTERVAL", DataBuilder.buildDecimal(trialData.getFlowInterval()));
-        addOutput(data, "FLOW_VALUES", DataBuilder.buildBinary(trialData.getFlowValues()));
+        addOutput(data, "FLOW_VALUES", DataBuilder.buildBinary(encodeCurve(trialData.getFlowCurve(), trialData.getFlowText())));
         addOutput(data, "VOLUME_INTERVAL", DataBuilder.buildDecimal(trialData.getVolumeInterval()));
-        addOutput(data, "VOLUME_VALUES", DataBuilder.buildBinary(trialData.getVolumeValues()));
+        addOutput(data, "VOLUME_VALUES", DataBuilder.buildBinary(encodeCurve(trialData.getVolumeCurve(), trialData.getVolumeText())));
+
+        // indices derived from the curves
+        Double pefTime = trialData.getPefTime();
+        if(pefTime != null) addOutput(data, "CURVE_PEF_TIME", DataBuilder.buildDecimal(pefTime));
+        Double fef2575 = trialData.getFef2575();
+        if(fef2575 != null) addOutput(data, "CURVE_FEF2575", DataBuilder.buildDecimal(fef2575));
 
         dataList.add(data);
       }
@@ -243,6 +252,11 @@ public class EasyWareProInstrumentRunner implements InstrumentRunner {
     return dataList;
   }
 
+  private byte[] encodeCurve(SamplingCurve curve, String text) {
+    // unpacked, the samples are sent as they were exported
+    return packedCurves ? curve.encode() : text.getBytes();
+  }
+
   private void addAttachmentOutput(Map<String, Data> data, CommandData commandData) {
     if("TestResult".equals(commandData.getType()) && commandData.getParameters().containsKey(ATTACHMENT)) {
       File file = new File(commandData.getParameters().get(ATTACHMENT));
@@ -368,4 +382,12 @@ public class EasyWareProInstrumentRunner implements InstrumentRunner {
   public boolean isAcceptAllTrials() {
     return acceptAllTrials;
   }
+
+  public void setPackedCurves(boolean packedCurves) {
+    this.packedCurves = packedCurves;
+  }
+
+  public boolean isPackedCurves() {
+    return packedCurves;
+  }
 }
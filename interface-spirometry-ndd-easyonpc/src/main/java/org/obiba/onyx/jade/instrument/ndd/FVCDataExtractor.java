@@ -11,12 +11,12 @@ package org.obiba.onyx.jade.instrument.ndd;
 
 import java.util.Map;
 
-import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpressionException;
 
 import org.obiba.onyx.jade.instrument.ndd.FVCDataExtractor.FVCData;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
 /**
@@ -28,9 +28,20 @@ public class FVCDataExtractor extends TestDataExtractor<FVCData> {
 
   private final boolean acceptAllTrials;
 
+  private final boolean keepCurveText;
+
   public FVCDataExtractor(boolean acceptAllTrials) {
+    this(acceptAllTrials, false);
+  }
+
+  /**
+   * @param acceptAllTrials
+   * @param keepCurveText keep the SamplingValues text of the curves as exported, along with the parsed curves
+   */
+  public FVCDataExtractor(boolean acceptAllTrials, boolean keepCurveText) {
     super();
     this.acceptAllTrials = acceptAllTrials;
+    this.keepCurveText = keepCurveText;
   }
 
   @Override
@@ -39,26 +50,29 @@ public class FVCDataExtractor extends TestDataExtractor<FVCData> {
   }
 
   @Override
-  protected FVCData extractDataImpl() throws XPathExpressionException {
+  protected FVCData extractDataImpl(Node test) throws XPathExpressionException {
     FVCData data = new FVCData();
-    data.setBestResults(extractResultParametersData((NodeList) xpath.evaluate(getTestRoot() + "/BestValues/ResultParameter", doc, XPathConstants.NODESET)));
+    data.setBestResults(extractResultParametersData(xpath.evaluateNodes("BestValues/ResultParameter", test)));
 
-    NodeList trials = getTrialNodes();
+    NodeList trials = getTrialNodes(test);
 
     log.info("Found {} trials", trials.getLength());
 
     for(int i = 0; i < trials.getLength(); i++) {
-      if(extractTrialStringValue(i + 1, "/Accepted").equals("true") || acceptAllTrials) {
+      Node trial = trials.item(i);
+      if(extractTrialStringValue(trial, "Accepted").equals("true") || acceptAllTrials) {
         log.info("Processing trial {}", i + 1);
         FVCTrialData tData = new FVCTrialData();
         data.getTrials().add(tData);
-        tData.setResults(extractResultParametersData(getTrialResultParameterNodes(i + 1)));
-        tData.setDate(extractTrialStringValue(i + 1, "/Date"));
-        tData.setRank(extractTrialLongValue(i + 1, "/Rank"));
-        tData.flowInterval = parseDouble(extractTrialStringValue(i + 1, "/ChannelFlow/SamplingInterval"));
-        tData.flowValues = extractTrialBinaryValue(i + 1, "/ChannelFlow/SamplingValues");
-        tData.volumeInterval = parseDouble(extractTrialStringValue(i + 1, "/ChannelVolume/SamplingInterval"));
-        tData.volumeValues = extractTrialBinaryValue(i + 1, "/ChannelVolume/SamplingValues");
+        tData.setResults(extractResultParametersData(getTrialResultParameterNodes(trial)));
+        tData.setDate(extractTrialStringValue(trial, "Date"));
+        tData.setRank(extractTrialLongValue(trial, "Rank"));
+        tData.flowCurve = extractTrialCurve(trial, "ChannelFlow");
+        tData.volumeCurve = extractTrialCurve(trial, "ChannelVolume");
+        if(keepCurveText) {
+          tData.flowText = extractTrialStringValue(trial, "ChannelFlow/SamplingValues");
+          tData.volumeText = extractTrialStringValue(trial, "ChannelVolume/SamplingValues");
+        }
       } else {
         log.info("Ignoring not accepted trial {}", i + 1);
       }
@@ -89,32 +103,84 @@ public class FVCDataExtractor extends TestDataExtractor<FVCData> {
 
   public class FVCTrialData extends TrialData {
 
-    private Double flowInterval;
+    private SamplingCurve flowCurve;
 
-    private byte[] flowValues;
+    private SamplingCurve volumeCurve;
 
-    private Double volumeInterval;
+    private String flowText;
 
-    private byte[] volumeValues;
+    private String volumeText;
 
     public FVCTrialData() {
       super();
     }
 
     public Double getFlowInterval() {
-      return flowInterval;
+      return flowCurve.getInterval();
     }
 
+    /**
+     * @return the flow samples packed as 32-bit floats (see {@link SamplingCurve#encode()})
+     */
     public byte[] getFlowValues() {
-      return flowValues;
+      return flowCurve.encode();
+    }
+
+    public SamplingCurve getFlowCurve() {
+      return flowCurve;
+    }
+
+    /**
+     * @return the flow samples as exported, null if the extractor does not keep the curve text
+     */
+    public String getFlowText() {
+      return flowText;
     }
 
     public Double getVolumeInterval() {
-      return volumeInterval;
+      return volumeCurve.getInterval();
     }
 
+    /**
+     * @return the volume samples packed as 32-bit floats (see {@link SamplingCurve#encode()})
+     */
     public byte[] getVolumeValues() {
-      return volumeValues;
+      return volumeCurve.encode();
+    }
+
+    public SamplingCurve getVolumeCurve() {
+      return volumeCurve;
+    }
+
+    /**
+     * @return the volume samples as exported, null if the extractor does not keep the curve text
+     */
+    public String getVolumeText() {
+      return volumeText;
+    }
+
+    /**
+     * Time to peak flow, computed from the flow curve.
+     * @return seconds from the first flow sample, null if there is no flow sample
+     */
+    public Double getPefTime() {
+      int peak = flowCurve.indexOfMax();
+      return peak == -1 ? null : flowCurve.getTime(peak);
+    }
+
+    /**
+     * Mean forced expiratory flow between 25% and 75% of the FVC, computed from the volume curve, the FVC being its
+     * highest volume.
+     * @return L/s, null if the volume curve does not rise
+     */
+    public Double getFef2575() {
+      int max = volumeCurve.indexOfMax();
+      if(max == -1 || volumeCurve.getValue(max) <= 0) return null;
+      double fvc = volumeCurve.getValue(max);
+      Double t25 = volumeCurve.timeOf(0.25 * fvc);
+      Double t75 = volumeCurve.timeOf(0.75 * fvc);
+      if(t25 == null || t75 == null || t75 <= t25) return null;
+      return 0.5 * fvc / (t75 - t25);
     }
   }
 
@@ -9,8 +9,6 @@
  ******************************************************************************/
 package org.obiba.onyx.jade.instrument.ndd;
 
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpressionException;
 
 import org.w3c.dom.Document;
@@ -20,7 +18,7 @@ import org.w3c.dom.Document;
  */
 public class ParticipantDataExtractor extends XMLDataExtractor<ParticipantData> {
 
-  public ParticipantDataExtractor(XPath xpath, Document doc) {
+  public ParticipantDataExtractor(XPathExpressionCache xpath, Document doc) {
     super();
     init(xpath, doc);
   }
@@ -31,16 +29,16 @@ public class ParticipantDataExtractor extends XMLDataExtractor<ParticipantData>
   public ParticipantData extractData() throws XPathExpressionException {
     ParticipantData pData = new ParticipantData();
     pData.setIdentifier(extractAttributeValue("//Patient", "ID"));
-    pData.setLastName(xpath.evaluate("//Patient/LastName/text()", doc, XPathConstants.STRING).toString());
-    pData.setFirstName(xpath.evaluate("//Patient/FirstName/text()", doc, XPathConstants.STRING).toString());
+    pData.setLastName(extractStringValue("//Patient/LastName/text()"));
+    pData.setFirstName(extractStringValue("//Patient/FirstName/text()"));
     pData.setHeight(extractDoubleValue("//PatientDataAtTestTime/Height/text()"));
     pData.setWeight(extractDoubleValue("//PatientDataAtTestTime/Weight/text()"));
-    pData.setEthnicity(xpath.evaluate("//PatientDataAtTestTime/Ethnicity/text()", doc, XPathConstants.STRING).toString());
-    pData.setSmoker(xpath.evaluate("//PatientDataAtTestTime/Smoker/text()", doc, XPathConstants.STRING).toString());
-    pData.setAsthma(xpath.evaluate("//PatientDataAtTestTime/Asthma/text()", doc, XPathConstants.STRING).toString());
-    pData.setCopd(xpath.evaluate("//PatientDataAtTestTime/COPD/text()", doc, XPathConstants.STRING).toString());
-    pData.setGender(xpath.evaluate("//PatientDataAtTestTime/Gender/text()", doc, XPathConstants.STRING).toString());
-    pData.setDateOfBirth(xpath.evaluate("//PatientDataAtTestTime/DateOfBirth/text()", doc, XPathConstants.STRING).toString());
+    pData.setEthnicity(extractStringValue("//PatientDataAtTestTime/Ethnicity/text()"));
+    pData.setSmoker(extractStringValue("//PatientDataAtTestTime/Smoker/text()"));
+    pData.setAsthma(extractStringValue("//PatientDataAtTestTime/Asthma/text()"));
+    pData.setCopd(extractStringValue("//PatientDataAtTestTime/COPD/text()"));
+    pData.setGender(extractStringValue("//PatientDataAtTestTime/Gender/text()"));
+    pData.setDateOfBirth(extractStringValue("//PatientDataAtTestTime/DateOfBirth/text()"));
 
     return pData;
   }
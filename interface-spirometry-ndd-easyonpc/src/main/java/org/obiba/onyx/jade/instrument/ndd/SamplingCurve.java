@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * Copyright (c) 2011 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.obiba.onyx.jade.instrument.ndd;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A curve of a trial (flow or volume), sampled at a fixed interval. The ndd software writes the samples as single
+ * precision values, so they are kept as floats: the packed encoding (4 bytes per sample, little-endian) is lossless and
+ * several times smaller than the text of the export file.
+ */
+public class SamplingCurve {
+
+  private final Double interval;
+
+  private final float[] values;
+
+  /**
+   * @param interval sampling interval in seconds, null if unknown
+   * @param values
+   */
+  public SamplingCurve(Double interval, float[] values) {
+    this.interval = interval;
+    this.values = values;
+  }
+
+  /**
+   * Parse the white space separated samples of a SamplingValues element.
+   * @param interval sampling interval in seconds, null if unknown
+   * @param text
+   * @return
+   * @throws NumberFormatException if a sample is not a number
+   */
+  public static SamplingCurve parse(Double interval, String text) {
+    float[] values = new float[count(text)];
+    int n = 0;
+    int length = text.length();
+    int i = 0;
+    while(i < length) {
+      while(i < length && Character.isWhitespace(text.charAt(i))) {
+        i++;
+      }
+      int start = i;
+      while(i < length && !Character.isWhitespace(text.charAt(i))) {
+        i++;
+      }
+      if(i > start) {
+        values[n++] = Float.parseFloat(text.substring(start, i));
+      }
+    }
+    return new SamplingCurve(interval, values);
+  }
+
+  /**
+   * Read samples that were packed by {@link #encode()}.
+   * @param interval sampling interval in seconds, null if unknown
+   * @param bytes
+   * @return
+   */
+  public static SamplingCurve decode(Double interval, byte[] bytes) {
+    if(bytes.length % 4 != 0) {
+      throw new IllegalArgumentException("Not a packed curve: " + bytes.length + " bytes");
+    }
+    float[] values = new float[bytes.length / 4];
+    ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(values);
+    return new SamplingCurve(interval, values);
+  }
+
+  private static int count(String text) {
+    int count = 0;
+    boolean inToken = false;
+    for(int i = 0; i < text.length(); i++) {
+      boolean whitespace = Character.isWhitespace(text.charAt(i));
+      if(!whitespace && !inToken) count++;
+      inToken = !whitespace;
+    }
+    return count;
+  }
+
+  /**
+   * @return sampling interval in seconds, null if unknown
+   */
+  public Double getInterval() {
+    return interval;
+  }
+
+  public int size() {
+    return values.length;
+  }
+
+  public float getValue(int i) {
+    return values[i];
+  }
+
+  /**
+   * @param i
+   * @return time of the sample in seconds, from the first sample, null if the sampling interval is unknown
+   */
+  public Double getTime(int i) {
+    return interval == null ? null : i * interval;
+  }
+
+  public float[] toArray() {
+    return values.clone();
+  }
+
+  /**
+   * @return the samples as 32-bit floats, little-endian
+   */
+  public byte[] encode() {
+    ByteBuffer buffer = ByteBuffer.allocate(values.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+    buffer.asFloatBuffer().put(values);
+    return buffer.array();
+  }
+
+  /**
+   * @return index of the highest sample, -1 if the curve is empty
+   */
+  public int indexOfMax() {
+    int max = -1;
+    for(int i = 0; i < values.length; i++) {
+      if(max == -1 || values[i] > values[max]) max = i;
+    }
+    return max;
+  }
+
+  /**
+   * Get the time at which the curve first reaches a value, interpolated between the samples around it.
+   * @param value
+   * @return time in seconds, null if the curve never reaches the value or if the sampling interval is unknown
+   */
+  public Double timeOf(double value) {
+    if(interval == null) return null;
+    for(int i = 0; i < values.length; i++) {
+      if(values[i] >= value) {
+        if(i == 0) return 0d;
+        double fraction = (value - values[i - 1]) / (values[i] - values[i - 1]);
+        return (i - 1 + fraction) * interval;
+      }
+    }
+    return null;
+  }
+
+}
@@ -12,7 +12,6 @@ package org.obiba.onyx.jade.instrument.ndd;
 import java.util.HashMap;
 import java.util.Map;
 
-import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpressionException;
 
 import org.slf4j.Logger;
@@ -32,21 +31,21 @@ public abstract class TestDataExtractor<T extends TestData<?>> extends XMLDataEx
   }
 
   public T extractData() throws XPathExpressionException {
-    checkTestName();
-    T tData = extractDataImpl();
+    T tData = extractDataImpl(getTestNode());
     tData.setType(getName());
-    tData.setDate(xpath.evaluate("//Test/TestDate/text()", doc, XPathConstants.STRING).toString());
-    tData.setQualitygrade(xpath.evaluate("//Test/QualityGrade/text()", doc, XPathConstants.STRING).toString());
+    tData.setDate(extractStringValue("//Test/TestDate/text()"));
+    tData.setQualitygrade(extractStringValue("//Test/QualityGrade/text()"));
 
     return tData;
   }
 
-  private void checkTestName() {
+  private Node getTestNode() {
     try {
-      Node node = (Node) xpath.evaluate(getTestRoot(), doc, XPathConstants.NODE);
+      Node node = xpath.evaluateNode(getTestRoot(), doc);
       if(node == null) {
         throw new IllegalArgumentException("Unable to find one test of type: " + getName());
       }
+      return node;
     } catch(XPathExpressionException e) {
       throw new IllegalArgumentException("Unable to identify the type of test", e);
     }
@@ -54,35 +53,44 @@ public abstract class TestDataExtractor<T extends TestData<?>> extends XMLDataEx
 
   protected abstract String getName();
 
-  protected abstract T extractDataImpl() throws XPathExpressionException;
+  /**
+   * Extract the test data, the paths being evaluated relatively to the test node and then to each trial node.
+   * @param test
+   * @return
+   * @throws XPathExpressionException
+   */
+  protected abstract T extractDataImpl(Node test) throws XPathExpressionException;
 
   protected String getTestRoot() {
     return "//Test[@TypeOfTest='" + getName() + "']";
   }
 
-  protected NodeList getTrialNodes() throws XPathExpressionException {
-    return (NodeList) xpath.evaluate(getTestRoot() + "/Trials/Trial", doc, XPathConstants.NODESET);
+  protected NodeList getTrialNodes(Node test) throws XPathExpressionException {
+    return xpath.evaluateNodes("Trials/Trial", test);
   }
 
-  protected NodeList getTrialResultParameterNodes(int index) throws XPathExpressionException {
-    return (NodeList) xpath.evaluate(getTrialPath(index) + "/ResultParameters/ResultParameter", doc, XPathConstants.NODESET);
+  protected NodeList getTrialResultParameterNodes(Node trial) throws XPathExpressionException {
+    return xpath.evaluateNodes("ResultParameters/ResultParameter", trial);
   }
 
-  protected String getTrialPath(int index) {
-    return getTestRoot() + "/Trials/Trial[" + index + "]";
+  /**
+   * Extract a sampled curve from the SamplingInterval and SamplingValues of a channel of the trial.
+   * @param trial
+   * @param channelPath path to the channel, relatively to the trial
+   * @return
+   * @throws XPathExpressionException
+   */
+  protected SamplingCurve extractTrialCurve(Node trial, String channelPath) throws XPathExpressionException {
+    Double interval = parseDouble(extractStringValue(trial, channelPath + "/SamplingInterval"));
+    return SamplingCurve.parse(interval, extractStringValue(trial, channelPath + "/SamplingValues"));
   }
 
-  protected byte[] extractTrialBinaryValue(int index, String path) throws XPathExpressionException {
-    String value = extractStringValue(getTrialPath(index) + path);
-    return value.getBytes();
+  protected String extractTrialStringValue(Node trial, String path) throws XPathExpressionException {
+    return extractStringValue(trial, path);
   }
 
-  protected String extractTrialStringValue(int index, String path) throws XPathExpressionException {
-    return extractStringValue(getTrialPath(index) + path);
-  }
-
-  protected Long extractTrialLongValue(int index, String path) throws XPathExpressionException {
-    return extractLongValue(getTrialPath(index) + path);
+  protected Long extractTrialLongValue(Node trial, String path) throws XPathExpressionException {
+    return extractLongValue(trial, path);
   }
 
   protected Map<String, Number> extractResultParametersData(NodeList resultParams) throws XPathExpressionException {
@@ -9,8 +9,6 @@
  ******************************************************************************/
 package org.obiba.onyx.jade.instrument.ndd;
 
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpressionException;
 
 import org.w3c.dom.Document;
@@ -21,7 +19,7 @@ import org.w3c.dom.Node;
  */
 public abstract class XMLDataExtractor<T> {
 
-  protected XPath xpath;
+  protected XPathExpressionCache xpath;
 
   protected Document doc;
 
@@ -29,7 +27,7 @@ public abstract class XMLDataExtractor<T> {
     super();
   }
 
-  void init(XPath xpath, Document doc) {
+  void init(XPathExpressionCache xpath, Document doc) {
     this.doc = doc;
     this.xpath = xpath;
   }
@@ -37,7 +35,7 @@ public abstract class XMLDataExtractor<T> {
   public abstract T extractData() throws XPathExpressionException;
 
   protected String extractAttributeValue(String path, String attr) throws XPathExpressionException {
-    Node node = (Node) xpath.evaluate(path, doc, XPathConstants.NODE);
+    Node node = xpath.evaluateNode(path, doc);
     if(node == null) {
       throw new IllegalStateException(String.format("node %s not found. Cannot extract %s attribute.", path, attr));
     }
@@ -54,11 +52,25 @@ public abstract class XMLDataExtractor<T> {
   }
 
   protected String extractStringValue(String path) throws XPathExpressionException {
-    return xpath.evaluate(path, doc, XPathConstants.STRING).toString();
+    return extractStringValue(doc, path);
+  }
+
+  /**
+   * @param context node the path is relative to
+   * @param path
+   * @return
+   * @throws XPathExpressionException
+   */
+  protected String extractStringValue(Node context, String path) throws XPathExpressionException {
+    return xpath.evaluateString(path, context);
   }
 
   protected Long extractLongValue(String path) throws XPathExpressionException {
-    String value = extractStringValue(path);
+    return extractLongValue(doc, path);
+  }
+
+  protected Long extractLongValue(Node context, String path) throws XPathExpressionException {
+    String value = extractStringValue(context, path);
     if(!value.equals("") && !value.equals("NaN")) {
       return Long.valueOf(value);
     }
@@ -66,7 +78,11 @@ public abstract class XMLDataExtractor<T> {
   }
 
   protected Double extractDoubleValue(String path) throws XPathExpressionException {
-    String value = extractStringValue(path);
+    return extractDoubleValue(doc, path);
+  }
+
+  protected Double extractDoubleValue(Node context, String path) throws XPathExpressionException {
+    String value = extractStringValue(context, path);
     if(!value.equals("") && !value.equals("NaN")) {
       return Double.valueOf(value);
     }
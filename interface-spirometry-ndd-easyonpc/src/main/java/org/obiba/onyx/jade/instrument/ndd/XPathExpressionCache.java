@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Copyright (c) 2011 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.obiba.onyx.jade.instrument.ndd;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * XPath expressions compiled on first use and reused for all the documents that are extracted afterwards, i.e. for
+ * every participant. XPath objects and compiled expressions are not thread safe: each thread gets its own cache.
+ */
+public class XPathExpressionCache {
+
+  private static final ThreadLocal<XPathExpressionCache> instance = new ThreadLocal<XPathExpressionCache>() {
+    @Override
+    protected XPathExpressionCache initialValue() {
+      return new XPathExpressionCache();
+    }
+  };
+
+  private final XPath xpath = XPathFactory.newInstance().newXPath();
+
+  private final Map<String, XPathExpression> expressions = new HashMap<String, XPathExpression>();
+
+  private XPathExpressionCache() {
+    super();
+  }
+
+  /**
+   * @return the cache of the current thread
+   */
+  public static XPathExpressionCache getInstance() {
+    return instance.get();
+  }
+
+  public XPathExpression compile(String expression) throws XPathExpressionException {
+    XPathExpression compiled = expressions.get(expression);
+    if(compiled == null) {
+      compiled = xpath.compile(expression);
+      expressions.put(expression, compiled);
+    }
+    return compiled;
+  }
+
+  /**
+   * @param expression
+   * @param context the document, or the node the expression is relative to
+   * @return
+   * @throws XPathExpressionException
+   */
+  public String evaluateString(String expression, Object context) throws XPathExpressionException {
+    return (String) evaluate(expression, context, XPathConstants.STRING);
+  }
+
+  public Node evaluateNode(String expression, Object context) throws XPathExpressionException {
+    return (Node) evaluate(expression, context, XPathConstants.NODE);
+  }
+
+  public NodeList evaluateNodes(String expression, Object context) throws XPathExpressionException {
+    return (NodeList) evaluate(expression, context, XPathConstants.NODESET);
+  }
+
+  /**
+   * @return the number of compiled expressions
+   */
+  public int size() {
+    return expressions.size();
+  }
+
+  private Object evaluate(String expression, Object context, QName returnType) throws XPathExpressionException {
+    return compile(expression).evaluate(context, returnType);
+  }
+
+}
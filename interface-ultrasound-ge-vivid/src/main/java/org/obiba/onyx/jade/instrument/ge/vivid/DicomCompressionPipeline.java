@@ -0,0 +1,272 @@
+package org.obiba.onyx.jade.instrument.ge.vivid;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.dcm4che2.data.DicomObject;
+import org.dcm4che2.tool.dcmrcv.DicomServer.StorageListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.FileCopyUtils;
+
+/**
+ * Compresses the received DICOM files on a bounded pool of background threads as soon as the server reports them, so
+ * that the upload at the end of the exam only collects payloads that are already prepared. Each file is gzipped from
+ * disk to a spill file, along with the CRC32 of the compressed bytes that is checked when the payload is loaded.
+ */
+public class DicomCompressionPipeline implements StorageListener {
+
+  private static final Logger log = LoggerFactory.getLogger(DicomCompressionPipeline.class);
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final File spillDir;
+
+  private final ExecutorService executor;
+
+  private final ConcurrentMap<File, CompressionTask> tasks = new ConcurrentHashMap<File, CompressionTask>();
+
+  public DicomCompressionPipeline(File spillDir, int threadCount) {
+    this(spillDir, Executors.newFixedThreadPool(Math.max(1, threadCount), new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "vivid-compressor-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        return thread;
+      }
+    }));
+  }
+
+  DicomCompressionPipeline(File spillDir, ExecutorService executor) {
+    this.spillDir = spillDir;
+    this.executor = executor;
+  }
+
+  @Override
+  public void onStored(File file, DicomObject dicomObject) {
+    submit(file);
+  }
+
+  /**
+   * Schedule the compression of a file. A file that was received again is compressed again, the previous compression
+   * being cancelled and its spill file deleted.
+   *
+   * @param file
+   */
+  public void submit(File file) {
+    CompressionTask task = new CompressionTask(file);
+    try {
+      task.future = executor.submit(task);
+    } catch(RejectedExecutionException e) {
+      // after shutdown, the file will be compressed when collected
+      log.warn("Cannot schedule compression of {}", file.getName(), e);
+      return;
+    }
+    CompressionTask replaced = tasks.put(file, task);
+    if(replaced != null) {
+      replaced.discard();
+    }
+  }
+
+  /**
+   * Get the compressed payload of a file, waiting for its compression to complete, or compressing it now if it was
+   * never scheduled or if its compression failed. The spill file is deleted once loaded.
+   *
+   * @param file
+   * @return
+   * @throws IOException
+   * @throws InterruptedException if interrupted while waiting, the compression of the file is then cancelled
+   */
+  public CompressedFile collect(File file) throws IOException, InterruptedException {
+    CompressedFile compressed = null;
+    CompressionTask task = tasks.remove(file);
+    if(task != null) {
+      try {
+        compressed = task.future.get();
+      } catch(ExecutionException e) {
+        log.warn("Background compression of {} failed, compressing again", file.getName(), e.getCause());
+      } catch(InterruptedException e) {
+        task.discard();
+        throw e;
+      }
+    }
+    if(compressed == null) {
+      compressed = compress(file);
+    }
+    return compressed;
+  }
+
+  /**
+   * Cancel the compressions not yet collected and wait for the running ones to stop, so that no spill file is still
+   * open when the spill directory is deleted.
+   *
+   * @param timeout
+   * @param unit
+   * @return true if all the compression threads have stopped
+   */
+  public boolean shutdown(long timeout, TimeUnit unit) {
+    executor.shutdownNow();
+    cancel();
+    try {
+      return executor.awaitTermination(timeout, unit);
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  /**
+   * Cancel the compressions not yet collected and delete their spill files. A file that is collected afterwards is
+   * compressed when collected.
+   */
+  public void cancel() {
+    for(CompressionTask task : tasks.values()) {
+      task.discard();
+    }
+    tasks.clear();
+  }
+
+  private CompressedFile compress(File file) throws IOException {
+    File spillFile = File.createTempFile(file.getName(), ".gz", spillDir);
+    CRC32 crc = new CRC32();
+    try {
+      InputStream in = new FileInputStream(file);
+      OutputStream out;
+      try {
+        out = new GZIPOutputStream(new CheckedOutputStream(new FileOutputStream(spillFile), crc), BUFFER_SIZE);
+      } catch(IOException e) {
+        in.close();
+        throw e;
+      }
+      // closes both streams
+      FileCopyUtils.copy(in, out);
+    } catch(IOException e) {
+      spillFile.delete();
+      throw e;
+    }
+    log.debug("{} compressed: {} -> {} bytes", file.getName(), file.length(), spillFile.length());
+    return new CompressedFile(file.length(), spillFile, crc.getValue());
+  }
+
+  /**
+   * The compression of a file, that deletes its spill file if it is discarded (the file was received again or the
+   * pipeline is shut down) before being collected.
+   */
+  private class CompressionTask implements Callable<CompressedFile> {
+
+    private final File file;
+
+    private Future<CompressedFile> future;
+
+    private boolean discarded;
+
+    private CompressedFile compressed;
+
+    private CompressionTask(File file) {
+      this.file = file;
+    }
+
+    @Override
+    public CompressedFile call() throws Exception {
+      CompressedFile result = compress(file);
+      synchronized(this) {
+        if(discarded == false) {
+          compressed = result;
+          return result;
+        }
+      }
+      result.delete();
+      return null;
+    }
+
+    private synchronized void discard() {
+      discarded = true;
+      future.cancel(false);
+      if(compressed != null) {
+        compressed.delete();
+        compressed = null;
+      }
+    }
+  }
+
+  public static class CompressedFile {
+
+    private final long length;
+
+    private final File spillFile;
+
+    private final long checksum;
+
+    private CompressedFile(long length, File spillFile, long checksum) {
+      this.length = length;
+      this.spillFile = spillFile;
+      this.checksum = checksum;
+    }
+
+    /**
+     * @return length of the uncompressed file
+     */
+    public long getLength() {
+      return length;
+    }
+
+    public long getCompressedLength() {
+      return spillFile.length();
+    }
+
+    /**
+     * Read the compressed bytes into an array of their exact size, the only in-memory copy of the payload, and
+     * delete the spill file.
+     *
+     * @return
+     * @throws IOException if the spill file cannot be read or does not match its checksum
+     */
+    public byte[] load() throws IOException {
+      long compressedLength = spillFile.length();
+      if(compressedLength > Integer.MAX_VALUE) {
+        throw new IOException("Compressed file is too large: " + spillFile.getName() + " (" + compressedLength + " bytes)");
+      }
+      byte[] payload = new byte[(int) compressedLength];
+      DataInputStream in = new DataInputStream(new FileInputStream(spillFile));
+      try {
+        in.readFully(payload);
+      } finally {
+        in.close();
+        spillFile.delete();
+      }
+      CRC32 crc = new CRC32();
+      crc.update(payload);
+      if(crc.getValue() != checksum) {
+        throw new IOException("Compressed file " + spillFile.getName() + " does not match its checksum");
+      }
+      return payload;
+    }
+
+    private void delete() {
+      spillFile.delete();
+    }
+  }
+
+}
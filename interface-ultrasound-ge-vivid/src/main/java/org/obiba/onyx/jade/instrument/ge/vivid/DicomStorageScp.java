@@ -14,8 +14,11 @@ import java.net.SocketException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
 import java.util.concurrent.CountDownLatch;
@@ -30,6 +33,8 @@ import org.dcm4che2.tool.dcmrcv.DicomServer;
 import org.dcm4che2.tool.dcmrcv.DicomServer.State;
 import org.dcm4che2.tool.dcmrcv.DicomServer.StateListener;
 import org.dcm4che2.tool.dcmrcv.DicomServer.StorageListener;
+import org.obiba.onyx.jade.instrument.dicom.DicomSettings;
+import org.obiba.onyx.jade.instrument.dicom.DicomStoragePredicate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -41,8 +46,6 @@ public class DicomStorageScp {
 
   private final DicomServer server;
 
-  private final DicomStoragePredicate dicomStoragePredicate;
-
   private JFrame frmDicomServer;
 
   private JTextField aeTitle;
@@ -85,8 +88,7 @@ public class DicomStorageScp {
   public DicomStorageScp(DicomServer server, DicomStoragePredicate dicomStoragePredicate) {
     if(server == null) throw new IllegalArgumentException();
     this.server = server;
-    this.dicomStoragePredicate = dicomStoragePredicate;
-
+    this.server.setStoragePredicate(dicomStoragePredicate);
     this.server.addStorageListener(new DicomStorageListener());
 
     this.server.addStateListener(new StateListener() {
@@ -318,55 +320,47 @@ public class DicomStorageScp {
 
   private class DicomStorageListener implements StorageListener {
 
-    List<String> storedFileNames = new ArrayList<>();
+    private final Set<String> storedFileNames = new HashSet<>();
+
+    /**
+     * Table row of each study, rows are never removed. Only accessed from the event queue.
+     */
+    private final Map<String, Integer> rowsBySIUID = new HashMap<>();
 
     @Override
     public void onStored(File file, DicomObject dicomObject) {
-      if (storedFileNames.contains(file.getName())) return;
+      if(!storedFileNames.add(file.getName())) return;
 
-      storedFileNames.add(file.getName());
+      final String siuid = dicomObject.getString(Tag.StudyInstanceUID);
+      final String patientId = dicomObject.getString(Tag.PatientID);
 
-      String siuid = dicomObject.getString(Tag.StudyInstanceUID);
-
-      if (dicomStoragePredicate == null) addRow(siuid, dicomObject);
-      else if (dicomStoragePredicate.apply(siuid, file, dicomObject)) addRow(siuid, dicomObject);
-      // else ignore that file
+      // the server has already applied the storage predicate, update the table from the event queue
+      EventQueue.invokeLater(new Runnable() {
+        public void run() {
+          addRow(siuid, patientId);
+        }
+      });
     }
 
-    private void addRow(String siuid, DicomObject dicomObject) {
+    private void addRow(String siuid, String patientId) {
       model = (DefaultTableModel) table.getModel();
       int rows = model.getRowCount();
 
-
-      int row = getRowBySIUID(siuid);
+      Integer row = rowsBySIUID.get(siuid);
       log.info("Adding Dicom object with StudyInstanceUID {} at row {}", siuid, row);
-      if(row == -1) {
+      if(row == null) {
+        rowsBySIUID.put(siuid, rows);
         model.addRow(new Object[] { "" + (rows + 1), //
-            dicomObject.getString(Tag.PatientID),//
+            patientId,//
             siuid, //
             1,//
             "" });
       } else {
         int columnIndex = columns.indexOf(NUMBER);
-        int value = (Integer) getData().get(row).get(columnIndex);
+        int value = (Integer) model.getValueAt(row, columnIndex);
         model.setValueAt(value + 1, row, columnIndex);
       }
     }
-
-    private int getRowBySIUID(String siuid) {
-      Vector<Vector<Object>> data = getData();
-      for(int i = 0; i < data.size(); i++) {
-        Vector<Object> row = data.get(i);
-        String currentSiuid = (String) row.get(columns.indexOf(STUDYINSTANCEUID));
-        if(currentSiuid.equals(siuid)) return i;
-      }
-      return -1;
-    }
   }
 
-  public interface DicomStoragePredicate {
-
-    boolean apply(String siuid, File file, DicomObject dicomObject);
-
-  }
 }
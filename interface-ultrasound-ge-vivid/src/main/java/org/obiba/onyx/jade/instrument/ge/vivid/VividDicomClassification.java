@@ -0,0 +1,120 @@
+package org.obiba.onyx.jade.instrument.ge.vivid;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.dcm4che2.data.DicomObject;
+import org.dcm4che2.data.Tag;
+import org.dcm4che2.data.UID;
+import org.dcm4che2.tool.dcmrcv.DicomServer;
+import org.dcm4che2.tool.dcmrcv.DicomServer.StoredDicomFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Received DICOM objects grouped, in a single pass, by study instance UID and by type of output (still image,
+ * cineloop or structured report). Within a study, the objects of a type are in order of arrival, which is the order in
+ * which they are numbered in the output parameter names (eg., CINELOOP_1, CINELOOP_2...).
+ */
+public class VividDicomClassification {
+
+  private static final Logger log = LoggerFactory.getLogger(VividDicomClassification.class);
+
+  /**
+   * The output types, named after the output parameter they are reported in.
+   */
+  public enum Type {
+    STILL_IMAGE, CINELOOP, SR
+  }
+
+  private final Map<String, Map<Type, List<StoredDicomFile>>> studies = new HashMap<String, Map<Type, List<StoredDicomFile>>>();
+
+  /**
+   * Classify the objects from the attributes they were indexed with. The header of an object that could not be read
+   * on arrival is read again, once, without its pixel data.
+   *
+   * @param storedFiles received objects, in order of arrival
+   */
+  public VividDicomClassification(List<StoredDicomFile> storedFiles) {
+    for(StoredDicomFile storedFile : storedFiles) {
+      String suid = storedFile.getStudyInstanceUID();
+      Type type = getType(storedFile.getSopClassUID(), storedFile.getModality());
+      if(suid == null) {
+        try {
+          DicomObject header = storedFile.getDicomObject();
+          suid = header.getString(Tag.StudyInstanceUID);
+          type = getType(header);
+        } catch(IOException e) {
+          log.error("Unexpected exception while reading DICOM file {}.", storedFile.getFile().getName(), e);
+          continue;
+        }
+      }
+      if(type == null) {
+        // don't know what this file is.
+        log.warn("Received unknown DICOM file {}. Ignoring.", storedFile.getFile().getName());
+      } else if(suid != null) {
+        Map<Type, List<StoredDicomFile>> types = studies.get(suid);
+        if(types == null) {
+          types = new EnumMap<Type, List<StoredDicomFile>>(Type.class);
+          studies.put(suid, types);
+        }
+        List<StoredDicomFile> files = types.get(type);
+        if(files == null) {
+          files = new ArrayList<StoredDicomFile>();
+          types.put(type, files);
+        }
+        files.add(storedFile);
+      }
+    }
+  }
+
+  /**
+   * @param studyInstanceUID
+   * @return the objects of the study by type
+   */
+  public Map<Type, List<StoredDicomFile>> getStudy(String studyInstanceUID) {
+    Map<Type, List<StoredDicomFile>> types = studies.get(studyInstanceUID);
+    if(types == null) return Collections.emptyMap();
+    return Collections.unmodifiableMap(types);
+  }
+
+  /**
+   * Get the output type of a DICOM object.
+   *
+   * @param dicomObject
+   * @return null if the object does not correspond to any output
+   */
+  public static Type getType(DicomObject dicomObject) {
+    return getType(DicomServer.getSopClassUID(dicomObject), dicomObject.getString(Tag.Modality));
+  }
+
+  public static Type getType(String sopClassUID, String modality) {
+    if(UID.UltrasoundImageStorage.equals(sopClassUID)) return Type.STILL_IMAGE;
+    if(UID.UltrasoundMultiframeImageStorage.equals(sopClassUID)) return Type.CINELOOP;
+    if(Type.SR.name().equals(modality)) return Type.SR;
+    return null;
+  }
+
+  /**
+   * Get the name of the output parameter of the object of the given type and index. The first object of a type is
+   * reported without suffix, unless the expected outputs are numbered from 1.
+   *
+   * @param type
+   * @param idx index of the object among the objects of its type, from 1
+   * @param output expected output parameter names
+   * @return
+   */
+  public static String getOutputName(Type type, int idx, Set<String> output) {
+    if(idx > 1 || output.contains(type.name() + "_1")) {
+      return type.name() + "_" + idx;
+    }
+    return type.name();
+  }
+
+}
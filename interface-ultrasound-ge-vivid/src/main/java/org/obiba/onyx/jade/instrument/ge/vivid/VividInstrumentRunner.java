@@ -1,43 +1,40 @@
 package org.obiba.onyx.jade.instrument.ge.vivid;
 
 import java.awt.*;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
-import java.util.zip.GZIPOutputStream;
+import java.util.concurrent.TimeUnit;
 
 import javax.swing.*;
 
 import org.dcm4che2.data.DicomObject;
 import org.dcm4che2.data.Tag;
-import org.dcm4che2.data.UID;
 import org.dcm4che2.tool.dcmrcv.DicomServer;
 import org.dcm4che2.tool.dcmrcv.DicomServer.StoredDicomFile;
 import org.obiba.onyx.jade.instrument.InstrumentRunner;
+import org.obiba.onyx.jade.instrument.dicom.DicomSettings;
+import org.obiba.onyx.jade.instrument.dicom.DicomStoragePredicate;
+import org.obiba.onyx.jade.instrument.ge.vivid.DicomCompressionPipeline.CompressedFile;
+import org.obiba.onyx.jade.instrument.ge.vivid.VividDicomClassification.Type;
 import org.obiba.onyx.jade.instrument.service.InstrumentExecutionService;
 import org.obiba.onyx.util.data.Data;
 import org.obiba.onyx.util.data.DataBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.util.FileCopyUtils;
 import org.springframework.util.FileSystemUtils;
 
 public class VividInstrumentRunner implements InstrumentRunner {
 
-  protected Logger log = LoggerFactory.getLogger(VividInstrumentRunner.class);
-
-  private static final String STILL_IMAGE_KEY = "STILL_IMAGE";
+  private static final long COMPRESSION_SHUTDOWN_TIMEOUT_SECONDS = 30;
 
-  private static final String CINELOOP_KEY = "CINELOOP";
-
-  private static final String SR_KEY = "SR";
+  protected Logger log = LoggerFactory.getLogger(VividInstrumentRunner.class);
 
   private InstrumentExecutionService instrumentExecutionService;
 
@@ -49,6 +46,10 @@ public class VividInstrumentRunner implements InstrumentRunner {
 
   private DicomStorageScp gui;
 
+  private DicomCompressionPipeline compressionPipeline;
+
+  private int compressionThreadCount = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
   public void setInstrumentExecutionService(InstrumentExecutionService instrumentExecutionService) {
     this.instrumentExecutionService = instrumentExecutionService;
   }
@@ -57,6 +58,19 @@ public class VividInstrumentRunner implements InstrumentRunner {
     this.dicomSettings = dicomSettings;
   }
 
+  /**
+   * Number of threads compressing the received files while the exam is running.
+   *
+   * @param compressionThreadCount
+   */
+  public void setCompressionThreadCount(int compressionThreadCount) {
+    this.compressionThreadCount = compressionThreadCount;
+  }
+
+  void setCompressionPipeline(DicomCompressionPipeline compressionPipeline) {
+    this.compressionPipeline = compressionPipeline;
+  }
+
   @Override
   public void initialize() {
     try {
@@ -70,6 +84,12 @@ public class VividInstrumentRunner implements InstrumentRunner {
       throw new RuntimeException(e);
     }
 
+    File spillDir = new File(dcmDir, "compressed");
+    if(spillDir.mkdir() == false) {
+      throw new RuntimeException("Cannot create directory " + spillDir.getAbsolutePath());
+    }
+    compressionPipeline = new DicomCompressionPipeline(spillDir, compressionThreadCount);
+
     server = new DicomServer(dcmDir, dicomSettings);
   }
 
@@ -78,6 +98,8 @@ public class VividInstrumentRunner implements InstrumentRunner {
     gui = new DicomStorageScp(server,
         new VividDicomStoragePredicate(instrumentExecutionService.getExpectedOutputParameterVendorNames(),
           instrumentExecutionService.getParticipantID()));
+    // the objects that apply are compressed as they are received
+    server.addStorageListener(compressionPipeline);
 
     try {
       server.start();
@@ -101,116 +123,110 @@ public class VividInstrumentRunner implements InstrumentRunner {
 
     Set<String> output = instrumentExecutionService.getExpectedOutputParameterVendorNames();
     try {
-      List<StoredDicomFile> listDicomFiles = server.listDicomFiles();
+      // all received objects, classified once
+      VividDicomClassification classification = new VividDicomClassification(server.listDicomFiles());
 
+      boolean interrupted = false;
       for(Vector<Object> row : gui.getData()) {
-        Map<String, Data> values = new HashMap<String, Data>();
         String suid = (String) row.get(DicomStorageScp.columns.indexOf(DicomStorageScp.STUDYINSTANCEUID));
-        int cineLoopIdx = 1;
-        int stillImageIdx = 1;
-        int srIdx = 1;
-        boolean added = false;
-
-        for(StoredDicomFile dcm : listDicomFiles) {
-          try {
-            DicomObject dicomObject = dcm.getDicomObject();
-            String studyInstanceUid = dicomObject.getString(Tag.StudyInstanceUID);
-            String mediaStorageSOPClassUID = dicomObject.contains(Tag.MediaStorageSOPClassUID) ? dicomObject
-                .getString(Tag.MediaStorageSOPClassUID) : null;
-            String modality = dicomObject.getString(Tag.Modality);
-            // Allow garbage collection, as the instance may be quite large
-            dicomObject = null;
-
-            if(studyInstanceUid.equals(suid)) {
-              StringBuilder key = new StringBuilder();
-
-              if(UID.UltrasoundImageStorage.equals(mediaStorageSOPClassUID)) {
-                key.append(STILL_IMAGE_KEY);
-                if(stillImageIdx > 1 || stillImageIdx == 1 && output.contains(STILL_IMAGE_KEY + "_1")) {
-                  key.append("_").append(stillImageIdx);
-                }
-                stillImageIdx++;
-              } else if(UID.UltrasoundMultiframeImageStorage.equals(mediaStorageSOPClassUID)) {
-                key.append(CINELOOP_KEY);
-                if(cineLoopIdx > 1 || cineLoopIdx == 1 && output.contains(CINELOOP_KEY + "_1")) {
-                  key.append("_").append(cineLoopIdx);
-                }
-                cineLoopIdx++;
-              } else if(SR_KEY.equals(modality)) {
-                key.append(SR_KEY);
-                if(srIdx > 1 || srIdx == 1 && output.contains(SR_KEY + "_1")) {
-                  key.append("_").append(srIdx);
-                }
-                srIdx++;
-              } else {
-                // don't know what this file is.
-                log.warn("Received unknown DICOM file. Ignoring.");
-              }
-
-              String keyStr = key.toString();
-              if(output.contains(keyStr)) {
-                // This will contain a large byte-array
-                Data dicomData = DataBuilder.buildBinary(compress(dcm.getFile()));
-                log.info(String
-                    .format("[%s] dicom file: %d bytes -- compressed file: %d bytes", keyStr, dcm.getFile().length(),
-                        ((byte[]) dicomData.getValue()).length));
-
-                values.put(keyStr, dicomData);
-                added = true;
-              }
-            }
-          } catch(IOException e) {
-            log.error("Unexpected excepion while reading DICOM file.", e);
-          }
+        if(interrupted) {
+          log.warn("Upload interrupted, study {} dropped", suid);
+          continue;
         }
-        // one or more dicom data were added, then report the SIDE it applies to as well
-        if(added && output.contains("SIDE")) {
-          String laterality = (String) row.get(DicomStorageScp.columns.indexOf(DicomStorageScp.LATERALITY));
-          log.info("SIDE is {}", laterality);
-          values.put("SIDE", DataBuilder.buildText(laterality));
+        String laterality = (String) row.get(DicomStorageScp.columns.indexOf(DicomStorageScp.LATERALITY));
+        if(sendStudy(suid, laterality, classification.getStudy(suid), output) == false) {
+          // the remaining studies are not uploaded
+          interrupted = true;
+          compressionPipeline.cancel();
         }
-        // send data to server
-        instrumentExecutionService.addOutputParameterValues(values);
       }
     } catch(Exception e) {
       log.error("Unexpected exception while processing DICOM files.", e);
     } finally {
+      // spill files still open cannot be deleted on Windows
+      if(compressionPipeline.shutdown(COMPRESSION_SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS) == false) {
+        log.warn("Compression threads still running, some files of {} may not be deleted", dcmDir.getAbsolutePath());
+      }
       FileSystemUtils.deleteRecursively(dcmDir);
     }
   }
 
-  private byte[] compress(File file) throws IOException {
-    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-    GZIPOutputStream compressed = new GZIPOutputStream(baos);
-    FileCopyUtils.copy(new FileInputStream(file), compressed);
-    return baos.toByteArray();
+  /**
+   * Send the expected outputs of a study, each payload on its own so that only one is held in memory at a time, then
+   * the side they apply to if any was sent.
+   *
+   * @param suid
+   * @param laterality
+   * @param study the objects of the study by type
+   * @param output expected output parameter names
+   * @return false if interrupted while waiting for a compression, in which case the interrupt flag is set again
+   */
+  boolean sendStudy(String suid, String laterality, Map<Type, List<StoredDicomFile>> study, Set<String> output) {
+    boolean added = false;
+    boolean completed = true;
+    try {
+      for(Map.Entry<Type, List<StoredDicomFile>> entry : study.entrySet()) {
+        int idx = 1;
+        for(StoredDicomFile dcm : entry.getValue()) {
+          String keyStr = VividDicomClassification.getOutputName(entry.getKey(), idx++, output);
+          if(output.contains(keyStr)) {
+            try {
+              CompressedFile compressed = compressionPipeline.collect(dcm.getFile());
+              log.info(String.format("[%s] dicom file: %d bytes -- compressed file: %d bytes", keyStr,
+                  compressed.getLength(), compressed.getCompressedLength()));
+              sendOutputToServer(keyStr, DataBuilder.buildBinary(compressed.load()));
+              added = true;
+            } catch(IOException e) {
+              log.error("Unexpected excepion while reading DICOM file.", e);
+            }
+          }
+        }
+      }
+    } catch(InterruptedException e) {
+      // keep the interrupt for the caller
+      Thread.currentThread().interrupt();
+      completed = false;
+      if(added) {
+        log.warn("Upload interrupted, study {} partially sent", suid);
+      } else {
+        log.warn("Upload interrupted, study {} dropped", suid);
+      }
+    }
+    // one or more dicom data were added, then report the SIDE it applies to as well
+    if(added && output.contains("SIDE")) {
+      log.info("SIDE is {}", laterality);
+      sendOutputToServer("SIDE", DataBuilder.buildText(laterality));
+    }
+    return completed;
+  }
+
+  private void sendOutputToServer(String name, Data value) {
+    Map<String, Data> values = new HashMap<String, Data>();
+    values.put(name, value);
+    instrumentExecutionService.addOutputParameterValues(values);
   }
 
-  public static class VividDicomStoragePredicate implements DicomStorageScp.DicomStoragePredicate {
+  public static class VividDicomStoragePredicate implements DicomStoragePredicate {
 
     private final static Logger log = LoggerFactory.getLogger(VividDicomStoragePredicate.class);
 
     private final Set<String> output;
 
-    private final Map<String, List<String>> stillIdsMap = new HashMap<>();
-
-    private final Map<String, List<String>> cineLoopIdsMap = new HashMap<>();
-
-    private final Map<String, List<String>> srIdsMap = new HashMap<>();
+    private final Map<Type, Map<String, List<String>>> idsMaps = new EnumMap<>(Type.class);
 
     private final String participantID;
 
     public VividDicomStoragePredicate(Set<String> output, String participantID) {
       this.output = output;
       this.participantID = participantID;
+      for(Type type : Type.values()) {
+        idsMaps.put(type, new HashMap<String, List<String>>());
+      }
     }
 
     @Override
     public boolean apply(String siuid, File file, DicomObject dicomObject) {
       log.info("StudyInstanceUID={}", siuid);
-      String mediaStorageSOPClassUID = dicomObject.contains(Tag.MediaStorageSOPClassUID) ? dicomObject
-          .getString(Tag.MediaStorageSOPClassUID) : null;
-      String modality = dicomObject.getString(Tag.Modality);
       String patientID = dicomObject.getString(Tag.PatientID).trim();
       if(null != participantID && !participantID.equals(patientID))
       {
@@ -221,16 +237,9 @@ public class VividInstrumentRunner implements InstrumentRunner {
       for (String s : output) outputs.append(s).append(" ");
       log.info("  Expected outputs: {}", outputs);
 
-      if(UID.UltrasoundImageStorage.equals(mediaStorageSOPClassUID)) {
-        return checkOutput(STILL_IMAGE_KEY, getIndex(stillIdsMap, siuid, file.getName()));
-      }
-
-      if(UID.UltrasoundMultiframeImageStorage.equals(mediaStorageSOPClassUID)) {
-        return checkOutput(CINELOOP_KEY, getIndex(cineLoopIdsMap, siuid, file.getName()));
-      }
-
-      if(SR_KEY.equals(modality)) {
-        return checkOutput(SR_KEY, getIndex(srIdsMap, siuid, file.getName()));
+      Type type = VividDicomClassification.getType(dicomObject);
+      if(type != null) {
+        return checkOutput(type.name(), getIndex(idsMaps.get(type), siuid, file.getName()));
       }
 
       log.info("  File type does not apply");
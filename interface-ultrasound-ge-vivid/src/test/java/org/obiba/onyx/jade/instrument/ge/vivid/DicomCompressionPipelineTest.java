@@ -0,0 +1,138 @@
+package org.obiba.onyx.jade.instrument.ge.vivid;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.obiba.onyx.jade.instrument.ge.vivid.DicomCompressionPipeline.CompressedFile;
+import org.springframework.util.FileCopyUtils;
+
+public class DicomCompressionPipelineTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File spillDir;
+
+  private final CountDownLatch started = new CountDownLatch(1);
+
+  private DicomCompressionPipeline pipeline;
+
+  @Before
+  public void setUp() throws IOException {
+    spillDir = folder.newFolder("spill");
+    // compressions wait for the test to start them
+    pipeline = new DicomCompressionPipeline(spillDir, new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<Runnable>()) {
+      @Override
+      protected void beforeExecute(Thread t, Runnable r) {
+        try {
+          started.await();
+        } catch(InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+  }
+
+  @After
+  public void tearDown() {
+    started.countDown();
+    pipeline.shutdown(5, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void testCollect() throws Exception {
+    File file = newFile("a.dcm", 10000);
+    pipeline.submit(file);
+    started.countDown();
+
+    CompressedFile compressed = pipeline.collect(file);
+
+    Assert.assertEquals(file.length(), compressed.getLength());
+    Assert.assertArrayEquals(Files.readAllBytes(file.toPath()), gunzip(compressed.load()));
+    Assert.assertEquals(0, spillDir.list().length);
+  }
+
+  @Test
+  public void testCollectNotSubmitted() throws Exception {
+    File file = newFile("a.dcm", 100);
+
+    Assert.assertArrayEquals(Files.readAllBytes(file.toPath()), gunzip(pipeline.collect(file).load()));
+  }
+
+  @Test
+  public void testInterruptedCollectCancelsCompression() throws Exception {
+    File file = newFile("a.dcm", 100);
+    pipeline.submit(file);
+
+    Thread.currentThread().interrupt();
+    try {
+      pipeline.collect(file);
+      Assert.fail("Expected InterruptedException");
+    } catch(InterruptedException e) {
+      // expected
+    }
+    started.countDown();
+    Assert.assertTrue(pipeline.shutdown(5, TimeUnit.SECONDS));
+
+    // the compression did not run and the file is compressed again if collected
+    Assert.assertEquals(0, spillDir.list().length);
+    Assert.assertArrayEquals(Files.readAllBytes(file.toPath()), gunzip(pipeline.collect(file).load()));
+  }
+
+  @Test
+  public void testCancel() throws Exception {
+    File a = newFile("a.dcm", 100);
+    File b = newFile("b.dcm", 200);
+    pipeline.submit(a);
+    pipeline.submit(b);
+
+    pipeline.cancel();
+    started.countDown();
+    Assert.assertTrue(pipeline.shutdown(5, TimeUnit.SECONDS));
+
+    Assert.assertEquals(0, spillDir.list().length);
+    Assert.assertEquals(b.length(), pipeline.collect(b).getLength());
+  }
+
+  @Test
+  public void testResubmitDiscardsPreviousCompression() throws Exception {
+    File file = newFile("a.dcm", 100);
+    pipeline.submit(file);
+    started.countDown();
+    pipeline.collect(file).load();
+    pipeline.submit(file);
+    pipeline.submit(file);
+    Assert.assertTrue(pipeline.shutdown(5, TimeUnit.SECONDS));
+
+    Assert.assertEquals(0, spillDir.list().length);
+  }
+
+  private File newFile(String name, int length) throws IOException {
+    byte[] content = new byte[length];
+    for(int i = 0; i < length; i++) {
+      content[i] = (byte) (i % 7);
+    }
+    File file = folder.newFile(name);
+    Files.write(file.toPath(), content);
+    return file;
+  }
+
+  private static byte[] gunzip(byte[] payload) throws IOException {
+    return FileCopyUtils.copyToByteArray(new GZIPInputStream(new ByteArrayInputStream(payload)));
+  }
+
+}
@@ -0,0 +1,119 @@
+package org.obiba.onyx.jade.instrument.ge.vivid;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.dcm4che2.data.BasicDicomObject;
+import org.dcm4che2.data.DicomObject;
+import org.dcm4che2.data.Tag;
+import org.dcm4che2.data.UID;
+import org.dcm4che2.data.VR;
+import org.dcm4che2.tool.dcmrcv.DicomServer;
+import org.dcm4che2.tool.dcmrcv.DicomServer.StoredDicomFile;
+import org.junit.Assert;
+import org.junit.Test;
+import org.obiba.onyx.jade.instrument.dicom.DicomSettings;
+import org.obiba.onyx.jade.instrument.ge.vivid.VividDicomClassification.Type;
+
+public class VividDicomClassificationTest {
+
+  private final DicomServer server = new DicomServer(new File("target"), new DicomSettings());
+
+  @Test
+  public void testGetType() {
+    Assert.assertEquals(Type.STILL_IMAGE, VividDicomClassification.getType(UID.UltrasoundImageStorage, "US"));
+    Assert.assertEquals(Type.CINELOOP, VividDicomClassification.getType(UID.UltrasoundMultiframeImageStorage, "US"));
+    Assert.assertEquals(Type.SR, VividDicomClassification.getType(null, "SR"));
+    Assert.assertNull(VividDicomClassification.getType(UID.SecondaryCaptureImageStorage, "OT"));
+    Assert.assertNull(VividDicomClassification.getType(null, null));
+  }
+
+  @Test
+  public void testObjectsAreGroupedByStudyAndType() {
+    StoredDicomFile cineloop1 = stored("1", "study1", UID.UltrasoundMultiframeImageStorage, "US");
+    StoredDicomFile still = stored("2", "study1", UID.UltrasoundImageStorage, "US");
+    StoredDicomFile other = stored("3", "study2", UID.UltrasoundMultiframeImageStorage, "US");
+    StoredDicomFile cineloop2 = stored("4", "study1", UID.UltrasoundMultiframeImageStorage, "US");
+    StoredDicomFile sr = stored("5", "study1", null, "SR");
+    StoredDicomFile unknown = stored("6", "study1", UID.SecondaryCaptureImageStorage, "OT");
+
+    VividDicomClassification classification = new VividDicomClassification(Arrays.asList(cineloop1, still, other,
+        cineloop2, sr, unknown));
+
+    Map<Type, List<StoredDicomFile>> study1 = classification.getStudy("study1");
+    Assert.assertEquals(3, study1.size());
+    // in order of arrival
+    Assert.assertEquals(Arrays.asList(cineloop1, cineloop2), study1.get(Type.CINELOOP));
+    Assert.assertEquals(Arrays.asList(still), study1.get(Type.STILL_IMAGE));
+    Assert.assertEquals(Arrays.asList(sr), study1.get(Type.SR));
+    Assert.assertEquals(Arrays.asList(other), classification.getStudy("study2").get(Type.CINELOOP));
+    Assert.assertTrue(classification.getStudy("study3").isEmpty());
+  }
+
+  @Test
+  public void testHeaderIsReadWhenNotIndexed() {
+    final DicomObject header = new BasicDicomObject();
+    header.putString(Tag.SOPClassUID, VR.UI, UID.UltrasoundImageStorage);
+    header.putString(Tag.StudyInstanceUID, VR.UI, "study1");
+    StoredDicomFile storedFile = server.new StoredDicomFile(new File("1")) {
+      @Override
+      public DicomObject getDicomObject() throws IOException {
+        return header;
+      }
+    };
+
+    VividDicomClassification classification = new VividDicomClassification(Collections.singletonList(storedFile));
+
+    Assert.assertEquals(Arrays.asList(storedFile), classification.getStudy("study1").get(Type.STILL_IMAGE));
+  }
+
+  @Test
+  public void testUnreadableObjectIsIgnored() {
+    StoredDicomFile storedFile = server.new StoredDicomFile(new File("1")) {
+      @Override
+      public DicomObject getDicomObject() throws IOException {
+        throw new IOException("unreadable");
+      }
+    };
+
+    VividDicomClassification classification = new VividDicomClassification(Collections.singletonList(storedFile));
+
+    Assert.assertTrue(classification.getStudy(null).isEmpty());
+  }
+
+  @Test
+  public void testGetOutputName() {
+    Assert.assertEquals("CINELOOP", VividDicomClassification.getOutputName(Type.CINELOOP, 1,
+        new HashSet<String>(Arrays.asList("CINELOOP", "CINELOOP_2"))));
+    Assert.assertEquals("CINELOOP_2", VividDicomClassification.getOutputName(Type.CINELOOP, 2,
+        new HashSet<String>(Arrays.asList("CINELOOP", "CINELOOP_2"))));
+    // outputs numbered from 1
+    Assert.assertEquals("STILL_IMAGE_1", VividDicomClassification.getOutputName(Type.STILL_IMAGE, 1,
+        new HashSet<String>(Arrays.asList("STILL_IMAGE_1", "STILL_IMAGE_2"))));
+  }
+
+  private StoredDicomFile stored(String iuid, final String suid, final String cuid, final String modality) {
+    return server.new StoredDicomFile(new File(iuid)) {
+      @Override
+      public String getStudyInstanceUID() {
+        return suid;
+      }
+
+      @Override
+      public String getSopClassUID() {
+        return cuid;
+      }
+
+      @Override
+      public String getModality() {
+        return modality;
+      }
+    };
+  }
+
+}
@@ -0,0 +1,181 @@
+package org.obiba.onyx.jade.instrument.ge.vivid;
+
+import static org.easymock.EasyMock.capture;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.newCapture;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import org.dcm4che2.tool.dcmrcv.DicomServer;
+import org.dcm4che2.tool.dcmrcv.DicomServer.StoredDicomFile;
+import org.easymock.Capture;
+import org.easymock.CaptureType;
+import org.easymock.IAnswer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.obiba.onyx.jade.instrument.dicom.DicomSettings;
+import org.obiba.onyx.jade.instrument.ge.vivid.VividDicomClassification.Type;
+import org.obiba.onyx.jade.instrument.service.InstrumentExecutionService;
+import org.obiba.onyx.util.data.Data;
+import org.springframework.util.FileCopyUtils;
+
+public class VividInstrumentRunnerTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final CountDownLatch started = new CountDownLatch(1);
+
+  private DicomServer server;
+
+  private DicomCompressionPipeline pipeline;
+
+  private InstrumentExecutionService instrumentExecutionService;
+
+  private VividInstrumentRunner runner;
+
+  private Capture<Map<String, Data>> sent;
+
+  @Before
+  public void setUp() throws IOException {
+    server = new DicomServer(folder.getRoot(), new DicomSettings());
+    // submitted compressions wait for the test to start them
+    pipeline = new DicomCompressionPipeline(folder.newFolder("spill"), new ThreadPoolExecutor(1, 1, 0,
+        TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>()) {
+      @Override
+      protected void beforeExecute(Thread t, Runnable r) {
+        try {
+          started.await();
+        } catch(InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    instrumentExecutionService = createMock(InstrumentExecutionService.class);
+    runner = new VividInstrumentRunner();
+    runner.setInstrumentExecutionService(instrumentExecutionService);
+    runner.setCompressionPipeline(pipeline);
+    sent = newCapture(CaptureType.ALL);
+  }
+
+  @After
+  public void tearDown() {
+    started.countDown();
+    pipeline.shutdown(5, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void testEachPayloadIsSentOnItsOwn() throws IOException {
+    File still = newFile("1.2.3.4.1", 100);
+    File cineloop1 = newFile("1.2.3.4.2", 200);
+    File cineloop2 = newFile("1.2.3.4.3", 300);
+    Map<Type, List<StoredDicomFile>> study = new EnumMap<Type, List<StoredDicomFile>>(Type.class);
+    study.put(Type.STILL_IMAGE, stored(still));
+    study.put(Type.CINELOOP, stored(cineloop1, cineloop2));
+    instrumentExecutionService.addOutputParameterValues(capture(sent));
+    expectLastCall().times(3);
+    replay(instrumentExecutionService);
+
+    // the still image is not expected
+    Assert.assertTrue(runner.sendStudy("1.2.3", "L", study, outputs("CINELOOP", "CINELOOP_2", "SIDE")));
+
+    verify(instrumentExecutionService);
+    List<Map<String, Data>> values = sent.getValues();
+    assertPayload(cineloop1, "CINELOOP", values.get(0));
+    assertPayload(cineloop2, "CINELOOP_2", values.get(1));
+    Assert.assertEquals(1, values.get(2).size());
+    Assert.assertEquals("L", values.get(2).get("SIDE").getValue());
+  }
+
+  @Test
+  public void testNoSideWithoutPayload() {
+    Map<Type, List<StoredDicomFile>> study = new EnumMap<Type, List<StoredDicomFile>>(Type.class);
+    study.put(Type.SR, stored(new File(folder.getRoot(), "1.2.3.4.1")));
+    replay(instrumentExecutionService);
+
+    Assert.assertTrue(runner.sendStudy("1.2.3", "L", study, outputs("CINELOOP", "SIDE")));
+
+    verify(instrumentExecutionService);
+  }
+
+  @Test
+  public void testInterruptedStudyIsPartiallySent() throws IOException {
+    File cineloop1 = newFile("1.2.3.4.1", 200);
+    File cineloop2 = newFile("1.2.3.4.2", 300);
+    // the second cineloop is still being compressed when the upload is interrupted
+    pipeline.submit(cineloop2);
+    Map<Type, List<StoredDicomFile>> study = new EnumMap<Type, List<StoredDicomFile>>(Type.class);
+    study.put(Type.CINELOOP, stored(cineloop1, cineloop2));
+    instrumentExecutionService.addOutputParameterValues(capture(sent));
+    expectLastCall().andAnswer(new IAnswer<Object>() {
+      public Object answer() throws Throwable {
+        Thread.currentThread().interrupt();
+        return null;
+      }
+    });
+    instrumentExecutionService.addOutputParameterValues(capture(sent));
+    replay(instrumentExecutionService);
+
+    boolean completed = runner.sendStudy("1.2.3", "R", study, outputs("CINELOOP", "CINELOOP_2", "SIDE"));
+
+    Assert.assertTrue(Thread.interrupted());
+    Assert.assertFalse(completed);
+    verify(instrumentExecutionService);
+    // the side of the cineloop that was sent is still reported
+    List<Map<String, Data>> values = sent.getValues();
+    assertPayload(cineloop1, "CINELOOP", values.get(0));
+    Assert.assertEquals("R", values.get(1).get("SIDE").getValue());
+  }
+
+  private List<StoredDicomFile> stored(File... files) {
+    List<StoredDicomFile> storedFiles = new ArrayList<StoredDicomFile>();
+    for(File file : files) {
+      storedFiles.add(server.new StoredDicomFile(file));
+    }
+    return storedFiles;
+  }
+
+  private static Set<String> outputs(String... names) {
+    return new HashSet<String>(Arrays.asList(names));
+  }
+
+  private static void assertPayload(File file, String name, Map<String, Data> values) throws IOException {
+    Assert.assertEquals(1, values.size());
+    byte[] compressed = values.get(name).getValue();
+    Assert.assertArrayEquals(Files.readAllBytes(file.toPath()),
+        FileCopyUtils.copyToByteArray(new GZIPInputStream(new ByteArrayInputStream(compressed))));
+  }
+
+  private File newFile(String name, int length) throws IOException {
+    byte[] content = new byte[length];
+    for(int i = 0; i < length; i++) {
+      content[i] = (byte) (i % 11);
+    }
+    File file = folder.newFile(name);
+    Files.write(file.toPath(), content);
+    return file;
+  }
+
+}
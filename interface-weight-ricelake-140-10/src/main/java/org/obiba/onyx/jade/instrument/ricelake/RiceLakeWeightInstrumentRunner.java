@@ -29,13 +29,14 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.util.ArrayList;
-import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
 import java.util.ResourceBundle;
 import java.util.TooManyListenersException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.swing.BorderFactory;
 import javax.swing.Box;
@@ -46,6 +47,7 @@ import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JTextField;
+import javax.swing.SwingUtilities;
 import javax.swing.UIManager;
 
 import org.obiba.onyx.jade.instrument.ExternalAppLauncherHelper;
@@ -53,6 +55,8 @@ import org.obiba.onyx.jade.instrument.InstrumentRunner;
 import org.obiba.onyx.jade.instrument.LocalSettingsHelper;
 import org.obiba.onyx.jade.instrument.LocalSettingsHelper.CouldNotRetrieveSettingsException;
 import org.obiba.onyx.jade.instrument.LocalSettingsHelper.CouldNotSaveSettingsException;
+import org.obiba.onyx.jade.instrument.serial.DeviceSignature;
+import org.obiba.onyx.jade.instrument.serial.SerialPortDiscovery;
 import org.obiba.onyx.jade.instrument.service.InstrumentExecutionService;
 import org.obiba.onyx.util.data.Data;
 import org.obiba.onyx.util.data.DataBuilder;
@@ -64,6 +68,10 @@ public class RiceLakeWeightInstrumentRunner implements InstrumentRunner, Initial
 
   private Logger log = LoggerFactory.getLogger(RiceLakeWeightInstrumentRunner.class);
 
+  private static final long DISCOVERY_TIMEOUT_MILLIS = 3000;
+
+  private static final byte[] READ_COMMAND = new byte[] { 'p' };
+
   private ResourceBundle resourceBundle;
 
   // Injected by spring.
@@ -95,11 +103,27 @@ public class RiceLakeWeightInstrumentRunner implements InstrumentRunner, Initial
   private Properties localSettings;
 
   /**
-   * Lock used to block the main thread as long as the UI has not finished its job
+   * Latch used to block the main thread as long as the UI has not finished its job
    */
-  private final Object uiLock = new Object();
+  private final CountDownLatch exitLatch = new CountDownLatch(1);
+
+  private volatile boolean shutdown = false;
+
+  // Weight sampling
+  private int pollInterval = 200;
+
+  private long stabilityWindow = 1000;
 
-  private boolean shutdown = false;
+  private double stabilityTolerance = 0.1;
+
+  private WeightSampler sampler;
+
+  // Last reading, waiting to be displayed by the event dispatch thread, null once cleared
+  private volatile Double lastWeight;
+
+  private volatile Double lastStableWeight;
+
+  private final AtomicBoolean displayPending = new AtomicBoolean();
 
   private RiceLakeWeightComm rlComm;
 
@@ -145,7 +169,7 @@ public class RiceLakeWeightInstrumentRunner implements InstrumentRunner, Initial
               if(rlComm != null) {
                 rlComm.read();
               }
-              Thread.sleep(200);
+              Thread.sleep(pollInterval);
             }
           } catch(Exception e) {
           }
@@ -155,17 +179,14 @@ public class RiceLakeWeightInstrumentRunner implements InstrumentRunner, Initial
       log.info("Starting Rice Lake GUI");
       buildGUI();
 
-      // Obtain the lock outside the UI thread. This will block until the UI releases the lock, at which point it
-      // should
-      // be safe to exit the main thread.
-      synchronized(uiLock) {
-        try {
-          uiLock.wait();
-        } catch(InterruptedException e) {
-          throw new RuntimeException(e);
-        }
+      // Wait outside the UI thread until the UI has finished its job, at which point it should be safe to exit the main
+      // thread.
+      try {
+        exitLatch.await();
+      } catch(InterruptedException e) {
+        throw new RuntimeException(e);
       }
-      log.info("Lock obtained. Exiting software.");
+      log.info("UI exited. Exiting software.");
 
     }
   }
@@ -204,6 +225,9 @@ public class RiceLakeWeightInstrumentRunner implements InstrumentRunner, Initial
     saveButton.setToolTipText(resourceBundle.getString("ToolTip.Save_and_return"));
     saveButton.setText(resourceBundle.getString("Save"));
     saveButton.setEnabled(false);
+
+    // Enough readings to cover the stability window at the poll rate, more if the scale streams its readings
+    sampler = new WeightSampler(Math.max(64, (int) (4 * stabilityWindow / Math.max(1, pollInterval))), stabilityWindow, stabilityTolerance);
   }
 
   public Locale getLocale() {
@@ -234,6 +258,28 @@ public class RiceLakeWeightInstrumentRunner implements InstrumentRunner, Initial
     localSettings.setProperty("baudeRate", Integer.toString(baudeRate));
   }
 
+  /**
+   * @param pollInterval milliseconds between two weight requests
+   */
+  public void setPollInterval(int pollInterval) {
+    this.pollInterval = pollInterval;
+  }
+
+  /**
+   * @param stabilityWindow milliseconds during which the readings must stay within the tolerance for the weight to be
+   * stable
+   */
+  public void setStabilityWindow(long stabilityWindow) {
+    this.stabilityWindow = stabilityWindow;
+  }
+
+  /**
+   * @param stabilityTolerance maximum difference, in kg, between the readings of a stable weight
+   */
+  public void setStabilityTolerance(double stabilityTolerance) {
+    this.stabilityTolerance = stabilityTolerance;
+  }
+
   public void setSettingsHelper(LocalSettingsHelper settingsHelper) {
     this.settingsHelper = settingsHelper;
   }
@@ -442,80 +488,90 @@ public class RiceLakeWeightInstrumentRunner implements InstrumentRunner, Initial
    */
   protected void exitUI() {
     appWindow.setVisible(false);
-    synchronized(uiLock) {
-      uiLock.notify();
-    }
     shutdown = true;
+    exitLatch.countDown();
   }
 
-  @SuppressWarnings("unchecked")
   protected void refreshSerialPortList() {
-
     log.info("Refreshing serial port list...");
-    Enumeration<CommPortIdentifier> portEnum = CommPortIdentifier.getPortIdentifiers();
-    availablePortNames = new ArrayList<String>();
-
-    // Build a list of all serial ports found.
-    while(portEnum != null && portEnum.hasMoreElements()) {
-
-      CommPortIdentifier port = portEnum.nextElement();
-      if(port.getPortType() == CommPortIdentifier.PORT_SERIAL) {
-        log.info("Port name={}, Port type={}", port.getName(), port.getPortType());
-        availablePortNames.add(port.getName());
-      }
-    }
+    availablePortNames = new ArrayList<String>(SerialPortDiscovery.getInstance().listPortNames());
   }
 
   private void configure() {
     // List all serial port in a drop down list, so a new one can be
     // selected.
+    SerialPortDiscovery.getInstance().refresh();
     refreshSerialPortList();
     String selectedPort = (String) JOptionPane.showInputDialog(appWindow, resourceBundle.getString("Instruction.Choose_port"), resourceBundle.getString("Title.Settings"), JOptionPane.QUESTION_MESSAGE, null, availablePortNames.toArray(), getComPort());
 
     if(selectedPort != null) {
       setComPort(selectedPort);
-
-      try {
-        settingsHelper.saveSettings(localSettings);
-      } catch(CouldNotSaveSettingsException e) {
-        log.error("Local settings could not be persisted.", e);
-      }
-
+      saveLocalSettings();
       setupSerialPort();
     }
   }
 
+  private void saveLocalSettings() {
+    try {
+      settingsHelper.saveSettings(localSettings);
+    } catch(CouldNotSaveSettingsException e) {
+      log.error("Local settings could not be persisted.", e);
+    }
+  }
+
+  private DeviceSignature getDeviceSignature() {
+    return new DeviceSignature("RiceLake 140-10", getBaudeRate(), READ_COMMAND, "\\d+(\\.\\d+)?\\s+(lb|kg)");
+  }
+
   /**
-   * Establish the connection with the device connected to the serial port.
+   * Establish the connection with the device connected to the serial port. If the configured port does not exist or
+   * cannot be opened, the scale is looked for on the port it was last seen on, which becomes the configured one if the
+   * scale answers there. Other ports are not probed: the operator chooses them through the configuration dialog.
    */
   public void setupSerialPort() {
 
-    try {
+    // If port already open, close it.
+    if(rlComm != null) {
+      rlComm.close();
+      rlComm = null;
+    }
 
-      // If port already open, close it.
-      if(rlComm != null) {
-        rlComm.close();
-        rlComm = null;
+    if(availablePortNames.contains(getComPort()) == false || openSerialPort(getComPort()) == false) {
+      String port = SerialPortDiscovery.getInstance().discover(getDeviceSignature(), getComPort(), DISCOVERY_TIMEOUT_MILLIS);
+      if(port != null && openSerialPort(port)) {
+        setComPort(port);
+        saveLocalSettings();
       }
+    }
+  }
 
+  private boolean openSerialPort(String comPort) {
+    try {
       // Initialize serial port attributes.
-      log.info("Fetching communication port {}", getComPort());
-      CommPortIdentifier portId = CommPortIdentifier.getPortIdentifier(getComPort());
+      log.info("Fetching communication port {}", comPort);
+      CommPortIdentifier portId = CommPortIdentifier.getPortIdentifier(comPort);
 
-      log.info("Opening communication port {}", getComPort());
+      log.info("Opening communication port {}", comPort);
       SerialPort serialPort = (SerialPort) portId.open("OBiBa Onyx Rice Lake Weight Reader", 2000);
 
       // Make sure the port is "Clear To Send"
       rlComm = new RiceLakeWeightComm(serialPort, getBaudeRate());
-
+      return true;
     } catch(Exception e) {
       rlComm = null;
-      log.warn("Could not access the specified serial port.");
+      log.warn("Could not access the serial port {}.", comPort);
+      return false;
     }
   }
 
   private void clearData() {
     weightTxt.setText("");
+    // A display already queued must not show the cleared readings
+    synchronized(sampler) {
+      sampler.clear();
+      lastStableWeight = null;
+      lastWeight = null;
+    }
     if(rlComm != null) {
       rlComm.reset();
     }
@@ -525,14 +581,57 @@ public class RiceLakeWeightInstrumentRunner implements InstrumentRunner, Initial
     measureCountLabel.repaint();
   }
 
+  /**
+   * Display the last reading from the event dispatch thread. Readings that arrive while one is waiting to be displayed
+   * replace it.
+   */
+  private void publishWeight() {
+    if(displayPending.compareAndSet(false, true)) {
+      SwingUtilities.invokeLater(new Runnable() {
+        @Override
+        public void run() {
+          displayPending.set(false);
+          Double weight;
+          Double stableWeight;
+          synchronized(sampler) {
+            weight = lastWeight;
+            stableWeight = lastStableWeight;
+          }
+          if(weight != null) {
+            displayWeight(weight, stableWeight);
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * Show the weight being read, greyed until it is stable. Only a stable weight can be saved.
+   * @param weight
+   * @param stableWeight null if the weight is not stable
+   */
+  private void displayWeight(double weight, Double stableWeight) {
+    if(shutdown) return;
+    if(stableWeight != null) {
+      Double rounded = ((double) Math.round(stableWeight * 10)) / 10;
+      weightTxt.setText(rounded.toString());
+      weightTxt.setForeground(Color.BLACK);
+      saveButton.setEnabled(rounded > 0);
+    } else {
+      weightTxt.setText(Double.toString(weight));
+      weightTxt.setForeground(Color.GRAY);
+      saveButton.setEnabled(false);
+    }
+  }
+
   private class RiceLakeWeightComm implements SerialPortEventListener {
 
     private final byte[] ZERO_COMMAND = new byte[] { 'z' };
 
-    private final byte[] READ_COMMAND = new byte[] { 'p' };
-
     private final SerialPort serialPort;
 
+    private boolean seen;
+
     private final BufferedReader bufferedReader;
 
     private final OutputStream os;
@@ -589,16 +688,18 @@ public class RiceLakeWeightInstrumentRunner implements InstrumentRunner, Initial
         try {
           if(bufferedReader.ready()) {
 
-            // Parse and sets the data in the GUI.
+            // Parse and sample the weight, the GUI is updated from the event dispatch thread.
             String response = bufferedReader.readLine().trim();
             // log.info("data={}", response);
             parseResponse(response);
-
-            // Enable save button, so data can be saved.
-            saveButton.setEnabled(!weightTxt.getText().equals("0.0"));
           }
         } catch(IOException wErrorReadingDataOnSerialPort) {
-          JOptionPane.showMessageDialog(appWindow, resourceBundle.getString("Err.Result_communication"), resourceBundle.getString("Title.Communication_error"), JOptionPane.ERROR_MESSAGE);
+          SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+              JOptionPane.showMessageDialog(appWindow, resourceBundle.getString("Err.Result_communication"), resourceBundle.getString("Title.Communication_error"), JOptionPane.ERROR_MESSAGE);
+            }
+          });
         }
         break;
 
@@ -611,12 +712,26 @@ public class RiceLakeWeightInstrumentRunner implements InstrumentRunner, Initial
     }
 
     private void parseResponse(String response) {
-      String[] values = response.split(" ");
-      Double weight = Double.parseDouble(values[0]);
-      if(values[1].equals("lb")) {
+      String[] values = response.split(" +");
+      double weight;
+      try {
+        weight = Double.parseDouble(values[0]);
+      } catch(NumberFormatException e) {
+        log.debug("Ignoring response: {}", response);
+        return;
+      }
+      if(values.length > 1 && values[1].equals("lb")) {
         weight = ((double) Math.round(weight * 0.45359237 * 10)) / 10;
       }
-      weightTxt.setText(weight.toString());
+      synchronized(sampler) {
+        lastStableWeight = sampler.add(System.currentTimeMillis(), weight);
+        lastWeight = weight;
+      }
+      publishWeight();
+      if(seen == false) {
+        seen = true;
+        SerialPortDiscovery.getInstance().markSeen(serialPort.getName(), getDeviceSignature());
+      }
     }
   }
 
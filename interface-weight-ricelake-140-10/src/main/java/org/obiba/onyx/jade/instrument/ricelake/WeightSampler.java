@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * Copyright (c) 2011 OBiBa. All rights reserved.
+ *  
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *  
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.obiba.onyx.jade.instrument.ricelake;
+
+/**
+ * Time series of the last weight readings of a scale, used to tell when the weight is stable: all the readings of the
+ * stability window (the last ones, covering at least the window duration) are within the tolerance of each other. The
+ * series is bounded, the oldest readings being dropped once the capacity is reached.
+ * <p>
+ * Thread safe: readings are added from the serial port thread and the stable weight is read from the UI.
+ */
+public class WeightSampler {
+
+  private final long[] times;
+
+  private final double[] weights;
+
+  // index of the oldest reading
+  private int first;
+
+  private int count;
+
+  private final long windowMillis;
+
+  private final double tolerance;
+
+  private Double stableWeight;
+
+  /**
+   * @param capacity maximum number of readings kept, must cover the stability window at the scale's output rate
+   * @param windowMillis how long the readings must stay within the tolerance
+   * @param tolerance maximum difference between the readings of the window, in kg
+   */
+  public WeightSampler(int capacity, long windowMillis, double tolerance) {
+    if(capacity < 2) throw new IllegalArgumentException("capacity must be at least 2");
+    this.times = new long[capacity];
+    this.weights = new double[capacity];
+    this.windowMillis = windowMillis;
+    this.tolerance = tolerance;
+  }
+
+  /**
+   * Add a reading and update the stability of the weight.
+   * @param timeMillis time of the reading
+   * @param weight in kg
+   * @return the stable weight (the mean of the window readings), null if the weight is not stable
+   */
+  public synchronized Double add(long timeMillis, double weight) {
+    int last;
+    if(count == times.length) {
+      last = first;
+      first = (first + 1) % times.length;
+    } else {
+      last = (first + count) % times.length;
+      count++;
+    }
+    times[last] = timeMillis;
+    weights[last] = weight;
+    stableWeight = computeStableWeight();
+    return stableWeight;
+  }
+
+  /**
+   * @return the stable weight, null if the weight is not stable
+   */
+  public synchronized Double getStableWeight() {
+    return stableWeight;
+  }
+
+  public synchronized boolean isStable() {
+    return stableWeight != null;
+  }
+
+  /**
+   * @return number of readings in the series
+   */
+  public synchronized int size() {
+    return count;
+  }
+
+  public synchronized void clear() {
+    first = 0;
+    count = 0;
+    stableWeight = null;
+  }
+
+  private Double computeStableWeight() {
+    int newest = (first + count - 1) % times.length;
+    long windowStart = times[newest] - windowMillis;
+    double min = weights[newest];
+    double max = min;
+    double sum = 0;
+    int samples = 0;
+    for(int i = count - 1; i >= 0; i--) {
+      int idx = (first + i) % times.length;
+      min = Math.min(min, weights[idx]);
+      max = Math.max(max, weights[idx]);
+      if(max - min > tolerance) return null;
+      sum += weights[idx];
+      samples++;
+      if(times[idx] <= windowStart) {
+        // the window is covered
+        return samples > 1 ? sum / samples : null;
+      }
+    }
+    return null;
+  }
+
+}
@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright (c) 2011 OBiBa. All rights reserved.
+ *  
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *  
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.obiba.onyx.jade.instrument.ricelake;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class WeightSamplerTest {
+
+  private static final double DELTA = 0.0001;
+
+  @Test
+  public void testStableOnceWindowIsCovered() {
+    WeightSampler sampler = new WeightSampler(20, 1000, 0.1);
+    assertNull(sampler.add(0, 70.0));
+    assertNull(sampler.add(400, 70.05));
+    assertNull(sampler.add(800, 70.0));
+    assertFalse(sampler.isStable());
+
+    // the oldest reading is now at the start of the window
+    Double stableWeight = sampler.add(1000, 70.05);
+    assertEquals(70.025, stableWeight, DELTA);
+    assertTrue(sampler.isStable());
+    assertEquals(stableWeight, sampler.getStableWeight());
+  }
+
+  @Test
+  public void testSingleReadingIsNotStable() {
+    WeightSampler sampler = new WeightSampler(20, 1000, 0.1);
+    assertNull(sampler.add(0, 70.0));
+    // a reading received after a gap covers the window with the previous one
+    assertEquals(70.0, sampler.add(5000, 70.0), DELTA);
+  }
+
+  @Test
+  public void testReadingsOutOfToleranceAreNotStable() {
+    WeightSampler sampler = new WeightSampler(20, 1000, 0.1);
+    sampler.add(0, 70.0);
+    sampler.add(500, 70.2);
+    assertNull(sampler.add(1000, 70.0));
+
+    // stable again once the outlier has left the window
+    assertNull(sampler.add(1500, 70.0));
+    assertEquals(70.0, sampler.add(2000, 70.0), DELTA);
+  }
+
+  @Test
+  public void testMovingWeightIsNotStable() {
+    WeightSampler sampler = new WeightSampler(20, 1000, 0.1);
+    double weight = 60.0;
+    for(long time = 0; time <= 3000; time += 200) {
+      assertNull(sampler.add(time, weight));
+      weight += 0.05;
+    }
+  }
+
+  @Test
+  public void testOldestReadingsAreDroppedWhenFull() {
+    WeightSampler sampler = new WeightSampler(3, 1000, 0.1);
+    sampler.add(0, 50.0);
+    sampler.add(500, 70.0);
+    sampler.add(1000, 70.0);
+    assertEquals(3, sampler.size());
+
+    // the ring wraps over the first reading, the remaining ones no longer cover the window
+    assertNull(sampler.add(1200, 70.0));
+    assertEquals(3, sampler.size());
+    assertNull(sampler.add(1400, 70.0));
+
+    // the window is covered again by the readings written over the wrapped ones
+    assertEquals(70.0, sampler.add(2200, 70.0), DELTA);
+    assertEquals(70.0, sampler.add(2400, 70.0), DELTA);
+    assertEquals(3, sampler.size());
+  }
+
+  @Test
+  public void testClear() {
+    WeightSampler sampler = new WeightSampler(20, 1000, 0.1);
+    sampler.add(0, 70.0);
+    sampler.add(1000, 70.0);
+    assertTrue(sampler.isStable());
+
+    sampler.clear();
+    assertFalse(sampler.isStable());
+    assertNull(sampler.getStableWeight());
+    assertEquals(0, sampler.size());
+    assertNull(sampler.add(2000, 70.0));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCapacityTooSmall() {
+    new WeightSampler(1, 1000, 0.1);
+  }
+
+}
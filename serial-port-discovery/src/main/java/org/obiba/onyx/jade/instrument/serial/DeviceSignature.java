@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright (c) 2011 OBiBa. All rights reserved.
+ *  
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *  
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.obiba.onyx.jade.instrument.serial;
+
+import gnu.io.SerialPort;
+
+import java.util.regex.Pattern;
+
+/**
+ * How a device is recognized on a serial port: the request it answers to, at which settings, and what its answer looks
+ * like. A device that only talks when a measure is taken has no request and cannot be probed, it can only be looked up
+ * on the port it was last seen on.
+ */
+public class DeviceSignature {
+
+  private final String name;
+
+  private final int baudRate;
+
+  private final int dataBits;
+
+  private final int stopBits;
+
+  private final int parity;
+
+  private final byte[] request;
+
+  private final Pattern response;
+
+  /**
+   * A device that cannot be probed.
+   * @param name
+   */
+  public DeviceSignature(String name) {
+    this(name, 9600, null, null);
+  }
+
+  /**
+   * A device that is probed at 8 data bits, 1 stop bit and no parity.
+   * @param name
+   * @param baudRate
+   * @param request bytes sent to the port
+   * @param response regular expression found in the answer (read as ISO-8859-1 characters)
+   */
+  public DeviceSignature(String name, int baudRate, byte[] request, String response) {
+    this(name, baudRate, SerialPort.DATABITS_8, SerialPort.STOPBITS_1, SerialPort.PARITY_NONE, request, response);
+  }
+
+  public DeviceSignature(String name, int baudRate, int dataBits, int stopBits, int parity, byte[] request, String response) {
+    if(name == null) throw new IllegalArgumentException("name cannot be null");
+    this.name = name;
+    this.baudRate = baudRate;
+    this.dataBits = dataBits;
+    this.stopBits = stopBits;
+    this.parity = parity;
+    this.request = request;
+    this.response = response == null ? null : Pattern.compile(response, Pattern.DOTALL);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public int getBaudRate() {
+    return baudRate;
+  }
+
+  public int getDataBits() {
+    return dataBits;
+  }
+
+  public int getStopBits() {
+    return stopBits;
+  }
+
+  public int getParity() {
+    return parity;
+  }
+
+  byte[] getRequest() {
+    return request;
+  }
+
+  public boolean isProbeable() {
+    return request != null && response != null;
+  }
+
+  /**
+   * @param answer what was read from the port so far
+   * @return true if the answer is the device's
+   */
+  public boolean matches(CharSequence answer) {
+    return response != null && response.matcher(answer).find();
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+
+}
@@ -0,0 +1,28 @@
+/*******************************************************************************
+ * Copyright (c) 2011 OBiBa. All rights reserved.
+ *  
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *  
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.obiba.onyx.jade.instrument.serial;
+
+/**
+ * Talks to a serial port to find out whether a device is connected to it.
+ */
+public interface PortProber {
+
+  /**
+   * Open a port, send the device request and read the answer until it matches the signature or the time is out. Must
+   * give up when the calling thread is interrupted.
+   * @param portName
+   * @param signature
+   * @param timeoutMillis
+   * @return true if the device answered
+   * @throws Exception if the port cannot be opened or configured
+   */
+  public boolean probe(String portName, DeviceSignature signature, long timeoutMillis) throws Exception;
+
+}
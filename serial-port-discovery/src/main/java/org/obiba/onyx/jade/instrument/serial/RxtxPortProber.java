@@ -0,0 +1,58 @@
+/*******************************************************************************
+ * Copyright (c) 2011 OBiBa. All rights reserved.
+ *  
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *  
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.obiba.onyx.jade.instrument.serial;
+
+import gnu.io.CommPortIdentifier;
+import gnu.io.SerialPort;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Probes the serial ports through RXTX.
+ */
+public class RxtxPortProber implements PortProber {
+
+  private static final String OWNER_NAME = "OBiBa Onyx Serial Port Discovery";
+
+  private static final long POLL_MILLIS = 20;
+
+  public boolean probe(String portName, DeviceSignature signature, long timeoutMillis) throws Exception {
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    CommPortIdentifier portId = CommPortIdentifier.getPortIdentifier(portName);
+    SerialPort port = (SerialPort) portId.open(OWNER_NAME, (int) Math.min(timeoutMillis, Integer.MAX_VALUE));
+    try {
+      port.setSerialPortParams(signature.getBaudRate(), signature.getDataBits(), signature.getStopBits(), signature.getParity());
+      InputStream is = port.getInputStream();
+      OutputStream os = port.getOutputStream();
+      os.write(signature.getRequest());
+      os.flush();
+
+      StringBuilder answer = new StringBuilder();
+      byte[] buffer = new byte[256];
+      while(System.currentTimeMillis() < deadline && Thread.currentThread().isInterrupted() == false) {
+        int available = is.available();
+        if(available > 0) {
+          int bytes = is.read(buffer, 0, Math.min(available, buffer.length));
+          for(int i = 0; i < bytes; i++) {
+            answer.append((char) (buffer[i] & 0xff));
+          }
+          if(signature.matches(answer)) return true;
+        } else {
+          Thread.sleep(POLL_MILLIS);
+        }
+      }
+      return false;
+    } finally {
+      port.close();
+    }
+  }
+
+}
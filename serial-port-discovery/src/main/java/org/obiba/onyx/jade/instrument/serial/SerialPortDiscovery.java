@@ -0,0 +1,300 @@
+/*******************************************************************************
+ * Copyright (c) 2011 OBiBa. All rights reserved.
+ *  
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *  
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.obiba.onyx.jade.instrument.serial;
+
+import gnu.io.CommPortIdentifier;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serial ports of the workstation, shared by the instruments that talk through them.
+ * <p>
+ * The ports are enumerated once (until {@link #refresh()}) and listing them does not open them. The port on which each
+ * device was last seen is remembered, in a properties file of the user's home directory, so that it is the first
+ * candidate the next time the device is looked for. When a device has to be found, only the configured port and the port
+ * it was last seen on are probed: writing the device request to the other ports could disturb the devices connected to
+ * them, so probing them all is left to an explicit action of the operator (see {@link #scan}). The candidate ports are
+ * probed in parallel, each one with a bounded time to open and answer, so that a virtual port that blocks (Bluetooth
+ * for instance) does not delay the others.
+ */
+public class SerialPortDiscovery {
+
+  private static final Logger log = LoggerFactory.getLogger(SerialPortDiscovery.class);
+
+  private static final int MAX_PROBES = 8;
+
+  private static SerialPortDiscovery instance;
+
+  private final File lastSeenFile;
+
+  private final PortProber prober;
+
+  private final Properties lastSeen = new Properties();
+
+  private List<String> portNames;
+
+  private boolean lastSeenLoaded;
+
+  /**
+   * @param lastSeenFile where the port of each device is remembered, null to remember it only in memory
+   */
+  public SerialPortDiscovery(File lastSeenFile) {
+    this(lastSeenFile, new RxtxPortProber());
+  }
+
+  /**
+   * @param lastSeenFile where the port of each device is remembered, null to remember it only in memory
+   * @param prober
+   */
+  public SerialPortDiscovery(File lastSeenFile, PortProber prober) {
+    this.lastSeenFile = lastSeenFile;
+    this.prober = prober;
+  }
+
+  public static synchronized SerialPortDiscovery getInstance() {
+    if(instance == null) {
+      instance = new SerialPortDiscovery(new File(System.getProperty("user.home"), ".onyx-serial-ports.properties"));
+    }
+    return instance;
+  }
+
+  /**
+   * @return the names of the serial ports, enumerated on first call
+   */
+  public synchronized List<String> listPortNames() {
+    if(portNames == null) {
+      portNames = Collections.unmodifiableList(enumeratePortNames());
+    }
+    return portNames;
+  }
+
+  /**
+   * Enumerate the serial ports again on next listing, when a device was plugged or unplugged.
+   */
+  public synchronized void refresh() {
+    portNames = null;
+  }
+
+  /**
+   * @param signature
+   * @return the port on which the device was last seen, null if never seen
+   */
+  public synchronized String getLastSeenPort(DeviceSignature signature) {
+    loadLastSeen();
+    return lastSeen.getProperty(signature.getName());
+  }
+
+  /**
+   * Remember the port on which a device is connected.
+   * @param portName
+   * @param signature
+   */
+  public synchronized void markSeen(String portName, DeviceSignature signature) {
+    loadLastSeen();
+    if(portName == null || portName.equals(lastSeen.getProperty(signature.getName()))) return;
+    lastSeen.setProperty(signature.getName(), portName);
+    saveLastSeen();
+  }
+
+  /**
+   * Find the port a device is connected to, among the preferred port and the port on which the device was last seen,
+   * except those already opened by this application. A device that cannot be probed is assumed to be on the first of
+   * them that exists.
+   * @param signature
+   * @param preferredPort usually the configured port, may be null
+   * @param timeoutMillis time allowed for the whole discovery
+   * @return the port name, null if the device was not found
+   */
+  public String discover(DeviceSignature signature, String preferredPort, long timeoutMillis) {
+    return find(signature, listCandidates(signature, preferredPort, false), timeoutMillis);
+  }
+
+  /**
+   * Look for a device on all the serial ports, starting with the preferred port and the port on which the device was
+   * last seen. The device request is written to every port that is not already opened by this application: this is to
+   * be done on request of the operator only.
+   * @param signature
+   * @param preferredPort usually the configured port, may be null
+   * @param timeoutMillis time allowed for the whole scan
+   * @return the port name, null if the device was not found
+   */
+  public String scan(DeviceSignature signature, String preferredPort, long timeoutMillis) {
+    return find(signature, listCandidates(signature, preferredPort, true), timeoutMillis);
+  }
+
+  /**
+   * Probe the candidates in parallel. The first port the device answers on is returned, the other probes are cancelled,
+   * as are all of them when the time is out or the calling thread is interrupted.
+   */
+  private String find(final DeviceSignature signature, List<String> candidates, final long timeoutMillis) {
+    if(candidates.isEmpty()) return null;
+    if(signature.isProbeable() == false) {
+      return candidates.get(0);
+    }
+
+    log.info("Probing ports {} for {}", candidates, signature);
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(candidates.size(), MAX_PROBES), new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "serial-probe-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    try {
+      CompletionService<String> probes = new ExecutorCompletionService<String>(executor);
+      for(final String candidate : candidates) {
+        probes.submit(new Callable<String>() {
+          @Override
+          public String call() throws Exception {
+            return prober.probe(candidate, signature, timeoutMillis) ? candidate : null;
+          }
+        });
+      }
+      long deadline = System.currentTimeMillis() + timeoutMillis;
+      for(int i = 0; i < candidates.size(); i++) {
+        Future<String> probe = probes.poll(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        if(probe == null) break;
+        String port = getProbeResult(probe);
+        if(port != null) {
+          log.info("Found {} on port {}", signature, port);
+          markSeen(port, signature);
+          return port;
+        }
+      }
+      log.warn("{} not found on ports {}", signature, candidates);
+      return null;
+    } catch(InterruptedException e) {
+      log.info("Probing ports {} for {} cancelled", candidates, signature);
+      Thread.currentThread().interrupt();
+      return null;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private String getProbeResult(Future<String> probe) throws InterruptedException {
+    try {
+      return probe.get();
+    } catch(ExecutionException e) {
+      log.debug("Probe failed", e.getCause());
+      return null;
+    }
+  }
+
+  /**
+   * @param signature
+   * @param preferredPort
+   * @param allPorts true to also look on the ports the device was not seen on
+   * @return the ports to look for the device on, in the order they should be tried
+   */
+  List<String> listCandidates(DeviceSignature signature, String preferredPort, boolean allPorts) {
+    List<String> names = listPortNames();
+    Set<String> candidates = new LinkedHashSet<String>();
+    if(preferredPort != null && names.contains(preferredPort)) candidates.add(preferredPort);
+    String lastSeenPort = getLastSeenPort(signature);
+    if(lastSeenPort != null && names.contains(lastSeenPort)) candidates.add(lastSeenPort);
+    if(allPorts && signature.isProbeable()) candidates.addAll(names);
+
+    List<String> available = new ArrayList<String>(candidates.size());
+    for(String name : candidates) {
+      if(isOwned(name) == false) available.add(name);
+    }
+    return available;
+  }
+
+  /**
+   * @param portName
+   * @return true if the port is already opened by this application, or cannot be looked up
+   */
+  protected boolean isOwned(String portName) {
+    try {
+      return CommPortIdentifier.getPortIdentifier(portName).isCurrentlyOwned();
+    } catch(Exception e) {
+      return true;
+    }
+  }
+
+  /**
+   * @return the names of the serial ports of the workstation
+   */
+  @SuppressWarnings("unchecked")
+  protected List<String> enumeratePortNames() {
+    log.info("Enumerating serial ports...");
+    List<String> names = new ArrayList<String>();
+    Enumeration<CommPortIdentifier> portEnum = CommPortIdentifier.getPortIdentifiers();
+    while(portEnum != null && portEnum.hasMoreElements()) {
+      CommPortIdentifier port = portEnum.nextElement();
+      if(port.getPortType() == CommPortIdentifier.PORT_SERIAL) {
+        log.info("Port name={}", port.getName());
+        names.add(port.getName());
+      }
+    }
+    return names;
+  }
+
+  private void loadLastSeen() {
+    if(lastSeenLoaded) return;
+    lastSeenLoaded = true;
+    if(lastSeenFile == null || lastSeenFile.exists() == false) return;
+    try {
+      InputStream in = new FileInputStream(lastSeenFile);
+      try {
+        lastSeen.load(in);
+      } finally {
+        in.close();
+      }
+    } catch(IOException e) {
+      log.warn("Cannot read the serial ports devices were last seen on from {}", lastSeenFile, e);
+    }
+  }
+
+  private void saveLastSeen() {
+    if(lastSeenFile == null) return;
+    try {
+      OutputStream out = new FileOutputStream(lastSeenFile);
+      try {
+        lastSeen.store(out, "Serial ports devices were last seen on");
+      } finally {
+        out.close();
+      }
+    } catch(IOException e) {
+      log.warn("Cannot save the serial ports devices were last seen on to {}", lastSeenFile, e);
+    }
+  }
+
+}
@@ -0,0 +1,325 @@
+/*******************************************************************************
+ * Copyright (c) 2011 OBiBa. All rights reserved.
+ *  
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *  
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package org.obiba.onyx.jade.instrument.serial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SerialPortDiscoveryTest {
+
+  private static final DeviceSignature PROBEABLE = new DeviceSignature("scale", 9600, new byte[] { 'W' }, "kg");
+
+  private static final DeviceSignature NOT_PROBEABLE = new DeviceSignature("audiometer");
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testPreferredThenLastSeenThenOthers() throws IOException {
+    TestDiscovery discovery = new TestDiscovery(folder.newFile(), "COM1", "COM2", "COM3", "COM4");
+    discovery.markSeen("COM3", PROBEABLE);
+
+    assertEquals(Arrays.asList("COM2", "COM3", "COM1", "COM4"), discovery.listCandidates(PROBEABLE, "COM2", true));
+    assertEquals(Arrays.asList("COM3", "COM1", "COM2", "COM4"), discovery.listCandidates(PROBEABLE, null, true));
+
+    // only the known ports, unless all are scanned
+    assertEquals(Arrays.asList("COM2", "COM3"), discovery.listCandidates(PROBEABLE, "COM2", false));
+    assertEquals(Arrays.asList("COM3"), discovery.listCandidates(PROBEABLE, null, false));
+  }
+
+  @Test
+  public void testPreferredAndLastSeenAreListedOnce() throws IOException {
+    TestDiscovery discovery = new TestDiscovery(folder.newFile(), "COM1", "COM2");
+    discovery.markSeen("COM2", PROBEABLE);
+
+    assertEquals(Arrays.asList("COM2", "COM1"), discovery.listCandidates(PROBEABLE, "COM2", true));
+  }
+
+  @Test
+  public void testUnknownPortsAreNotCandidates() throws IOException {
+    TestDiscovery discovery = new TestDiscovery(folder.newFile(), "COM1", "COM2");
+    discovery.markSeen("COM9", PROBEABLE);
+
+    assertEquals(Arrays.asList("COM1", "COM2"), discovery.listCandidates(PROBEABLE, "COM8", true));
+  }
+
+  @Test
+  public void testOwnedPortsAreExcluded() throws IOException {
+    TestDiscovery discovery = new TestDiscovery(folder.newFile(), "COM1", "COM2", "COM3");
+    discovery.markSeen("COM3", PROBEABLE);
+    discovery.owned.add("COM2");
+    discovery.owned.add("COM3");
+
+    assertEquals(Arrays.asList("COM1"), discovery.listCandidates(PROBEABLE, "COM2", true));
+  }
+
+  @Test
+  public void testDeviceThatCannotBeProbed() throws IOException {
+    TestDiscovery discovery = new TestDiscovery(folder.newFile(), "COM1", "COM2", "COM3");
+    assertEquals(Collections.<String> emptyList(), discovery.listCandidates(NOT_PROBEABLE, null, true));
+    assertNull(discovery.discover(NOT_PROBEABLE, null, 1000));
+
+    // only the known ports are candidates, the first one is assumed
+    discovery.markSeen("COM3", NOT_PROBEABLE);
+    assertEquals(Arrays.asList("COM2", "COM3"), discovery.listCandidates(NOT_PROBEABLE, "COM2", true));
+    assertEquals("COM2", discovery.discover(NOT_PROBEABLE, "COM2", 1000));
+  }
+
+  @Test
+  public void testLastSeenIsSaved() throws IOException {
+    File file = new File(folder.getRoot(), "ports.properties");
+    TestDiscovery discovery = new TestDiscovery(file, "COM1", "COM2");
+    assertNull(discovery.getLastSeenPort(PROBEABLE));
+    assertFalse(file.exists());
+
+    discovery.markSeen("COM2", PROBEABLE);
+    discovery.markSeen("COM1", NOT_PROBEABLE);
+    assertEquals("COM2", discovery.getLastSeenPort(PROBEABLE));
+    assertTrue(file.exists());
+
+    Properties saved = load(file);
+    assertEquals("COM2", saved.getProperty("scale"));
+    assertEquals("COM1", saved.getProperty("audiometer"));
+  }
+
+  @Test
+  public void testLastSeenIsLoaded() throws IOException {
+    File file = new File(folder.getRoot(), "ports.properties");
+    new TestDiscovery(file).markSeen("COM2", PROBEABLE);
+
+    TestDiscovery discovery = new TestDiscovery(file, "COM1", "COM2");
+    assertEquals("COM2", discovery.getLastSeenPort(PROBEABLE));
+    assertNull(discovery.getLastSeenPort(NOT_PROBEABLE));
+    assertEquals(Arrays.asList("COM2", "COM1"), discovery.listCandidates(PROBEABLE, null, true));
+
+    // a device seen on another port
+    discovery.markSeen("COM1", PROBEABLE);
+    assertEquals("COM1", new TestDiscovery(file).getLastSeenPort(PROBEABLE));
+  }
+
+  @Test
+  public void testLastSeenInMemoryOnly() {
+    TestDiscovery discovery = new TestDiscovery(null, "COM1", "COM2");
+    discovery.markSeen("COM2", PROBEABLE);
+    assertEquals("COM2", discovery.getLastSeenPort(PROBEABLE));
+    assertEquals(Arrays.asList("COM2", "COM1"), discovery.listCandidates(PROBEABLE, null, true));
+  }
+
+  @Test
+  public void testUnreadableLastSeenFile() throws IOException {
+    // a directory cannot be read as properties
+    TestDiscovery discovery = new TestDiscovery(folder.newFolder(), "COM1", "COM2");
+    assertNull(discovery.getLastSeenPort(PROBEABLE));
+    assertEquals(Arrays.asList("COM1", "COM2"), discovery.listCandidates(PROBEABLE, null, true));
+  }
+
+  @Test
+  public void testDiscoverProbesKnownPortsOnly() {
+    TestDiscovery discovery = new TestDiscovery(null, "COM1", "COM2", "COM3", "COM4");
+    discovery.markSeen("COM3", PROBEABLE);
+    discovery.prober.answer("COM4", 0);
+
+    assertNull(discovery.discover(PROBEABLE, "COM2", 1000));
+    assertEquals(new HashSet<String>(Arrays.asList("COM2", "COM3")), new HashSet<String>(discovery.prober.probed));
+    assertEquals("COM3", discovery.getLastSeenPort(PROBEABLE));
+
+    // an explicit scan probes the other ports
+    assertEquals("COM4", discovery.scan(PROBEABLE, "COM2", 1000));
+    assertEquals("COM4", discovery.getLastSeenPort(PROBEABLE));
+  }
+
+  @Test
+  public void testFirstAnswerWins() {
+    TestDiscovery discovery = new TestDiscovery(null, "COM1", "COM2", "COM3");
+    discovery.prober.answer("COM1", 500);
+    discovery.prober.answer("COM2", 0);
+    discovery.prober.fail("COM3");
+
+    long start = System.currentTimeMillis();
+    assertEquals("COM2", discovery.scan(PROBEABLE, null, 5000));
+    assertTrue(System.currentTimeMillis() - start < 500);
+    // the slower probe is cancelled
+    assertTrue(discovery.prober.awaitInterrupted(1));
+  }
+
+  @Test
+  public void testTimeout() {
+    TestDiscovery discovery = new TestDiscovery(null, "COM1", "COM2");
+    discovery.prober.answer("COM1", 10000);
+
+    long start = System.currentTimeMillis();
+    assertNull(discovery.scan(PROBEABLE, null, 200));
+    long elapsed = System.currentTimeMillis() - start;
+    assertTrue(elapsed >= 200 && elapsed < 5000);
+    assertTrue(discovery.prober.awaitInterrupted(1));
+    assertNull(discovery.getLastSeenPort(PROBEABLE));
+  }
+
+  @Test
+  public void testCancellation() throws InterruptedException {
+    final TestDiscovery discovery = new TestDiscovery(null, "COM1", "COM2");
+    discovery.prober.answer("COM1", 10000);
+    discovery.prober.answer("COM2", 10000);
+
+    final AtomicReference<String> port = new AtomicReference<String>("not returned");
+    final AtomicReference<Boolean> interrupted = new AtomicReference<Boolean>();
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        port.set(discovery.scan(PROBEABLE, null, 10000));
+        interrupted.set(Thread.currentThread().isInterrupted());
+      }
+    };
+    thread.start();
+    assertTrue(discovery.prober.awaitStarted(2));
+    thread.interrupt();
+    thread.join(5000);
+
+    assertFalse(thread.isAlive());
+    assertNull(port.get());
+    assertTrue(interrupted.get());
+    assertTrue(discovery.prober.awaitInterrupted(2));
+  }
+
+  @Test
+  public void testPortsAreEnumeratedUntilRefresh() {
+    TestDiscovery discovery = new TestDiscovery(null, "COM1");
+    assertEquals(Arrays.asList("COM1"), discovery.listPortNames());
+
+    discovery.portNames = Arrays.asList("COM1", "COM2");
+    assertEquals(Arrays.asList("COM1"), discovery.listPortNames());
+    discovery.refresh();
+    assertEquals(Arrays.asList("COM1", "COM2"), discovery.listPortNames());
+    assertEquals(2, discovery.enumerations);
+  }
+
+  private Properties load(File file) throws IOException {
+    Properties properties = new Properties();
+    InputStream in = new FileInputStream(file);
+    try {
+      properties.load(in);
+    } finally {
+      in.close();
+    }
+    return properties;
+  }
+
+  /**
+   * Discovery of fixed ports, that does not look for the ports of the workstation.
+   */
+  private static class TestDiscovery extends SerialPortDiscovery {
+
+    private List<String> portNames;
+
+    private final Set<String> owned = new HashSet<String>();
+
+    private int enumerations;
+
+    private final ScriptedProber prober;
+
+    public TestDiscovery(File lastSeenFile, String... portNames) {
+      this(lastSeenFile, new ScriptedProber(), portNames);
+    }
+
+    private TestDiscovery(File lastSeenFile, ScriptedProber prober, String... portNames) {
+      super(lastSeenFile, prober);
+      this.prober = prober;
+      this.portNames = Arrays.asList(portNames);
+    }
+
+    @Override
+    protected List<String> enumeratePortNames() {
+      enumerations++;
+      return portNames;
+    }
+
+    @Override
+    protected boolean isOwned(String portName) {
+      return owned.contains(portName);
+    }
+
+  }
+
+  /**
+   * Devices that answer after a delay on some ports, the other ports stay silent.
+   */
+  private static class ScriptedProber implements PortProber {
+
+    private final Map<String, Long> answerDelays = new HashMap<String, Long>();
+
+    private final Set<String> failing = new HashSet<String>();
+
+    private final List<String> probed = new CopyOnWriteArrayList<String>();
+
+    private final CountDownLatch started = new CountDownLatch(1);
+
+    private final CountDownLatch interruption = new CountDownLatch(1);
+
+    void answer(String portName, long delayMillis) {
+      answerDelays.put(portName, delayMillis);
+    }
+
+    void fail(String portName) {
+      failing.add(portName);
+    }
+
+    boolean awaitStarted(long seconds) throws InterruptedException {
+      return started.await(seconds, TimeUnit.SECONDS);
+    }
+
+    boolean awaitInterrupted(long seconds) {
+      try {
+        return interruption.await(seconds, TimeUnit.SECONDS);
+      } catch(InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    @Override
+    public boolean probe(String portName, DeviceSignature signature, long timeoutMillis) throws Exception {
+      probed.add(portName);
+      started.countDown();
+      if(failing.contains(portName)) throw new IOException("cannot open " + portName);
+      Long delay = answerDelays.get(portName);
+      if(delay == null) return false;
+      try {
+        Thread.sleep(delay);
+        return true;
+      } catch(InterruptedException e) {
+        interruption.countDown();
+        throw e;
+      }
+    }
+  }
+
+}